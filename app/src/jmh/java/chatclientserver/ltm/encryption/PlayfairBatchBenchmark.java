@@ -0,0 +1,84 @@
+package chatclientserver.ltm.encryption;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how PlayfairBatch scales with the number of threads when decrypting
+ * a stored history of a million messages under a hundred keys, against a loop
+ * that decrypts the messages one by one on a single thread.
+ * Run with: ./gradlew jmh
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PlayfairBatchBenchmark {
+    private static final int MESSAGES = 1_000_000;
+    private static final int KEYS = 100;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private final List<String[]> history = new ArrayList<>();
+    private ForkJoinPool pool;
+    private PlayfairBatch batch;
+
+    /**
+     * Builds the corpus of (key, ciphertext) pairs and a pool with the requested number of threads.
+     */
+    @Setup
+    public void setUp() {
+        String[] texts = {"xin chào bạn", "hẹn gặp lại vào ngày mai nhé", "Tiếng Việt có dấu", "ok",
+                "Đường về nhà hôm nay thật đẹp, chúng tôi sẽ gặp lại nhau ở Hà Nội"};
+        Random random = new Random(25);
+        for (int i = 0; i < MESSAGES; i++) {
+            String key = "KEY" + random.nextInt(KEYS);
+            String text = texts[random.nextInt(texts.length)] + " " + i;
+            history.add(new String[] {key, PlayfairCipher.forKey(key).encrypt(text)});
+        }
+
+        pool = new ForkJoinPool(threads);
+        batch = new PlayfairBatch(new PlayfairKeyCache(KEYS * 2), pool);
+    }
+
+    /**
+     * Stops the pool of this run.
+     */
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public List<String> decryptBatch() {
+        return batch.decryptAll(history, pair -> pair[0], pair -> pair[1]);
+    }
+
+    @Benchmark
+    public List<String> decryptOneByOne() {
+        List<String> results = new ArrayList<>(history.size());
+        for (String[] pair : history) {
+            results.add(PlayfairCipher.forKey(pair[0]).decrypt(pair[1]));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,85 @@
+package chatclientserver.ltm.encryption;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Compares the table-driven PlayfairCipher with the original string-based
+ * implementation ({@link ReferencePlayfairCipher}, from the test sources) on a
+ * short chat message and on a long text, with the cipher built once per key.
+ * Run with: ./gradlew jmh
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlayfairBenchmark {
+    @Param({"20", "2000"})
+    public int length;
+
+    private PlayfairCipher cipher;
+    private ReferencePlayfairCipher reference;
+    private String plaintext;
+    private String ciphertext;
+
+    /**
+     * Builds both ciphers with the default key and a Vietnamese text of the requested length.
+     */
+    @Setup
+    public void setUp() {
+        cipher = new PlayfairCipher(Constants.DEFAULT_KEY);
+        reference = new ReferencePlayfairCipher(Constants.DEFAULT_KEY);
+
+        StringBuilder text = new StringBuilder();
+        while (text.length() < length) {
+            text.append("xin chào bạn, hẹn gặp lại ");
+        }
+        plaintext = text.substring(0, length);
+        ciphertext = cipher.encrypt(plaintext);
+    }
+
+    @Benchmark
+    public String encryptTable() {
+        return cipher.encrypt(plaintext);
+    }
+
+    @Benchmark
+    public String encryptReference() {
+        return reference.encrypt(plaintext);
+    }
+
+    @Benchmark
+    public String decryptTable() {
+        return cipher.decrypt(ciphertext);
+    }
+
+    @Benchmark
+    public String decryptReference() {
+        return reference.decrypt(ciphertext);
+    }
+
+    @Benchmark
+    public PlayfairCipher createTable() {
+        return new PlayfairCipher(Constants.DEFAULT_KEY);
+    }
+
+    @Benchmark
+    public ReferencePlayfairCipher createReference() {
+        return new ReferencePlayfairCipher(Constants.DEFAULT_KEY);
+    }
+}
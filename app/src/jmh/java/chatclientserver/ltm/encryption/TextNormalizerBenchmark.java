@@ -0,0 +1,76 @@
+package chatclientserver.ltm.encryption;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Compares the table-driven TextNormalizer with the string-based normalization it
+ * replaced (stripAccents, replace, toUpperCase and a regular expression) on
+ * Vietnamese texts, and the encryption of the same texts by PlayfairCipher and
+ * by {@link ReferencePlayfairCipher}.
+ * Run with: ./gradlew jmh
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextNormalizerBenchmark {
+    @Param({"200", "20000"})
+    public int length;
+
+    private PlayfairCipher cipher;
+    private ReferencePlayfairCipher reference;
+    private String text;
+
+    /**
+     * Builds both ciphers with the default key and a Vietnamese text of the requested length.
+     */
+    @Setup
+    public void setUp() {
+        cipher = new PlayfairCipher(Constants.DEFAULT_KEY);
+        reference = new ReferencePlayfairCipher(Constants.DEFAULT_KEY);
+
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < length) {
+            builder.append("Đường về nhà hôm nay thật đẹp, chúng tôi sẽ gặp lại nhau ở Hà Nội. ");
+        }
+        text = builder.substring(0, length);
+    }
+
+    @Benchmark
+    public String normalizeTable() {
+        return TextNormalizer.normalize(text);
+    }
+
+    @Benchmark
+    public String normalizeStrings() {
+        String upper = StringUtils.stripAccents(text).replace(' ', 'Z').toUpperCase();
+        return upper.replaceAll("[^A-Z]", "").replace('J', 'I');
+    }
+
+    @Benchmark
+    public String encryptTable() {
+        return cipher.encrypt(text);
+    }
+
+    @Benchmark
+    public String encryptReference() {
+        return reference.encrypt(text);
+    }
+}
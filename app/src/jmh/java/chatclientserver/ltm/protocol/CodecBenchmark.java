@@ -0,0 +1,99 @@
+package chatclientserver.ltm.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import chatclientserver.ltm.model.FileTransfer;
+import chatclientserver.ltm.model.Message;
+import chatclientserver.ltm.model.User;
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Compares the serialized (version 1) and binary (version 2) payload codecs.
+ * The frame size of each combination is printed during setup, so one run
+ * reports both bytes on the wire and encode/decode cost.
+ * Run with: ./gradlew jmh
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({"1", "2"})
+    public int version;
+
+    @Param({"1", "2", "3", "5"})
+    public int messageType;
+
+    private PayloadCodec codec;
+    private Object payload;
+    private byte[] frame;
+
+    /**
+     * Builds the payload and encodes it once so that decode has input.
+     *
+     * @throws IOException If the payload cannot be encoded
+     */
+    @Setup
+    public void setUp() throws IOException {
+        codec = FrameCodec.codecFor(version);
+        payload = createPayload(messageType);
+
+        ByteBuffer encoded = FrameCodec.encode(codec, messageType, payload);
+        frame = Arrays.copyOfRange(encoded.array(), encoded.position(), encoded.limit());
+        System.out.println("version " + version + ", type " + messageType + ": " + frame.length + " bytes on wire");
+    }
+
+    /**
+     * Creates a representative payload for a message type.
+     *
+     * @param type The message type
+     * @return The payload
+     */
+    private static Object createPayload(int type) {
+        switch (type) {
+            case Constants.MESSAGE_TYPE_TEXT:
+                Message message = new Message(null, "BGKZTQGSUHBSGSOBGKZT", Constants.DEFAULT_KEY, null);
+                message.setUserId(12);
+                return message;
+            case Constants.MESSAGE_TYPE_FILE:
+                FileTransfer fileTransfer = new FileTransfer(null, "photo.png", 4096, Constants.FILE_TYPE_IMAGE);
+                fileTransfer.setFileData(new byte[4096]);
+                return fileTransfer;
+            case Constants.MESSAGE_TYPE_USER_INFO:
+                User user = new User("alice", "5e884898da28047151d0e56f8dc62927", "alice@example.com", "Alice Nguyen");
+                user.setId(12);
+                user.setCreatedAt(new Timestamp(System.currentTimeMillis()));
+                return user;
+            default:
+                return Constants.DEFAULT_KEY;
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer encode() throws IOException {
+        return FrameCodec.encode(codec, messageType, payload);
+    }
+
+    @Benchmark
+    public Object decode() throws IOException, ClassNotFoundException {
+        return codec.decode(messageType, frame, FrameCodec.HEADER_SIZE, frame.length - FrameCodec.HEADER_SIZE);
+    }
+}
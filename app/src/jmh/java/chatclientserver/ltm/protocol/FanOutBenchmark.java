@@ -0,0 +1,83 @@
+package chatclientserver.ltm.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import chatclientserver.ltm.model.Message;
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Compares encoding a broadcast once per recipient with encoding it once into
+ * a shared frame. Each benchmark returns the total number of bytes handed to
+ * the recipients, so both sides do the same amount of delivery work.
+ * Run with: ./gradlew jmh
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+    @Param({"10", "100", "1000"})
+    public int recipients;
+
+    @Param({"1", "2"})
+    public int version;
+
+    private PayloadCodec codec;
+    private Message message;
+
+    /**
+     * Builds the relayed chat message.
+     */
+    @Setup
+    public void setUp() {
+        codec = FrameCodec.codecFor(version);
+        message = new Message(null, "BGKZTQGSUHBSGSOBGKZT", Constants.DEFAULT_KEY, null);
+        message.setUserId(12);
+        message.setSenderName("alice");
+    }
+
+    @Benchmark
+    public long encodePerRecipient() throws IOException {
+        long bytes = 0;
+        for (int i = 0; i < recipients; i++) {
+            ByteBuffer buffer = FrameCodec.encode(codec, Constants.MESSAGE_TYPE_TEXT, message);
+            bytes += buffer.remaining();
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public long encodeOnceShared() throws IOException {
+        SharedFrame frame = new SharedFrame(Constants.MESSAGE_TYPE_TEXT, message);
+        long bytes = 0;
+        try {
+            for (int i = 0; i < recipients; i++) {
+                frame.retain();
+                try {
+                    bytes += frame.encodedFor(codec).remaining();
+                } finally {
+                    frame.release();
+                }
+            }
+        } finally {
+            frame.release();
+        }
+        return bytes;
+    }
+}
@@ -106,10 +106,10 @@ public class App {
 
             serverGUI.setVisible(true);
 
-            // Add a shutdown hook to stop the server gracefully
+            // Add a shutdown hook that lets the clients finish before the server stops
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 System.out.println("Shutting down server...");
-                ChatServer.getInstance().stop();
+                ChatServer.getInstance().drain();
             }));
         } catch (Exception e) {
             System.err.println("Error starting server: " + e.getMessage());
@@ -146,10 +146,10 @@ public class App {
             // Start the client
             startClient();
 
-            // Add a shutdown hook to stop the server gracefully
+            // Add a shutdown hook that lets the clients finish before the server stops
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 System.out.println("Shutting down server...");
-                ChatServer.getInstance().stop();
+                ChatServer.getInstance().drain();
             }));
         } catch (Exception e) {
             System.err.println("Error starting both client and server: " + e.getMessage());
@@ -1,19 +1,32 @@
 package chatclientserver.ltm.client;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import chatclientserver.ltm.database.MessageDAO;
 import chatclientserver.ltm.encryption.PlayfairCipher;
 import chatclientserver.ltm.model.FileTransfer;
 import chatclientserver.ltm.model.Message;
 import chatclientserver.ltm.model.User;
+import chatclientserver.ltm.protocol.BlockingChannel;
+import chatclientserver.ltm.protocol.ChannelFactory;
+import chatclientserver.ltm.protocol.Frame;
+import chatclientserver.ltm.protocol.MessageChannel;
 import chatclientserver.ltm.util.Constants;
 import chatclientserver.ltm.util.FileUtils;
 
@@ -22,17 +35,35 @@ import java.util.List;
 /**
  * Client class for the chat application.
  * This class handles the communication with the server.
+ * <p>
+ * Every request is sent with a request ID and returns a future that completes
+ * with the server's reply to that request, so callers can send many messages
+ * without waiting for each round trip. If the server's protocol has no request
+ * IDs, the future completes with null once the request has been written.
  */
 public class ChatClient {
     private Socket socket;
-    private ObjectOutputStream outputStream;
-    private ObjectInputStream inputStream;
-    private boolean connected;
+    private BlockingChannel channel;
+    private volatile boolean connected;
     private ExecutorService executorService;
     private MessageListener messageListener;
     private String currentKey;
+    private volatile String currentRoom;
     private User currentUser;
     private MessageDAO messageDAO;
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    private final Map<Integer, CompletableFuture<Frame>> pendingRequests = new ConcurrentHashMap<>();
+    private String host;
+    private int port;
+    private String seedHost;
+    private int seedPort;
+    private volatile String homeRoom;
+    private volatile String resumeToken;
+    private long receivedMessages;
+    private final ReentrantLock outboxLock = new ReentrantLock();
+    private final Condition reconnectCancelled = outboxLock.newCondition();
+    private final Queue<QueuedRequest> outbox = new ArrayDeque<>();
+    private boolean reconnecting;
 
     /**
      * Constructs a ChatClient.
@@ -40,6 +71,7 @@ public class ChatClient {
     public ChatClient() {
         executorService = Executors.newSingleThreadExecutor();
         currentKey = Constants.DEFAULT_KEY;
+        currentRoom = Constants.DEFAULT_ROOM;
         messageDAO = new MessageDAO();
     }
 
@@ -66,19 +98,26 @@ public class ChatClient {
         // Reset error message
         lastErrorMessage = "";
 
-        // Check if server is running first
-        if (!isServerRunning(host, port)) {
-            lastErrorMessage = "Server is not running at " + host + ":" + port;
+        // Connect once, giving up after the connect timeout if the server cannot be reached
+        this.host = host;
+        this.port = port;
+        this.seedHost = host;
+        this.seedPort = port;
+        currentUser = user;
+        try {
+            openConnection();
+        } catch (IOException e) {
+            lastErrorMessage = "Cannot connect to server at " + host + ":" + port + ": " + e.getMessage();
             System.err.println(lastErrorMessage);
             return false;
         }
 
         try {
-            socket = new Socket(host, port);
-            outputStream = new ObjectOutputStream(socket.getOutputStream());
-            inputStream = new ObjectInputStream(socket.getInputStream());
             connected = true;
-            currentUser = user;
+            resumeToken = null;
+
+            // The server puts every new session in the default room
+            currentRoom = Constants.DEFAULT_ROOM;
 
             // Check if executor service is shutdown and recreate if necessary
             if (executorService.isShutdown()) {
@@ -89,10 +128,11 @@ public class ChatClient {
             executorService.execute(this::listenForMessages);
 
             // Send user info to server if authenticated
-            if (currentUser != null) {
-                outputStream.writeInt(Constants.MESSAGE_TYPE_USER_INFO);
-                outputStream.writeObject(currentUser);
-                outputStream.flush();
+            if (currentUser != null && request(Constants.MESSAGE_TYPE_USER_INFO, currentUser).isCompletedExceptionally()) {
+                throw new IOException("Could not send user info");
+            }
+            if (currentUser != null && homeRoom != null) {
+                joinRoomAsync(homeRoom);
             }
 
             return true;
@@ -115,36 +155,6 @@ public class ChatClient {
         return connect(host, port, null);
     }
 
-    /**
-     * Checks if the server is running at the specified host and port.
-     *
-     * @param host The server host
-     * @param port The server port
-     * @return true if the server is running, false otherwise
-     */
-    private boolean isServerRunning(String host, int port) {
-        Socket testSocket = null;
-        try {
-            // Try to connect to the server
-            testSocket = new Socket();
-            testSocket.connect(new InetSocketAddress(host, port), 2000); // 2 seconds timeout
-            return true;
-        } catch (IOException e) {
-            // Server is not running or cannot be reached
-            lastErrorMessage = "Cannot connect to server: " + e.getMessage();
-            System.err.println(lastErrorMessage);
-            return false;
-        } finally {
-            if (testSocket != null && !testSocket.isClosed()) {
-                try {
-                    testSocket.close();
-                } catch (IOException e) {
-                    // Ignore
-                }
-            }
-        }
-    }
-
     /**
      * Disconnects from the server.
      */
@@ -156,24 +166,40 @@ public class ChatClient {
 
         connected = false;
 
-        try {
-            // Close streams and socket if they exist
-            if (outputStream != null) {
-                try {
-                    outputStream.close();
-                } catch (IOException e) {
-                    // Ignore, we're disconnecting anyway
-                }
-                outputStream = null;
+        // Tell the server not to keep the session for resumption
+        if (resumeToken != null && channel != null) {
+            try {
+                channel.writeFrame(Constants.MESSAGE_TYPE_LOGOUT, 0, "");
+                channel.flush();
+            } catch (IOException e) {
+                // Ignore, we're disconnecting anyway
             }
+        }
+        resumeToken = null;
+
+        closeConnection();
+
+        // No replies will arrive for the requests still waiting
+        failPendingRequests(new IOException("Disconnected from server"));
+        failQueuedRequests(new IOException("Disconnected from server"));
+
+        // Don't shutdown the executor service, just let it finish its tasks
+        // If we shutdown here, we won't be able to use it again for reconnection
+    }
 
-            if (inputStream != null) {
+    /**
+     * Closes the channel and socket of the current connection.
+     */
+    private void closeConnection() {
+        try {
+            // Close the channel and socket if they exist
+            if (channel != null) {
                 try {
-                    inputStream.close();
+                    channel.close();
                 } catch (IOException e) {
                     // Ignore, we're disconnecting anyway
                 }
-                inputStream = null;
+                channel = null;
             }
 
             if (socket != null && !socket.isClosed()) {
@@ -187,247 +213,1229 @@ public class ChatClient {
         } catch (Exception e) {
             System.err.println("Error disconnecting from server: " + e.getMessage());
         }
+    }
 
-        // Don't shutdown the executor service, just let it finish its tasks
-        // If we shutdown here, we won't be able to use it again for reconnection
+    /**
+     * Opens a connection to the cluster node that serves this client's session.
+     * The client goes back to the server it last reached, which redirects it if
+     * another node now owns its session; if that server is gone, it starts over
+     * from the address it was given in {@link #connect(String, int, User)}.
+     *
+     * @throws IOException If no server can be reached or the handshake fails
+     */
+    private void openConnection() throws IOException {
+        try {
+            openSocket();
+        } catch (IOException e) {
+            if (host.equals(seedHost) && port == seedPort) {
+                throw e;
+            }
+            host = seedHost;
+            port = seedPort;
+            openSocket();
+        }
+        followRedirects();
     }
 
     /**
-     * Sends a text message to the server.
+     * Asks the server which cluster node should serve this session and moves
+     * there, following at most a few redirects. Servers whose protocol predates
+     * redirects serve every session themselves.
      *
-     * @param text The text to send
-     * @param key The encryption key
-     * @return true if the message was sent successfully, false otherwise
+     * @throws IOException If the redirect cannot be exchanged or the new node cannot be reached
      */
-    public boolean sendMessage(String text, String key) {
-        if (!connected) {
-            return false;
+    private void followRedirects() throws IOException {
+        String key = getPlacementKey();
+        for (int i = 0; i < Constants.MAX_REDIRECTS && key != null
+                && channel.getProtocolVersion() >= Constants.PROTOCOL_VERSION_REDIRECT; i++) {
+            String address = askForRedirect(key);
+            if (address == null || address.isEmpty()) {
+                return;
+            }
+            System.out.println("Redirected to cluster node " + address);
+            closeConnection();
+            setAddress(address);
+            openSocket();
         }
+    }
 
+    /**
+     * Sends the placement key on the new connection and waits for the answer,
+     * before the listener starts. Bounded by the connect timeout.
+     *
+     * @param key The placement key
+     * @return The host:port of the node to move to, or an empty string to stay
+     * @throws IOException If the answer does not arrive in time
+     */
+    private String askForRedirect(String key) throws IOException {
+        socket.setSoTimeout(Constants.CONNECT_TIMEOUT_MILLIS);
         try {
-            // Encrypt the message
-            PlayfairCipher cipher = new PlayfairCipher(key);
-            String encryptedMessage = cipher.encrypt(text);
-
-            // Create a message object
-            Message message = new Message();
-            message.setEncryptedMessage(encryptedMessage);
-            message.setKey(key);
-
-            // Set user ID if authenticated
-            if (currentUser != null) {
-                message.setUserId(currentUser.getId());
+            channel.writeFrame(Constants.MESSAGE_TYPE_REDIRECT, 0, key);
+            channel.flush();
+            while (true) {
+                Frame frame = channel.readFrame();
+                if (frame.getType() == Constants.MESSAGE_TYPE_REDIRECT) {
+                    return (String) frame.getPayload();
+                }
+            }
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unexpected payload while waiting for redirect", e);
+        } finally {
+            if (socket != null) {
+                socket.setSoTimeout(0);
             }
+        }
+    }
 
-            // Send the message
-            outputStream.writeInt(Constants.MESSAGE_TYPE_TEXT);
-            outputStream.writeObject(message);
-            outputStream.flush();
+    /**
+     * Gets the key the cluster places this client's session by: its home room if
+     * it has one, so that the members of a room meet on one node, otherwise its user.
+     *
+     * @return The placement key, or null for an anonymous client without a home room
+     */
+    private String getPlacementKey() {
+        String room = homeRoom;
+        if (room != null) {
+            return Constants.PLACEMENT_ROOM_PREFIX + room;
+        }
+        return currentUser != null ? Constants.PLACEMENT_USER_PREFIX + currentUser.getId() : null;
+    }
 
-            return true;
-        } catch (IOException e) {
-            System.err.println("Error sending message: " + e.getMessage());
-            return false;
+    /**
+     * Points the client at another server.
+     *
+     * @param address The server's host:port
+     * @throws IOException If the address is malformed
+     */
+    private void setAddress(String address) throws IOException {
+        int colon = address.lastIndexOf(':');
+        try {
+            port = Integer.parseInt(address.substring(colon + 1));
+            host = address.substring(0, colon);
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid server address: " + address);
         }
     }
 
     /**
-     * Sends a file to the server.
+     * Opens the socket and channel to the server the client last connected to.
+     * Both the connection and the protocol handshake are bounded by the connect timeout.
      *
-     * @param file The file to send
-     * @return true if the file was sent successfully, false otherwise
+     * @throws IOException If the server cannot be reached or the handshake fails
      */
-    public boolean sendFile(File file) {
-        if (!connected || !file.exists()) {
-            return false;
+    private void openSocket() throws IOException {
+        Socket newSocket = new Socket();
+        try {
+            newSocket.connect(new InetSocketAddress(host, port), Constants.CONNECT_TIMEOUT_MILLIS);
+            newSocket.setTcpNoDelay(true);
+            newSocket.setSoTimeout(Constants.CONNECT_TIMEOUT_MILLIS);
+            BlockingChannel newChannel = ChannelFactory.openClientChannel(newSocket);
+            newSocket.setSoTimeout(0);
+            socket = newSocket;
+            channel = newChannel;
+        } catch (IOException e) {
+            newSocket.close();
+            throw e;
         }
+    }
 
+    /**
+     * Reconnects after the connection dropped. Each attempt waits a random delay that
+     * grows exponentially, so that clients dropped together by a server restart do not
+     * all come back at once. Requests made meanwhile are queued and sent once the
+     * session has been restored. Runs on the listener thread; gives up and disconnects
+     * after the maximum number of attempts.
+     */
+    private void reconnect() {
+        String token = resumeToken;
+        long received = receivedMessages;
+        outboxLock.lock();
         try {
-            // Read the file
-            byte[] fileData = FileUtils.readFileToByteArray(file);
+            reconnecting = true;
+        } finally {
+            outboxLock.unlock();
+        }
+        closeConnection();
 
-            // Create a file transfer object
-            FileTransfer fileTransfer = new FileTransfer();
-            fileTransfer.setFileName(file.getName());
-            fileTransfer.setFileSize(file.length());
-            fileTransfer.setFileType(FileUtils.getFileType(file.getName()));
-            fileTransfer.setFileData(fileData);
+        // Requests sent on the old connection will not be answered
+        failPendingRequests(new IOException("Connection to server lost"));
 
-            // Set user ID if authenticated
-            if (currentUser != null) {
-                fileTransfer.setUserId(currentUser.getId());
+        for (int attempt = 1; attempt <= Constants.MAX_RECONNECT_ATTEMPTS; attempt++) {
+            long delay = reconnectDelay(attempt);
+            if (messageListener != null) {
+                messageListener.onReconnecting(attempt, delay);
+            }
+            if (!awaitReconnectDelay(delay)) {
+                return;
             }
 
-            // Send the file
-            outputStream.writeInt(Constants.MESSAGE_TYPE_FILE);
-            outputStream.writeObject(fileTransfer);
-            outputStream.flush();
+            try {
+                openConnection();
+            } catch (IOException e) {
+                System.err.println("Reconnect attempt " + attempt + " failed: " + e.getMessage());
+                continue;
+            }
+            if (!connected) {
+                // Disconnected while the connection was being opened
+                closeConnection();
+                return;
+            }
+            resumeToken = null;
+            receivedMessages = 0;
 
-            return true;
-        } catch (IOException e) {
-            System.err.println("Error sending file: " + e.getMessage());
-            return false;
+            // The listener runs once the current one has returned and receives the replies
+            executorService.execute(this::listenForMessages);
+            restoreSession(token, received);
+            return;
+        }
+
+        lastErrorMessage = "Could not reconnect to server at " + host + ":" + port;
+        System.err.println(lastErrorMessage);
+        disconnect();
+        if (messageListener != null) {
+            messageListener.onConnectionLost(lastErrorMessage);
         }
     }
 
     /**
-     * Sends a key exchange message to the server.
+     * Computes the delay before a reconnect attempt: half of an exponentially growing
+     * ceiling, plus a random part of up to the other half.
      *
-     * @param key The key to exchange
-     * @return true if the key was sent successfully, false otherwise
+     * @param attempt The attempt number, from 1
+     * @return The delay in milliseconds
      */
-    public boolean sendKeyExchange(String key) {
-        if (!connected) {
-            return false;
-        }
+    static long reconnectDelay(int attempt) {
+        long ceiling = Math.min(Constants.RECONNECT_MAX_DELAY_MILLIS,
+                Constants.RECONNECT_BASE_DELAY_MILLIS << Math.min(Math.max(attempt - 1, 0), 20));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
 
+    /**
+     * Waits before a reconnect attempt, returning early if the client disconnects.
+     *
+     * @param delayMillis The delay in milliseconds
+     * @return true if the client should still reconnect
+     */
+    private boolean awaitReconnectDelay(long delayMillis) {
+        outboxLock.lock();
         try {
-            // Send the key
-            outputStream.writeInt(Constants.MESSAGE_TYPE_KEY_EXCHANGE);
-            outputStream.writeObject(key);
-            outputStream.flush();
-
-            // Update the current key
-            currentKey = key;
-
-            return true;
-        } catch (IOException e) {
-            System.err.println("Error sending key exchange: " + e.getMessage());
+            long remaining = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+            while (connected && remaining > 0) {
+                remaining = reconnectCancelled.awaitNanos(remaining);
+            }
+            return connected;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             return false;
+        } finally {
+            outboxLock.unlock();
         }
     }
 
     /**
-     * Listens for messages from the server.
+     * Restores the session on a new connection, then sends the queued requests.
+     * The session is resumed if the server still has it, which replays the chat and
+     * direct messages this client missed; otherwise the client logs in again and the
+     * missed messages are not replayed.
+     *
+     * @param token The resume token of the lost session, or null if it had none
+     * @param received The number of chat and direct messages received in the lost session
      */
-    private void listenForMessages() {
-        try {
-            while (connected && socket != null && !socket.isClosed() && inputStream != null) {
-                // Read the message type
-                int messageType = inputStream.readInt();
+    private void restoreSession(String token, long received) {
+        if (token == null) {
+            logInAgain();
+            return;
+        }
 
-                switch (messageType) {
-                    case Constants.MESSAGE_TYPE_PHRASE_POSITIONS:
-                        handlePhrasePositions();
-                        break;
-                    case Constants.MESSAGE_TYPE_KEY_EXCHANGE:
-                        handleKeyExchange();
-                        break;
-                    default:
-                        System.err.println("Unknown message type: " + messageType);
-                }
+        System.out.println("Reconnected to server, resuming session");
+        send(Constants.MESSAGE_TYPE_RESUME, token + ":" + received).whenComplete((frame, error) -> {
+            String replayed = frame != null ? (String) frame.getPayload() : null;
+            if (error != null || replayed == null || replayed.isEmpty()) {
+                logInAgain();
+                return;
             }
-        } catch (IOException | ClassNotFoundException e) {
-            if (connected) {
-                System.err.println("Error listening for messages: " + e.getMessage());
-                disconnect();
+            System.out.println("Session resumed, " + replayed + " missed messages replayed");
+            if (messageListener != null) {
+                messageListener.onSessionResumed(Integer.parseInt(replayed));
             }
+            sessionRestored();
+        });
+    }
+
+    /**
+     * Logs in again on a new connection because the server no longer has the session.
+     * The server puts the new session in the default room.
+     */
+    private void logInAgain() {
+        System.out.println("Reconnected to server, logging in again");
+        currentRoom = Constants.DEFAULT_ROOM;
+        if (currentUser == null) {
+            sessionRestored();
+            return;
         }
+        CompletableFuture<Frame> loggedIn = send(Constants.MESSAGE_TYPE_USER_INFO, currentUser);
+        if (homeRoom != null) {
+            loggedIn = send(Constants.MESSAGE_TYPE_JOIN_ROOM, homeRoom);
+        }
+        loggedIn.whenComplete((frame, error) -> sessionRestored());
     }
 
     /**
-     * Handles a phrase positions message from the server.
-     *
-     * @throws IOException If an I/O error occurs
-     * @throws ClassNotFoundException If the class of a serialized object cannot be found
+     * Sends the requests queued while reconnecting, in order, and notifies the listener.
+     * New requests wait until the queued ones have been written.
      */
-    private void handlePhrasePositions() throws IOException, ClassNotFoundException {
-        // Read the positions
-        String positions = (String) inputStream.readObject();
+    private void sessionRestored() {
+        outboxLock.lock();
+        try {
+            QueuedRequest queued;
+            while ((queued = outbox.poll()) != null) {
+                CompletableFuture<Frame> reply = queued.getReply();
+                send(queued.getType(), queued.getPayload()).whenComplete((frame, error) -> {
+                    if (error != null) {
+                        reply.completeExceptionally(error);
+                    } else {
+                        reply.complete(frame);
+                    }
+                });
+            }
+            reconnecting = false;
+        } finally {
+            outboxLock.unlock();
+        }
 
-        // Notify the listener
         if (messageListener != null) {
-            messageListener.onPhrasePositionsReceived(positions);
+            messageListener.onReconnected();
         }
     }
 
     /**
-     * Handles a key exchange message from the server.
+     * Fails the requests queued while reconnecting and stops waiting to reconnect.
      *
-     * @throws IOException If an I/O error occurs
-     * @throws ClassNotFoundException If the class of a serialized object cannot be found
+     * @param cause The reason the requests will not be sent
      */
-    private void handleKeyExchange() throws IOException, ClassNotFoundException {
-        // Read the key
-        String key = (String) inputStream.readObject();
+    private void failQueuedRequests(IOException cause) {
+        outboxLock.lock();
+        try {
+            QueuedRequest queued;
+            while ((queued = outbox.poll()) != null) {
+                queued.getReply().completeExceptionally(cause);
+            }
+            reconnecting = false;
+            reconnectCancelled.signalAll();
+        } finally {
+            outboxLock.unlock();
+        }
+    }
 
-        // Notify the listener
-        if (messageListener != null) {
-            messageListener.onKeyExchangeReceived(key);
+    /**
+     * Sends a text message to the server.
+     *
+     * @param text The text to send
+     * @param key The encryption key
+     * @return true if the message was sent successfully, false otherwise
+     */
+    public boolean sendMessage(String text, String key) {
+        return !sendMessageAsync(text, key).isCompletedExceptionally();
+    }
+
+    /**
+     * Sends a text message to the server without waiting for the reply.
+     *
+     * @param text The text to send
+     * @param key The encryption key
+     * @return A future that completes with the positions the server found in this message,
+     *         or with null if the server's protocol has no request IDs
+     */
+    public CompletableFuture<String> sendMessageAsync(String text, String key) {
+        if (!connected) {
+            return notConnected();
+        }
+
+        // Encrypt the message
+        PlayfairCipher cipher = PlayfairCipher.forKey(key);
+        String encryptedMessage = cipher.encrypt(text);
+
+        // Create a message object
+        Message message = new Message();
+        message.setEncryptedMessage(encryptedMessage);
+        message.setKey(key);
+        message.setRoom(currentRoom);
+
+        // Set user ID if authenticated
+        if (currentUser != null) {
+            message.setUserId(currentUser.getId());
         }
+
+        // Send the message
+        return request(Constants.MESSAGE_TYPE_TEXT, message)
+                .thenApply(reply -> reply == null ? null : (String) reply.getPayload());
     }
 
     /**
-     * Sets the message listener.
+     * Sends a direct message to a user, addressed by username.
      *
-     * @param listener The listener to set
+     * @param recipientName The recipient's username
+     * @param text The text to send
+     * @param key The encryption key
+     * @return true if the message was sent successfully, false otherwise
      */
-    public void setMessageListener(MessageListener listener) {
-        this.messageListener = listener;
+    public boolean sendDirectMessage(String recipientName, String text, String key) {
+        return !sendDirectMessageAsync(recipientName, text, key).isCompletedExceptionally();
     }
 
     /**
-     * Gets the current key.
+     * Sends a direct message to a user, addressed by username, without waiting for the reply.
      *
-     * @return The current key
+     * @param recipientName The recipient's username
+     * @param text The text to send
+     * @param key The encryption key
+     * @return A future that completes with true if the message was delivered and false if
+     *         the recipient is offline
      */
-    public String getCurrentKey() {
-        return currentKey;
+    public CompletableFuture<Boolean> sendDirectMessageAsync(String recipientName, String text, String key) {
+        Message message = createDirectMessage(text, key);
+        message.setRecipientName(recipientName);
+        return sendDirectMessage(message);
     }
 
     /**
-     * Gets the current user.
+     * Sends a direct message to a user, addressed by user ID.
      *
-     * @return The current user, or null if not authenticated
+     * @param recipientId The recipient's user ID
+     * @param text The text to send
+     * @param key The encryption key
+     * @return true if the message was sent successfully, false otherwise
      */
-    public User getCurrentUser() {
-        return currentUser;
+    public boolean sendDirectMessage(int recipientId, String text, String key) {
+        return !sendDirectMessageAsync(recipientId, text, key).isCompletedExceptionally();
     }
 
     /**
-     * Sets the current user.
+     * Sends a direct message to a user, addressed by user ID, without waiting for the reply.
      *
-     * @param user The user to set
+     * @param recipientId The recipient's user ID
+     * @param text The text to send
+     * @param key The encryption key
+     * @return A future that completes with true if the message was delivered and false if
+     *         the recipient is offline
      */
-    public void setCurrentUser(User user) {
-        this.currentUser = user;
+    public CompletableFuture<Boolean> sendDirectMessageAsync(int recipientId, String text, String key) {
+        Message message = createDirectMessage(text, key);
+        message.setRecipientId(recipientId);
+        return sendDirectMessage(message);
     }
 
     /**
-     * Checks if the client is connected to the server.
+     * Creates an encrypted direct message without a recipient.
      *
-     * @return true if connected, false otherwise
+     * @param text The text to send
+     * @param key The encryption key
+     * @return The message
      */
-    public boolean isConnected() {
-        return connected;
+    private Message createDirectMessage(String text, String key) {
+        PlayfairCipher cipher = PlayfairCipher.forKey(key);
+
+        Message message = new Message();
+        message.setEncryptedMessage(cipher.encrypt(text));
+        message.setKey(key);
+
+        // Set user ID if authenticated
+        if (currentUser != null) {
+            message.setUserId(currentUser.getId());
+        }
+        return message;
     }
 
     /**
-     * Checks if the client is authenticated.
+     * Sends an addressed direct message to the server.
      *
-     * @return true if authenticated, false otherwise
+     * @param message The message
+     * @return A future that completes with true if the message was delivered and false if
+     *         the recipient is offline
      */
-    public boolean isAuthenticated() {
-        return currentUser != null;
+    private CompletableFuture<Boolean> sendDirectMessage(Message message) {
+        if (!connected) {
+            return notConnected();
+        }
+
+        // Without request IDs the only answer is an uncorrelated offline notice
+        return request(Constants.MESSAGE_TYPE_DIRECT, message)
+                .thenApply(reply -> reply == null || reply.getType() == Constants.MESSAGE_TYPE_ACK);
     }
 
     /**
-     * Interface for listening to messages from the server.
+     * Sends a file to the server.
+     *
+     * @param file The file to send
+     * @return true if the file was sent successfully, false otherwise
      */
-    public interface MessageListener {
-        /**
-         * Called when phrase positions are received from the server.
-         *
-         * @param positions The positions as a string
-         */
-        void onPhrasePositionsReceived(String positions);
+    public boolean sendFile(File file) {
+        return !sendFileAsync(file).isCompletedExceptionally();
+    }
 
-        /**
-         * Called when a key exchange is received from the server.
-         *
-         * @param key The key
-         */
+    /**
+     * Sends a file to the server without waiting for the reply.
+     *
+     * @param file The file to send
+     * @return A future that completes once the server has stored the file
+     */
+    public CompletableFuture<Void> sendFileAsync(File file) {
+        if (!connected) {
+            return notConnected();
+        }
+        if (!file.exists()) {
+            return CompletableFuture.failedFuture(new FileNotFoundException(file.getPath()));
+        }
+
+        try {
+            // Read the file
+            byte[] fileData = FileUtils.readFileToByteArray(file);
+
+            // Create a file transfer object
+            FileTransfer fileTransfer = new FileTransfer();
+            fileTransfer.setFileName(file.getName());
+            fileTransfer.setFileSize(file.length());
+            fileTransfer.setFileType(FileUtils.getFileType(file.getName()));
+            fileTransfer.setFileData(fileData);
+
+            // Set user ID if authenticated
+            if (currentUser != null) {
+                fileTransfer.setUserId(currentUser.getId());
+            }
+
+            // Send the file
+            return request(Constants.MESSAGE_TYPE_FILE, fileTransfer).thenApply(reply -> null);
+        } catch (IOException e) {
+            System.err.println("Error sending file: " + e.getMessage());
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Sends a key exchange message to the server.
+     *
+     * @param key The key to exchange
+     * @return true if the key was sent successfully, false otherwise
+     */
+    public boolean sendKeyExchange(String key) {
+        return !sendKeyExchangeAsync(key).isCompletedExceptionally();
+    }
+
+    /**
+     * Sends a key exchange message to the server without waiting for the reply.
+     *
+     * @param key The key to exchange
+     * @return A future that completes with the key confirmed by the server,
+     *         or with null if the server's protocol has no request IDs
+     */
+    public CompletableFuture<String> sendKeyExchangeAsync(String key) {
+        if (!connected) {
+            return notConnected();
+        }
+
+        // Send the key
+        CompletableFuture<Frame> reply = request(Constants.MESSAGE_TYPE_KEY_EXCHANGE, key);
+
+        // Update the current key
+        if (!reply.isCompletedExceptionally()) {
+            currentKey = key;
+        }
+        return reply.thenApply(frame -> frame == null ? null : (String) frame.getPayload());
+    }
+
+    /**
+     * Asks the server to join a room. Messages are sent to the room once the server confirms.
+     *
+     * @param room The room name
+     * @return true if the request was sent successfully, false otherwise
+     */
+    public boolean joinRoom(String room) {
+        return !joinRoomAsync(room).isCompletedExceptionally();
+    }
+
+    /**
+     * Asks the server to join a room without waiting for the reply.
+     *
+     * @param room The room name
+     * @return A future that completes with true if the server confirmed the join
+     */
+    public CompletableFuture<Boolean> joinRoomAsync(String room) {
+        return sendRoomRequest(Constants.MESSAGE_TYPE_JOIN_ROOM, room);
+    }
+
+    /**
+     * Asks the server to leave a room.
+     *
+     * @param room The room name
+     * @return true if the request was sent successfully, false otherwise
+     */
+    public boolean leaveRoom(String room) {
+        return !leaveRoomAsync(room).isCompletedExceptionally();
+    }
+
+    /**
+     * Asks the server to leave a room without waiting for the reply.
+     *
+     * @param room The room name
+     * @return A future that completes with true once the server confirmed the leave
+     */
+    public CompletableFuture<Boolean> leaveRoomAsync(String room) {
+        return sendRoomRequest(Constants.MESSAGE_TYPE_LEAVE_ROOM, room);
+    }
+
+    /**
+     * Sends a room join or leave request to the server.
+     *
+     * @param type The message type
+     * @param room The room name
+     * @return A future that completes with true if the server answered with the requested type
+     */
+    private CompletableFuture<Boolean> sendRoomRequest(int type, String room) {
+        if (!connected) {
+            return notConnected();
+        }
+
+        return request(type, room).thenApply(reply -> reply == null || reply.getType() == type);
+    }
+
+    /**
+     * Sends a request, or queues it while the client is reconnecting.
+     *
+     * @param type The message type
+     * @param payload The payload object
+     * @return A future that completes with the reply frame, with null if the channel
+     *         has no request IDs, or exceptionally if the request cannot be sent or no reply arrives in time
+     */
+    private CompletableFuture<Frame> request(int type, Object payload) {
+        outboxLock.lock();
+        try {
+            if (!reconnecting) {
+                return send(type, payload);
+            }
+
+            // Sent once the session has been restored on a new connection
+            if (outbox.size() >= Constants.MAX_QUEUED_REQUESTS) {
+                return CompletableFuture.failedFuture(new IOException("Too many requests waiting for the connection"));
+            }
+            QueuedRequest queued = new QueuedRequest(type, payload);
+            outbox.add(queued);
+            return queued.getReply();
+        } finally {
+            outboxLock.unlock();
+        }
+    }
+
+    /**
+     * Sends a request and registers a future for the reply that echoes its request ID.
+     * The future is registered before the write, since the reply can arrive before the write returns.
+     *
+     * @param type The message type
+     * @param payload The payload object
+     * @return A future that completes with the reply frame, with null if the channel
+     *         has no request IDs, or exceptionally if the write fails or no reply arrives in time
+     */
+    private CompletableFuture<Frame> send(int type, Object payload) {
+        MessageChannel currentChannel = channel;
+        if (currentChannel == null) {
+            return notConnected();
+        }
+
+        // Without request IDs nothing can be correlated, so the request is done once written
+        if (!currentChannel.hasRequestIds()) {
+            try {
+                currentChannel.writeFrame(type, payload);
+                return CompletableFuture.completedFuture(null);
+            } catch (IOException e) {
+                System.err.println("Error sending request: " + e.getMessage());
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        // Skip 0, which marks frames that answer no request
+        int requestId;
+        do {
+            requestId = nextRequestId.incrementAndGet();
+        } while (requestId == 0);
+
+        CompletableFuture<Frame> reply = new CompletableFuture<>();
+        pendingRequests.put(requestId, reply);
+        int id = requestId;
+        reply.orTimeout(Constants.REQUEST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .whenComplete((frame, error) -> pendingRequests.remove(id, reply));
+
+        try {
+            currentChannel.writeFrame(type, requestId, payload);
+        } catch (IOException e) {
+            System.err.println("Error sending request: " + e.getMessage());
+            reply.completeExceptionally(e);
+        }
+        return reply;
+    }
+
+    /**
+     * Completes the pending request a reply frame answers, if any.
+     * A request the server turned down because of its rate limit fails, as
+     * does user information the server could not verify.
+     *
+     * @param frame The frame received from the server
+     */
+    private void completeRequest(Frame frame) {
+        if (frame.getRequestId() == 0) {
+            return;
+        }
+
+        CompletableFuture<Frame> reply = pendingRequests.remove(frame.getRequestId());
+        if (reply == null) {
+            return;
+        }
+        if (frame.getType() == Constants.MESSAGE_TYPE_RATE_LIMITED) {
+            reply.completeExceptionally(new IOException("Rejected by server: " + frame.getPayload()));
+        } else if (frame.getType() == Constants.MESSAGE_TYPE_LOGIN_RESULT && frame.getPayload() == null) {
+            reply.completeExceptionally(new IOException("Rejected by server: user information not verified"));
+        } else {
+            reply.complete(frame);
+        }
+    }
+
+    /**
+     * Fails every request still waiting for a reply.
+     *
+     * @param cause The reason no reply will arrive
+     */
+    private void failPendingRequests(IOException cause) {
+        for (CompletableFuture<Frame> reply : pendingRequests.values()) {
+            reply.completeExceptionally(cause);
+        }
+        pendingRequests.clear();
+    }
+
+    /**
+     * Creates a future for a request that could not be sent because the client is not connected.
+     *
+     * @param <T> The result type of the future
+     * @return A failed future
+     */
+    private static <T> CompletableFuture<T> notConnected() {
+        return CompletableFuture.failedFuture(new IOException("Not connected to server"));
+    }
+
+    /**
+     * Listens for messages from the server.
+     */
+    private void listenForMessages() {
+        try {
+            BlockingChannel currentChannel = channel;
+            // A closed socket ends the loop with an exception, so that the session can be resumed
+            while (connected && currentChannel != null) {
+                // Read the next frame
+                Frame frame = currentChannel.readFrame();
+
+                // Count the messages that a resumed session would replay
+                if (frame.getType() == Constants.MESSAGE_TYPE_TEXT || frame.getType() == Constants.MESSAGE_TYPE_DIRECT) {
+                    receivedMessages++;
+                }
+
+                // Hand the reply to the request that is waiting for it, then notify the listener as usual
+                completeRequest(frame);
+
+                switch (frame.getType()) {
+                    case Constants.MESSAGE_TYPE_TEXT:
+                        handleChatMessage((Message) frame.getPayload());
+                        break;
+                    case Constants.MESSAGE_TYPE_PHRASE_POSITIONS:
+                        handlePhrasePositions((String) frame.getPayload());
+                        break;
+                    case Constants.MESSAGE_TYPE_KEY_EXCHANGE:
+                        handleKeyExchange((String) frame.getPayload());
+                        break;
+                    case Constants.MESSAGE_TYPE_JOIN_ROOM:
+                        handleRoomJoined((String) frame.getPayload());
+                        break;
+                    case Constants.MESSAGE_TYPE_LEAVE_ROOM:
+                        handleRoomLeft((String) frame.getPayload());
+                        break;
+                    case Constants.MESSAGE_TYPE_DIRECT:
+                        handleDirectMessage((Message) frame.getPayload());
+                        break;
+                    case Constants.MESSAGE_TYPE_RECIPIENT_OFFLINE:
+                        handleRecipientOffline((String) frame.getPayload());
+                        break;
+                    case Constants.MESSAGE_TYPE_ACK:
+                        // Only completes the request it answers
+                        break;
+                    case Constants.MESSAGE_TYPE_PING:
+                        // Tell the server this client is still alive
+                        currentChannel.writeFrame(Constants.MESSAGE_TYPE_PONG, frame.getRequestId(), frame.getPayload());
+                        break;
+                    case Constants.MESSAGE_TYPE_RATE_LIMITED:
+                        System.err.println("Request rejected by server: " + frame.getPayload());
+                        break;
+                    case Constants.MESSAGE_TYPE_LOGIN_RESULT:
+                        if (frame.getPayload() == null) {
+                            System.err.println("User information rejected by server");
+                        }
+                        break;
+                    case Constants.MESSAGE_TYPE_SERVER_DRAINING:
+                        handleServerDraining((String) frame.getPayload());
+                        break;
+                    case Constants.MESSAGE_TYPE_SESSION_TOKEN:
+                        // The server counts the messages of the session from here on
+                        resumeToken = (String) frame.getPayload();
+                        receivedMessages = 0;
+                        break;
+                    case Constants.MESSAGE_TYPE_RESUME:
+                        // Only completes the request it answers
+                        break;
+                    case Constants.MESSAGE_TYPE_REDIRECT:
+                        handleRedirect((String) frame.getPayload());
+                        break;
+                    default:
+                        System.err.println("Unknown message type: " + frame.getType());
+                }
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            if (connected) {
+                System.err.println("Error listening for messages: " + e.getMessage());
+                reconnect();
+            }
+        }
+    }
+
+    /**
+     * Handles a chat message relayed by the server from another client.
+     *
+     * @param message The relayed message
+     */
+    private void handleChatMessage(Message message) {
+        // Decrypt with the key the sender used
+        PlayfairCipher cipher = PlayfairCipher.forKey(message.getKey());
+        String text = cipher.decrypt(message.getEncryptedMessage());
+
+        // Notify the listener
+        if (messageListener != null) {
+            messageListener.onChatMessageReceived(message, text);
+        }
+    }
+
+    /**
+     * Handles a direct message from another user.
+     *
+     * @param message The direct message
+     */
+    private void handleDirectMessage(Message message) {
+        // Decrypt with the key the sender used
+        PlayfairCipher cipher = PlayfairCipher.forKey(message.getKey());
+        String text = cipher.decrypt(message.getEncryptedMessage());
+
+        // Notify the listener
+        if (messageListener != null) {
+            messageListener.onDirectMessageReceived(message, text);
+        }
+    }
+
+    /**
+     * Handles the server's notice that a direct message could not be delivered.
+     *
+     * @param recipient The recipient as addressed by this client
+     */
+    private void handleRecipientOffline(String recipient) {
+        // Notify the listener
+        if (messageListener != null) {
+            messageListener.onRecipientOffline(recipient);
+        }
+    }
+
+    /**
+     * Handles the server's notice that it is shutting down.
+     * The client moves to another server as soon as the replies it is still
+     * waiting for have arrived; requests made meanwhile are queued as for any
+     * reconnect.
+     *
+     * @param notice The notice sent by the server
+     */
+    private void handleServerDraining(String notice) {
+        // Notify the listener
+        if (messageListener != null) {
+            messageListener.onServerDraining(notice);
+        }
+
+        // New requests wait for the next server rather than go to this one
+        outboxLock.lock();
+        try {
+            reconnecting = true;
+        } finally {
+            outboxLock.unlock();
+        }
+        leaveWhenIdle();
+    }
+
+    /**
+     * Handles the server's request to move this session to another cluster node,
+     * which now owns it. Once the replies the client is still waiting for have
+     * arrived, it logs out and reconnects to that node; requests made meanwhile
+     * are queued as for any reconnect.
+     *
+     * @param address The host:port of the node
+     */
+    private void handleRedirect(String address) {
+        if (address == null || address.isEmpty()) {
+            return;
+        }
+        System.out.println("Session moved to cluster node " + address);
+        CompletableFuture.allOf(pendingRequests.values().toArray(new CompletableFuture<?>[0]))
+                .whenComplete((result, error) -> moveTo(address));
+    }
+
+    /**
+     * Leaves the current server without it keeping the session, so that the
+     * listener reconnects to another one.
+     *
+     * @param address The host:port of the server to reconnect to
+     */
+    private void moveTo(String address) {
+        MessageChannel currentChannel = channel;
+        if (!connected || currentChannel == null) {
+            return;
+        }
+        try {
+            setAddress(address);
+            currentChannel.writeFrame(Constants.MESSAGE_TYPE_LOGOUT, 0, "");
+            currentChannel.flush();
+        } catch (IOException e) {
+            System.err.println("Error leaving server: " + e.getMessage());
+        }
+        resumeToken = null;
+
+        // The listener sees the closed connection and reconnects to the new address
+        try {
+            currentChannel.close();
+        } catch (IOException e) {
+            // Ignore, the listener reconnects anyway
+        }
+    }
+
+    /**
+     * Closes the connection once every pending request has been answered or has
+     * failed, so that the listener reconnects with backoff. The server keeps no
+     * session, so the client starts over from the address it was given in
+     * {@link #connect(String, int, User)}, which redirects it to the cluster
+     * node that owns its session, if any.
+     */
+    private void leaveWhenIdle() {
+        CompletableFuture.allOf(pendingRequests.values().toArray(new CompletableFuture<?>[0]))
+                .whenComplete((result, error) -> leaveDrainingServer());
+    }
+
+    /**
+     * Closes the connection to a server that is shutting down, without logging out.
+     */
+    private void leaveDrainingServer() {
+        MessageChannel currentChannel = channel;
+        if (!connected || currentChannel == null) {
+            return;
+        }
+        host = seedHost;
+        port = seedPort;
+
+        // The listener sees the closed connection and reconnects
+        try {
+            currentChannel.close();
+        } catch (IOException e) {
+            // Ignore, the listener reconnects anyway
+        }
+    }
+
+    /**
+     * Handles a phrase positions message from the server.
+     *
+     * @param positions The positions as a string
+     */
+    private void handlePhrasePositions(String positions) {
+        // Notify the listener
+        if (messageListener != null) {
+            messageListener.onPhrasePositionsReceived(positions);
+        }
+    }
+
+    /**
+     * Handles a key exchange message from the server.
+     *
+     * @param key The key confirmed by the server
+     */
+    private void handleKeyExchange(String key) {
+        // Notify the listener
+        if (messageListener != null) {
+            messageListener.onKeyExchangeReceived(key);
+        }
+    }
+
+    /**
+     * Handles the server's confirmation that this client joined a room.
+     * The joined room becomes the room messages are sent to.
+     *
+     * @param room The room name
+     */
+    private void handleRoomJoined(String room) {
+        currentRoom = room;
+
+        // Notify the listener
+        if (messageListener != null) {
+            messageListener.onRoomChanged(room, true);
+        }
+    }
+
+    /**
+     * Handles the server's confirmation that this client left a room.
+     * Leaving the current room switches messages back to the default room.
+     *
+     * @param room The room name
+     */
+    private void handleRoomLeft(String room) {
+        if (room.equals(currentRoom)) {
+            currentRoom = Constants.DEFAULT_ROOM;
+        }
+
+        // Notify the listener
+        if (messageListener != null) {
+            messageListener.onRoomChanged(room, false);
+        }
+    }
+
+    /**
+     * Sets the message listener.
+     *
+     * @param listener The listener to set
+     */
+    public void setMessageListener(MessageListener listener) {
+        this.messageListener = listener;
+    }
+
+    /**
+     * Gets the current key.
+     *
+     * @return The current key
+     */
+    public String getCurrentKey() {
+        return currentKey;
+    }
+
+    /**
+     * Gets the room this client joins when it connects.
+     *
+     * @return The home room, or null if the client stays in the default room
+     */
+    public String getHomeRoom() {
+        return homeRoom;
+    }
+
+    /**
+     * Sets the room this client joins when it connects. In a cluster, clients
+     * with the same home room are served by the same node, so their messages to
+     * the room do not cross nodes. Takes effect on the next connect.
+     *
+     * @param homeRoom The home room, or null to stay in the default room
+     */
+    public void setHomeRoom(String homeRoom) {
+        this.homeRoom = homeRoom;
+    }
+
+    /**
+     * Gets the room messages are currently sent to.
+     *
+     * @return The current room name
+     */
+    public String getCurrentRoom() {
+        return currentRoom;
+    }
+
+    /**
+     * Gets the current user.
+     *
+     * @return The current user, or null if not authenticated
+     */
+    public User getCurrentUser() {
+        return currentUser;
+    }
+
+    /**
+     * Sets the current user.
+     *
+     * @param user The user to set
+     */
+    public void setCurrentUser(User user) {
+        this.currentUser = user;
+    }
+
+    /**
+     * Checks if the client is connected to the server.
+     *
+     * @return true if connected, false otherwise
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Checks if replies from the server can be matched to the requests they answer.
+     *
+     * @return true if connected with a protocol version that carries request IDs
+     */
+    public boolean hasRequestIds() {
+        MessageChannel currentChannel = channel;
+        return connected && currentChannel != null && currentChannel.hasRequestIds();
+    }
+
+    /**
+     * Gets the number of requests waiting for a reply from the server.
+     *
+     * @return The number of pending requests
+     */
+    public int getPendingRequestCount() {
+        return pendingRequests.size();
+    }
+
+    /**
+     * Checks if the client is authenticated.
+     *
+     * @return true if authenticated, false otherwise
+     */
+    public boolean isAuthenticated() {
+        return currentUser != null;
+    }
+
+    /**
+     * Interface for listening to messages from the server.
+     */
+    public interface MessageListener {
+        /**
+         * Called when a chat message from another client is received.
+         *
+         * @param message The message as relayed by the server
+         * @param text The decrypted text
+         */
+        void onChatMessageReceived(Message message, String text);
+
+        /**
+         * Called when phrase positions are received from the server.
+         *
+         * @param positions The positions as a string
+         */
+        void onPhrasePositionsReceived(String positions);
+
+        /**
+         * Called when a key exchange is received from the server.
+         *
+         * @param key The key
+         */
         void onKeyExchangeReceived(String key);
+
+        /**
+         * Called when the server confirms that this client joined or left a room.
+         *
+         * @param room The room name
+         * @param joined true if the room was joined, false if it was left
+         */
+        void onRoomChanged(String room, boolean joined);
+
+        /**
+         * Called when a direct message from another user is received.
+         *
+         * @param message The message as relayed by the server
+         * @param text The decrypted text
+         */
+        void onDirectMessageReceived(Message message, String text);
+
+        /**
+         * Called when a direct message could not be delivered because the recipient is not connected.
+         *
+         * @param recipient The recipient as addressed
+         */
+        void onRecipientOffline(String recipient);
+
+        /**
+         * Called when the server announces that it is shutting down.
+         * Once its pending requests have been answered, the client reconnects,
+         * as after a lost connection; messages sent meanwhile are queued.
+         *
+         * @param notice The notice sent by the server
+         */
+        void onServerDraining(String notice);
+
+        /**
+         * Called when the connection dropped and the session was resumed on a new one.
+         * The messages missed in between are delivered as usual.
+         *
+         * @param replayedMessages The number of missed messages the server replays
+         */
+        void onSessionResumed(int replayedMessages);
+
+        /**
+         * Called when the connection dropped, before each attempt to reconnect.
+         * Messages sent meanwhile are queued until the connection is restored.
+         *
+         * @param attempt The attempt number, from 1
+         * @param delayMillis The delay before the attempt, in milliseconds
+         */
+        void onReconnecting(int attempt, long delayMillis);
+
+        /**
+         * Called once the client is connected again and the queued messages have been sent.
+         */
+        void onReconnected();
+
+        /**
+         * Called when the client gave up reconnecting and is now disconnected.
+         *
+         * @param reason The reason the connection could not be restored
+         */
+        void onConnectionLost(String reason);
+    }
+
+    /**
+     * A request made while the client was reconnecting, waiting to be sent.
+     */
+    private static class QueuedRequest {
+        private final int type;
+        private final Object payload;
+        private final CompletableFuture<Frame> reply = new CompletableFuture<>();
+
+        /**
+         * Constructs a QueuedRequest.
+         *
+         * @param type The message type
+         * @param payload The payload object
+         */
+        QueuedRequest(int type, Object payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+
+        /**
+         * Gets the message type.
+         *
+         * @return The message type
+         */
+        int getType() {
+            return type;
+        }
+
+        /**
+         * Gets the payload object.
+         *
+         * @return The payload object
+         */
+        Object getPayload() {
+            return payload;
+        }
+
+        /**
+         * Gets the future completed with the reply once the request has been sent.
+         *
+         * @return The reply future
+         */
+        CompletableFuture<Frame> getReply() {
+            return reply;
+        }
     }
 
     /**
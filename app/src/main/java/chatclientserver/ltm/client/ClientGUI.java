@@ -11,6 +11,7 @@ import java.awt.event.WindowEvent;
 import java.io.File;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import chatclientserver.ltm.model.Message;
 
@@ -25,6 +26,8 @@ import javax.swing.SwingUtilities;
 import javax.swing.border.EmptyBorder;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
+import org.apache.commons.lang3.StringUtils;
+
 import chatclientserver.ltm.util.UIUtils;
 import chatclientserver.ltm.util.PlaceholderTextField;
 import chatclientserver.ltm.util.Constants;
@@ -42,10 +45,13 @@ public class ClientGUI extends JFrame implements MessageListener {
     private ChatPanel chatPanel;
     private PlaceholderTextField messageField;
     private PlaceholderTextField keyField;
+    private PlaceholderTextField roomField;
     private JButton sendButton;
     private JButton fileButton;
     private JButton logoutButton;
     private JButton keyExchangeButton;
+    private JButton joinRoomButton;
+    private JButton leaveRoomButton;
     private JLabel statusLabel;
     private JLabel positionsLabel;
     private JLabel userLabel;
@@ -100,12 +106,16 @@ public class ClientGUI extends JFrame implements MessageListener {
         // Message field
         messageField = UIUtils.createStyledTextField(Constants.TEXT_FIELD_COLS);
         messageField.setEnabled(false);
-        messageField.setPlaceholder("Type your message here...");
+        messageField.setPlaceholder("Type your message here, or @username to send a direct message...");
 
         // Key field
         keyField = UIUtils.createStyledTextField(10);
         keyField.setText(Constants.DEFAULT_KEY);
 
+        // Room field
+        roomField = UIUtils.createStyledTextField(10);
+        roomField.setText(Constants.DEFAULT_ROOM);
+
         // Buttons
         sendButton = UIUtils.createStyledButton("Send", true);
         sendButton.setEnabled(false);
@@ -119,6 +129,12 @@ public class ClientGUI extends JFrame implements MessageListener {
         keyExchangeButton = UIUtils.createStyledButton("Exchange Key", false);
         keyExchangeButton.setEnabled(false);
 
+        joinRoomButton = UIUtils.createStyledButton("Join Room", false);
+        joinRoomButton.setEnabled(false);
+
+        leaveRoomButton = UIUtils.createStyledButton("Leave Room", false);
+        leaveRoomButton.setEnabled(false);
+
         // Status panel
         statusPanel = UIUtils.createCardPanel();
 
@@ -184,9 +200,25 @@ public class ClientGUI extends JFrame implements MessageListener {
         gbc.gridx = 2;
         inputPanel.add(keyExchangeButton, gbc);
 
-        // File button
+        // Room label, field and buttons
         gbc.gridx = 0;
         gbc.gridy = 2;
+        JLabel roomLabel = UIUtils.createStyledLabel("Room:", false);
+        inputPanel.add(roomLabel, gbc);
+
+        gbc.gridx = 1;
+        inputPanel.add(roomField, gbc);
+
+        gbc.gridx = 2;
+        JPanel roomButtonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        roomButtonPanel.setOpaque(false);
+        roomButtonPanel.add(joinRoomButton);
+        roomButtonPanel.add(leaveRoomButton);
+        inputPanel.add(roomButtonPanel, gbc);
+
+        // File button
+        gbc.gridx = 0;
+        gbc.gridy = 3;
         gbc.gridwidth = 3;
         JPanel filePanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         filePanel.setOpaque(false);
@@ -262,6 +294,10 @@ public class ClientGUI extends JFrame implements MessageListener {
         // Key exchange button
         keyExchangeButton.addActionListener(e -> exchangeKey());
 
+        // Room buttons
+        joinRoomButton.addActionListener(e -> joinRoom());
+        leaveRoomButton.addActionListener(e -> leaveRoom());
+
         // loginButton removed
     }
 
@@ -292,6 +328,9 @@ public class ClientGUI extends JFrame implements MessageListener {
             sendButton.setEnabled(true);
             fileButton.setEnabled(true);
             keyExchangeButton.setEnabled(true);
+            joinRoomButton.setEnabled(true);
+            leaveRoomButton.setEnabled(true);
+            roomField.setText(Constants.DEFAULT_ROOM);
 
             // Send the initial key
             chatClient.sendKeyExchange(keyField.getText());
@@ -322,6 +361,8 @@ public class ClientGUI extends JFrame implements MessageListener {
         sendButton.setEnabled(false);
         fileButton.setEnabled(false);
         keyExchangeButton.setEnabled(false);
+        joinRoomButton.setEnabled(false);
+        leaveRoomButton.setEnabled(false);
 
         // Add a disconnection message
         appendToChatArea("Disconnected from server.");
@@ -343,16 +384,40 @@ public class ClientGUI extends JFrame implements MessageListener {
             return;
         }
 
-        boolean sent = chatClient.sendMessage(message, key);
+        // "@username text" sends a direct message instead of a room message
+        String recipient = null;
+        if (message.startsWith("@") && message.indexOf(' ') > 1) {
+            recipient = message.substring(1, message.indexOf(' '));
+            message = message.substring(message.indexOf(' ') + 1).trim();
+        }
+
+        boolean sent;
+        if (recipient != null) {
+            sent = chatClient.sendDirectMessage(recipient, message, key);
+        } else {
+            // Report the positions found in this message, even if later messages are answered first
+            String sentText = message;
+            CompletableFuture<String> positions = chatClient.sendMessageAsync(message, key);
+            sent = !positions.isCompletedExceptionally();
+            positions.thenAccept(found -> {
+                if (found != null) {
+                    SwingUtilities.invokeLater(() -> appendToChatArea("Server found '" + Constants.SEARCH_PHRASE
+                            + "' in \"" + StringUtils.abbreviate(sentText, 30) + "\" at positions: " + found));
+                }
+            });
+        }
 
         if (sent) {
             // Add the message to the chat panel as a user message
             User currentUser = chatClient.getCurrentUser();
             String username = currentUser != null ? currentUser.getUsername() : "You";
             chatPanel.addMessage(message, username, new Date());
+            if (recipient != null) {
+                chatPanel.addSystemMessage("Direct message to @" + recipient);
+            }
 
             // Show the encrypted message as a system message
-            PlayfairCipher cipher = new PlayfairCipher(key);
+            PlayfairCipher cipher = PlayfairCipher.forKey(key);
             String encrypted = cipher.encrypt(message);
             chatPanel.addSystemMessage("Encrypted: " + encrypted);
 
@@ -412,6 +477,39 @@ public class ClientGUI extends JFrame implements MessageListener {
         }
     }
 
+    /**
+     * Joins the room entered in the room field.
+     * Messages go to that room once the server confirms the join.
+     */
+    private void joinRoom() {
+        String room = roomField.getText().trim();
+
+        if (room.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "Please enter a room name.", "Room Required", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+
+        if (!chatClient.joinRoom(room)) {
+            JOptionPane.showMessageDialog(this, "Could not join the room.", "Room Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Leaves the room entered in the room field.
+     */
+    private void leaveRoom() {
+        String room = roomField.getText().trim();
+
+        if (room.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "Please enter a room name.", "Room Required", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+
+        if (!chatClient.leaveRoom(room)) {
+            JOptionPane.showMessageDialog(this, "Could not leave the room.", "Room Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
     /**
      * Adds a message to the chat panel.
      *
@@ -424,11 +522,26 @@ public class ClientGUI extends JFrame implements MessageListener {
         });
     }
 
+    @Override
+    public void onChatMessageReceived(Message message, String text) {
+        SwingUtilities.invokeLater(() -> {
+            String sender = message.getSenderName() != null ? message.getSenderName() : "Unknown";
+            if (message.getRoom() != null && !message.getRoom().equals(Constants.DEFAULT_ROOM)) {
+                sender += " #" + message.getRoom();
+            }
+            chatPanel.addMessage(text, sender, message.getTimestamp() != null ? message.getTimestamp() : new Date());
+        });
+    }
+
     @Override
     public void onPhrasePositionsReceived(String positions) {
         SwingUtilities.invokeLater(() -> {
             positionsLabel.setText("Positions of '" + Constants.SEARCH_PHRASE + "': " + positions);
-            appendToChatArea("Server found '" + Constants.SEARCH_PHRASE + "' at positions: " + positions);
+
+            // With request IDs the reply is reported with the message it belongs to
+            if (!chatClient.hasRequestIds()) {
+                appendToChatArea("Server found '" + Constants.SEARCH_PHRASE + "' at positions: " + positions);
+            }
         });
     }
 
@@ -439,6 +552,75 @@ public class ClientGUI extends JFrame implements MessageListener {
         });
     }
 
+    @Override
+    public void onDirectMessageReceived(Message message, String text) {
+        SwingUtilities.invokeLater(() -> {
+            String sender = message.getSenderName() != null ? message.getSenderName() : "Unknown";
+            chatPanel.addMessage(text, sender + " (direct)", message.getTimestamp() != null ? message.getTimestamp() : new Date());
+        });
+    }
+
+    @Override
+    public void onRecipientOffline(String recipient) {
+        SwingUtilities.invokeLater(() -> {
+            appendToChatArea("@" + recipient + " is not online. The direct message was not delivered.");
+        });
+    }
+
+    @Override
+    public void onServerDraining(String notice) {
+        SwingUtilities.invokeLater(() -> {
+            statusLabel.setText(notice);
+            statusLabel.setForeground(Color.ORANGE.darker());
+            appendToChatArea(notice + ". Moving to another server; messages you send meanwhile will be delivered there.");
+        });
+    }
+
+    @Override
+    public void onSessionResumed(int replayedMessages) {
+        SwingUtilities.invokeLater(() -> {
+            appendToChatArea("Connection restored. " + replayedMessages + " missed message(s) delivered.");
+        });
+    }
+
+    @Override
+    public void onReconnecting(int attempt, long delayMillis) {
+        SwingUtilities.invokeLater(() -> {
+            statusLabel.setText("Connection lost, reconnecting in " + (delayMillis + 999) / 1000 + "s (attempt " + attempt + ")");
+            statusLabel.setForeground(Color.ORANGE.darker());
+            if (attempt == 1) {
+                appendToChatArea("Connection to server lost. Messages you send will be delivered once it is restored.");
+            }
+        });
+    }
+
+    @Override
+    public void onReconnected() {
+        SwingUtilities.invokeLater(() -> {
+            statusLabel.setText("Connected to " + serverHost + ":" + serverPort);
+            statusLabel.setForeground(Color.GREEN.darker());
+        });
+    }
+
+    @Override
+    public void onConnectionLost(String reason) {
+        SwingUtilities.invokeLater(() -> {
+            disconnect();
+            appendToChatArea(reason + ".");
+        });
+    }
+
+    @Override
+    public void onRoomChanged(String room, boolean joined) {
+        SwingUtilities.invokeLater(() -> {
+            if (joined) {
+                appendToChatArea("Joined room #" + room + ". Your messages now go to this room.");
+            } else {
+                appendToChatArea("Left room #" + room + ". Your messages go to #" + chatClient.getCurrentRoom() + ".");
+            }
+        });
+    }
+
     /**
      * Shows the login dialog and handles the login process.
      * If login is successful, automatically connects to the server.
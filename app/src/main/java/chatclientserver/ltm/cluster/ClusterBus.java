@@ -0,0 +1,80 @@
+package chatclientserver.ltm.cluster;
+
+import java.io.IOException;
+
+/**
+ * Connects the server nodes of a cluster.
+ * A bus delivers the messages published by one node to the other nodes, in
+ * the order they were published, and tells each node when another node
+ * becomes reachable or goes away. Implementations differ only in transport:
+ * {@link InProcessClusterBus} links servers running in one JVM and
+ * {@link TcpClusterBus} links servers over TCP.
+ */
+public interface ClusterBus {
+
+    /**
+     * Gets the ID of this node.
+     *
+     * @return The node ID, unique in the cluster
+     */
+    String getNodeId();
+
+    /**
+     * Starts the bus. Messages and membership changes are delivered to the listener
+     * on a thread owned by the bus, one at a time.
+     *
+     * @param listener The listener to notify
+     * @throws IOException If the bus cannot be started
+     */
+    void start(Listener listener) throws IOException;
+
+    /**
+     * Sends a message to every other node.
+     * A message that cannot be delivered (for example to a node that is down) is dropped.
+     *
+     * @param message The message
+     */
+    void publish(ClusterMessage message);
+
+    /**
+     * Sends a message to one node.
+     *
+     * @param nodeId The ID of the node
+     * @param message The message
+     */
+    void send(String nodeId, ClusterMessage message);
+
+    /**
+     * Stops the bus and disconnects from the other nodes.
+     */
+    void stop();
+
+    /**
+     * Receives the messages and membership changes of a bus.
+     */
+    interface Listener {
+
+        /**
+         * Called when a message from another node arrives.
+         *
+         * @param message The message
+         */
+        void onMessage(ClusterMessage message);
+
+        /**
+         * Called when messages can be sent to a node, after it joined or after
+         * a lost connection to it was restored. The node may have missed
+         * messages, so state it keeps about this node should be sent again.
+         *
+         * @param nodeId The ID of the node
+         */
+        void onNodeJoined(String nodeId);
+
+        /**
+         * Called when a node leaves or its connection is lost.
+         *
+         * @param nodeId The ID of the node
+         */
+        void onNodeLeft(String nodeId);
+    }
+}
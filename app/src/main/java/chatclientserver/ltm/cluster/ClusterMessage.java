@@ -0,0 +1,269 @@
+package chatclientserver.ltm.cluster;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+import chatclientserver.ltm.protocol.BinaryPayloadCodec;
+import chatclientserver.ltm.protocol.PayloadCodec;
+import chatclientserver.ltm.protocol.WireInput;
+import chatclientserver.ltm.protocol.WireOutput;
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * A message exchanged between server nodes of a cluster.
+ * The kind is one of Constants.CLUSTER_*:
+ * <pre>
+ *   ROOM_MESSAGE     room, type, payload      relay to the members of a room
+ *   USER_MESSAGE     userId, username, type,  relay to the sessions of a user, addressed
+ *                    payload                  by ID if it is positive, otherwise by name
+ *   USER_ONLINE      userId, username         the user has a session on the origin node
+ *   USER_OFFLINE     userId, username         the user has no more sessions on the origin node
+ *   PRESENCE_RESET                            forget the users of the origin node; sent before
+ *                                             a full presence announcement
+ *   NODE_INFO        payload (REDIRECT)       the host:port clients reach the origin node at;
+ *                                             the origin node takes its place on the hash ring
+ * </pre>
+ * Payloads use the binary layout of the client protocol, so a relayed chat
+ * message is encoded the same way on the bus as on a client connection.
+ */
+public class ClusterMessage {
+    private static final PayloadCodec PAYLOAD_CODEC = BinaryPayloadCodec.WITH_REDIRECT;
+    private static final int INITIAL_PAYLOAD_CAPACITY = 256;
+
+    private final int kind;
+    private final String originNodeId;
+    private final String room;
+    private final int userId;
+    private final String username;
+    private final int type;
+    private final Object payload;
+    private final long sentAtMicros;
+
+    /**
+     * Constructs a ClusterMessage.
+     *
+     * @param kind The kind of message (one of Constants.CLUSTER_*)
+     * @param originNodeId The ID of the node that sent the message
+     * @param room The room name, or null
+     * @param userId The user ID, or 0
+     * @param username The username, or null
+     * @param type The client message type of the payload, or 0 if there is none
+     * @param payload The payload object, or null
+     * @param sentAtMicros The time the message was sent, in microseconds since the epoch
+     */
+    public ClusterMessage(int kind, String originNodeId, String room, int userId, String username,
+            int type, Object payload, long sentAtMicros) {
+        this.kind = kind;
+        this.originNodeId = originNodeId;
+        this.room = room;
+        this.userId = userId;
+        this.username = username;
+        this.type = type;
+        this.payload = payload;
+        this.sentAtMicros = sentAtMicros;
+    }
+
+    /**
+     * Creates a message relayed to the members of a room.
+     *
+     * @param originNodeId The ID of the sending node
+     * @param room The room name
+     * @param type The client message type
+     * @param payload The payload object
+     * @return The cluster message
+     */
+    public static ClusterMessage roomMessage(String originNodeId, String room, int type, Object payload) {
+        return new ClusterMessage(Constants.CLUSTER_ROOM_MESSAGE, originNodeId, room, 0, null, type, payload,
+                currentTimeMicros());
+    }
+
+    /**
+     * Creates a message relayed to the sessions of a user.
+     *
+     * @param originNodeId The ID of the sending node
+     * @param userId The recipient's user ID, or 0 to address the recipient by name
+     * @param username The recipient's username
+     * @param type The client message type
+     * @param payload The payload object
+     * @return The cluster message
+     */
+    public static ClusterMessage userMessage(String originNodeId, int userId, String username, int type, Object payload) {
+        return new ClusterMessage(Constants.CLUSTER_USER_MESSAGE, originNodeId, null, userId, username, type, payload,
+                currentTimeMicros());
+    }
+
+    /**
+     * Creates a presence announcement.
+     *
+     * @param kind Constants.CLUSTER_USER_ONLINE or Constants.CLUSTER_USER_OFFLINE
+     * @param originNodeId The ID of the sending node
+     * @param userId The user ID
+     * @param username The username
+     * @return The cluster message
+     */
+    public static ClusterMessage presence(int kind, String originNodeId, int userId, String username) {
+        return new ClusterMessage(kind, originNodeId, null, userId, username, 0, null, currentTimeMicros());
+    }
+
+    /**
+     * Creates the message that starts a full presence announcement.
+     *
+     * @param originNodeId The ID of the sending node
+     * @return The cluster message
+     */
+    public static ClusterMessage presenceReset(String originNodeId) {
+        return new ClusterMessage(Constants.CLUSTER_PRESENCE_RESET, originNodeId, null, 0, null, 0, null,
+                currentTimeMicros());
+    }
+
+    /**
+     * Creates the message that tells other nodes where clients reach a node.
+     *
+     * @param originNodeId The ID of the sending node
+     * @param address The host:port clients connect to
+     * @return The cluster message
+     */
+    public static ClusterMessage nodeInfo(String originNodeId, String address) {
+        return new ClusterMessage(Constants.CLUSTER_NODE_INFO, originNodeId, null, 0, null,
+                Constants.MESSAGE_TYPE_REDIRECT, address, currentTimeMicros());
+    }
+
+    /**
+     * Gets the current time with microsecond resolution.
+     * Relay latency is measured against the sender's clock, so the nodes' clocks
+     * must be synchronized; nodes on one machine share a clock.
+     *
+     * @return The time in microseconds since the epoch
+     */
+    public static long currentTimeMicros() {
+        return ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now());
+    }
+
+    /**
+     * Encodes the message.
+     *
+     * @param out The output to append to
+     * @throws IOException If the payload cannot be encoded
+     */
+    public void encode(WireOutput out) throws IOException {
+        out.writeInt(kind);
+        out.writeString(originNodeId);
+        out.writeString(room);
+        out.writeInt(userId);
+        out.writeString(username);
+        out.writeInt(type);
+        out.writeLong(sentAtMicros);
+        if (payload == null) {
+            out.writeBytes(null);
+            return;
+        }
+        // The payload is length-prefixed so that a reader knows where it ends
+        WireOutput encoded = new WireOutput(INITIAL_PAYLOAD_CAPACITY);
+        PAYLOAD_CODEC.encode(type, payload, encoded);
+        out.writeInt(encoded.size());
+        out.write(encoded.toByteBuffer().array(), 0, encoded.size());
+    }
+
+    /**
+     * Decodes a message.
+     *
+     * @param data The array holding the message
+     * @param offset The offset of the message in the array
+     * @param length The length of the message
+     * @return The message
+     * @throws IOException If the message is truncated or corrupt
+     */
+    public static ClusterMessage decode(byte[] data, int offset, int length) throws IOException {
+        WireInput in = new WireInput(data, offset, length);
+        int kind = in.readInt();
+        String originNodeId = in.readString();
+        String room = in.readString();
+        int userId = in.readInt();
+        String username = in.readString();
+        int type = in.readInt();
+        long sentAtMicros = in.readLong();
+        byte[] encoded = in.readBytes();
+        Object payload = null;
+        if (encoded != null) {
+            try {
+                payload = PAYLOAD_CODEC.decode(type, encoded, 0, encoded.length);
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Cannot decode payload of type " + type, e);
+            }
+        }
+        return new ClusterMessage(kind, originNodeId, room, userId, username, type, payload, sentAtMicros);
+    }
+
+    /**
+     * Gets the kind of message.
+     *
+     * @return One of Constants.CLUSTER_*
+     */
+    public int getKind() {
+        return kind;
+    }
+
+    /**
+     * Gets the ID of the node that sent the message.
+     *
+     * @return The node ID
+     */
+    public String getOriginNodeId() {
+        return originNodeId;
+    }
+
+    /**
+     * Gets the room name.
+     *
+     * @return The room name, or null
+     */
+    public String getRoom() {
+        return room;
+    }
+
+    /**
+     * Gets the user ID.
+     *
+     * @return The user ID, or 0
+     */
+    public int getUserId() {
+        return userId;
+    }
+
+    /**
+     * Gets the username.
+     *
+     * @return The username, or null
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Gets the client message type of the payload.
+     *
+     * @return The message type, or 0 if there is no payload
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Gets the payload object.
+     *
+     * @return The payload object, or null
+     */
+    public Object getPayload() {
+        return payload;
+    }
+
+    /**
+     * Gets the time the message was sent.
+     *
+     * @return The time in microseconds since the epoch
+     */
+    public long getSentAtMicros() {
+        return sentAtMicros;
+    }
+}
@@ -0,0 +1,160 @@
+package chatclientserver.ltm.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Consistent-hash ring that maps keys, such as room names or user IDs, to the
+ * cluster nodes that own them.
+ * Every node is placed on the ring at many points (virtual nodes), and a key
+ * belongs to the node at the first point at or after the key's hash. Adding a
+ * node therefore only takes over keys from its new neighbours, and removing a
+ * node only hands its own keys to theirs; all other keys stay where they are.
+ * The virtual nodes spread each node's share over the whole ring, which keeps
+ * the load even.
+ */
+public class HashRing {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int virtualNodes;
+    private final NavigableMap<Long, String> points = new TreeMap<>();
+    private final Set<String> nodes = new TreeSet<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Constructs an empty HashRing.
+     *
+     * @param virtualNodes The number of points each node has on the ring
+     */
+    public HashRing(int virtualNodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("Virtual nodes must be positive");
+        }
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * Adds a node to the ring.
+     *
+     * @param nodeId The ID of the node
+     * @return true if the node was added, false if it was already on the ring
+     */
+    public boolean add(String nodeId) {
+        lock.writeLock().lock();
+        try {
+            if (!nodes.add(nodeId)) {
+                return false;
+            }
+            for (int i = 0; i < virtualNodes; i++) {
+                // On the rare hash collision the lower node ID keeps the point, whatever the order nodes join in
+                points.merge(hash(nodeId + "#" + i), nodeId, (kept, added) -> kept.compareTo(added) <= 0 ? kept : added);
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a node from the ring.
+     *
+     * @param nodeId The ID of the node
+     * @return true if the node was removed, false if it was not on the ring
+     */
+    public boolean remove(String nodeId) {
+        lock.writeLock().lock();
+        try {
+            if (!nodes.remove(nodeId)) {
+                return false;
+            }
+            points.values().removeIf(nodeId::equals);
+
+            // Give back collided points to the remaining nodes
+            for (String node : nodes) {
+                for (int i = 0; i < virtualNodes; i++) {
+                    points.merge(hash(node + "#" + i), node, (kept, added) -> kept.compareTo(added) <= 0 ? kept : added);
+                }
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the node that owns a key.
+     *
+     * @param key The key
+     * @return The ID of the owning node, or null if the ring is empty
+     */
+    public String ownerOf(String key) {
+        lock.readLock().lock();
+        try {
+            if (points.isEmpty()) {
+                return null;
+            }
+            Map.Entry<Long, String> point = points.ceilingEntry(hash(key));
+            // Past the last point the ring wraps around to the first
+            return (point != null ? point : points.firstEntry()).getValue();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Checks whether a node is on the ring.
+     *
+     * @param nodeId The ID of the node
+     * @return true if the node is on the ring
+     */
+    public boolean contains(String nodeId) {
+        lock.readLock().lock();
+        try {
+            return nodes.contains(nodeId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the nodes on the ring.
+     *
+     * @return A sorted snapshot of the node IDs
+     */
+    public Set<String> getNodes() {
+        lock.readLock().lock();
+        try {
+            return new TreeSet<>(nodes);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Hashes a string onto the ring: 64-bit FNV-1a over its UTF-8 bytes, followed
+     * by a finalizer that spreads similar inputs (such as "room-1" and "room-2")
+     * far apart.
+     *
+     * @param value The string
+     * @return The position on the ring
+     */
+    static long hash(String value) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,167 @@
+package chatclientserver.ltm.cluster;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cluster bus linking server nodes that run in the same JVM, for tests and
+ * single-machine setups. Messages are handed over by reference without being
+ * encoded. Each node receives on its own thread, so a slow node does not hold
+ * up the others and messages from one node arrive in the order they were sent.
+ */
+public class InProcessClusterBus implements ClusterBus {
+    private final Hub hub;
+    private final String nodeId;
+    private volatile Listener listener;
+    private volatile ExecutorService receiver;
+
+    /**
+     * Constructs an InProcessClusterBus.
+     *
+     * @param hub The hub shared by the nodes of the cluster
+     * @param nodeId The ID of this node
+     */
+    public InProcessClusterBus(Hub hub, String nodeId) {
+        this.hub = hub;
+        this.nodeId = nodeId;
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void start(Listener listener) {
+        this.listener = listener;
+        this.receiver = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "cluster-" + nodeId);
+            thread.setDaemon(true);
+            return thread;
+        });
+        hub.join(this);
+    }
+
+    @Override
+    public void publish(ClusterMessage message) {
+        for (InProcessClusterBus node : hub.others(this)) {
+            node.deliver(() -> node.listener.onMessage(message));
+        }
+    }
+
+    @Override
+    public void send(String nodeId, ClusterMessage message) {
+        InProcessClusterBus node = hub.find(nodeId);
+        if (node != null) {
+            node.deliver(() -> node.listener.onMessage(message));
+        }
+    }
+
+    @Override
+    public void stop() {
+        hub.leave(this);
+        ExecutorService executor = receiver;
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Runs a notification on this node's receiving thread.
+     *
+     * @param notification The notification
+     */
+    private void deliver(Runnable notification) {
+        try {
+            receiver.execute(notification);
+        } catch (RejectedExecutionException e) {
+            // The node is stopping
+        }
+    }
+
+    /**
+     * The meeting point of the nodes of an in-process cluster.
+     */
+    public static class Hub {
+        private final Map<String, InProcessClusterBus> nodes = new LinkedHashMap<>();
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /**
+         * Adds a node and tells it and the existing nodes about each other.
+         *
+         * @param joining The node
+         */
+        private void join(InProcessClusterBus joining) {
+            lock.lock();
+            try {
+                if (nodes.containsKey(joining.nodeId)) {
+                    throw new IllegalArgumentException("Node ID already in use: " + joining.nodeId);
+                }
+                for (InProcessClusterBus node : nodes.values()) {
+                    node.deliver(() -> node.listener.onNodeJoined(joining.nodeId));
+                    joining.deliver(() -> joining.listener.onNodeJoined(node.nodeId));
+                }
+                nodes.put(joining.nodeId, joining);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Removes a node and tells the remaining nodes.
+         *
+         * @param leaving The node
+         */
+        private void leave(InProcessClusterBus leaving) {
+            lock.lock();
+            try {
+                if (!nodes.remove(leaving.nodeId, leaving)) {
+                    return;
+                }
+                for (InProcessClusterBus node : nodes.values()) {
+                    node.deliver(() -> node.listener.onNodeLeft(leaving.nodeId));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Gets every node except one.
+         *
+         * @param self The node to leave out
+         * @return The other nodes
+         */
+        private List<InProcessClusterBus> others(InProcessClusterBus self) {
+            lock.lock();
+            try {
+                List<InProcessClusterBus> others = new ArrayList<>(nodes.values());
+                others.remove(self);
+                return others;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Looks up a node.
+         *
+         * @param nodeId The ID of the node
+         * @return The node, or null if it is not in the cluster
+         */
+        private InProcessClusterBus find(String nodeId) {
+            lock.lock();
+            try {
+                return nodes.get(nodeId);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,494 @@
+package chatclientserver.ltm.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import chatclientserver.ltm.protocol.WireOutput;
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Cluster bus linking server nodes over TCP.
+ * Every node listens on its cluster port and keeps one outgoing connection to
+ * each peer, so the peers list of every node should name all the other nodes.
+ * A connection starts with both sides exchanging their node IDs and proving
+ * that they know the cluster's shared secret; after that the connecting side
+ * writes length-prefixed messages and the accepting side reads them.
+ * <p>
+ * In the handshake each side sends a random nonce and answers the other's
+ * nonce with an HMAC-SHA256 of it and its own node ID, keyed with the secret,
+ * so the secret never crosses the network and a node that does not know it
+ * can neither join nor pose as a peer. The handshake must finish within
+ * {@link Constants#CLUSTER_HANDSHAKE_TIMEOUT_MILLIS}, and at most
+ * {@link Constants#MAX_CLUSTER_INBOUND_CONNECTIONS} inbound connections are
+ * served at once, so stray connections cannot pile up reader threads.
+ * <p>
+ * Each outgoing connection has a bounded queue and its own writer
+ * thread, so a slow or unreachable peer does not hold up the others; messages
+ * for a peer that is not connected, or whose queue is full, are dropped and
+ * counted. Lost connections are retried with a growing delay.
+ */
+public class TcpClusterBus implements ClusterBus {
+    private static final int INITIAL_MESSAGE_CAPACITY = 256;
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final byte ACCEPTING_SIDE = 'A';
+    private static final byte CONNECTING_SIDE = 'C';
+    private static final int PROOF_SIZE = 32; // Bytes in an HMAC-SHA256
+
+    private final String nodeId;
+    private final String bindAddress;
+    private final int port;
+    private final SecretKeySpec secret;
+    private final SecureRandom random = new SecureRandom();
+    private final Semaphore inboundPermits = new Semaphore(Constants.MAX_CLUSTER_INBOUND_CONNECTIONS);
+    private final List<InetSocketAddress> peerAddresses;
+    private final List<Peer> peers = new ArrayList<>();
+    private final Map<String, Peer> peersByNode = new ConcurrentHashMap<>();
+    private final Map<String, Socket> inbound = new ConcurrentHashMap<>();
+    private final ReentrantLock deliveryLock = new ReentrantLock();
+    private final LongAdder droppedMessages = new LongAdder();
+    private volatile Listener listener;
+    private volatile ServerSocket serverSocket;
+    private volatile boolean running;
+
+    /**
+     * Constructs a TcpClusterBus.
+     *
+     * @param nodeId The ID of this node
+     * @param bindAddress The local address to accept connections from other nodes on, or an empty string for all
+     * @param port The port to accept connections from other nodes on
+     * @param peerAddresses The cluster addresses of the other nodes
+     * @param secret The secret shared by all nodes of the cluster
+     * @throws IllegalArgumentException If the secret is empty
+     */
+    public TcpClusterBus(String nodeId, String bindAddress, int port, List<InetSocketAddress> peerAddresses,
+            String secret) {
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException("Cluster secret must not be empty");
+        }
+        this.nodeId = nodeId;
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.peerAddresses = new ArrayList<>(peerAddresses);
+        this.secret = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM);
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void start(Listener listener) throws IOException {
+        this.listener = listener;
+        ServerSocket socket = new ServerSocket();
+        socket.bind(bindAddress == null || bindAddress.isEmpty()
+                ? new InetSocketAddress(port)
+                : new InetSocketAddress(bindAddress, port));
+        serverSocket = socket;
+        running = true;
+        startThread("cluster-accept-" + nodeId, this::acceptConnections);
+        for (InetSocketAddress address : peerAddresses) {
+            Peer peer = new Peer(address);
+            peers.add(peer);
+            startThread("cluster-peer-" + address, peer::run);
+        }
+        System.out.println("Cluster node " + nodeId + " listening on " + serverSocket.getLocalSocketAddress());
+    }
+
+    @Override
+    public void publish(ClusterMessage message) {
+        for (Peer peer : peers) {
+            peer.offer(message);
+        }
+    }
+
+    @Override
+    public void send(String nodeId, ClusterMessage message) {
+        Peer peer = peersByNode.get(nodeId);
+        if (peer != null) {
+            peer.offer(message);
+        } else {
+            droppedMessages.increment();
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing cluster socket: " + e.getMessage());
+        }
+        for (Peer peer : peers) {
+            peer.close();
+        }
+        for (Socket socket : inbound.values()) {
+            closeQuietly(socket);
+        }
+        inbound.clear();
+    }
+
+    /**
+     * Gets the port the bus accepts connections on.
+     *
+     * @return The local port, or -1 if the bus is not started
+     */
+    public int getLocalPort() {
+        ServerSocket socket = serverSocket;
+        return socket != null ? socket.getLocalPort() : -1;
+    }
+
+    /**
+     * Gets the number of messages dropped because a peer was not connected or too slow.
+     *
+     * @return The number of dropped messages
+     */
+    public long getDroppedMessages() {
+        return droppedMessages.sum();
+    }
+
+    /**
+     * Accepts connections from other nodes until the bus stops.
+     */
+    private void acceptConnections() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                if (!inboundPermits.tryAcquire()) {
+                    System.err.println("Too many cluster connections, refusing " + socket.getRemoteSocketAddress());
+                    closeQuietly(socket);
+                    continue;
+                }
+                startThread("cluster-inbound-" + socket.getRemoteSocketAddress(), () -> {
+                    try {
+                        readMessages(socket);
+                    } finally {
+                        inboundPermits.release();
+                    }
+                });
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Error accepting cluster connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the messages a node sends on a connection it opened, once it has
+     * proved that it knows the cluster secret.
+     *
+     * @param socket The accepted socket
+     */
+    private void readMessages(Socket socket) {
+        String peerId = null;
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(Constants.CLUSTER_HANDSHAKE_TIMEOUT_MILLIS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            String claimedId = in.readUTF();
+            byte[] peerNonce = readBytes(in, Constants.CLUSTER_NONCE_SIZE);
+            byte[] nonce = newNonce();
+            out.writeUTF(nodeId);
+            out.write(nonce);
+            out.write(prove(ACCEPTING_SIDE, peerNonce, nodeId));
+            out.flush();
+            byte[] proof = readBytes(in, PROOF_SIZE);
+            if (!MessageDigest.isEqual(proof, prove(CONNECTING_SIDE, nonce, claimedId))) {
+                throw new IOException("Node " + claimedId + " at " + socket.getRemoteSocketAddress()
+                        + " does not know the cluster secret");
+            }
+            peerId = claimedId;
+
+            // Messages may be far apart once the node is known
+            socket.setSoTimeout(0);
+
+            // A newer connection from the same node replaces an older one that has not failed yet
+            Socket previous = inbound.put(peerId, socket);
+            if (previous != null) {
+                closeQuietly(previous);
+            }
+
+            while (running) {
+                int length = in.readInt();
+                if (length <= 0 || length > Constants.MAX_FRAME_SIZE) {
+                    throw new IOException("Invalid cluster message length: " + length);
+                }
+                byte[] data = new byte[length];
+                in.readFully(data);
+                ClusterMessage message = ClusterMessage.decode(data, 0, length);
+                deliver(() -> listener.onMessage(message));
+            }
+        } catch (EOFException | SocketException e) {
+            // The node went away or the bus is stopping
+        } catch (IOException e) {
+            System.err.println("Error reading from cluster node "
+                    + (peerId != null ? peerId : socket.getRemoteSocketAddress()) + ": " + e.getMessage());
+        } finally {
+            closeQuietly(socket);
+            String leftId = peerId;
+            if (leftId != null && inbound.remove(leftId, socket) && running) {
+                deliver(() -> listener.onNodeLeft(leftId));
+            }
+        }
+    }
+
+    /**
+     * Creates a random nonce for a handshake.
+     *
+     * @return The nonce
+     */
+    private byte[] newNonce() {
+        byte[] nonce = new byte[Constants.CLUSTER_NONCE_SIZE];
+        random.nextBytes(nonce);
+        return nonce;
+    }
+
+    /**
+     * Computes the answer to the other side's nonce, which only a node that knows the secret can give.
+     * The side is part of the answer, so an answer cannot be sent back to the node that gave it.
+     *
+     * @param side ACCEPTING_SIDE or CONNECTING_SIDE, the side giving the answer
+     * @param nonce The other side's nonce
+     * @param answeringNodeId The ID of the node giving the answer
+     * @return The HMAC of the side, nonce and node ID
+     * @throws IOException If HMAC-SHA256 is not available
+     */
+    private byte[] prove(byte side, byte[] nonce, String answeringNodeId) throws IOException {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(secret);
+            mac.update(side);
+            mac.update(nonce);
+            mac.update(answeringNodeId.getBytes(StandardCharsets.UTF_8));
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot authenticate cluster nodes: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads a fixed number of bytes.
+     *
+     * @param in The stream
+     * @param length The number of bytes
+     * @return The bytes
+     * @throws IOException If the stream ends first or reading fails
+     */
+    private static byte[] readBytes(DataInputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Notifies the listener, one notification at a time.
+     *
+     * @param notification The notification
+     */
+    private void deliver(Runnable notification) {
+        deliveryLock.lock();
+        try {
+            notification.run();
+        } catch (RuntimeException e) {
+            System.err.println("Error handling cluster message: " + e.getMessage());
+        } finally {
+            deliveryLock.unlock();
+        }
+    }
+
+    /**
+     * Starts a daemon thread.
+     *
+     * @param name The thread name
+     * @param task The task to run
+     */
+    private static void startThread(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Closes a socket, ignoring errors.
+     *
+     * @param socket The socket (can be null)
+     */
+    private static void closeQuietly(Socket socket) {
+        if (socket == null) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    /**
+     * The outgoing connection to one peer node.
+     */
+    private class Peer {
+        private final InetSocketAddress address;
+        private final BlockingQueue<ClusterMessage> queue = new ArrayBlockingQueue<>(Constants.CLUSTER_QUEUE_CAPACITY);
+        private volatile Socket socket;
+        private volatile boolean connected;
+
+        /**
+         * Constructs a Peer.
+         *
+         * @param address The peer's cluster address
+         */
+        Peer(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        /**
+         * Queues a message for the peer.
+         *
+         * @param message The message
+         */
+        void offer(ClusterMessage message) {
+            if (!connected || !queue.offer(message)) {
+                droppedMessages.increment();
+            }
+        }
+
+        /**
+         * Connects to the peer and writes queued messages, reconnecting until the bus stops.
+         */
+        void run() {
+            long retryMillis = Constants.CLUSTER_RETRY_MILLIS;
+            while (running && !Thread.currentThread().isInterrupted()) {
+                String peerId = null;
+                try {
+                    socket = new Socket();
+                    // Resolve on every attempt, so that a peer that moved is found again
+                    socket.connect(new InetSocketAddress(address.getHostString(), address.getPort()),
+                            Constants.CONNECT_TIMEOUT_MILLIS);
+                    socket.setTcpNoDelay(true);
+                    socket.setSoTimeout(Constants.CLUSTER_HANDSHAKE_TIMEOUT_MILLIS);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    byte[] nonce = newNonce();
+                    out.writeUTF(nodeId);
+                    out.write(nonce);
+                    out.flush();
+                    String claimedId = in.readUTF();
+                    byte[] peerNonce = readBytes(in, Constants.CLUSTER_NONCE_SIZE);
+                    byte[] proof = readBytes(in, PROOF_SIZE);
+                    if (!MessageDigest.isEqual(proof, prove(ACCEPTING_SIDE, nonce, claimedId))) {
+                        System.err.println("Cluster node at " + address + " does not know the cluster secret");
+                        throw new IOException("Cluster authentication failed");
+                    }
+                    out.write(prove(CONNECTING_SIDE, peerNonce, nodeId));
+                    out.flush();
+                    peerId = claimedId;
+
+                    // Messages queued before the peer was reachable are stale
+                    queue.clear();
+                    peersByNode.put(peerId, this);
+                    connected = true;
+                    retryMillis = Constants.CLUSTER_RETRY_MILLIS;
+                    String joinedId = peerId;
+                    deliver(() -> listener.onNodeJoined(joinedId));
+                    writeMessages(out);
+                } catch (IOException e) {
+                    if (running && peerId != null) {
+                        System.err.println("Lost cluster connection to " + peerId + ": " + e.getMessage());
+                    }
+                } finally {
+                    connected = false;
+                    if (peerId != null) {
+                        peersByNode.remove(peerId, this);
+                    }
+                    closeQuietly(socket);
+                }
+                if (running) {
+                    sleep(retryMillis);
+                    retryMillis = Math.min(retryMillis * 2, Constants.CLUSTER_MAX_RETRY_MILLIS);
+                }
+            }
+        }
+
+        /**
+         * Writes queued messages until the connection fails or the bus stops.
+         * The stream is flushed whenever the queue runs empty, so a burst of
+         * messages goes out in as few packets as possible.
+         *
+         * @param out The connection's output stream
+         * @throws IOException If writing fails
+         */
+        private void writeMessages(DataOutputStream out) throws IOException {
+            while (running) {
+                ClusterMessage message;
+                try {
+                    message = queue.poll(Constants.CLUSTER_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (message == null) {
+                    continue;
+                }
+                WireOutput encoded = new WireOutput(INITIAL_MESSAGE_CAPACITY);
+                message.encode(encoded);
+                out.writeInt(encoded.size());
+                out.write(encoded.toByteBuffer().array(), 0, encoded.size());
+                if (queue.isEmpty()) {
+                    out.flush();
+                }
+            }
+        }
+
+        /**
+         * Waits before the next connection attempt.
+         *
+         * @param millis The delay in milliseconds
+         */
+        private void sleep(long millis) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Closes the connection to the peer.
+         */
+        void close() {
+            connected = false;
+            closeQuietly(socket);
+        }
+    }
+}
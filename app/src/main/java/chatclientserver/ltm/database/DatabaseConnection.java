@@ -4,14 +4,19 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Singleton class for managing database connections.
  * This class ensures that only one database connection is created and reused.
+ * Locking uses ReentrantLock instead of synchronized because connecting blocks
+ * on the network, which would pin the carrier thread of a virtual thread.
  */
 public class DatabaseConnection {
-    private static DatabaseConnection instance;
-    private Connection connection;
+    private static final ReentrantLock INSTANCE_LOCK = new ReentrantLock();
+    private static volatile DatabaseConnection instance;
+    private final ReentrantLock connectionLock = new ReentrantLock();
+    private volatile Connection connection;
 
     // Database connection parameters
     private static final String URL = "jdbc:postgresql://ltm-network-basic.k.aivencloud.com:22871/defaultdb?ssl=require";
@@ -45,11 +50,20 @@ public class DatabaseConnection {
      *
      * @return The DatabaseConnection instance
      */
-    public static synchronized DatabaseConnection getInstance() {
-        if (instance == null) {
-            instance = new DatabaseConnection();
+    public static DatabaseConnection getInstance() {
+        DatabaseConnection result = instance;
+        if (result == null) {
+            INSTANCE_LOCK.lock();
+            try {
+                if (instance == null) {
+                    instance = new DatabaseConnection();
+                }
+                result = instance;
+            } finally {
+                INSTANCE_LOCK.unlock();
+            }
         }
-        return instance;
+        return result;
     }
 
     /**
@@ -58,6 +72,7 @@ public class DatabaseConnection {
      * @return The Connection object
      */
     public Connection getConnection() {
+        connectionLock.lock();
         try {
             // Check if connection is closed or invalid
             if (connection == null || connection.isClosed()) {
@@ -66,6 +81,8 @@ public class DatabaseConnection {
             }
         } catch (SQLException e) {
             System.err.println("Error checking database connection: " + e.getMessage());
+        } finally {
+            connectionLock.unlock();
         }
 
         return connection;
@@ -111,10 +128,14 @@ public class DatabaseConnection {
                     "key VARCHAR(100) NOT NULL, " +
                     "decrypted_message TEXT NOT NULL, " +
                     "phrase_positions TEXT, " +
+                    "room VARCHAR(100), " +
                     "timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
                     ")";
             statement.execute(createMessagesTable);
 
+            // Tables created before messages recorded their room get the column; their rows keep a NULL room
+            statement.execute("ALTER TABLE Messages ADD COLUMN IF NOT EXISTS room VARCHAR(100)");
+
             // Create FileTransfers table
             String createFileTransfersTable = "CREATE TABLE IF NOT EXISTS FileTransfers (" +
                     "id SERIAL PRIMARY KEY, " +
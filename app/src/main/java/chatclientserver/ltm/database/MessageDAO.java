@@ -5,10 +5,14 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import chatclientserver.ltm.model.Message;
+import chatclientserver.ltm.util.Constants;
 
 /**
  * Data Access Object for Message entities.
@@ -31,8 +35,8 @@ public class MessageDAO {
      * @return The ID of the saved message, or -1 if the operation failed
      */
     public int saveMessage(Message message) {
-        String sql = "INSERT INTO Messages (client_id, user_id, encrypted_message, key, decrypted_message, phrase_positions) " +
-                     "VALUES (?, ?, ?, ?, ?, ?)";
+        String sql = "INSERT INTO Messages (client_id, user_id, encrypted_message, key, decrypted_message, phrase_positions, room) " +
+                     "VALUES (?, ?, ?, ?, ?, ?, ?)";
 
         try (PreparedStatement statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             statement.setString(1, message.getClientId());
@@ -48,6 +52,7 @@ public class MessageDAO {
             statement.setString(4, message.getKey());
             statement.setString(5, message.getDecryptedMessage());
             statement.setString(6, message.getPhrasePositions());
+            statement.setString(7, message.getRoom() != null ? message.getRoom() : Constants.DEFAULT_ROOM);
 
             int affectedRows = statement.executeUpdate();
 
@@ -158,6 +163,7 @@ public class MessageDAO {
         message.setKey(resultSet.getString("key"));
         message.setDecryptedMessage(resultSet.getString("decrypted_message"));
         message.setPhrasePositions(resultSet.getString("phrase_positions"));
+        message.setRoom(resultSet.getString("room"));
         message.setTimestamp(resultSet.getTimestamp("timestamp"));
         return message;
     }
@@ -225,4 +231,47 @@ public class MessageDAO {
 
         return messages;
     }
+
+    /**
+     * Gets the most recent messages sent to some rooms before a point in time.
+     * Messages stored before the database recorded rooms are never returned,
+     * since their room is unknown.
+     *
+     * @param before Only messages stored before this time are returned
+     * @param rooms The rooms whose messages are returned
+     * @param limit The maximum number of messages to retrieve
+     * @return A list of messages in chronological order
+     */
+    public List<Message> getMessagesBefore(Timestamp before, Collection<String> rooms, int limit) {
+        List<Message> messages = new ArrayList<>();
+        if (rooms.isEmpty() || limit <= 0) {
+            return messages;
+        }
+
+        String sql = "SELECT * FROM Messages WHERE timestamp <= ? AND room IN ("
+                + String.join(", ", Collections.nCopies(rooms.size(), "?"))
+                + ") ORDER BY timestamp DESC LIMIT ?";
+
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            int index = 1;
+            statement.setTimestamp(index++, before);
+            for (String room : rooms) {
+                statement.setString(index++, room);
+            }
+            statement.setInt(index, limit);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    messages.add(mapResultSetToMessage(resultSet));
+                }
+            }
+
+            // Reverse the list to get chronological order
+            Collections.reverse(messages);
+        } catch (SQLException e) {
+            System.err.println("Error getting messages before " + before + ": " + e.getMessage());
+        }
+
+        return messages;
+    }
 }
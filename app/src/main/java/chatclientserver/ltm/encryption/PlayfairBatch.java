@@ -0,0 +1,202 @@
+package chatclientserver.ltm.encryption;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Encrypts or decrypts many messages at once, e.g. to decrypt the stored chat
+ * history again for an export. Each message has its own key, read from it with
+ * a function (such as Message::getKey), as is its text.
+ * <p>
+ * Messages are grouped by key, so each key is looked up in the key cache once
+ * per batch, and ranges of messages are then handled in parallel on a
+ * ForkJoinPool. The results are in the order of the messages. A message whose
+ * key or text is null, or whose ciphertext has an odd number of letters, gives
+ * a null result instead of failing the whole batch.
+ */
+public class PlayfairBatch {
+    private final PlayfairKeyCache cache;
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructs a PlayfairBatch that uses the shared key cache and the common ForkJoinPool.
+     */
+    public PlayfairBatch() {
+        this(PlayfairKeyCache.getDefault(), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructs a PlayfairBatch.
+     *
+     * @param cache The cache to get the cipher of each key from
+     * @param pool The pool to run on; its parallelism sets how many threads are used
+     */
+    public PlayfairBatch(PlayfairKeyCache cache, ForkJoinPool pool) {
+        this.cache = cache;
+        this.pool = pool;
+    }
+
+    /**
+     * Encrypts a list of messages.
+     *
+     * @param <T> The type of the messages
+     * @param messages The messages
+     * @param key Gets the key of a message
+     * @param plaintext Gets the text of a message
+     * @return The ciphertexts, in the order of the messages
+     */
+    public <T> List<String> encryptAll(List<T> messages, Function<? super T, String> key,
+            Function<? super T, String> plaintext) {
+        return run(messages, key, plaintext, true);
+    }
+
+    /**
+     * Encrypts a stream of messages.
+     *
+     * @param <T> The type of the messages
+     * @param messages The messages
+     * @param key Gets the key of a message
+     * @param plaintext Gets the text of a message
+     * @return The ciphertexts, in the order of the stream
+     */
+    public <T> List<String> encryptAll(Stream<T> messages, Function<? super T, String> key,
+            Function<? super T, String> plaintext) {
+        return run(messages.toList(), key, plaintext, true);
+    }
+
+    /**
+     * Decrypts a list of messages.
+     *
+     * @param <T> The type of the messages
+     * @param messages The messages
+     * @param key Gets the key of a message
+     * @param ciphertext Gets the encrypted text of a message
+     * @return The plaintexts, in the order of the messages
+     */
+    public <T> List<String> decryptAll(List<T> messages, Function<? super T, String> key,
+            Function<? super T, String> ciphertext) {
+        return run(messages, key, ciphertext, false);
+    }
+
+    /**
+     * Decrypts a stream of messages.
+     *
+     * @param <T> The type of the messages
+     * @param messages The messages
+     * @param key Gets the key of a message
+     * @param ciphertext Gets the encrypted text of a message
+     * @return The plaintexts, in the order of the stream
+     */
+    public <T> List<String> decryptAll(Stream<T> messages, Function<? super T, String> key,
+            Function<? super T, String> ciphertext) {
+        return run(messages.toList(), key, ciphertext, false);
+    }
+
+    /**
+     * Groups the messages by key and encrypts or decrypts them on the pool.
+     *
+     * @param <T> The type of the messages
+     * @param messages The messages
+     * @param key Gets the key of a message
+     * @param text Gets the text of a message
+     * @param encrypting true to encrypt, false to decrypt
+     * @return The results, in the order of the messages
+     */
+    private <T> List<String> run(List<T> messages, Function<? super T, String> key,
+            Function<? super T, String> text, boolean encrypting) {
+        List<T> items = messages instanceof RandomAccess ? messages : new ArrayList<>(messages);
+        int count = items.size();
+
+        // Number the keys, so each key is looked up in the cache once
+        Map<String, Integer> groups = new HashMap<>();
+        int[] groupOf = new int[count];
+        for (int i = 0; i < count; i++) {
+            String messageKey = key.apply(items.get(i));
+            groupOf[i] = messageKey == null ? -1 : groups.computeIfAbsent(messageKey, k -> groups.size());
+        }
+        PlayfairCipher[] ciphers = new PlayfairCipher[groups.size()];
+        groups.forEach((messageKey, group) -> ciphers[group] = cache.get(messageKey));
+
+        // Tasks take contiguous ranges of messages, which keeps reading and storing in order
+        String[] results = new String[count];
+        if (count > 0) {
+            pool.invoke(new Task<>(items, text, encrypting, ciphers, groupOf, results, 0, count));
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Encrypts or decrypts a range of the messages, splitting it while it is large.
+     *
+     * @param <T> The type of the messages
+     */
+    private static class Task<T> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<T> items;
+        private final Function<? super T, String> text;
+        private final boolean encrypting;
+        private final PlayfairCipher[] ciphers;
+        private final int[] groupOf;
+        private final String[] results;
+        private final int from;
+        private final int to;
+
+        /**
+         * Constructs a Task.
+         *
+         * @param items The messages
+         * @param text Gets the text of a message
+         * @param encrypting true to encrypt, false to decrypt
+         * @param ciphers The cipher of each group
+         * @param groupOf The group of each message, or -1 if it has no key
+         * @param results Where to store the result of each message
+         * @param from The index of the first message to handle
+         * @param to The index after the last message to handle
+         */
+        Task(List<T> items, Function<? super T, String> text, boolean encrypting, PlayfairCipher[] ciphers,
+                int[] groupOf, String[] results, int from, int to) {
+            this.items = items;
+            this.text = text;
+            this.encrypting = encrypting;
+            this.ciphers = ciphers;
+            this.groupOf = groupOf;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > Constants.PLAYFAIR_BATCH_TASK_SIZE) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Task<>(items, text, encrypting, ciphers, groupOf, results, from, middle),
+                        new Task<>(items, text, encrypting, ciphers, groupOf, results, middle, to));
+                return;
+            }
+
+            for (int i = from; i < to; i++) {
+                String value = text.apply(items.get(i));
+                if (value == null || groupOf[i] < 0) {
+                    continue;
+                }
+                PlayfairCipher cipher = ciphers[groupOf[i]];
+                try {
+                    results[i] = encrypting ? cipher.encrypt(value) : cipher.decrypt(value);
+                } catch (IllegalArgumentException e) {
+                    // An odd number of letters cannot be decrypted; the result stays null
+                }
+            }
+        }
+    }
+}
@@ -1,20 +1,26 @@
 package chatclientserver.ltm.encryption;
 
-import java.util.ArrayList;
-import java.util.LinkedHashSet;
-import java.util.List;
-import java.util.Set;
-
-import org.apache.commons.lang3.StringUtils;
+import java.io.IOException;
 
 /**
  * Implementation of the Playfair cipher for encrypting and decrypting text messages.
  * The Playfair cipher uses a 5x5 matrix of letters constructed using a keyword.
+ * <p>
+ * The substitution of every digraph is computed once per key, into one table
+ * for encryption and one for decryption, so encrypting and decrypting work on
+ * a single char array with one table lookup per digraph. A cipher does not
+ * change after it is constructed and can be shared between threads; use
+ * {@link #forKey(String)} to get the shared cipher of a key instead of building
+ * the tables again.
  */
 public class PlayfairCipher {
     private static final int MATRIX_SIZE = 5;
-    private char[][] matrix;
-    private String key;
+    private static final int CELLS = MATRIX_SIZE * MATRIX_SIZE;
+    private final char[] matrix = new char[CELLS];
+    private final byte[] cellOf = new byte[26];
+    private final char[] encryptTable = new char[CELLS * CELLS * 2];
+    private final char[] decryptTable = new char[CELLS * CELLS * 2];
+    private final String key;
 
     /**
      * Constructs a PlayfairCipher with the specified key.
@@ -22,45 +28,119 @@ public class PlayfairCipher {
      * @param key The key to use for encryption and decryption
      */
     public PlayfairCipher(String key) {
-        this.key = key.toUpperCase().replaceAll("[^A-Z]", "");
+        this.key = normalizeKey(key);
         generateMatrix();
+        generateTables();
+    }
+
+    /**
+     * Gets the cipher for a key from the shared cache of compiled keys, building it on first use.
+     *
+     * @param key The key to use for encryption and decryption
+     * @return The cipher for the key
+     */
+    public static PlayfairCipher forKey(String key) {
+        return PlayfairKeyCache.getDefault().get(key);
+    }
+
+    /**
+     * Normalizes a key by converting it to uppercase and removing non-alphabetic characters.
+     * Keys that normalize to the same string produce the same cipher.
+     *
+     * @param key The key
+     * @return The normalized key
+     */
+    static String normalizeKey(String key) {
+        String upper = key.toUpperCase();
+        for (int i = 0; i < upper.length(); i++) {
+            char c = upper.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                // Only keys that need it are copied
+                StringBuilder letters = new StringBuilder(upper.length());
+                letters.append(upper, 0, i);
+                for (int j = i + 1; j < upper.length(); j++) {
+                    char next = upper.charAt(j);
+                    if (next >= 'A' && next <= 'Z') {
+                        letters.append(next);
+                    }
+                }
+                return letters.toString();
+            }
+        }
+        return upper;
     }
 
     /**
-     * Generates the 5x5 matrix based on the key.
+     * Generates the 5x5 matrix based on the key, stored row by row.
      * The matrix is filled with the key first (removing duplicates),
      * then the remaining letters of the alphabet (excluding 'J' which is replaced with 'I').
      */
     private void generateMatrix() {
-        matrix = new char[MATRIX_SIZE][MATRIX_SIZE];
-
-        // Create a set to hold unique characters from the key
-        Set<Character> keyChars = new LinkedHashSet<>();
+        boolean[] used = new boolean[26];
+        int cell = 0;
 
-        // Add all characters from the key
-        for (char c : key.toCharArray()) {
+        // Add all characters from the key, then the remaining alphabet characters
+        String letters = key + "ABCDEFGHIKLMNOPQRSTUVWXYZ";
+        for (int i = 0; i < letters.length(); i++) {
+            char c = letters.charAt(i);
             if (c == 'J') c = 'I'; // Replace J with I
-            keyChars.add(c);
+            if (!used[c - 'A']) {
+                used[c - 'A'] = true;
+                matrix[cell] = c;
+                cellOf[c - 'A'] = (byte) cell;
+                cell++;
+            }
         }
 
-        // Add remaining alphabet characters
-        for (char c = 'A'; c <= 'Z'; c++) {
-            if (c == 'J') continue; // Skip J
-            keyChars.add(c);
-        }
+        // J shares the cell of I
+        cellOf['J' - 'A'] = cellOf['I' - 'A'];
+    }
 
-        // Fill the matrix
-        int row = 0, col = 0;
-        for (char c : keyChars) {
-            matrix[row][col] = c;
-            col++;
-            if (col == MATRIX_SIZE) {
-                col = 0;
-                row++;
+    /**
+     * Computes the encrypted and decrypted form of every digraph using the Playfair rules.
+     * The pair for the digraph (a, b) is stored at index 2 * (cell(a) * 25 + cell(b)).
+     */
+    private void generateTables() {
+        for (int a = 0; a < CELLS; a++) {
+            for (int b = 0; b < CELLS; b++) {
+                int rowA = a / MATRIX_SIZE, colA = a % MATRIX_SIZE;
+                int rowB = b / MATRIX_SIZE, colB = b % MATRIX_SIZE;
+                int index = (a * CELLS + b) * 2;
+
+                // Same row
+                if (rowA == rowB) {
+                    encryptTable[index] = at(rowA, colA + 1);
+                    encryptTable[index + 1] = at(rowB, colB + 1);
+                    decryptTable[index] = at(rowA, colA - 1);
+                    decryptTable[index + 1] = at(rowB, colB - 1);
+                }
+                // Same column
+                else if (colA == colB) {
+                    encryptTable[index] = at(rowA + 1, colA);
+                    encryptTable[index + 1] = at(rowB + 1, colB);
+                    decryptTable[index] = at(rowA - 1, colA);
+                    decryptTable[index + 1] = at(rowB - 1, colB);
+                }
+                // Rectangle
+                else {
+                    encryptTable[index] = decryptTable[index] = at(rowA, colB);
+                    encryptTable[index + 1] = decryptTable[index + 1] = at(rowB, colA);
+                }
             }
         }
     }
 
+    /**
+     * Gets the letter in a cell of the matrix, wrapping around its edges.
+     *
+     * @param row The row, from -1 to 5
+     * @param col The column, from -1 to 5
+     * @return The letter
+     */
+    private char at(int row, int col) {
+        return matrix[((row + MATRIX_SIZE) % MATRIX_SIZE) * MATRIX_SIZE + (col + MATRIX_SIZE) % MATRIX_SIZE];
+    }
+
     /**
      * Encrypts the given plaintext using the Playfair cipher.
      *
@@ -68,19 +148,17 @@ public class PlayfairCipher {
      * @return The encrypted text
      */
     public String encrypt(String plaintext) {
-        // Prepare the plaintext
-        String prepared = preparePlaintext(plaintext);
+        // Normalize the plaintext into this thread's scratch buffer
+        char[] letters = TextNormalizer.buffer(plaintext.length() * TextNormalizer.MAX_LETTERS_PER_CHAR);
+        int count = TextNormalizer.normalize(plaintext, letters);
 
-        // Split into digraphs
-        List<String> digraphs = splitIntoDigraphs(prepared);
+        // Prepare the digraphs; every letter may be followed by an X, and one more X may make the length even
+        char[] text = new char[count * 2 + 1];
+        int length = preparePlaintext(letters, count, text);
 
-        // Encrypt each digraph
-        StringBuilder ciphertext = new StringBuilder();
-        for (String digraph : digraphs) {
-            ciphertext.append(encryptDigraph(digraph));
-        }
-
-        return ciphertext.toString();
+        // Encrypt each digraph in place
+        substitute(text, length, encryptTable);
+        return new String(text, 0, length);
     }
 
     /**
@@ -88,177 +166,141 @@ public class PlayfairCipher {
      *
      * @param ciphertext The text to decrypt
      * @return The decrypted text
+     * @throws IllegalArgumentException If the ciphertext has an odd number of letters
      */
     public String decrypt(String ciphertext) {
         // Prepare the ciphertext
-        String prepared = ciphertext.toUpperCase().replaceAll("[^A-Z]", "");
-
-        // Split into digraphs
-        List<String> digraphs = splitIntoDigraphs(prepared);
-
-        // Decrypt each digraph
-        StringBuilder plaintext = new StringBuilder();
-        for (String digraph : digraphs) {
-            plaintext.append(decryptDigraph(digraph));
+        String upper = ciphertext.toUpperCase();
+        char[] text = new char[upper.length()];
+        int length = 0;
+        for (int i = 0; i < upper.length(); i++) {
+            char c = upper.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                text[length++] = c;
+            }
+        }
+        if (length % 2 != 0) {
+            throw new IllegalArgumentException("Ciphertext must have an even number of letters");
         }
 
-        return plaintext.toString();
+        // Decrypt each digraph in place
+        substitute(text, length, decryptTable);
+        return new String(text, 0, length);
     }
 
     /**
-     * Removes diacritical marks from text, converting Vietnamese characters to their non-accented form.
+     * Encrypts a text read from a Reader or a CharBuffer, writing the ciphertext to a
+     * Writer or a CharBuffer. The text is read in chunks, so its size does not matter.
      *
-     * @param text The text to process
-     * @return The text without diacritical marks
+     * @param in The plaintext
+     * @param out Where to write the ciphertext
+     * @return The number of letters written
+     * @throws IOException If reading or writing fails
      */
-    private String removeDiacriticalMarks(String text) {
-        // Use Apache Commons Lang to remove accents
-        return StringUtils.stripAccents(text);
+    public long encrypt(Readable in, Appendable out) throws IOException {
+        return newEncryptor().transfer(in, out);
     }
 
     /**
-     * Prepares the plaintext for encryption by:
-     * 1. Removing diacritical marks (converting Vietnamese characters to non-accented form)
-     * 2. Converting to uppercase
-     * 3. Replacing spaces with 'Z'
-     * 4. Removing other non-alphabetic characters
-     * 5. Replacing 'J' with 'I'
-     * 6. Separating repeated letters with 'X'
-     * 7. Adding 'X' if the length is odd
+     * Decrypts a text read from a Reader or a CharBuffer, writing the plaintext to a
+     * Writer or a CharBuffer. The text is read in chunks, so its size does not matter.
+     * Plaintext may already have been written when an odd number of letters is detected.
      *
-     * @param plaintext The plaintext to prepare
-     * @return The prepared plaintext
+     * @param in The ciphertext
+     * @param out Where to write the plaintext
+     * @return The number of letters written
+     * @throws IOException If reading or writing fails
+     * @throws IllegalArgumentException If the ciphertext has an odd number of letters
      */
-    private String preparePlaintext(String plaintext) {
-        // Remove diacritical marks (convert Vietnamese to non-accented form)
-        String normalized = removeDiacriticalMarks(plaintext);
-
-        // Replace spaces with 'Z'
-        normalized = normalized.replace(' ', 'Z');
-
-        // Convert to uppercase and remove non-alphabetic characters
-        String text = normalized.toUpperCase().replaceAll("[^A-Z]", "");
-
-        // Replace J with I
-        text = text.replace('J', 'I');
-
-        // Separate repeated letters with X
-        StringBuilder prepared = new StringBuilder();
-        for (int i = 0; i < text.length(); i++) {
-            prepared.append(text.charAt(i));
-            if (i + 1 < text.length() && text.charAt(i) == text.charAt(i + 1)) {
-                prepared.append('X');
-            }
-        }
-
-        // Add X if the length is odd
-        if (prepared.length() % 2 != 0) {
-            prepared.append('X');
-        }
-
-        return prepared.toString();
+    public long decrypt(Readable in, Appendable out) throws IOException {
+        return newDecryptor().transfer(in, out);
     }
 
     /**
-     * Splits the text into digraphs (pairs of letters).
+     * Creates a stream that encrypts a text given in parts.
      *
-     * @param text The text to split
-     * @return A list of digraphs
+     * @return The stream
      */
-    private List<String> splitIntoDigraphs(String text) {
-        List<String> digraphs = new ArrayList<>();
-        for (int i = 0; i < text.length(); i += 2) {
-            digraphs.add(text.substring(i, i + 2));
-        }
-        return digraphs;
+    public PlayfairStream newEncryptor() {
+        return new PlayfairStream(this, true);
     }
 
     /**
-     * Encrypts a single digraph using the Playfair rules.
+     * Creates a stream that decrypts a text given in parts.
      *
-     * @param digraph The digraph to encrypt
-     * @return The encrypted digraph
+     * @return The stream
      */
-    private String encryptDigraph(String digraph) {
-        char a = digraph.charAt(0);
-        char b = digraph.charAt(1);
-
-        int[] posA = findPosition(a);
-        int[] posB = findPosition(b);
-
-        char[] result = new char[2];
-
-        // Same row
-        if (posA[0] == posB[0]) {
-            result[0] = matrix[posA[0]][(posA[1] + 1) % MATRIX_SIZE];
-            result[1] = matrix[posB[0]][(posB[1] + 1) % MATRIX_SIZE];
-        }
-        // Same column
-        else if (posA[1] == posB[1]) {
-            result[0] = matrix[(posA[0] + 1) % MATRIX_SIZE][posA[1]];
-            result[1] = matrix[(posB[0] + 1) % MATRIX_SIZE][posB[1]];
-        }
-        // Rectangle
-        else {
-            result[0] = matrix[posA[0]][posB[1]];
-            result[1] = matrix[posB[0]][posA[1]];
-        }
-
-        return new String(result);
+    public PlayfairStream newDecryptor() {
+        return new PlayfairStream(this, false);
     }
 
     /**
-     * Decrypts a single digraph using the Playfair rules.
+     * Encrypts prepared digraphs in place, for {@link PlayfairStream}.
      *
-     * @param digraph The digraph to decrypt
-     * @return The decrypted digraph
+     * @param text The prepared letters
+     * @param length The number of letters, an even number
      */
-    private String decryptDigraph(String digraph) {
-        char a = digraph.charAt(0);
-        char b = digraph.charAt(1);
-
-        int[] posA = findPosition(a);
-        int[] posB = findPosition(b);
+    void encryptDigraphs(char[] text, int length) {
+        substitute(text, length, encryptTable);
+    }
 
-        char[] result = new char[2];
+    /**
+     * Decrypts digraphs in place, for {@link PlayfairStream}.
+     *
+     * @param text The letters
+     * @param length The number of letters, an even number
+     */
+    void decryptDigraphs(char[] text, int length) {
+        substitute(text, length, decryptTable);
+    }
 
-        // Same row
-        if (posA[0] == posB[0]) {
-            result[0] = matrix[posA[0]][(posA[1] - 1 + MATRIX_SIZE) % MATRIX_SIZE];
-            result[1] = matrix[posB[0]][(posB[1] - 1 + MATRIX_SIZE) % MATRIX_SIZE];
-        }
-        // Same column
-        else if (posA[1] == posB[1]) {
-            result[0] = matrix[(posA[0] - 1 + MATRIX_SIZE) % MATRIX_SIZE][posA[1]];
-            result[1] = matrix[(posB[0] - 1 + MATRIX_SIZE) % MATRIX_SIZE][posB[1]];
-        }
-        // Rectangle
-        else {
-            result[0] = matrix[posA[0]][posB[1]];
-            result[1] = matrix[posB[0]][posA[1]];
+    /**
+     * Replaces every digraph of the text with its entry in a substitution table.
+     *
+     * @param text The letters, J included
+     * @param length The number of letters, an even number
+     * @param table The encryption or decryption table
+     */
+    private void substitute(char[] text, int length, char[] table) {
+        for (int i = 0; i < length; i += 2) {
+            int index = (cellOf[text[i] - 'A'] * CELLS + cellOf[text[i + 1] - 'A']) * 2;
+            text[i] = table[index];
+            text[i + 1] = table[index + 1];
         }
-
-        return new String(result);
     }
 
     /**
-     * Finds the position of a character in the matrix.
+     * Prepares the normalized plaintext for encryption by:
+     * 1. Separating repeated letters with 'X'
+     * 2. Adding 'X' if the length is odd
+     * Removing diacritical marks, replacing spaces with 'Z', converting to uppercase,
+     * removing non-alphabetic characters and replacing 'J' with 'I' are done by
+     * {@link TextNormalizer}.
      *
-     * @param c The character to find
-     * @return An array containing the row and column indices
+     * @param letters The normalized letters
+     * @param count The number of letters
+     * @param prepared The array to write the letters to, at least twice as long as the letters plus one
+     * @return The number of letters written, an even number
      */
-    private int[] findPosition(char c) {
-        if (c == 'J') c = 'I'; // Replace J with I
-
-        for (int i = 0; i < MATRIX_SIZE; i++) {
-            for (int j = 0; j < MATRIX_SIZE; j++) {
-                if (matrix[i][j] == c) {
-                    return new int[] {i, j};
-                }
+    private int preparePlaintext(char[] letters, int count, char[] prepared) {
+        int length = 0;
+        char previous = 0;
+        for (int i = 0; i < count; i++) {
+            char c = letters[i];
+
+            // Separate repeated letters with X
+            if (c == previous) {
+                prepared[length++] = 'X';
             }
+            prepared[length++] = c;
+            previous = c;
         }
 
-        return new int[] {-1, -1}; // Should never happen if the matrix is properly initialized
+        // Add X if the length is odd
+        if (length % 2 != 0) {
+            prepared[length++] = 'X';
+        }
+        return length;
     }
 
     /**
@@ -279,7 +321,7 @@ public class PlayfairCipher {
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < MATRIX_SIZE; i++) {
             for (int j = 0; j < MATRIX_SIZE; j++) {
-                sb.append(matrix[i][j]).append(" ");
+                sb.append(matrix[i * MATRIX_SIZE + j]).append(" ");
             }
             sb.append("\n");
         }
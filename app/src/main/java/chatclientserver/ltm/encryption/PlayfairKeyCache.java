@@ -0,0 +1,213 @@
+package chatclientserver.ltm.encryption;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Bounded cache of compiled Playfair keys, so that a key used for many messages
+ * builds its matrix and digraph tables once. Ciphers are looked up by their
+ * normalized key, so "playfair" and "PLAYFAIR" share one cipher.
+ * <p>
+ * Lookups of cached keys take no lock: they read a concurrent map and record
+ * the key in a buffer of recent uses. The keys are also kept in order of use
+ * under a lock, which the buffer is applied to in batches, by whichever hit
+ * gets the lock without waiting, and before every insertion. When a new key
+ * would take the cache over its capacity, the least recently used key is
+ * evicted in constant time. The order is approximate under load, since uses
+ * beyond a full buffer are dropped. Ciphers are built outside the lock.
+ */
+public class PlayfairKeyCache {
+    private static final PlayfairKeyCache DEFAULT = new PlayfairKeyCache(
+            Integer.getInteger("chat.keyCacheSize", Constants.DEFAULT_KEY_CACHE_SIZE));
+    // Buffered uses at which a hit tries to apply them to the order
+    private static final int DRAIN_THRESHOLD = 32;
+    // Most buffered uses; further ones are dropped until the buffer is applied
+    private static final int MAX_BUFFERED_USES = 4 * DRAIN_THRESHOLD;
+
+    private final int capacity;
+    // Read without the lock; written only with the lock held, together with the order
+    private final ConcurrentHashMap<String, PlayfairCipher> ciphers = new ConcurrentHashMap<>();
+    // Access-ordered: the least recently used key comes first. Guarded by the lock
+    private final LinkedHashMap<String, PlayfairCipher> order = new LinkedHashMap<>(16, 0.75f, true);
+    private final Queue<String> uses = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger bufferedUses = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructs a PlayfairKeyCache.
+     *
+     * @param capacity The most keys kept (at least 1)
+     */
+    public PlayfairKeyCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Key cache capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Gets the cache shared by the client and the server.
+     * Its capacity can be set with -Dchat.keyCacheSize.
+     *
+     * @return The default cache
+     */
+    public static PlayfairKeyCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Gets the cipher for a key, building it if the key is not cached.
+     *
+     * @param key The key, normalized or not
+     * @return The cipher for the key
+     */
+    public PlayfairCipher get(String key) {
+        String normalized = PlayfairCipher.normalizeKey(key);
+        PlayfairCipher cipher = ciphers.get(normalized);
+        if (cipher != null) {
+            hits.increment();
+            recordUse(normalized);
+            return cipher;
+        }
+
+        // Two threads may build the same key at once; the first one to be stored wins
+        misses.increment();
+        PlayfairCipher built = new PlayfairCipher(normalized);
+        lock.lock();
+        try {
+            applyUses();
+            PlayfairCipher existing = ciphers.get(normalized);
+            if (existing != null) {
+                order.get(normalized);
+                return existing;
+            }
+            evict();
+            order.put(normalized, built);
+            ciphers.put(normalized, built);
+        } finally {
+            lock.unlock();
+        }
+        return built;
+    }
+
+    /**
+     * Records a use of a cached key, and applies the buffered uses to the order
+     * if there are enough of them and the lock is free. Never waits for the lock.
+     *
+     * @param normalized The normalized key that was found
+     */
+    private void recordUse(String normalized) {
+        int buffered = bufferedUses.incrementAndGet();
+        if (buffered > MAX_BUFFERED_USES) {
+            // The buffer is full; losing this use only makes the order less exact
+            bufferedUses.decrementAndGet();
+        } else {
+            uses.offer(normalized);
+        }
+        if (buffered >= DRAIN_THRESHOLD && lock.tryLock()) {
+            try {
+                applyUses();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Moves the keys of the buffered uses to the recent end of the order.
+     * Keys evicted since their use are skipped. Called with the lock held.
+     */
+    private void applyUses() {
+        String used;
+        while ((used = uses.poll()) != null) {
+            bufferedUses.decrementAndGet();
+            order.get(used);
+        }
+    }
+
+    /**
+     * Evicts the least recently used keys until there is room for one more key.
+     * Called with the lock held, before the new key is added.
+     */
+    private void evict() {
+        Iterator<String> oldest = order.keySet().iterator();
+        while (order.size() >= capacity) {
+            ciphers.remove(oldest.next());
+            oldest.remove();
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Gets the number of lookups that found their key in the cache.
+     *
+     * @return The number of hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of lookups that had to build their key.
+     *
+     * @return The number of misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the number of keys evicted to stay within the capacity.
+     *
+     * @return The number of evictions
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Gets the share of lookups that found their key in the cache.
+     *
+     * @return The hit rate between 0 and 1, or 0 if nothing was looked up
+     */
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * Gets the number of keys in the cache.
+     *
+     * @return The number of cached keys
+     */
+    public int size() {
+        return ciphers.size();
+    }
+
+    /**
+     * Gets the most keys the cache keeps.
+     *
+     * @return The capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PlayfairKeyCache [size=%d/%d, hits=%d, misses=%d, hitRate=%.1f%%, evictions=%d]",
+                size(), capacity, getHits(), getMisses(), getHitRate() * 100, getEvictions());
+    }
+}
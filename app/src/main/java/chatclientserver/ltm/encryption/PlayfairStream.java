@@ -0,0 +1,224 @@
+package chatclientserver.ltm.encryption;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Encrypts or decrypts a text that is read in parts, so that texts of any size
+ * are processed in constant memory. The output is the same as that of
+ * {@link PlayfairCipher#encrypt(String)} or {@link PlayfairCipher#decrypt(String)}
+ * on the whole text.
+ * <p>
+ * Parts are given to {@link #update(CharSequence, Appendable)} and the end of the
+ * text is marked with {@link #finish(Appendable)}. Between parts the stream keeps
+ * the letter waiting for the second letter of its digraph, the last plaintext
+ * letter (to separate a repeated letter with 'X' even when the repeat starts the
+ * next part) and a high surrogate whose low surrogate is in the next part. A
+ * stream is used by one thread at a time.
+ */
+public class PlayfairStream {
+    private final PlayfairCipher cipher;
+    private final boolean encrypting;
+    // A chunk has one char more than PLAYFAIR_STREAM_CHUNK when that keeps a surrogate pair together
+    private final char[] letters = new char[(Constants.PLAYFAIR_STREAM_CHUNK + 1) * TextNormalizer.MAX_LETTERS_PER_CHAR];
+    // The letter held back from the previous chunk, then every letter with an X before it
+    private final char[] output = new char[letters.length * 2 + 1];
+    private char pending;
+    private char previous;
+    private char highSurrogate;
+    private long written;
+    private boolean finished;
+
+    /**
+     * Constructs a PlayfairStream.
+     *
+     * @param cipher The cipher whose key is used
+     * @param encrypting true to encrypt, false to decrypt
+     */
+    PlayfairStream(PlayfairCipher cipher, boolean encrypting) {
+        this.cipher = cipher;
+        this.encrypting = encrypting;
+    }
+
+    /**
+     * Reads a whole text and writes its encrypted or decrypted form, a chunk at a time.
+     *
+     * @param in The text, e.g. a Reader or a CharBuffer
+     * @param out Where to write, e.g. a Writer or a CharBuffer
+     * @return The number of letters written
+     * @throws IOException If reading or writing fails
+     * @throws IllegalArgumentException If a ciphertext has an odd number of letters
+     */
+    public long transfer(Readable in, Appendable out) throws IOException {
+        CharBuffer chunk = CharBuffer.allocate(Constants.PLAYFAIR_STREAM_CHUNK);
+        while (in.read(chunk) != -1) {
+            chunk.flip();
+            update(chunk, out);
+            chunk.clear();
+        }
+        return finish(out);
+    }
+
+    /**
+     * Processes the next part of the text. Output that depends on the rest of the text is held back.
+     *
+     * @param part The next part of the text
+     * @param out Where to write
+     * @throws IOException If writing fails
+     * @throws IllegalStateException If the stream is finished
+     */
+    public void update(CharSequence part, Appendable out) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("Stream is finished");
+        }
+
+        int start = 0;
+        int end = part.length();
+        if (end == 0) {
+            return;
+        }
+
+        // Join a surrogate pair split between the previous part and this one
+        if (highSurrogate != 0) {
+            char[] pair = {highSurrogate, part.charAt(0)};
+            highSurrogate = 0;
+            boolean joined = Character.isLowSurrogate(pair[1]);
+            process(CharBuffer.wrap(pair, 0, joined ? 2 : 1), 0, joined ? 2 : 1, out);
+            start = joined ? 1 : 0;
+        }
+
+        // Keep a high surrogate at the end for the next part
+        if (start < end && Character.isHighSurrogate(part.charAt(end - 1))) {
+            highSurrogate = part.charAt(--end);
+        }
+
+        // Process the part in chunks so the buffers stay the same size
+        while (start < end) {
+            int chunkEnd = Math.min(end, start + Constants.PLAYFAIR_STREAM_CHUNK);
+            if (chunkEnd < end && Character.isHighSurrogate(part.charAt(chunkEnd - 1))) {
+                chunkEnd++;
+            }
+            process(part, start, chunkEnd, out);
+            start = chunkEnd;
+        }
+    }
+
+    /**
+     * Ends the text, writing the output held back. When encrypting, a letter
+     * left without a pair is padded with 'X'.
+     *
+     * @param out Where to write
+     * @return The number of letters written by the stream
+     * @throws IOException If writing fails
+     * @throws IllegalArgumentException If a ciphertext has an odd number of letters
+     */
+    public long finish(Appendable out) throws IOException {
+        if (finished) {
+            return written;
+        }
+        finished = true;
+
+        // A lone high surrogate gives no letters, but it ends the text the same way
+        highSurrogate = 0;
+
+        if (pending != 0) {
+            if (!encrypting) {
+                throw new IllegalArgumentException("Ciphertext must have an even number of letters");
+            }
+            output[0] = pending;
+            output[1] = 'X';
+            pending = 0;
+            cipher.encryptDigraphs(output, 2);
+            write(out, 2);
+        }
+        return written;
+    }
+
+    /**
+     * Encrypts or decrypts a chunk of the text and writes every completed digraph.
+     *
+     * @param text The text
+     * @param start The index of the first char of the chunk
+     * @param end The index after the last char of the chunk
+     * @param out Where to write
+     * @throws IOException If writing fails
+     */
+    private void process(CharSequence text, int start, int end, Appendable out) throws IOException {
+        int count = encrypting
+                ? TextNormalizer.normalize(text, start, end, letters, 0)
+                : cipherLetters(text, start, end);
+
+        // The letter held back from the previous chunk starts the output
+        int length = 0;
+        if (pending != 0) {
+            output[length++] = pending;
+            pending = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            char c = letters[i];
+
+            // Separate repeated letters with X
+            if (encrypting && c == previous) {
+                output[length++] = 'X';
+            }
+            output[length++] = c;
+            previous = c;
+        }
+
+        // Hold back a letter without a pair
+        if (length % 2 != 0) {
+            pending = output[--length];
+        }
+        if (length == 0) {
+            return;
+        }
+        if (encrypting) {
+            cipher.encryptDigraphs(output, length);
+        } else {
+            cipher.decryptDigraphs(output, length);
+        }
+        write(out, length);
+    }
+
+    /**
+     * Collects the letters of a chunk of ciphertext, converted to uppercase.
+     *
+     * @param text The ciphertext
+     * @param start The index of the first char of the chunk
+     * @param end The index after the last char of the chunk
+     * @return The number of letters
+     */
+    private int cipherLetters(CharSequence text, int start, int end) {
+        // Upper-casing may lengthen the chunk ('ß' gives "SS"), but by less than the letters buffer allows
+        String upper = text.subSequence(start, end).toString().toUpperCase();
+        int count = 0;
+        for (int i = 0; i < upper.length(); i++) {
+            char c = upper.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                letters[count++] = c;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes the start of the output buffer.
+     *
+     * @param out Where to write
+     * @param length The number of chars to write
+     * @throws IOException If writing fails
+     */
+    private void write(Appendable out, int length) throws IOException {
+        if (out instanceof Writer writer) {
+            writer.write(output, 0, length);
+        } else if (out instanceof CharBuffer buffer) {
+            buffer.put(output, 0, length);
+        } else {
+            out.append(CharBuffer.wrap(output, 0, length));
+        }
+        written += length;
+    }
+}
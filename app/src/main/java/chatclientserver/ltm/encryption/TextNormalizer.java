@@ -0,0 +1,192 @@
+package chatclientserver.ltm.encryption;
+
+import java.util.Locale;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Normalizes text to the letters the Playfair cipher works on: diacritical marks
+ * are removed (so Vietnamese text such as "Tiếng Việt" becomes "TIENGZVIET"),
+ * 'đ' becomes 'D', spaces become 'Z', everything is upper-cased, J becomes I and
+ * anything that is not a letter from A to Z is dropped.
+ * <p>
+ * Each code point is looked up in a table of the letters it normalizes to, so a
+ * text is normalized in a single pass without intermediate strings. The table is
+ * computed from {@link StringUtils#stripAccents(String)} and upper-casing, one code
+ * point at a time, so it gives exactly the letters the string-based preparation
+ * gave. Latin letters, combining marks and the Vietnamese letters are computed when
+ * the class is loaded; the rest of the Basic Multilingual Plane is computed the
+ * first time it is seen, and code points beyond it every time. Turkish and
+ * Azerbaijani drop 'i' when upper-casing, so they get a table of their own.
+ */
+public final class TextNormalizer {
+    /** The most letters a single code point normalizes to (e.g. U+3389 "㎉" gives "KCAL"). */
+    public static final int MAX_LETTERS_PER_CHAR = 4;
+
+    // Latin, Latin-1, Latin Extended-A and -B, IPA, spacing modifiers and combining marks
+    private static final int PRELOADED_END = 0x0370;
+    // Latin Extended Additional, where the Vietnamese letters with two marks live
+    private static final int EXTENDED_START = 0x1E00;
+    private static final int EXTENDED_END = 0x1F00;
+    // Scratch buffers larger than this are not kept between calls
+    private static final int MAX_KEPT_BUFFER = 64 * 1024;
+
+    private static final String[] LETTERS = new String[Character.MAX_VALUE + 1];
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[256]);
+    // Upper-cases 'i' to a dotted capital I, like every locale that dotsCapitalI() accepts
+    private static final Locale DOTTED_I_LOCALE = Locale.forLanguageTag("tr");
+
+    static {
+        for (int c = 0; c < PRELOADED_END; c++) {
+            LETTERS[c] = transliterate(c, Locale.ROOT);
+        }
+        for (int c = EXTENDED_START; c < EXTENDED_END; c++) {
+            LETTERS[c] = transliterate(c, Locale.ROOT);
+        }
+    }
+
+    /**
+     * Prevents instantiation; all methods are static.
+     */
+    private TextNormalizer() {
+    }
+
+    /**
+     * Normalizes a text to the letters the Playfair cipher works on.
+     *
+     * @param text The text to normalize
+     * @return The upper-case letters A to Z of the text, without J
+     */
+    public static String normalize(CharSequence text) {
+        char[] buffer = buffer(text.length() * MAX_LETTERS_PER_CHAR);
+        int length = normalize(text, buffer);
+        return new String(buffer, 0, length);
+    }
+
+    /**
+     * Normalizes a text into a char array.
+     *
+     * @param text The text to normalize
+     * @param letters The array to write the letters to, at least MAX_LETTERS_PER_CHAR times as long as the text
+     * @return The number of letters written
+     */
+    public static int normalize(CharSequence text, char[] letters) {
+        return normalize(text, 0, text.length(), letters, 0);
+    }
+
+    /**
+     * Normalizes part of a text into a char array. A surrogate pair split by the end of
+     * the range is not joined, so callers reading a text in parts keep its high surrogate
+     * for the next part.
+     *
+     * @param text The text to normalize
+     * @param start The index of the first char to normalize
+     * @param end The index after the last char to normalize
+     * @param letters The array to write the letters to
+     * @param offset The index in the array to write the first letter to
+     * @return The number of letters written
+     */
+    public static int normalize(CharSequence text, int start, int end, char[] letters, int offset) {
+        boolean dottedI = dotsCapitalI(Locale.getDefault());
+        int length = offset;
+        for (int i = start; i < end; i++) {
+            String normalized = lettersOf(text, i, end, dottedI);
+            for (int j = 0; j < normalized.length(); j++) {
+                letters[length++] = normalized.charAt(j);
+            }
+            if (Character.isHighSurrogate(text.charAt(i)) && i + 1 < end
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                i++;
+            }
+        }
+        return length - offset;
+    }
+
+    /**
+     * Gets the letters the code point at an index of a text normalizes to.
+     *
+     * @param text The text
+     * @param index The index of the code point, or of its high surrogate
+     * @param end The index after the last char that can be part of the code point
+     * @param dottedI Whether the default locale upper-cases 'i' to a dotted capital I
+     * @return The letters, possibly none
+     */
+    static String lettersOf(CharSequence text, int index, int end, boolean dottedI) {
+        char c = text.charAt(index);
+        Locale locale = dottedI ? DOTTED_I_LOCALE : Locale.ROOT;
+        if (Character.isHighSurrogate(c) && index + 1 < end
+                && Character.isLowSurrogate(text.charAt(index + 1))) {
+            return transliterate(Character.toCodePoint(c, text.charAt(index + 1)), locale);
+        }
+
+        // The entries are immutable strings, so threads racing to compute one store the same value
+        String[] table = dottedI ? DottedI.LETTERS : LETTERS;
+        String letters = table[c];
+        if (letters == null) {
+            letters = transliterate(c, locale);
+            table[c] = letters;
+        }
+        return letters;
+    }
+
+    /**
+     * Checks whether a locale upper-cases 'i' to a dotted capital I (U+0130), as Turkish and
+     * Azerbaijani do. It is the only case mapping that changes the normalized letters: 'i',
+     * and every letter whose accents are removed to give 'i', are then dropped.
+     *
+     * @param locale The locale
+     * @return true if 'i' does not normalize to I in the locale
+     */
+    static boolean dotsCapitalI(Locale locale) {
+        String language = locale.getLanguage();
+        return language.equals("tr") || language.equals("az");
+    }
+
+    /**
+     * Computes the letters a code point normalizes to with the string-based steps:
+     * remove diacritical marks, replace a space with 'Z', upper-case, keep A to Z and
+     * replace J with I.
+     *
+     * @param codePoint The code point
+     * @param locale The locale to upper-case in
+     * @return The letters, possibly none
+     */
+    private static String transliterate(int codePoint, Locale locale) {
+        String stripped = StringUtils.stripAccents(new String(Character.toChars(codePoint)));
+        String upper = stripped.replace(' ', 'Z').toUpperCase(locale);
+
+        StringBuilder letters = new StringBuilder(upper.length());
+        for (int i = 0; i < upper.length(); i++) {
+            char c = upper.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                letters.append(c == 'J' ? 'I' : c);
+            }
+        }
+        return letters.toString().intern();
+    }
+
+    /**
+     * Gets this thread's scratch buffer, growing it if it is too small.
+     * The buffer is only valid until the next call on the same thread.
+     *
+     * @param capacity The number of chars needed
+     * @return The buffer
+     */
+    static char[] buffer(int capacity) {
+        char[] buffer = BUFFER.get();
+        if (buffer.length < capacity) {
+            buffer = new char[Math.max(capacity, buffer.length * 2)];
+            if (buffer.length <= MAX_KEPT_BUFFER) {
+                BUFFER.set(buffer);
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * The table for locales that upper-case 'i' to a dotted capital I, only allocated if such a locale is used.
+     */
+    private static class DottedI {
+        private static final String[] LETTERS = new String[Character.MAX_VALUE + 1];
+    }
+}
@@ -19,6 +19,10 @@ public class Message implements Serializable {
     private String decryptedMessage;
     private String phrasePositions;
     private Timestamp timestamp;
+    private String senderName; // Not stored in the database, used only for delivery to other clients
+    private String room; // Null means the default room
+    private int recipientId; // Direct messages only: the addressed user, 0 to address by name
+    private String recipientName; // Direct messages only: the addressed username
 
     /**
      * Default constructor.
@@ -185,10 +189,83 @@ public class Message implements Serializable {
         this.userId = userId;
     }
 
+    /**
+     * Gets the display name of the sender.
+     *
+     * @return The sender name
+     */
+    public String getSenderName() {
+        return senderName;
+    }
+
+    /**
+     * Sets the display name of the sender.
+     *
+     * @param senderName The sender name to set
+     */
+    public void setSenderName(String senderName) {
+        this.senderName = senderName;
+    }
+
+    /**
+     * Gets the room the message is sent to.
+     *
+     * @return The room name, or null for the default room
+     */
+    public String getRoom() {
+        return room;
+    }
+
+    /**
+     * Sets the room the message is sent to.
+     *
+     * @param room The room name to set
+     */
+    public void setRoom(String room) {
+        this.room = room;
+    }
+
+    /**
+     * Gets the user ID a direct message is addressed to.
+     *
+     * @return The recipient's user ID, or 0 if the message is addressed by name
+     */
+    public int getRecipientId() {
+        return recipientId;
+    }
+
+    /**
+     * Sets the user ID a direct message is addressed to.
+     *
+     * @param recipientId The recipient's user ID to set
+     */
+    public void setRecipientId(int recipientId) {
+        this.recipientId = recipientId;
+    }
+
+    /**
+     * Gets the username a direct message is addressed to.
+     *
+     * @return The recipient's username
+     */
+    public String getRecipientName() {
+        return recipientName;
+    }
+
+    /**
+     * Sets the username a direct message is addressed to.
+     *
+     * @param recipientName The recipient's username to set
+     */
+    public void setRecipientName(String recipientName) {
+        this.recipientName = recipientName;
+    }
+
     @Override
     public String toString() {
         return "Message [id=" + id + ", clientId=" + clientId + ", userId=" + userId + ", encryptedMessage=" + encryptedMessage + ", key=" + key
                 + ", decryptedMessage=" + decryptedMessage + ", phrasePositions=" + phrasePositions + ", timestamp="
-                + timestamp + "]";
+                + timestamp + ", senderName=" + senderName + ", room=" + room
+                + ", recipientId=" + recipientId + ", recipientName=" + recipientName + "]";
     }
 }
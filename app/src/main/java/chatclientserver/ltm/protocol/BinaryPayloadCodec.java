@@ -0,0 +1,312 @@
+package chatclientserver.ltm.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import chatclientserver.ltm.model.FileTransfer;
+import chatclientserver.ltm.model.Message;
+import chatclientserver.ltm.model.User;
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Protocol version 2 to 8 payloads: every message type has an explicit field layout.
+ * The payload layouts of all versions are the same; version 3 adds the request ID
+ * to the frame header, version 4 adds the heartbeat frames, version 5 the
+ * notice that the server is shutting down, version 6 session resumption,
+ * version 7 redirects to the cluster node that owns a session and version 8
+ * compressed payloads (see {@link FrameCodec}).
+ * <pre>
+ *   TEXT, DIRECT                  Message      (id, clientId, userId, encryptedMessage, key,
+ *                                               decryptedMessage, phrasePositions, timestamp,
+ *                                               senderName, room, recipientId, recipientName)
+ *   FILE                          FileTransfer (id, clientId, userId, fileName, fileSize,
+ *                                               fileType, timestamp, fileData)
+ *   KEY_EXCHANGE, PHRASE_POSITIONS,
+ *   JOIN_ROOM, LEAVE_ROOM,
+ *   RECIPIENT_OFFLINE, ACK,
+ *   RATE_LIMITED, PING, PONG,
+ *   SERVER_DRAINING, SESSION_TOKEN,
+ *   RESUME, LOGOUT, REDIRECT      String
+ *   USER_INFO, LOGIN, REGISTER,
+ *   LOGIN_RESULT, REGISTER_RESULT User         (id, username, passwordHash, email, fullName,
+ *                                               createdAt, lastLogin)
+ * </pre>
+ * Model payloads start with a presence flag so that null can be sent.
+ * Strings are UTF-8 with an int length prefix (-1 for null). Decoders ignore
+ * trailing bytes, so later versions can append fields without breaking older peers.
+ */
+public class BinaryPayloadCodec implements PayloadCodec {
+    public static final BinaryPayloadCodec INSTANCE = new BinaryPayloadCodec(Constants.PROTOCOL_VERSION_BINARY);
+    public static final BinaryPayloadCodec WITH_REQUEST_IDS = new BinaryPayloadCodec(Constants.PROTOCOL_VERSION_REQUEST_ID);
+    public static final BinaryPayloadCodec WITH_HEARTBEATS = new BinaryPayloadCodec(Constants.PROTOCOL_VERSION_HEARTBEAT);
+    public static final BinaryPayloadCodec WITH_DRAIN_NOTICE = new BinaryPayloadCodec(Constants.PROTOCOL_VERSION_DRAIN_NOTICE);
+    public static final BinaryPayloadCodec WITH_RESUME = new BinaryPayloadCodec(Constants.PROTOCOL_VERSION_RESUME);
+    public static final BinaryPayloadCodec WITH_REDIRECT = new BinaryPayloadCodec(Constants.PROTOCOL_VERSION_REDIRECT);
+    public static final BinaryPayloadCodec WITH_COMPRESSION = new BinaryPayloadCodec(Constants.PROTOCOL_VERSION_COMPRESSION);
+
+    private final int version;
+
+    /**
+     * Private constructor; use one of the codec constants of this class.
+     *
+     * @param version The protocol version this codec is used for
+     */
+    private BinaryPayloadCodec(int version) {
+        this.version = version;
+    }
+
+    @Override
+    public int getVersion() {
+        return version;
+    }
+
+    @Override
+    public void encode(int type, Object payload, WireOutput out) throws IOException {
+        switch (type) {
+            case Constants.MESSAGE_TYPE_TEXT:
+            case Constants.MESSAGE_TYPE_DIRECT:
+                writeMessage((Message) checkPayload(type, payload, Message.class), out);
+                break;
+            case Constants.MESSAGE_TYPE_FILE:
+                writeFileTransfer((FileTransfer) checkPayload(type, payload, FileTransfer.class), out);
+                break;
+            case Constants.MESSAGE_TYPE_KEY_EXCHANGE:
+            case Constants.MESSAGE_TYPE_PHRASE_POSITIONS:
+            case Constants.MESSAGE_TYPE_JOIN_ROOM:
+            case Constants.MESSAGE_TYPE_LEAVE_ROOM:
+            case Constants.MESSAGE_TYPE_RECIPIENT_OFFLINE:
+            case Constants.MESSAGE_TYPE_ACK:
+            case Constants.MESSAGE_TYPE_RATE_LIMITED:
+            case Constants.MESSAGE_TYPE_PING:
+            case Constants.MESSAGE_TYPE_PONG:
+            case Constants.MESSAGE_TYPE_SERVER_DRAINING:
+            case Constants.MESSAGE_TYPE_SESSION_TOKEN:
+            case Constants.MESSAGE_TYPE_RESUME:
+            case Constants.MESSAGE_TYPE_LOGOUT:
+            case Constants.MESSAGE_TYPE_REDIRECT:
+                out.writeString((String) checkPayload(type, payload, String.class));
+                break;
+            case Constants.MESSAGE_TYPE_USER_INFO:
+            case Constants.MESSAGE_TYPE_LOGIN:
+            case Constants.MESSAGE_TYPE_REGISTER:
+            case Constants.MESSAGE_TYPE_LOGIN_RESULT:
+            case Constants.MESSAGE_TYPE_REGISTER_RESULT:
+                writeUser((User) checkPayload(type, payload, User.class), out);
+                break;
+            default:
+                throw new IOException("No binary encoding for message type: " + type);
+        }
+    }
+
+    @Override
+    public Object decode(int type, byte[] data, int offset, int length) throws IOException {
+        return decode(type, new WireInput(data, offset, length));
+    }
+
+    @Override
+    public Object decode(int type, ByteBuffer payload) throws IOException {
+        // Read the fields straight from the buffer, which saves copying a direct buffer into an array first
+        return decode(type, new WireInput(payload));
+    }
+
+    /**
+     * Decodes a payload from its fields.
+     *
+     * @param type The message type
+     * @param in The input positioned at the start of the payload
+     * @return The payload object
+     * @throws IOException If the payload is truncated or the type has no binary encoding
+     */
+    private Object decode(int type, WireInput in) throws IOException {
+        switch (type) {
+            case Constants.MESSAGE_TYPE_TEXT:
+            case Constants.MESSAGE_TYPE_DIRECT:
+                return readMessage(in);
+            case Constants.MESSAGE_TYPE_FILE:
+                return readFileTransfer(in);
+            case Constants.MESSAGE_TYPE_KEY_EXCHANGE:
+            case Constants.MESSAGE_TYPE_PHRASE_POSITIONS:
+            case Constants.MESSAGE_TYPE_JOIN_ROOM:
+            case Constants.MESSAGE_TYPE_LEAVE_ROOM:
+            case Constants.MESSAGE_TYPE_RECIPIENT_OFFLINE:
+            case Constants.MESSAGE_TYPE_ACK:
+            case Constants.MESSAGE_TYPE_RATE_LIMITED:
+            case Constants.MESSAGE_TYPE_PING:
+            case Constants.MESSAGE_TYPE_PONG:
+            case Constants.MESSAGE_TYPE_SERVER_DRAINING:
+            case Constants.MESSAGE_TYPE_SESSION_TOKEN:
+            case Constants.MESSAGE_TYPE_RESUME:
+            case Constants.MESSAGE_TYPE_LOGOUT:
+            case Constants.MESSAGE_TYPE_REDIRECT:
+                return in.readString();
+            case Constants.MESSAGE_TYPE_USER_INFO:
+            case Constants.MESSAGE_TYPE_LOGIN:
+            case Constants.MESSAGE_TYPE_REGISTER:
+            case Constants.MESSAGE_TYPE_LOGIN_RESULT:
+            case Constants.MESSAGE_TYPE_REGISTER_RESULT:
+                return readUser(in);
+            default:
+                throw new IOException("No binary encoding for message type: " + type);
+        }
+    }
+
+    /**
+     * Checks that a payload has the class expected for its message type.
+     *
+     * @param type The message type
+     * @param payload The payload object (can be null)
+     * @param expected The expected class
+     * @return The payload
+     * @throws IOException If the payload has an unexpected class
+     */
+    private Object checkPayload(int type, Object payload, Class<?> expected) throws IOException {
+        if (payload != null && !expected.isInstance(payload)) {
+            throw new IOException("Message type " + type + " expects " + expected.getSimpleName()
+                    + " but got " + payload.getClass().getName());
+        }
+        return payload;
+    }
+
+    /**
+     * Writes a message.
+     *
+     * @param message The message (can be null)
+     * @param out The output
+     */
+    private void writeMessage(Message message, WireOutput out) {
+        out.writeBoolean(message != null);
+        if (message == null) {
+            return;
+        }
+        out.writeInt(message.getId());
+        out.writeString(message.getClientId());
+        out.writeInt(message.getUserId());
+        out.writeString(message.getEncryptedMessage());
+        out.writeString(message.getKey());
+        out.writeString(message.getDecryptedMessage());
+        out.writeString(message.getPhrasePositions());
+        out.writeTimestamp(message.getTimestamp());
+        out.writeString(message.getSenderName());
+        out.writeString(message.getRoom());
+        out.writeInt(message.getRecipientId());
+        out.writeString(message.getRecipientName());
+    }
+
+    /**
+     * Reads a message.
+     *
+     * @param in The input
+     * @return The message, or null if a null message was written
+     * @throws IOException If the input is truncated
+     */
+    private Message readMessage(WireInput in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        Message message = new Message();
+        message.setId(in.readInt());
+        message.setClientId(in.readString());
+        message.setUserId(in.readInt());
+        message.setEncryptedMessage(in.readString());
+        message.setKey(in.readString());
+        message.setDecryptedMessage(in.readString());
+        message.setPhrasePositions(in.readString());
+        message.setTimestamp(in.readTimestamp());
+        message.setSenderName(in.readString());
+        if (in.hasRemaining()) {
+            // Appended fields, absent in messages from peers that predate rooms and direct messages
+            message.setRoom(in.readString());
+        }
+        if (in.hasRemaining()) {
+            message.setRecipientId(in.readInt());
+            message.setRecipientName(in.readString());
+        }
+        return message;
+    }
+
+    /**
+     * Writes a file transfer.
+     *
+     * @param fileTransfer The file transfer (can be null)
+     * @param out The output
+     */
+    private void writeFileTransfer(FileTransfer fileTransfer, WireOutput out) {
+        out.writeBoolean(fileTransfer != null);
+        if (fileTransfer == null) {
+            return;
+        }
+        out.writeInt(fileTransfer.getId());
+        out.writeString(fileTransfer.getClientId());
+        out.writeInt(fileTransfer.getUserId());
+        out.writeString(fileTransfer.getFileName());
+        out.writeLong(fileTransfer.getFileSize());
+        out.writeString(fileTransfer.getFileType());
+        out.writeTimestamp(fileTransfer.getTimestamp());
+        out.writeBytes(fileTransfer.getFileData());
+    }
+
+    /**
+     * Reads a file transfer.
+     *
+     * @param in The input
+     * @return The file transfer, or null if a null file transfer was written
+     * @throws IOException If the input is truncated
+     */
+    private FileTransfer readFileTransfer(WireInput in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        FileTransfer fileTransfer = new FileTransfer();
+        fileTransfer.setId(in.readInt());
+        fileTransfer.setClientId(in.readString());
+        fileTransfer.setUserId(in.readInt());
+        fileTransfer.setFileName(in.readString());
+        fileTransfer.setFileSize(in.readLong());
+        fileTransfer.setFileType(in.readString());
+        fileTransfer.setTimestamp(in.readTimestamp());
+        fileTransfer.setFileData(in.readBytes());
+        return fileTransfer;
+    }
+
+    /**
+     * Writes a user.
+     *
+     * @param user The user (can be null)
+     * @param out The output
+     */
+    private void writeUser(User user, WireOutput out) {
+        out.writeBoolean(user != null);
+        if (user == null) {
+            return;
+        }
+        out.writeInt(user.getId());
+        out.writeString(user.getUsername());
+        out.writeString(user.getPasswordHash());
+        out.writeString(user.getEmail());
+        out.writeString(user.getFullName());
+        out.writeTimestamp(user.getCreatedAt());
+        out.writeTimestamp(user.getLastLogin());
+    }
+
+    /**
+     * Reads a user.
+     *
+     * @param in The input
+     * @return The user, or null if a null user was written
+     * @throws IOException If the input is truncated
+     */
+    private User readUser(WireInput in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        User user = new User();
+        user.setId(in.readInt());
+        user.setUsername(in.readString());
+        user.setPasswordHash(in.readString());
+        user.setEmail(in.readString());
+        user.setFullName(in.readString());
+        user.setCreatedAt(in.readTimestamp());
+        user.setLastLogin(in.readTimestamp());
+        return user;
+    }
+}
@@ -0,0 +1,8 @@
+package chatclientserver.ltm.protocol;
+
+/**
+ * A message channel over a blocking stream, whose frames are read with
+ * {@link #readFrame()} by the thread that owns the connection.
+ */
+public interface BlockingChannel extends MessageChannel, FrameSource {
+}
@@ -0,0 +1,81 @@
+package chatclientserver.ltm.protocol;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectStreamConstants;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Factory for message channels over blocking sockets.
+ */
+public class ChannelFactory {
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private ChannelFactory() {
+    }
+
+    /**
+     * Gets the highest framed protocol version this side offers.
+     * Can be lowered with -Dchat.protocol.version=1 to force the serialized payload fallback.
+     *
+     * @return The highest protocol version to offer
+     */
+    public static int getMaxProtocolVersion() {
+        int version = Integer.getInteger("chat.protocol.version", Constants.PROTOCOL_VERSION);
+        return Math.max(Constants.PROTOCOL_VERSION_SERIALIZED, Math.min(version, Constants.PROTOCOL_VERSION));
+    }
+
+    /**
+     * Opens a client channel to the server.
+     * Outgoing frames are batched as configured by {@link FlushScheduler#forClient()}
+     * and compressed as configured by {@link CompressionPolicy#forClient()}.
+     *
+     * @param socket The connected socket
+     * @return The message channel
+     * @throws IOException If the handshake fails
+     */
+    public static BlockingChannel openClientChannel(Socket socket) throws IOException {
+        InputStream in = new BufferedInputStream(socket.getInputStream(), Constants.BUFFER_SIZE);
+        return FramedStreamChannel.connect(in, socket.getOutputStream(), getMaxProtocolVersion(), FlushScheduler.forClient(),
+                CompressionPolicy.forClient());
+    }
+
+    /**
+     * Accepts a server channel for a newly connected client.
+     * The first bytes sent by the client decide the protocol: a Java
+     * serialization stream header selects the legacy object stream protocol,
+     * anything else is treated as a framed hello.
+     *
+     * @param socket The accepted socket
+     * @param flushScheduler The batching policy for framed connections, or null to send every frame as it is written
+     * @param compressionPolicy The compression policy for framed connections, or null to send frames uncompressed
+     * @return The message channel
+     * @throws IOException If the handshake fails
+     */
+    public static BlockingChannel acceptServerChannel(Socket socket, FlushScheduler flushScheduler,
+            CompressionPolicy compressionPolicy) throws IOException {
+        InputStream in = new BufferedInputStream(socket.getInputStream(), Constants.BUFFER_SIZE);
+        OutputStream out = socket.getOutputStream();
+
+        // Peek at the first two bytes without consuming them
+        in.mark(2);
+        int high = in.read();
+        int low = in.read();
+        in.reset();
+
+        if (high < 0 || low < 0) {
+            throw new IOException("Connection closed before handshake");
+        }
+
+        if (((high << 8) | low) == (ObjectStreamConstants.STREAM_MAGIC & 0xFFFF)) {
+            return new ObjectStreamChannel(in, out);
+        }
+        return FramedStreamChannel.accept(in, out, getMaxProtocolVersion(), flushScheduler, compressionPolicy);
+    }
+}
@@ -0,0 +1,211 @@
+package chatclientserver.ltm.protocol;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import chatclientserver.ltm.model.FileTransfer;
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Compression policy for outgoing frames, and the counters of every channel that uses it.
+ * Channels on protocol version 8 and later can compress frame payloads. A
+ * payload is compressed when it is at least as large as the threshold and is
+ * not a file that is already compressed (images, audio and video); it is sent
+ * compressed only if that makes it smaller. A threshold of 0 disables
+ * compression of outgoing frames; compressed frames from the peer are still
+ * accepted.
+ */
+public class CompressionPolicy {
+    public static final CompressionPolicy DISABLED = new CompressionPolicy(0, Constants.DEFAULT_COMPRESSION_LEVEL);
+
+    private static CompressionPolicy clientPolicy;
+
+    private final int threshold;
+    private final int level;
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder compressedFrames = new LongAdder();
+    private final LongAdder bytesBefore = new LongAdder();
+    private final LongAdder bytesAfter = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder inflatedFrames = new LongAdder();
+    private final LongAdder inflateNanos = new LongAdder();
+
+    /**
+     * Constructs a CompressionPolicy.
+     *
+     * @param threshold The smallest payload that is compressed, in bytes, or 0 to disable compression
+     * @param level The deflate level, from 1 (fastest) to 9 (smallest)
+     */
+    public CompressionPolicy(int threshold, int level) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Compression threshold must not be negative");
+        }
+        if (level < 1 || level > 9) {
+            throw new IllegalArgumentException("Compression level must be between 1 and 9");
+        }
+        this.threshold = threshold;
+        this.level = level;
+    }
+
+    /**
+     * Gets the compression policy shared by client channels, creating it on first use.
+     * The defaults can be overridden with -Dchat.client.compressionThreshold
+     * and -Dchat.client.compressionLevel.
+     *
+     * @return The compression policy
+     */
+    public static synchronized CompressionPolicy forClient() {
+        if (clientPolicy == null) {
+            int threshold = Integer.getInteger("chat.client.compressionThreshold", Constants.DEFAULT_COMPRESSION_THRESHOLD);
+            int level = Integer.getInteger("chat.client.compressionLevel", Constants.DEFAULT_COMPRESSION_LEVEL);
+            clientPolicy = new CompressionPolicy(threshold, level);
+        }
+        return clientPolicy;
+    }
+
+    /**
+     * Creates the compression state of one channel.
+     *
+     * @return A new compressor using this policy
+     */
+    public FrameCompressor newCompressor() {
+        return new FrameCompressor(this);
+    }
+
+    /**
+     * Checks whether outgoing frames are compressed at all.
+     *
+     * @return true if the threshold is positive
+     */
+    public boolean isEnabled() {
+        return threshold > 0;
+    }
+
+    /**
+     * Gets the smallest payload that is compressed.
+     *
+     * @return The threshold in bytes, or 0 if compression is disabled
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Gets the deflate level.
+     *
+     * @return The level, from 1 to 9
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Checks whether a payload is worth compressing.
+     *
+     * @param payload The payload object
+     * @param payloadLength The size of the encoded payload in bytes
+     * @return true if the payload should be compressed
+     */
+    boolean accepts(Object payload, int payloadLength) {
+        if (!isEnabled() || payloadLength < threshold) {
+            return false;
+        }
+        if (payload instanceof FileTransfer) {
+            String fileType = ((FileTransfer) payload).getFileType();
+            return !Constants.FILE_TYPE_IMAGE.equals(fileType) && !Constants.FILE_TYPE_AUDIO.equals(fileType)
+                    && !Constants.FILE_TYPE_VIDEO.equals(fileType);
+        }
+        return true;
+    }
+
+    /**
+     * Records an attempt to compress a payload.
+     *
+     * @param before The size of the payload
+     * @param after The size of the compressed payload, or -1 if compressing did not make it smaller
+     * @param nanos The time spent compressing
+     */
+    void recordCompression(int before, int after, long nanos) {
+        attempts.increment();
+        compressNanos.add(nanos);
+        if (after >= 0) {
+            compressedFrames.increment();
+            bytesBefore.add(before);
+            bytesAfter.add(after);
+        }
+    }
+
+    /**
+     * Records the decompression of a received payload.
+     *
+     * @param nanos The time spent decompressing
+     */
+    void recordInflation(long nanos) {
+        inflatedFrames.increment();
+        inflateNanos.add(nanos);
+    }
+
+    /**
+     * Gets the number of payloads that were sent compressed.
+     *
+     * @return The number of compressed frames
+     */
+    public long getCompressedFrames() {
+        return compressedFrames.sum();
+    }
+
+    /**
+     * Gets the number of payloads that compression was tried on, including those it did not make smaller.
+     *
+     * @return The number of attempts
+     */
+    public long getAttempts() {
+        return attempts.sum();
+    }
+
+    /**
+     * Gets the compressed size of the compressed payloads relative to their original size.
+     *
+     * @return The ratio, or 1 if nothing was compressed
+     */
+    public double getRatio() {
+        long before = bytesBefore.sum();
+        return before == 0 ? 1 : (double) bytesAfter.sum() / before;
+    }
+
+    /**
+     * Gets the average time spent compressing a payload.
+     *
+     * @return The time in microseconds per attempt
+     */
+    public double getCompressMicrosPerFrame() {
+        long count = attempts.sum();
+        return count == 0 ? 0 : compressNanos.sum() / 1000.0 / count;
+    }
+
+    /**
+     * Gets the number of received payloads that were decompressed.
+     *
+     * @return The number of inflated frames
+     */
+    public long getInflatedFrames() {
+        return inflatedFrames.sum();
+    }
+
+    /**
+     * Gets the average time spent decompressing a received payload.
+     *
+     * @return The time in microseconds per frame
+     */
+    public double getInflateMicrosPerFrame() {
+        long count = inflatedFrames.sum();
+        return count == 0 ? 0 : inflateNanos.sum() / 1000.0 / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CompressionPolicy [threshold=%d, level=%d, compressedFrames=%d/%d, ratio=%.3f,"
+                + " compressMicros=%.1f, inflatedFrames=%d, inflateMicros=%.1f]", threshold, level,
+                getCompressedFrames(), getAttempts(), getRatio(), getCompressMicrosPerFrame(), getInflatedFrames(),
+                getInflateMicrosPerFrame());
+    }
+}
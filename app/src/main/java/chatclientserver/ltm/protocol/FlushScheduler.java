@@ -0,0 +1,132 @@
+package chatclientserver.ltm.protocol;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Batching policy for outgoing frames.
+ * A channel with a flush scheduler does not send each frame on its own: it
+ * gathers frames and sends them together when the sender runs out of frames
+ * to write, when the batch window has passed since the first unsent frame,
+ * or when the batch reaches the maximum size, whichever comes first. This
+ * turns a burst of small frames into a few large writes.
+ * <p>
+ * A maximum batch size of 0 disables batching; every frame is then sent as
+ * soon as it is written.
+ */
+public class FlushScheduler {
+    private static ScheduledExecutorService clientTimer;
+
+    private final ScheduledExecutorService timer;
+    private final long batchWindowMicros;
+    private final int maxBatchBytes;
+
+    /**
+     * Constructs a FlushScheduler.
+     *
+     * @param timer The executor that runs deferred flushes
+     * @param batchWindowMicros The longest time a frame may wait for other frames, in microseconds
+     * @param maxBatchBytes The number of unsent bytes that triggers a flush, or 0 to disable batching
+     */
+    public FlushScheduler(ScheduledExecutorService timer, long batchWindowMicros, int maxBatchBytes) {
+        if (batchWindowMicros < 0) {
+            throw new IllegalArgumentException("Batch window must not be negative");
+        }
+        if (maxBatchBytes < 0) {
+            throw new IllegalArgumentException("Maximum batch size must not be negative");
+        }
+        this.timer = timer;
+        this.batchWindowMicros = batchWindowMicros;
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * Creates the flush scheduler used by client channels.
+     * The defaults can be overridden with -Dchat.client.batchWindow (microseconds)
+     * and -Dchat.client.batchBytes.
+     *
+     * @return The flush scheduler
+     */
+    public static FlushScheduler forClient() {
+        long window = Long.getLong("chat.client.batchWindow", Constants.DEFAULT_BATCH_WINDOW_MICROS);
+        int bytes = Integer.getInteger("chat.client.batchBytes", Constants.DEFAULT_MAX_BATCH_BYTES);
+        return new FlushScheduler(getClientTimer(), window, bytes);
+    }
+
+    /**
+     * Gets the timer shared by all client channels, creating it on first use.
+     *
+     * @return The timer
+     */
+    private static synchronized ScheduledExecutorService getClientTimer() {
+        if (clientTimer == null) {
+            clientTimer = createTimer("client-flush");
+        }
+        return clientTimer;
+    }
+
+    /**
+     * Creates a single daemon thread that runs deferred flushes, or other short tasks at a set time.
+     *
+     * @param name The thread name
+     * @return The timer
+     */
+    public static ScheduledExecutorService createTimer(String name) {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    /**
+     * Checks whether frames are batched at all.
+     *
+     * @return true if frames are gathered before they are sent
+     */
+    public boolean isEnabled() {
+        return maxBatchBytes > 0;
+    }
+
+    /**
+     * Runs a flush once the batch window has passed.
+     * If the timer has been shut down the flush runs immediately on the calling thread.
+     *
+     * @param flush The flush to run
+     */
+    public void schedule(Runnable flush) {
+        try {
+            if (batchWindowMicros == 0) {
+                timer.execute(flush);
+            } else {
+                timer.schedule(flush, batchWindowMicros, TimeUnit.MICROSECONDS);
+            }
+        } catch (RejectedExecutionException e) {
+            flush.run();
+        }
+    }
+
+    /**
+     * Gets the longest time a frame may wait for other frames.
+     *
+     * @return The batch window in microseconds
+     */
+    public long getBatchWindowMicros() {
+        return batchWindowMicros;
+    }
+
+    /**
+     * Gets the number of unsent bytes that triggers a flush.
+     *
+     * @return The maximum batch size in bytes, or 0 if batching is disabled
+     */
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+}
@@ -0,0 +1,67 @@
+package chatclientserver.ltm.protocol;
+
+/**
+ * A single decoded protocol frame.
+ * A frame pairs one of the Constants.MESSAGE_TYPE_* values with its payload object.
+ * Frames sent by a client may carry a request ID, which the server echoes on its reply.
+ */
+public class Frame {
+    private final int type;
+    private final int requestId;
+    private final Object payload;
+
+    /**
+     * Constructs a Frame with the specified type and payload and no request ID.
+     *
+     * @param type The message type
+     * @param payload The payload object (can be null)
+     */
+    public Frame(int type, Object payload) {
+        this(type, 0, payload);
+    }
+
+    /**
+     * Constructs a Frame with the specified type, request ID and payload.
+     *
+     * @param type The message type
+     * @param requestId The request ID, or 0 if the frame is not correlated with a request
+     * @param payload The payload object (can be null)
+     */
+    public Frame(int type, int requestId, Object payload) {
+        this.type = type;
+        this.requestId = requestId;
+        this.payload = payload;
+    }
+
+    /**
+     * Gets the message type.
+     *
+     * @return The message type
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Gets the request ID.
+     *
+     * @return The request ID, or 0 if the frame is not correlated with a request
+     */
+    public int getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * Gets the payload.
+     *
+     * @return The payload object
+     */
+    public Object getPayload() {
+        return payload;
+    }
+
+    @Override
+    public String toString() {
+        return "Frame [type=" + type + ", requestId=" + requestId + ", payload=" + payload + "]";
+    }
+}
@@ -0,0 +1,313 @@
+package chatclientserver.ltm.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import chatclientserver.ltm.util.BufferPool;
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Encoder and decoder for length-prefixed frames.
+ * Every frame on the wire has the layout:
+ * <pre>
+ *   int length     (number of bytes that follow this field)
+ *   int type       (one of Constants.MESSAGE_TYPE_*, with COMPRESSED_FLAG set if the payload is compressed)
+ *   int requestId  (protocol version 3 and later; 0 if not correlated with a request)
+ *   byte[] payload
+ * </pre>
+ * From protocol version 8 a payload can be sent compressed, as the size of the
+ * original payload followed by the payload compressed on its own with raw deflate.
+ * Each payload is encoded on its own, so frames can be decoded independently
+ * of each other. This is what allows the non-blocking server to split a byte
+ * stream into messages without a dedicated reading thread per client.
+ * <p>
+ * A framed connection opens with a hello from each side carrying the protocol
+ * magic and the highest version the sender supports. Both sides then use the
+ * lower of the two versions, which selects the {@link PayloadCodec}.
+ */
+public class FrameCodec {
+    public static final int LENGTH_FIELD_SIZE = 4;
+    public static final int HEADER_SIZE = 8;
+    public static final int REQUEST_ID_SIZE = 4;
+    public static final int HELLO_SIZE = 8;
+    public static final int COMPRESSED_FLAG = 0x40000000;
+    public static final int UNCOMPRESSED_LENGTH_SIZE = 4;
+
+    private static final int INITIAL_FRAME_CAPACITY = 256;
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private FrameCodec() {
+    }
+
+    /**
+     * Encodes a frame into a buffer ready to be written to a channel.
+     *
+     * @param codec The payload codec of the connection
+     * @param type The message type
+     * @param payload The payload object
+     * @return A buffer positioned at the start of the frame
+     * @throws IOException If the payload cannot be encoded
+     */
+    public static ByteBuffer encode(PayloadCodec codec, int type, Object payload) throws IOException {
+        return encode(codec, type, 0, payload);
+    }
+
+    /**
+     * Encodes a frame correlated with a request into a buffer ready to be written to a channel.
+     * The request ID is dropped if the connection's protocol version does not carry it.
+     *
+     * @param codec The payload codec of the connection
+     * @param type The message type
+     * @param requestId The request ID, or 0 if the frame is not correlated with a request
+     * @param payload The payload object
+     * @return A buffer positioned at the start of the frame
+     * @throws IOException If the payload cannot be encoded
+     */
+    public static ByteBuffer encode(PayloadCodec codec, int type, int requestId, Object payload) throws IOException {
+        WireOutput out = new WireOutput(INITIAL_FRAME_CAPACITY);
+
+        // Reserve the length field and fill it in once the payload size is known
+        out.writeInt(0);
+        out.writeInt(type);
+        if (hasRequestId(codec)) {
+            out.writeInt(requestId);
+        }
+        codec.encode(type, payload, out);
+        out.setInt(0, out.size() - LENGTH_FIELD_SIZE);
+
+        return out.toByteBuffer();
+    }
+
+    /**
+     * Encodes a frame and compresses its payload if the channel's compression policy asks for it.
+     *
+     * @param codec The payload codec of the connection
+     * @param type The message type
+     * @param requestId The request ID, or 0 if the frame is not correlated with a request
+     * @param payload The payload object
+     * @param compressor The compressor of the connection, or null if the connection does not compress
+     * @return A buffer positioned at the start of the frame
+     * @throws IOException If the payload cannot be encoded
+     */
+    public static ByteBuffer encode(PayloadCodec codec, int type, int requestId, Object payload,
+            FrameCompressor compressor) throws IOException {
+        return compress(codec, encode(codec, type, requestId, payload), payload, compressor);
+    }
+
+    /**
+     * Compresses the payload of an encoded frame if the compression policy asks for it and it makes the frame smaller.
+     *
+     * @param codec The payload codec of the connection
+     * @param frame The encoded frame, positioned at its start; left unchanged
+     * @param payload The payload object the frame was encoded from
+     * @param compressor The compressor of the connection, or null if the connection does not compress
+     * @return A new buffer holding the compressed frame, or the frame itself if it is sent uncompressed
+     */
+    public static ByteBuffer compress(PayloadCodec codec, ByteBuffer frame, Object payload, FrameCompressor compressor) {
+        int headerSize = headerSize(codec);
+        int payloadLength = frame.remaining() - headerSize;
+        if (compressor == null || !hasCompression(codec) || payloadLength <= UNCOMPRESSED_LENGTH_SIZE
+                || !compressor.getPolicy().accepts(payload, payloadLength)) {
+            return frame;
+        }
+
+        // Compressing is only worth it if the frame gets smaller, size prefix included
+        BufferPool.PooledBuffer pooled = BufferPool.getDefault().acquire(payloadLength - UNCOMPRESSED_LENGTH_SIZE);
+        try {
+            ByteBuffer input = frame.duplicate();
+            input.position(input.position() + headerSize);
+            ByteBuffer deflated = pooled.buffer();
+            if (!compressor.deflate(input, deflated)) {
+                return frame;
+            }
+            deflated.flip();
+
+            ByteBuffer compressed = ByteBuffer.allocate(headerSize + UNCOMPRESSED_LENGTH_SIZE + deflated.remaining());
+            compressed.putInt(compressed.capacity() - LENGTH_FIELD_SIZE);
+            compressed.putInt(frame.getInt(frame.position() + LENGTH_FIELD_SIZE) | COMPRESSED_FLAG);
+            if (hasRequestId(codec)) {
+                compressed.putInt(frame.getInt(frame.position() + HEADER_SIZE));
+            }
+            compressed.putInt(payloadLength);
+            compressed.put(deflated);
+            compressed.flip();
+            return compressed;
+        } finally {
+            pooled.release();
+        }
+    }
+
+    /**
+     * Decodes a received payload, decompressing it first if the frame is marked as compressed.
+     * The buffer for the decompressed payload is sized from the length the peer
+     * announces, so a length that the compressed bytes could not possibly
+     * inflate to is rejected before anything is allocated; a tiny frame cannot
+     * make the server reserve a frame's worth of memory.
+     *
+     * @param codec The payload codec of the connection
+     * @param type The type field of the frame as received
+     * @param payload The payload between the buffer's position and limit; its position is left unchanged
+     * @param compressor The compressor of the connection, or null if the connection does not compress
+     * @return The payload object
+     * @throws IOException If the payload cannot be decompressed or decoded
+     * @throws ClassNotFoundException If the class of a serialized object cannot be found
+     */
+    public static Object decodePayload(PayloadCodec codec, int type, ByteBuffer payload, FrameCompressor compressor)
+            throws IOException, ClassNotFoundException {
+        if (!isCompressed(type)) {
+            return codec.decode(type, payload);
+        }
+        if (compressor == null) {
+            throw new IOException("Compressed frame on a connection without compression");
+        }
+        if (payload.remaining() < UNCOMPRESSED_LENGTH_SIZE) {
+            throw new IOException("Truncated compressed payload");
+        }
+        int length = payload.getInt(payload.position());
+        if (length < 0 || length > Constants.MAX_FRAME_SIZE) {
+            throw new IOException("Invalid uncompressed payload length: " + length);
+        }
+        long compressedLength = payload.remaining() - UNCOMPRESSED_LENGTH_SIZE;
+        if (length > compressedLength * Constants.MAX_DEFLATE_RATIO) {
+            throw new IOException("Uncompressed payload length " + length + " is impossible for "
+                    + compressedLength + " compressed bytes");
+        }
+
+        ByteBuffer input = payload.duplicate();
+        input.position(input.position() + UNCOMPRESSED_LENGTH_SIZE);
+        BufferPool.PooledBuffer pooled = BufferPool.getDefault().acquire(length);
+        try {
+            ByteBuffer inflated = pooled.buffer();
+            compressor.inflate(input, inflated);
+            inflated.flip();
+            return codec.decode(messageType(type), inflated);
+        } finally {
+            pooled.release();
+        }
+    }
+
+    /**
+     * Checks whether the type field of a received frame marks its payload as compressed.
+     *
+     * @param type The type field as received
+     * @return true if the payload is compressed
+     */
+    public static boolean isCompressed(int type) {
+        return (type & COMPRESSED_FLAG) != 0;
+    }
+
+    /**
+     * Gets the message type from the type field of a received frame.
+     *
+     * @param type The type field as received
+     * @return The message type without flags
+     */
+    public static int messageType(int type) {
+        return type & ~COMPRESSED_FLAG;
+    }
+
+    /**
+     * Checks whether frames of a connection can carry compressed payloads.
+     *
+     * @param codec The payload codec of the connection
+     * @return true if the negotiated protocol version supports compression
+     */
+    public static boolean hasCompression(PayloadCodec codec) {
+        return codec.getVersion() >= Constants.PROTOCOL_VERSION_COMPRESSION;
+    }
+
+    /**
+     * Checks whether frames of a connection carry a request ID.
+     *
+     * @param codec The payload codec of the connection
+     * @return true if the negotiated protocol version has the request ID field
+     */
+    public static boolean hasRequestId(PayloadCodec codec) {
+        return codec.getVersion() >= Constants.PROTOCOL_VERSION_REQUEST_ID;
+    }
+
+    /**
+     * Gets the size of the frame header, including the length field.
+     *
+     * @param codec The payload codec of the connection
+     * @return The header size in bytes
+     */
+    public static int headerSize(PayloadCodec codec) {
+        return hasRequestId(codec) ? HEADER_SIZE + REQUEST_ID_SIZE : HEADER_SIZE;
+    }
+
+    /**
+     * Gets the payload codec for a negotiated protocol version.
+     *
+     * @param version The negotiated protocol version
+     * @return The payload codec
+     */
+    public static PayloadCodec codecFor(int version) {
+        if (version >= Constants.PROTOCOL_VERSION_COMPRESSION) {
+            return BinaryPayloadCodec.WITH_COMPRESSION;
+        }
+        if (version >= Constants.PROTOCOL_VERSION_REDIRECT) {
+            return BinaryPayloadCodec.WITH_REDIRECT;
+        }
+        if (version >= Constants.PROTOCOL_VERSION_RESUME) {
+            return BinaryPayloadCodec.WITH_RESUME;
+        }
+        if (version >= Constants.PROTOCOL_VERSION_DRAIN_NOTICE) {
+            return BinaryPayloadCodec.WITH_DRAIN_NOTICE;
+        }
+        if (version >= Constants.PROTOCOL_VERSION_HEARTBEAT) {
+            return BinaryPayloadCodec.WITH_HEARTBEATS;
+        }
+        if (version >= Constants.PROTOCOL_VERSION_REQUEST_ID) {
+            return BinaryPayloadCodec.WITH_REQUEST_IDS;
+        }
+        if (version >= Constants.PROTOCOL_VERSION_BINARY) {
+            return BinaryPayloadCodec.INSTANCE;
+        }
+        return SerializedPayloadCodec.INSTANCE;
+    }
+
+    /**
+     * Picks the protocol version for a connection from the peer's hello.
+     *
+     * @param peerVersion The highest version supported by the peer
+     * @param maxVersion The highest version supported locally
+     * @return The version both sides will use
+     * @throws IOException If the peer's version is invalid
+     */
+    public static int negotiateVersion(int peerVersion, int maxVersion) throws IOException {
+        if (peerVersion < Constants.PROTOCOL_VERSION_SERIALIZED) {
+            throw new IOException("Unsupported protocol version: " + peerVersion);
+        }
+        return Math.min(peerVersion, maxVersion);
+    }
+
+    /**
+     * Validates the length field of an incoming frame.
+     *
+     * @param length The length read from the wire
+     * @param codec The payload codec of the connection
+     * @throws IOException If the length is out of range
+     */
+    public static void checkFrameLength(int length, PayloadCodec codec) throws IOException {
+        if (length < headerSize(codec) - LENGTH_FIELD_SIZE || length > Constants.MAX_FRAME_SIZE) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+    }
+
+    /**
+     * Creates the hello sent by each side when a framed connection is opened.
+     *
+     * @param version The protocol version to announce
+     * @return A buffer holding the protocol magic and version
+     */
+    public static ByteBuffer createHello(int version) {
+        ByteBuffer buffer = ByteBuffer.allocate(HELLO_SIZE);
+        buffer.putInt(Constants.PROTOCOL_MAGIC);
+        buffer.putInt(version);
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,140 @@
+package chatclientserver.ltm.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The compression state of one channel: a deflater for outgoing payloads and
+ * an inflater for incoming ones, reused for every frame. Each payload is
+ * compressed on its own as raw deflate data, so frames can be decoded
+ * independently and a compressed frame can be shared by several channels.
+ * <p>
+ * The deflater and the inflater are created on first use, since their native
+ * buffers are large and most sessions only exchange payloads below the
+ * threshold. {@link #close()} frees them.
+ */
+public class FrameCompressor {
+    private final CompressionPolicy policy;
+    private final ReentrantLock deflateLock = new ReentrantLock();
+    private final ReentrantLock inflateLock = new ReentrantLock();
+    private Deflater deflater;
+    private Inflater inflater;
+    private volatile boolean closed;
+
+    /**
+     * Constructs a FrameCompressor.
+     *
+     * @param policy The policy deciding which payloads are compressed, which also receives the counters
+     */
+    FrameCompressor(CompressionPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Gets the policy of this compressor.
+     *
+     * @return The compression policy
+     */
+    public CompressionPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Compresses the remaining bytes of the input into the output.
+     *
+     * @param input The payload to compress; its position is moved past the bytes consumed
+     * @param output The buffer to compress into; its limit is the largest size worth sending
+     * @return true if the whole payload fit in the output, false if compressing does not make it small enough
+     */
+    boolean deflate(ByteBuffer input, ByteBuffer output) {
+        int before = input.remaining();
+        int start = output.position();
+        long started = System.nanoTime();
+        boolean fits = false;
+
+        deflateLock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            if (deflater == null) {
+                deflater = new Deflater(policy.getLevel(), true);
+            }
+            deflater.reset();
+            deflater.setInput(input);
+            deflater.finish();
+            while (!deflater.finished() && output.hasRemaining()) {
+                deflater.deflate(output);
+            }
+            fits = deflater.finished();
+            return fits;
+        } finally {
+            deflateLock.unlock();
+            policy.recordCompression(before, fits ? output.position() - start : -1, System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * Decompresses a payload until the output is full.
+     *
+     * @param input The compressed payload
+     * @param output The buffer to decompress into; its limit is the announced size of the payload
+     * @throws IOException If the data is corrupt or shorter than announced, or the compressor was closed
+     */
+    void inflate(ByteBuffer input, ByteBuffer output) throws IOException {
+        long started = System.nanoTime();
+
+        inflateLock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Channel is closed");
+            }
+            if (inflater == null) {
+                inflater = new Inflater(true);
+            }
+            inflater.reset();
+            inflater.setInput(input);
+            while (output.hasRemaining()) {
+                if (inflater.inflate(output) == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Compressed payload is shorter than announced");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed payload: " + e.getMessage());
+        } finally {
+            inflateLock.unlock();
+        }
+        policy.recordInflation(System.nanoTime() - started);
+    }
+
+    /**
+     * Frees the native memory of the deflater and the inflater.
+     * Compressing afterwards does nothing, and decompressing fails.
+     */
+    public void close() {
+        deflateLock.lock();
+        try {
+            closed = true;
+            if (deflater != null) {
+                deflater.end();
+                deflater = null;
+            }
+        } finally {
+            deflateLock.unlock();
+        }
+
+        inflateLock.lock();
+        try {
+            if (inflater != null) {
+                inflater.end();
+                inflater = null;
+            }
+        } finally {
+            inflateLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package chatclientserver.ltm.protocol;
+
+import java.io.IOException;
+
+/**
+ * A source of frames that are read on demand, as with a blocking socket.
+ * Transports that push frames to their handler, such as the server's NIO
+ * connections, do not implement it.
+ */
+public interface FrameSource {
+    /**
+     * Reads the next message from the channel, blocking until one is available.
+     *
+     * @return The next frame
+     * @throws IOException If an I/O error occurs
+     * @throws ClassNotFoundException If the class of a serialized object cannot be found
+     */
+    Frame readFrame() throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,331 @@
+package chatclientserver.ltm.protocol;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+import chatclientserver.ltm.util.BufferPool;
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Message channel that exchanges length-prefixed frames over blocking streams.
+ * Used by the client and by the blocking server for framed connections.
+ * <p>
+ * With an enabled {@link FlushScheduler}, written frames stay in the output
+ * buffer until the batch is full, the batch window has passed, {@link #flush()}
+ * is called, or the reading side is about to wait for the peer, so that replies
+ * to pipelined requests leave in as few writes as possible.
+ * <p>
+ * Received payloads are read into one array owned by the channel, so reading a
+ * frame allocates nothing but the decoded objects. Payloads larger than that
+ * array are assembled in a buffer from the {@link BufferPool}.
+ * <p>
+ * On protocol version 8 and later, outgoing payloads are compressed as the
+ * {@link CompressionPolicy} asks, and compressed payloads from the peer are
+ * decompressed.
+ */
+public class FramedStreamChannel implements BlockingChannel {
+    private final DataInputStream inputStream;
+    private final DataOutputStream outputStream;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final FlushScheduler flushScheduler;
+    private final CompressionPolicy compressionPolicy;
+    private final byte[] receiveBuffer = new byte[Constants.BUFFER_SIZE];
+    private PayloadCodec codec;
+    private FrameCompressor compressor;
+    private int unflushedBytes;
+    private boolean flushScheduled;
+    private volatile boolean closed;
+
+    /**
+     * Constructs a FramedStreamChannel over the specified streams.
+     * The handshake must already have been completed.
+     *
+     * @param in The underlying input stream
+     * @param out The underlying output stream
+     * @param flushScheduler The batching policy, or null to send every frame as it is written
+     * @param compressionPolicy The compression policy for outgoing frames, or null to send them uncompressed
+     */
+    private FramedStreamChannel(InputStream in, OutputStream out, FlushScheduler flushScheduler,
+            CompressionPolicy compressionPolicy) {
+        this.inputStream = new DataInputStream(in);
+        this.flushScheduler = flushScheduler != null && flushScheduler.isEnabled() ? flushScheduler : null;
+        this.compressionPolicy = compressionPolicy != null ? compressionPolicy : CompressionPolicy.DISABLED;
+
+        // A batch must fit in the buffer, or the buffer would be written out before the batch is complete
+        int bufferSize = Constants.BUFFER_SIZE;
+        if (this.flushScheduler != null) {
+            bufferSize = Math.max(bufferSize, this.flushScheduler.getMaxBatchBytes());
+        }
+        this.outputStream = new DataOutputStream(new BufferedOutputStream(out, bufferSize));
+    }
+
+    /**
+     * Opens the client side of a framed connection.
+     * Sends the hello and waits for the server to answer with its own hello.
+     *
+     * @param in The socket input stream
+     * @param out The socket output stream
+     * @param maxVersion The highest protocol version to offer
+     * @param flushScheduler The batching policy, or null to send every frame as it is written
+     * @param compressionPolicy The compression policy for outgoing frames, or null to send them uncompressed
+     * @return The connected channel
+     * @throws IOException If the server does not answer with a valid hello
+     */
+    public static FramedStreamChannel connect(InputStream in, OutputStream out, int maxVersion,
+            FlushScheduler flushScheduler, CompressionPolicy compressionPolicy) throws IOException {
+        FramedStreamChannel channel = new FramedStreamChannel(in, out, flushScheduler, compressionPolicy);
+        channel.writeHello(maxVersion);
+        channel.useVersion(FrameCodec.negotiateVersion(channel.readHello(), maxVersion));
+        return channel;
+    }
+
+    /**
+     * Opens the server side of a framed connection.
+     * Reads the client's hello and answers with the version both sides will use.
+     *
+     * @param in The socket input stream
+     * @param out The socket output stream
+     * @param maxVersion The highest protocol version to accept
+     * @param flushScheduler The batching policy, or null to send every frame as it is written
+     * @param compressionPolicy The compression policy for outgoing frames, or null to send them uncompressed
+     * @return The connected channel
+     * @throws IOException If the client did not send a valid hello
+     */
+    public static FramedStreamChannel accept(InputStream in, OutputStream out, int maxVersion,
+            FlushScheduler flushScheduler, CompressionPolicy compressionPolicy) throws IOException {
+        FramedStreamChannel channel = new FramedStreamChannel(in, out, flushScheduler, compressionPolicy);
+        int version = FrameCodec.negotiateVersion(channel.readHello(), maxVersion);
+        channel.writeHello(version);
+        channel.useVersion(version);
+        return channel;
+    }
+
+    /**
+     * Selects the payload codec for the negotiated protocol version, and the compressor if the version has one.
+     *
+     * @param version The negotiated protocol version
+     */
+    private void useVersion(int version) {
+        this.codec = FrameCodec.codecFor(version);
+        if (FrameCodec.hasCompression(codec)) {
+            this.compressor = compressionPolicy.newCompressor();
+        }
+    }
+
+    /**
+     * Writes the protocol hello.
+     *
+     * @param version The protocol version to announce
+     * @throws IOException If an I/O error occurs
+     */
+    private void writeHello(int version) throws IOException {
+        ByteBuffer hello = FrameCodec.createHello(version);
+        outputStream.write(hello.array(), hello.position(), hello.remaining());
+        outputStream.flush();
+    }
+
+    /**
+     * Reads and validates the peer's protocol hello.
+     *
+     * @return The protocol version announced by the peer
+     * @throws IOException If the hello is missing or invalid
+     */
+    private int readHello() throws IOException {
+        int magic = inputStream.readInt();
+        if (magic != Constants.PROTOCOL_MAGIC) {
+            throw new IOException("Peer does not speak the framed protocol");
+        }
+        return inputStream.readInt();
+    }
+
+    @Override
+    public void writeFrame(int type, int requestId, Object payload) throws IOException {
+        ByteBuffer frame = FrameCodec.encode(codec, type, requestId, payload, compressor);
+
+        writeLock.lock();
+        try {
+            outputStream.write(frame.array(), frame.position(), frame.remaining());
+            written(frame.remaining());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void writeFrame(SharedFrame frame) throws IOException {
+        writeLock.lock();
+        try {
+            int before = outputStream.size();
+            frame.writeTo(codec, compressor, outputStream);
+            written(outputStream.size() - before);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Sends a frame that has just been written to the buffer, or schedules it to be sent with later frames.
+     * Must be called while holding the write lock.
+     *
+     * @param bytes The size of the frame
+     * @throws IOException If an I/O error occurs
+     */
+    private void written(int bytes) throws IOException {
+        if (flushScheduler == null) {
+            outputStream.flush();
+            return;
+        }
+
+        unflushedBytes += bytes;
+        if (unflushedBytes >= flushScheduler.getMaxBatchBytes()) {
+            flushBuffered();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            flushScheduler.schedule(this::flushBatch);
+        }
+    }
+
+    /**
+     * Sends the buffered frames.
+     * Must be called while holding the write lock.
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    private void flushBuffered() throws IOException {
+        unflushedBytes = 0;
+        outputStream.flush();
+    }
+
+    /**
+     * Sends the frames of a batch whose window has passed.
+     * Runs on the flush scheduler's timer; a failure closes the channel so the reading side notices.
+     */
+    private void flushBatch() {
+        writeLock.lock();
+        try {
+            flushScheduled = false;
+            if (!closed && unflushedBytes > 0) {
+                flushBuffered();
+            }
+        } catch (IOException e) {
+            System.err.println("Error sending batched frames: " + e.getMessage());
+            closeQuietly();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeLock.lock();
+        try {
+            if (unflushedBytes > 0) {
+                flushBuffered();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Sends the buffered replies before the reading side waits for the peer.
+     * Skipped if another thread is writing, since that thread or the timer sends the batch.
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    private void flushBeforeRead() throws IOException {
+        if (flushScheduler == null || inputStream.available() > 0 || !writeLock.tryLock()) {
+            return;
+        }
+        try {
+            if (unflushedBytes > 0) {
+                flushBuffered();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public Frame readFrame() throws IOException, ClassNotFoundException {
+        // Nothing more has arrived, so the replies to the frames read so far are complete
+        flushBeforeRead();
+
+        int length = inputStream.readInt();
+        FrameCodec.checkFrameLength(length, codec);
+
+        int type = inputStream.readInt();
+        int requestId = FrameCodec.hasRequestId(codec) ? inputStream.readInt() : 0;
+        int payloadLength = length - (FrameCodec.headerSize(codec) - FrameCodec.LENGTH_FIELD_SIZE);
+
+        // Only the reading thread uses the receive array, and decoded objects copy what they keep
+        if (payloadLength <= receiveBuffer.length) {
+            inputStream.readFully(receiveBuffer, 0, payloadLength);
+            Object payload = FrameCodec.decodePayload(codec, type, ByteBuffer.wrap(receiveBuffer, 0, payloadLength),
+                    compressor);
+            return new Frame(FrameCodec.messageType(type), requestId, payload);
+        }
+        return new Frame(FrameCodec.messageType(type), requestId, readLargePayload(type, payloadLength));
+    }
+
+    /**
+     * Reads and decodes a payload that does not fit the receive array.
+     * The payload is copied into a pooled buffer one receive array at a time.
+     *
+     * @param type The type field of the frame as received
+     * @param payloadLength The payload length
+     * @return The payload object
+     * @throws IOException If an I/O error occurs or the payload cannot be decoded
+     * @throws ClassNotFoundException If the class of a serialized object cannot be found
+     */
+    private Object readLargePayload(int type, int payloadLength) throws IOException, ClassNotFoundException {
+        BufferPool.PooledBuffer pooled = BufferPool.getDefault().acquire(payloadLength);
+        try {
+            ByteBuffer payload = pooled.buffer();
+            while (payload.hasRemaining()) {
+                int chunk = Math.min(payload.remaining(), receiveBuffer.length);
+                inputStream.readFully(receiveBuffer, 0, chunk);
+                payload.put(receiveBuffer, 0, chunk);
+            }
+            payload.flip();
+            return FrameCodec.decodePayload(codec, type, payload, compressor);
+        } finally {
+            pooled.release();
+        }
+    }
+
+    @Override
+    public int getProtocolVersion() {
+        return codec.getVersion();
+    }
+
+    /**
+     * Closes the channel after a failed deferred flush, ignoring further errors.
+     */
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException e) {
+            // Ignore, the channel is being abandoned
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            inputStream.close();
+        } finally {
+            outputStream.close();
+            if (compressor != null) {
+                compressor.close();
+            }
+        }
+    }
+}
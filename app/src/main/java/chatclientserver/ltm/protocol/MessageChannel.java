@@ -0,0 +1,85 @@
+package chatclientserver.ltm.protocol;
+
+import java.io.IOException;
+
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * The sending side of a channel that carries typed messages between client and server.
+ * Implementations decide how messages are laid out on the wire. How frames are
+ * received depends on the transport: blocking channels are also a {@link FrameSource}
+ * (see {@link BlockingChannel}), while push-based transports hand frames to their
+ * handler as they arrive.
+ * A channel may batch written messages and send them together shortly after;
+ * {@link #flush()} sends everything written so far.
+ * <p>
+ * Channels may be written to by several threads. Implementations that block
+ * while writing guard the stream with a {@link java.util.concurrent.locks.Lock}
+ * rather than a monitor, so that a write stalled on a slow peer does not pin
+ * the carrier thread of a virtual thread.
+ */
+public interface MessageChannel {
+    /**
+     * Writes a message to the channel.
+     *
+     * @param type The message type (one of Constants.MESSAGE_TYPE_*)
+     * @param payload The payload object
+     * @throws IOException If an I/O error occurs
+     */
+    default void writeFrame(int type, Object payload) throws IOException {
+        writeFrame(type, 0, payload);
+    }
+
+    /**
+     * Writes a message correlated with a request.
+     * Channels whose protocol has no request ID field write the message without it.
+     *
+     * @param type The message type (one of Constants.MESSAGE_TYPE_*)
+     * @param requestId The request ID, or 0 if the message is not correlated with a request
+     * @param payload The payload object
+     * @throws IOException If an I/O error occurs
+     */
+    void writeFrame(int type, int requestId, Object payload) throws IOException;
+
+    /**
+     * Writes a frame that is shared with other channels.
+     * The caller keeps its reference; a channel that finishes the write later
+     * takes its own reference until then.
+     *
+     * @param frame The shared frame
+     * @throws IOException If an I/O error occurs
+     */
+    void writeFrame(SharedFrame frame) throws IOException;
+
+    /**
+     * Sends the messages that have been written but are still held back for batching.
+     * Channels that do not batch send every message as it is written, so by default this does nothing.
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    default void flush() throws IOException {
+    }
+
+    /**
+     * Checks whether frames on this channel carry request IDs.
+     *
+     * @return true if requests and their replies can be correlated
+     */
+    default boolean hasRequestIds() {
+        return getProtocolVersion() >= Constants.PROTOCOL_VERSION_REQUEST_ID;
+    }
+
+    /**
+     * Gets the protocol version used on this channel.
+     *
+     * @return The negotiated framed protocol version, or 0 for the legacy object stream protocol
+     */
+    int getProtocolVersion();
+
+    /**
+     * Closes the channel.
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    void close() throws IOException;
+}
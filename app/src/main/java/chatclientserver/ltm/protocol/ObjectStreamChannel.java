@@ -0,0 +1,75 @@
+package chatclientserver.ltm.protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Message channel for the original Java serialization protocol.
+ * Each message is an int type tag followed by a serialized object on a single
+ * long-lived object stream. Kept so that older clients can still connect to
+ * the blocking server.
+ */
+public class ObjectStreamChannel implements BlockingChannel {
+    private final ObjectOutputStream outputStream;
+    private final ObjectInputStream inputStream;
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /**
+     * Constructs an ObjectStreamChannel over the specified streams.
+     * The output stream is created first so that the stream header is sent
+     * before waiting for the peer's header.
+     *
+     * @param in The underlying input stream
+     * @param out The underlying output stream
+     * @throws IOException If the stream headers cannot be exchanged
+     */
+    public ObjectStreamChannel(InputStream in, OutputStream out) throws IOException {
+        this.outputStream = new ObjectOutputStream(out);
+        this.outputStream.flush();
+        this.inputStream = new ObjectInputStream(in);
+    }
+
+    @Override
+    public void writeFrame(int type, int requestId, Object payload) throws IOException {
+        // The legacy stream has no request ID field, so the ID is dropped
+        writeLock.lock();
+        try {
+            outputStream.writeInt(type);
+            outputStream.writeObject(payload);
+            outputStream.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void writeFrame(SharedFrame frame) throws IOException {
+        // The object stream shares state between messages, so frames cannot be pre-encoded
+        writeFrame(frame.getType(), frame.getRequestId(), frame.getPayload());
+    }
+
+    @Override
+    public Frame readFrame() throws IOException, ClassNotFoundException {
+        int type = inputStream.readInt();
+        Object payload = inputStream.readObject();
+        return new Frame(type, payload);
+    }
+
+    @Override
+    public int getProtocolVersion() {
+        return 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            inputStream.close();
+        } finally {
+            outputStream.close();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package chatclientserver.ltm.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Strategy for laying out frame payloads on the wire.
+ * The codec is chosen by the protocol version negotiated when a framed connection is opened.
+ */
+public interface PayloadCodec {
+    /**
+     * Gets the protocol version this codec implements.
+     *
+     * @return The protocol version
+     */
+    int getVersion();
+
+    /**
+     * Encodes a payload after the frame header.
+     *
+     * @param type The message type (one of Constants.MESSAGE_TYPE_*)
+     * @param payload The payload object
+     * @param out The output to append to
+     * @throws IOException If the payload cannot be encoded
+     */
+    void encode(int type, Object payload, WireOutput out) throws IOException;
+
+    /**
+     * Decodes a payload.
+     *
+     * @param type The message type (one of Constants.MESSAGE_TYPE_*)
+     * @param data The array holding the payload
+     * @param offset The offset of the payload in the array
+     * @param length The length of the payload
+     * @return The payload object
+     * @throws IOException If the payload cannot be decoded
+     * @throws ClassNotFoundException If the class of a serialized object cannot be found
+     */
+    Object decode(int type, byte[] data, int offset, int length) throws IOException, ClassNotFoundException;
+
+    /**
+     * Decodes a payload held in a buffer, such as a pooled direct buffer.
+     * The decoded object does not refer to the buffer, so the buffer can be reused afterwards.
+     *
+     * @param type The message type (one of Constants.MESSAGE_TYPE_*)
+     * @param payload The buffer holding the payload between its position and limit; its position is left unchanged
+     * @return The payload object
+     * @throws IOException If the payload cannot be decoded
+     * @throws ClassNotFoundException If the class of a serialized object cannot be found
+     */
+    default Object decode(int type, ByteBuffer payload) throws IOException, ClassNotFoundException {
+        if (payload.hasArray()) {
+            return decode(type, payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+        }
+        byte[] data = new byte[payload.remaining()];
+        payload.duplicate().get(data);
+        return decode(type, data, 0, data.length);
+    }
+}
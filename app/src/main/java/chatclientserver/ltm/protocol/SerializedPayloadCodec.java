@@ -0,0 +1,41 @@
+package chatclientserver.ltm.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Protocol version 1 payloads: each payload is an independent Java serialization stream.
+ * Kept as the fallback for peers that do not support the binary codec.
+ */
+public class SerializedPayloadCodec implements PayloadCodec {
+    public static final SerializedPayloadCodec INSTANCE = new SerializedPayloadCodec();
+
+    /**
+     * Private constructor; use {@link #INSTANCE}.
+     */
+    private SerializedPayloadCodec() {
+    }
+
+    @Override
+    public int getVersion() {
+        return Constants.PROTOCOL_VERSION_SERIALIZED;
+    }
+
+    @Override
+    public void encode(int type, Object payload, WireOutput out) throws IOException {
+        ObjectOutputStream objectOut = new ObjectOutputStream(out);
+        objectOut.writeObject(payload);
+        objectOut.flush();
+    }
+
+    @Override
+    public Object decode(int type, byte[] data, int offset, int length) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data, offset, length))) {
+            return in.readObject();
+        }
+    }
+}
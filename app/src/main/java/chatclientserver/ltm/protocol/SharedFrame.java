@@ -0,0 +1,217 @@
+package chatclientserver.ltm.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * A frame that is encoded once and written to many channels.
+ * The encoded bytes are kept per protocol version, so a broadcast costs one
+ * encoding per version in use instead of one per recipient. The bytes are
+ * never handed out in writable form: a channel either gets a read-only view
+ * or has the frame written to its stream.
+ * <p>
+ * Channels that compress get the frame compressed by the first of them to
+ * write it. Every payload is compressed on its own, so the compressed bytes
+ * can be written to any channel of the same version.
+ * <p>
+ * The frame is reference counted: it starts with one reference owned by its
+ * creator, every holder that keeps it beyond the current call takes another
+ * with {@link #retain()}, and each reference is given back with
+ * {@link #release()}. The encoded bytes are dropped after the last release.
+ */
+public class SharedFrame {
+    private final int type;
+    private final int requestId;
+    private final Object payload;
+    private final AtomicInteger refCount = new AtomicInteger(1);
+    private final ReentrantLock encodeLock = new ReentrantLock();
+    private ByteBuffer[] encoded = new ByteBuffer[Constants.PROTOCOL_VERSION + 1];
+    private ByteBuffer[] compressed = new ByteBuffer[Constants.PROTOCOL_VERSION + 1];
+
+    /**
+     * Constructs a SharedFrame holding one reference.
+     *
+     * @param type The message type
+     * @param payload The payload object
+     */
+    public SharedFrame(int type, Object payload) {
+        this(type, 0, payload);
+    }
+
+    /**
+     * Constructs a SharedFrame that answers a request, holding one reference.
+     *
+     * @param type The message type
+     * @param requestId The request ID echoed to the client, or 0 if none
+     * @param payload The payload object
+     */
+    public SharedFrame(int type, int requestId, Object payload) {
+        this.type = type;
+        this.requestId = requestId;
+        this.payload = payload;
+    }
+
+    /**
+     * Gets the message type.
+     *
+     * @return The message type
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Gets the request ID.
+     *
+     * @return The request ID, or 0 if the frame does not answer a request
+     */
+    public int getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * Gets the payload object.
+     *
+     * @return The payload
+     */
+    public Object getPayload() {
+        return payload;
+    }
+
+    /**
+     * Gets a read-only view of the frame encoded with the specified codec, encoding it on first use.
+     *
+     * @param codec The payload codec of the channel
+     * @return A read-only buffer positioned at the start of the frame
+     * @throws IOException If the payload cannot be encoded
+     */
+    public ByteBuffer encodedFor(PayloadCodec codec) throws IOException {
+        return encodedFor(codec, null);
+    }
+
+    /**
+     * Gets a read-only view of the frame encoded for a channel, encoding and compressing it on first use.
+     *
+     * @param codec The payload codec of the channel
+     * @param compressor The compressor of the channel, or null if the channel does not compress
+     * @return A read-only buffer positioned at the start of the frame
+     * @throws IOException If the payload cannot be encoded
+     */
+    public ByteBuffer encodedFor(PayloadCodec codec, FrameCompressor compressor) throws IOException {
+        return encode(codec, compressor).asReadOnlyBuffer();
+    }
+
+    /**
+     * Writes the frame encoded with the specified codec to a stream, encoding it on first use.
+     *
+     * @param codec The payload codec of the channel
+     * @param out The stream to write to
+     * @throws IOException If the payload cannot be encoded or an I/O error occurs
+     */
+    public void writeTo(PayloadCodec codec, OutputStream out) throws IOException {
+        writeTo(codec, null, out);
+    }
+
+    /**
+     * Writes the frame encoded for a channel to a stream, encoding and compressing it on first use.
+     *
+     * @param codec The payload codec of the channel
+     * @param compressor The compressor of the channel, or null if the channel does not compress
+     * @param out The stream to write to
+     * @throws IOException If the payload cannot be encoded or an I/O error occurs
+     */
+    public void writeTo(PayloadCodec codec, FrameCompressor compressor, OutputStream out) throws IOException {
+        ByteBuffer buffer = encode(codec, compressor);
+        out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    }
+
+    /**
+     * Gets the encoded bytes for a codec, encoding them if this is the first request for its version.
+     * The returned buffer shares its array with every other caller and must not be modified.
+     *
+     * @param codec The payload codec
+     * @param compressor The compressor of the channel, or null if the channel does not compress
+     * @return The encoded frame
+     * @throws IOException If the payload cannot be encoded
+     */
+    private ByteBuffer encode(PayloadCodec codec, FrameCompressor compressor) throws IOException {
+        int version = codec.getVersion();
+        boolean compressing = compressor != null && compressor.getPolicy().isEnabled() && FrameCodec.hasCompression(codec);
+
+        encodeLock.lock();
+        try {
+            if (encoded == null) {
+                throw new IllegalStateException("Frame has already been released");
+            }
+            if (encoded[version] == null) {
+                encoded[version] = FrameCodec.encode(codec, type, requestId, payload);
+            }
+            if (!compressing) {
+                return encoded[version];
+            }
+            if (compressed[version] == null) {
+                // The same buffer as the uncompressed frame if compressing does not pay off
+                compressed[version] = FrameCodec.compress(codec, encoded[version], payload, compressor);
+            }
+            return compressed[version];
+        } finally {
+            encodeLock.unlock();
+        }
+    }
+
+    /**
+     * Takes an additional reference.
+     *
+     * @return This frame
+     * @throws IllegalStateException If the frame has already been released
+     */
+    public SharedFrame retain() {
+        while (true) {
+            int count = refCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("Frame has already been released");
+            }
+            if (refCount.compareAndSet(count, count + 1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * Gives back a reference, dropping the encoded bytes when it was the last one.
+     *
+     * @return true if this was the last reference
+     */
+    public boolean release() {
+        int count = refCount.decrementAndGet();
+        if (count < 0) {
+            throw new IllegalStateException("Frame released more often than retained");
+        }
+        if (count > 0) {
+            return false;
+        }
+
+        encodeLock.lock();
+        try {
+            encoded = null;
+            compressed = null;
+        } finally {
+            encodeLock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Gets the number of outstanding references.
+     *
+     * @return The reference count
+     */
+    public int refCount() {
+        return refCount.get();
+    }
+}
@@ -0,0 +1,154 @@
+package chatclientserver.ltm.protocol;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+
+/**
+ * Reader for the fields written by {@link WireOutput}.
+ * Reads from a slice of a byte array or from a buffer, which can be direct,
+ * and reports truncated or corrupt input as an IOException.
+ */
+public class WireInput {
+    private final ByteBuffer buffer;
+
+    /**
+     * Constructs a WireInput over a slice of a byte array.
+     *
+     * @param data The array holding the encoded fields
+     * @param offset The offset of the first field
+     * @param length The number of bytes available
+     */
+    public WireInput(byte[] data, int offset, int length) {
+        this.buffer = ByteBuffer.wrap(data, offset, length);
+    }
+
+    /**
+     * Constructs a WireInput over the remaining bytes of a buffer.
+     * The buffer's own position is left unchanged.
+     *
+     * @param data The buffer holding the encoded fields
+     */
+    public WireInput(ByteBuffer data) {
+        this.buffer = data.slice();
+    }
+
+    /**
+     * Reads a boolean written as a single byte.
+     *
+     * @return The value
+     * @throws IOException If the input is truncated
+     */
+    public boolean readBoolean() throws IOException {
+        try {
+            return buffer.get() != 0;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated payload");
+        }
+    }
+
+    /**
+     * Reads a big-endian int.
+     *
+     * @return The value
+     * @throws IOException If the input is truncated
+     */
+    public int readInt() throws IOException {
+        try {
+            return buffer.getInt();
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated payload");
+        }
+    }
+
+    /**
+     * Reads a big-endian long.
+     *
+     * @return The value
+     * @throws IOException If the input is truncated
+     */
+    public long readLong() throws IOException {
+        try {
+            return buffer.getLong();
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated payload");
+        }
+    }
+
+    /**
+     * Reads a string written by {@link WireOutput#writeString(String)}.
+     *
+     * @return The string, or null if a null string was written
+     * @throws IOException If the input is truncated or the length is invalid
+     */
+    public String readString() throws IOException {
+        int length = readLength();
+        if (length < 0) {
+            return null;
+        }
+        if (!buffer.hasArray()) {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    /**
+     * Reads a byte array written by {@link WireOutput#writeBytes(byte[])}.
+     *
+     * @return The bytes, or null if a null array was written
+     * @throws IOException If the input is truncated or the length is invalid
+     */
+    public byte[] readBytes() throws IOException {
+        int length = readLength();
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        buffer.get(value);
+        return value;
+    }
+
+    /**
+     * Reads a timestamp written by {@link WireOutput#writeTimestamp(Timestamp)}.
+     *
+     * @return The timestamp, or null if a null timestamp was written
+     * @throws IOException If the input is truncated
+     */
+    public Timestamp readTimestamp() throws IOException {
+        if (!readBoolean()) {
+            return null;
+        }
+        Timestamp value = new Timestamp(readLong());
+        value.setNanos(readInt());
+        return value;
+    }
+
+    /**
+     * Checks whether any bytes remain, so that fields appended to a layout can be read as optional.
+     *
+     * @return true if at least one byte remains
+     */
+    public boolean hasRemaining() {
+        return buffer.hasRemaining();
+    }
+
+    /**
+     * Reads a length prefix and checks it against the bytes that remain.
+     *
+     * @return The length, or -1 for a null value
+     * @throws IOException If the length is invalid
+     */
+    private int readLength() throws IOException {
+        int length = readInt();
+        if (length < -1 || length > buffer.remaining()) {
+            throw new IOException("Invalid field length: " + length);
+        }
+        return length;
+    }
+}
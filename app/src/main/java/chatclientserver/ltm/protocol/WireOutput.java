@@ -0,0 +1,159 @@
+package chatclientserver.ltm.protocol;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+/**
+ * Growable byte array used to build frames.
+ * Offers explicit big-endian field writers for the binary codec and, as an
+ * {@link OutputStream}, also serves as the target of Java serialization.
+ */
+public class WireOutput extends OutputStream {
+    private byte[] buffer;
+    private int count;
+
+    /**
+     * Constructs a WireOutput with the specified initial capacity.
+     *
+     * @param initialCapacity The initial capacity in bytes
+     */
+    public WireOutput(int initialCapacity) {
+        this.buffer = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    /**
+     * Makes room for the specified number of additional bytes.
+     *
+     * @param extra The number of bytes about to be written
+     */
+    private void ensureCapacity(int extra) {
+        if (count + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, count + extra));
+        }
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(1);
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(data, offset, buffer, count, length);
+        count += length;
+    }
+
+    /**
+     * Writes a boolean as a single byte.
+     *
+     * @param value The value to write
+     */
+    public void writeBoolean(boolean value) {
+        write(value ? 1 : 0);
+    }
+
+    /**
+     * Writes a big-endian int.
+     *
+     * @param value The value to write
+     */
+    public void writeInt(int value) {
+        ensureCapacity(4);
+        putInt(count, value);
+        count += 4;
+    }
+
+    /**
+     * Writes a big-endian long.
+     *
+     * @param value The value to write
+     */
+    public void writeLong(long value) {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    /**
+     * Writes a string as its UTF-8 length followed by its UTF-8 bytes.
+     * A null string is written as length -1.
+     *
+     * @param value The string to write (can be null)
+     */
+    public void writeString(String value) {
+        writeBytes(value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes a byte array as its length followed by its contents.
+     * A null array is written as length -1.
+     *
+     * @param value The bytes to write (can be null)
+     */
+    public void writeBytes(byte[] value) {
+        if (value == null) {
+            writeInt(-1);
+            return;
+        }
+        writeInt(value.length);
+        write(value, 0, value.length);
+    }
+
+    /**
+     * Writes a timestamp as a presence flag, its epoch milliseconds and its nanoseconds.
+     *
+     * @param value The timestamp to write (can be null)
+     */
+    public void writeTimestamp(Timestamp value) {
+        writeBoolean(value != null);
+        if (value != null) {
+            writeLong(value.getTime());
+            writeInt(value.getNanos());
+        }
+    }
+
+    /**
+     * Overwrites an int that was written earlier, such as a length field.
+     *
+     * @param position The position of the int
+     * @param value The new value
+     */
+    public void setInt(int position, int value) {
+        putInt(position, value);
+    }
+
+    /**
+     * Stores a big-endian int at the specified position.
+     *
+     * @param position The position in the buffer
+     * @param value The value to store
+     */
+    private void putInt(int position, int value) {
+        buffer[position] = (byte) (value >>> 24);
+        buffer[position + 1] = (byte) (value >>> 16);
+        buffer[position + 2] = (byte) (value >>> 8);
+        buffer[position + 3] = (byte) value;
+    }
+
+    /**
+     * Gets the number of bytes written so far.
+     *
+     * @return The number of bytes written
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Wraps the bytes written so far in a buffer without copying them.
+     *
+     * @return A buffer positioned at the first byte written
+     */
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(buffer, 0, count);
+    }
+}
@@ -0,0 +1,175 @@
+package chatclientserver.ltm.server;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Admission control for client connections, and the counters of every limit the server enforces.
+ * A connection is admitted when it is accepted, before its handshake, and
+ * holds its slot until the client handler closes, so clients that never
+ * finish the handshake count against the limits as well. The limits are read
+ * from the {@link ServerConfig} on every admission.
+ */
+public class AdmissionControl {
+    private final ServerConfig config;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<ClientHandler, String> admitted = new HashMap<>();
+    private final Map<String, Integer> sessionsByAddress = new HashMap<>();
+    private final LongAdder rejectedConnections = new LongAdder();
+    private final LongAdder delayedFrames = new LongAdder();
+    private final LongAdder rejectedFrames = new LongAdder();
+    private final LongAdder rateLimitDisconnects = new LongAdder();
+
+    /**
+     * Constructs an AdmissionControl.
+     *
+     * @param config The configuration holding the limits
+     */
+    AdmissionControl(ServerConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Admits a newly accepted client if neither the session limit nor the limit for its address is reached.
+     *
+     * @param client The client handler
+     * @return true if the client was admitted, false if it must be dropped
+     */
+    boolean tryAdmit(ClientHandler client) {
+        String address = client.getClientIpAddress();
+        int maxSessions = config.getMaxSessions();
+        int maxSessionsPerIp = config.getMaxSessionsPerIp();
+
+        lock.lock();
+        try {
+            if (admitted.containsKey(client)) {
+                return true;
+            }
+
+            int fromAddress = sessionsByAddress.getOrDefault(address, 0);
+            if ((maxSessions > 0 && admitted.size() >= maxSessions)
+                    || (maxSessionsPerIp > 0 && fromAddress >= maxSessionsPerIp)) {
+                rejectedConnections.increment();
+                return false;
+            }
+
+            admitted.put(client, address);
+            sessionsByAddress.put(address, fromAddress + 1);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back the slot of a client. Does nothing if the client was never admitted or has already been released.
+     *
+     * @param client The client handler
+     */
+    void release(ClientHandler client) {
+        lock.lock();
+        try {
+            String address = admitted.remove(client);
+            if (address != null) {
+                sessionsByAddress.computeIfPresent(address, (key, count) -> count > 1 ? count - 1 : null);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that a session went over one of its rate limits.
+     *
+     * @param policy The policy that was applied: Constants.RATE_LIMIT_DELAY,
+     *               Constants.RATE_LIMIT_REJECT or Constants.RATE_LIMIT_DISCONNECT
+     */
+    void recordRateLimited(String policy) {
+        switch (policy) {
+            case Constants.RATE_LIMIT_DELAY:
+                delayedFrames.increment();
+                break;
+            case Constants.RATE_LIMIT_REJECT:
+                rejectedFrames.increment();
+                break;
+            default:
+                rateLimitDisconnects.increment();
+        }
+    }
+
+    /**
+     * Gets the number of admitted connections, including those still handshaking.
+     *
+     * @return The number of admitted connections
+     */
+    public int getAdmittedSessions() {
+        lock.lock();
+        try {
+            return admitted.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of admitted connections from an address.
+     *
+     * @param address The IP address
+     * @return The number of admitted connections from the address
+     */
+    public int getAdmittedSessions(String address) {
+        lock.lock();
+        try {
+            return sessionsByAddress.getOrDefault(address, 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of connections dropped because a session limit was reached.
+     *
+     * @return The number of rejected connections
+     */
+    public long getRejectedConnections() {
+        return rejectedConnections.sum();
+    }
+
+    /**
+     * Gets the number of frames that were held back because a session went over a rate limit.
+     *
+     * @return The number of delayed frames
+     */
+    public long getDelayedFrames() {
+        return delayedFrames.sum();
+    }
+
+    /**
+     * Gets the number of frames that were discarded because a session went over a rate limit.
+     *
+     * @return The number of rejected frames
+     */
+    public long getRejectedFrames() {
+        return rejectedFrames.sum();
+    }
+
+    /**
+     * Gets the number of sessions that were closed because they went over a rate limit.
+     *
+     * @return The number of disconnected sessions
+     */
+    public long getRateLimitDisconnects() {
+        return rateLimitDisconnects.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "AdmissionControl [admittedSessions=" + getAdmittedSessions()
+                + ", rejectedConnections=" + getRejectedConnections() + ", delayedFrames=" + getDelayedFrames()
+                + ", rejectedFrames=" + getRejectedFrames() + ", rateLimitDisconnects=" + getRateLimitDisconnects() + "]";
+    }
+}
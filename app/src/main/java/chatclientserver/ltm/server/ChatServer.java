@@ -4,36 +4,100 @@ import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+import chatclientserver.ltm.cluster.ClusterBus;
+import chatclientserver.ltm.cluster.RelayLatency;
+import chatclientserver.ltm.cluster.TcpClusterBus;
+import chatclientserver.ltm.database.FileTransferDAO;
+import chatclientserver.ltm.database.MessageDAO;
+import chatclientserver.ltm.database.UserDAO;
+import chatclientserver.ltm.encryption.PlayfairKeyCache;
 
 import chatclientserver.ltm.model.FileTransfer;
 import chatclientserver.ltm.model.Message;
 import chatclientserver.ltm.model.User;
+import chatclientserver.ltm.protocol.CompressionPolicy;
+import chatclientserver.ltm.protocol.FlushScheduler;
+import chatclientserver.ltm.protocol.SharedFrame;
+import chatclientserver.ltm.util.BufferPool;
 import chatclientserver.ltm.util.Constants;
+import chatclientserver.ltm.util.FileUtils;
 
 /**
  * The main server class for the chat application.
  * This class is responsible for accepting client connections and creating handlers for them.
+ * Clients are served either by a thread per connection (blocking transport) or by a
+ * small set of selector event loops (NIO transport), as chosen by the {@link ServerConfig}.
  */
 public class ChatServer {
     private static ChatServer instance;
     private ServerSocket serverSocket;
-    private boolean running;
+    private NioServer nioServer;
+    private volatile boolean running;
     private ExecutorService executorService;
-    private List<ClientHandler> clients;
+    private ExecutorService writerExecutor;
+    private ScheduledExecutorService flushTimer;
+    private volatile ScheduledExecutorService rateLimitTimer;
+    private FlushScheduler flushScheduler;
+    private CompressionPolicy compressionPolicy;
+    private volatile MessagePipeline messagePipeline;
+    private volatile TimerWheel timerWheel;
+    private volatile IdleReaper idleReaper;
+    private volatile SessionResumption resumption;
+    private volatile ClusterBus clusterBus;
+    private volatile ClusterRelay clusterRelay;
+    private SessionRegistry sessions;
+    private volatile AdmissionControl admissionControl;
+    private Set<ClientHandler> handshakingClients;
+    private final AtomicInteger inFlightFrames = new AtomicInteger();
     private List<ServerObserver> observers;
+    private ServerConfig config;
     private int port;
+    private final ReentrantLock daoLock = new ReentrantLock();
+    private volatile MessageDAO messageDAO;
+    private volatile FileTransferDAO fileTransferDAO;
+    private volatile UserVerifier userVerifier;
 
     /**
-     * Private constructor to enforce the Singleton pattern.
+     * Private constructor for the shared instance, configured from the system properties.
      */
     private ChatServer() {
-        clients = new ArrayList<>();
+        this(ServerConfig.fromSystemProperties());
+    }
+
+    /**
+     * Constructs a ChatServer with its own configuration.
+     * The application uses the shared instance from {@link #getInstance()};
+     * several independent instances can run in one JVM, for example as the
+     * nodes of a cluster.
+     *
+     * @param config The server configuration
+     */
+    public ChatServer(ServerConfig config) {
+        sessions = new SessionRegistry();
+        handshakingClients = ConcurrentHashMap.newKeySet();
         observers = new CopyOnWriteArrayList<>();
-        executorService = Executors.newCachedThreadPool();
+        this.config = config;
+        admissionControl = new AdmissionControl(config);
     }
 
     /**
@@ -55,38 +119,185 @@ public class ChatServer {
      * @throws IOException If an I/O error occurs when opening the socket
      */
     public void start(int port) throws IOException {
+        config.validate();
         this.port = port;
-        serverSocket = new ServerSocket(port);
-        running = true;
+        admissionControl = new AdmissionControl(config);
+        executorService = createExecutorService();
+        writerExecutor = createWriterExecutor();
+        flushTimer = FlushScheduler.createTimer("flush-timer");
+        rateLimitTimer = FlushScheduler.createTimer("rate-limit-timer");
+        flushScheduler = new FlushScheduler(flushTimer, config.getBatchWindowMicros(), config.getMaxBatchBytes());
+        compressionPolicy = new CompressionPolicy(config.getCompressionThreshold(), config.getCompressionLevel());
+        messagePipeline = new MessagePipeline(config);
+        startSessionTimers();
+        startCluster();
 
-        System.out.println("Server started on port " + port);
+        // Prepare shared session resources off the accept path
+        executorService.execute(this::prepareSessionResources);
+
+        if (Constants.TRANSPORT_NIO.equals(config.getTransport())) {
+            // Serve all clients from a fixed set of event loops
+            nioServer = new NioServer(this, executorService, config.getEventLoopThreads());
+            nioServer.start(port);
+            running = true;
+        } else {
+            serverSocket = new ServerSocket(port);
+            running = true;
+
+            // Accept client connections in a separate thread
+            new Thread(() -> acceptClients()).start();
+        }
+
+        System.out.println("Server started on port " + port + " (" + config.getTransport() + " transport, "
+                + config.getExecutor() + " executor)");
 
         // Notify observers that the server has started
         notifyServerStarted(port);
+    }
+
+    /**
+     * Starts the timer wheel shared by the idle reaper, which pings quiet sessions and
+     * closes idle ones, and by session resumption, which forgets parked sessions that
+     * are not resumed in time. Either can be disabled in the configuration.
+     */
+    private void startSessionTimers() {
+        timerWheel = new TimerWheel("session-timers", Constants.TIMER_WHEEL_TICK_MILLIS, Constants.TIMER_WHEEL_SIZE);
+        idleReaper = config.getIdleTimeoutMillis() == 0 ? null
+                : new IdleReaper(timerWheel, writerExecutor, config.getHeartbeatIntervalMillis(), config.getIdleTimeoutMillis());
+        resumption = config.getResumeWindowMillis() == 0 ? null
+                : new SessionResumption(timerWheel, config.getResumeWindowMillis());
+        timerWheel.start();
+    }
+
+    /**
+     * Joins the cluster, if this server is part of one: either through the bus set
+     * with {@link #setClusterBus(ClusterBus)}, or over TCP when a cluster port is configured.
+     *
+     * @throws IOException If the cluster bus cannot be started
+     */
+    private void startCluster() throws IOException {
+        ClusterBus bus = clusterBus;
+        if (bus == null && config.getClusterPort() > 0) {
+            bus = new TcpClusterBus(config.getNodeId(), config.getClusterBindAddress(), config.getClusterPort(),
+                    config.getClusterPeers(), config.getClusterSecret());
+        }
+        if (bus == null) {
+            return;
+        }
+        ClusterRelay relay = new ClusterRelay(this, bus, config.getAdvertisedHost() + ":" + port);
+        if (resumption != null) {
+            resumption.setExpiredListener(this::userSessionsChanged);
+        }
+        clusterRelay = relay;
+        relay.start();
+    }
+
+    /**
+     * Finds the cluster node that should serve a session.
+     *
+     * @param placementKey The session's placement key, such as "room:team" or "user:42"
+     * @return The host:port of the owning node, or null if this server should serve the session
+     */
+    String redirectFor(String placementKey) {
+        ClusterRelay relay = clusterRelay;
+        return relay != null && placementKey != null ? relay.redirectFor(placementKey) : null;
+    }
+
+    /**
+     * Asks the clients whose sessions now belong to another cluster node to move there.
+     * Called when a node joins or leaves; sessions whose keys did not change owner stay.
+     */
+    void rebalanceSessions() {
+        int moved = 0;
+        for (ClientHandler client : sessions.getClients()) {
+            String address = redirectFor(client.getPlacementKey());
+            if (address != null && client.redirect(address)) {
+                moved++;
+            }
+        }
+        if (moved > 0) {
+            System.out.println("Cluster changed: " + moved + " sessions asked to move to their new node");
+        }
+    }
+
+    /**
+     * Sets the bus that connects this server to the other nodes of a cluster.
+     * Must be called before the server starts.
+     *
+     * @param clusterBus The cluster bus, or null to run on the TCP bus of the configuration, if any
+     */
+    public void setClusterBus(ClusterBus clusterBus) {
+        this.clusterBus = clusterBus;
+    }
+
+    /**
+     * Gets the time messages relayed from other cluster nodes took to arrive.
+     *
+     * @return The relay latency histogram, or null if the server is not in a cluster
+     */
+    public RelayLatency getRelayLatency() {
+        ClusterRelay relay = clusterRelay;
+        return relay != null ? relay.getLatency() : null;
+    }
 
-        // Accept client connections in a separate thread
-        new Thread(() -> acceptClients()).start();
+    /**
+     * Creates the executor that runs client handlers, according to the configured strategy.
+     *
+     * @return The executor service
+     */
+    private ExecutorService createExecutorService() {
+        switch (config.getExecutor()) {
+            case Constants.EXECUTOR_VIRTUAL:
+                // One virtual thread per session; blocking reads park instead of holding a platform thread
+                return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("client-handler-", 0).factory());
+            case Constants.EXECUTOR_BOUNDED:
+                // Only runs the NIO workers, which hold a thread per frame rather than per session
+                return Executors.newFixedThreadPool(config.getWorkerThreads());
+            default:
+                return Executors.newCachedThreadPool();
+        }
     }
 
     /**
-     * Accepts client connections and creates handlers for them.
+     * Creates the executor that runs the per-client broadcast writers.
+     * Kept apart from the handler executor so that a bounded pool full of
+     * blocked readers cannot starve delivery.
+     *
+     * @return The executor service
+     */
+    private ExecutorService createWriterExecutor() {
+        if (Constants.EXECUTOR_VIRTUAL.equals(config.getExecutor())) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("client-writer-", 0).factory());
+        }
+        return Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Accepts client connections and hands them off to the executor.
+     * The accept thread does no I/O on the accepted socket: the protocol handshake
+     * and session setup run in {@link ClientHandler#run()}, so a slow peer cannot
+     * stall the connections queued behind it.
      */
     private void acceptClients() {
         try {
             while (running) {
                 Socket clientSocket = serverSocket.accept();
-                System.out.println("New client connected: " + clientSocket.getInetAddress().getHostAddress());
-
-                // Create a handler for the client
-                ClientHandler clientHandler = new ClientHandler(clientSocket);
-                clientHandler.setObserver(this);
-                clients.add(clientHandler);
 
-                // Notify observers that a client has connected
-                notifyClientConnected(clientHandler);
+                // Frames are batched by the channel, so Nagle's algorithm would only add delay
+                clientSocket.setTcpNoDelay(true);
+                System.out.println("New client connected: " + clientSocket.getInetAddress().getHostAddress());
 
-                // Start the handler in the thread pool
-                executorService.execute(clientHandler);
+                // Hand the socket off; the handler registers itself once the handshake succeeds
+                ClientHandler clientHandler = new ClientHandler(clientSocket, this);
+                if (!admitClient(clientHandler)) {
+                    clientHandler.close();
+                    continue;
+                }
+                try {
+                    executorService.execute(clientHandler);
+                } catch (RejectedExecutionException e) {
+                    clientHandler.close();
+                }
             }
         } catch (IOException e) {
             if (running) {
@@ -96,19 +307,136 @@ public class ChatServer {
         }
     }
 
+    /**
+     * Creates the shared data access objects and the received files directory.
+     * Runs on the executor when the server starts so that neither the accept
+     * thread nor the first sessions pay for the database connection.
+     */
+    private void prepareSessionResources() {
+        initDAOs();
+
+        try {
+            FileUtils.createReceivedFilesDir();
+        } catch (IOException e) {
+            System.err.println("Error creating received files directory: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Creates the data access objects shared by all client handlers, if not already created.
+     */
+    private void initDAOs() {
+        daoLock.lock();
+        try {
+            if (fileTransferDAO == null) {
+                fileTransferDAO = new FileTransferDAO();
+            }
+            if (messageDAO == null) {
+                messageDAO = new MessageDAO();
+            }
+            if (userVerifier == null) {
+                userVerifier = new UserVerifier(new UserDAO()::getUserById);
+            }
+        } finally {
+            daoLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the message DAO shared by all client handlers.
+     *
+     * @return The message DAO
+     */
+    MessageDAO getMessageDAO() {
+        if (messageDAO == null) {
+            initDAOs();
+        }
+        return messageDAO;
+    }
+
+    /**
+     * Gets the file transfer DAO shared by all client handlers.
+     *
+     * @return The file transfer DAO
+     */
+    FileTransferDAO getFileTransferDAO() {
+        if (fileTransferDAO == null) {
+            initDAOs();
+        }
+        return fileTransferDAO;
+    }
+
+    /**
+     * Gets the verifier that checks user information sent by clients against the database.
+     *
+     * @return The user verifier
+     */
+    UserVerifier getUserVerifier() {
+        if (userVerifier == null) {
+            initDAOs();
+        }
+        return userVerifier;
+    }
+
     /**
      * Stops the server.
      */
     public void stop() {
         running = false;
 
-        // Close all client connections
-        for (ClientHandler client : clients) {
+        // Drop connections that are still handshaking, then close all client connections
+        for (ClientHandler client : new ArrayList<>(handshakingClients)) {
+            client.close();
+        }
+        for (ClientHandler client : new ArrayList<>(sessions.getClients())) {
             client.close();
         }
 
-        // Shutdown the executor service
-        executorService.shutdown();
+        // Stop the event loops if the NIO transport is in use
+        if (nioServer != null) {
+            nioServer.stop();
+            nioServer = null;
+        }
+
+        // Shutdown the executor services
+        if (executorService != null) {
+            executorService.shutdown();
+        }
+        if (writerExecutor != null) {
+            writerExecutor.shutdown();
+        }
+        if (flushTimer != null) {
+            flushTimer.shutdown();
+        }
+        if (rateLimitTimer != null) {
+            rateLimitTimer.shutdown();
+        }
+
+        // Let the messages already read be saved, then report where they spent their time
+        MessagePipeline pipeline = messagePipeline;
+        if (pipeline != null) {
+            pipeline.shutdown(Constants.PIPELINE_SHUTDOWN_MILLIS);
+            System.out.println(pipeline);
+        }
+        if (timerWheel != null) {
+            timerWheel.stop();
+            timerWheel = null;
+        }
+        if (idleReaper != null) {
+            System.out.println("Idle sessions closed: " + idleReaper.getReapedSessions()
+                    + ", pings sent: " + idleReaper.getPingsSent());
+        }
+        if (resumption != null) {
+            System.out.println("Sessions resumed: " + resumption.getResumedSessions()
+                    + ", expired: " + resumption.getExpiredSessions());
+            resumption.clear();
+        }
+        ClusterRelay relay = clusterRelay;
+        if (relay != null) {
+            relay.stop();
+            clusterRelay = null;
+            System.out.println("Cluster node " + relay.getNodeId() + " left the cluster (" + relay.getLatency() + ")");
+        }
 
         // Close the server socket
         try {
@@ -120,32 +448,528 @@ public class ChatServer {
             notifyServerError("Error closing server socket", e);
         }
 
-        System.out.println("Server stopped");
+        if (compressionPolicy != null) {
+            System.out.println(String.format("Frames compressed: %d of %d (ratio %.3f, %.1f us each),"
+                    + " decompressed: %d (%.1f us each)", compressionPolicy.getCompressedFrames(),
+                    compressionPolicy.getAttempts(), compressionPolicy.getRatio(),
+                    compressionPolicy.getCompressMicrosPerFrame(), compressionPolicy.getInflatedFrames(),
+                    compressionPolicy.getInflateMicrosPerFrame()));
+        }
+        System.out.println("Server stopped (" + admissionControl + ", " + getBufferPool() + ", "
+                + PlayfairKeyCache.getDefault() + ")");
 
         // Notify observers that the server has stopped
         notifyServerStopped();
     }
 
     /**
-     * Removes a client handler from the list of clients.
+     * Shuts the server down gracefully, waiting at most the configured drain timeout.
+     *
+     * @see #drain(long)
+     */
+    public void drain() {
+        drain(config.getDrainTimeoutMillis());
+    }
+
+    /**
+     * Shuts the server down gracefully.
+     * The server stops accepting connections and tells clients that understand it
+     * that it is shutting down, so they can finish their requests and leave. During
+     * the first half of the timeout sessions may keep sending; after that the
+     * remaining sessions stop being read, and the server waits for the frames it has
+     * already received to be handled and their replies written. Whatever is left at
+     * the deadline is closed by {@link #stop()}.
+     *
+     * @param timeoutMillis How long to wait for sessions to finish, in milliseconds
+     */
+    public void drain(long timeoutMillis) {
+        if (!running) {
+            return;
+        }
+        running = false;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        // Stop accepting; the event loops keep serving the open sessions
+        if (nioServer != null) {
+            nioServer.stopAccepting();
+        }
+        try {
+            if (serverSocket != null && !serverSocket.isClosed()) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing server socket: " + e.getMessage());
+        }
+
+        System.out.println("Draining " + sessions.size() + " sessions (timeout " + timeoutMillis + " ms)");
+        notifyServerDraining(sessions.size(), timeoutMillis);
+
+        // Clients too old to understand the notice are closed at the deadline
+        broadcast(Constants.MESSAGE_TYPE_SERVER_DRAINING, "Server is shutting down", ClientHandler::supportsDrainNotice);
+        for (ClientHandler client : new ArrayList<>(handshakingClients)) {
+            client.close();
+        }
+
+        // Give the clients half of the time to leave on their own
+        awaitDrained(deadline - TimeUnit.MILLISECONDS.toNanos(timeoutMillis) / 2, () -> sessions.size() == 0);
+
+        // Then take no more frames, and let the ones already received be answered
+        for (ClientHandler client : sessions.getClients()) {
+            client.stopReading();
+        }
+        awaitDrained(deadline, () -> inFlightFrames.get() == 0
+                && sessions.getClients().stream().noneMatch(ClientHandler::hasPendingOutput));
+
+        stop();
+    }
+
+    /**
+     * Waits until a drain condition holds or a deadline passes, reporting progress to the observers.
+     *
+     * @param deadline The deadline, in System.nanoTime() units
+     * @param drained The condition to wait for
+     */
+    private void awaitDrained(long deadline, BooleanSupplier drained) {
+        int reportedSessions = -1;
+        int reportedFrames = -1;
+        while (!drained.getAsBoolean() && System.nanoTime() - deadline < 0) {
+            // Only report when something has changed
+            int remainingSessions = sessions.size();
+            int frames = inFlightFrames.get();
+            if (remainingSessions != reportedSessions || frames != reportedFrames) {
+                reportedSessions = remainingSessions;
+                reportedFrames = frames;
+                notifyDrainProgress(remainingSessions, frames);
+            }
+
+            try {
+                Thread.sleep(Constants.DRAIN_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                // Give up waiting; the remaining sessions are closed
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Records that a client frame has been received and is about to be handled.
+     */
+    void frameStarted() {
+        inFlightFrames.incrementAndGet();
+    }
+
+    /**
+     * Records that a received client frame has been handled.
+     */
+    void frameFinished() {
+        inFlightFrames.decrementAndGet();
+    }
+
+    /**
+     * Gets the number of received client frames that are still being handled.
+     *
+     * @return The number of frames in flight
+     */
+    public int getInFlightFrames() {
+        return inFlightFrames.get();
+    }
+
+    /**
+     * Admits a client that has just been accepted and tracks it until it completes
+     * its handshake, so that stopping the server also drops it.
+     *
+     * @param clientHandler The client handler to admit
+     * @return true if the client was admitted, false if a session limit is reached and it must be closed
+     */
+    boolean admitClient(ClientHandler clientHandler) {
+        if (!admissionControl.tryAdmit(clientHandler)) {
+            System.out.println("Connection from " + clientHandler.getClientIpAddress() + " rejected: session limit reached");
+            return false;
+        }
+        handshakingClients.add(clientHandler);
+        return true;
+    }
+
+    /**
+     * Adds a client handler that has completed its handshake, puts it in the
+     * default room and notifies the observers.
+     *
+     * @param clientHandler The client handler to add
+     */
+    void registerClient(ClientHandler clientHandler) {
+        handshakingClients.remove(clientHandler);
+        clientHandler.setObserver(this);
+        if (!sessions.register(clientHandler)) {
+            return;
+        }
+        sessions.join(clientHandler, Constants.DEFAULT_ROOM);
+
+        // Watch for a peer that disappears without closing the connection
+        IdleReaper reaper = idleReaper;
+        if (reaper != null) {
+            reaper.watch(clientHandler);
+        }
+
+        // Notify observers that a client has connected
+        notifyClientConnected(clientHandler);
+    }
+
+    /**
+     * Removes a client handler from the session registry, including its room memberships.
      *
      * @param clientHandler The client handler to remove
      */
     public void removeClient(ClientHandler clientHandler) {
-        clients.remove(clientHandler);
-        System.out.println("Client disconnected. Remaining clients: " + clients.size());
+        // A client that never finished its handshake was never announced
+        handshakingClients.remove(clientHandler);
+        admissionControl.release(clientHandler);
+        parkSession(clientHandler);
+        boolean registered = sessions.unregister(clientHandler);
+
+        // The user may have no session left on this node
+        userSessionsChanged(clientHandler.getCurrentUser());
+        if (!registered) {
+            return;
+        }
+        System.out.println("Client disconnected. Remaining clients: " + sessions.size());
 
         // Notify observers that a client has disconnected
         notifyClientDisconnected(clientHandler);
     }
 
     /**
-     * Gets the list of connected clients.
+     * Indexes a session by its user and, in a cluster, announces the user to the
+     * other nodes if this is its first session here.
+     *
+     * @param clientHandler The client handler
+     * @param user The user the session belongs to
+     */
+    void bindUser(ClientHandler clientHandler, User user) {
+        sessions.bindUser(clientHandler, user);
+        userSessionsChanged(user);
+    }
+
+    /**
+     * Checks whether a user has sessions on this server, live or waiting to be resumed.
+     *
+     * @param userId The user ID
+     * @return true if the user has at least one local session
+     */
+    boolean hasLocalSessions(int userId) {
+        SessionResumption parking = resumption;
+        return !sessions.getClientsForUser(userId).isEmpty() || (parking != null && parking.hasSessionsFor(userId));
+    }
+
+    /**
+     * Tells the cluster, if any, that the local sessions of a user have changed.
+     *
+     * @param user The user (can be null)
+     */
+    private void userSessionsChanged(User user) {
+        ClusterRelay relay = clusterRelay;
+        if (relay != null) {
+            relay.userChanged(user);
+        }
+    }
+
+    /**
+     * Keeps the session of a client whose connection has dropped, so that it can be
+     * resumed with its token. Nothing is kept for clients that logged out, that
+     * cannot resume, or when the server is stopping.
+     *
+     * @param clientHandler The client handler being removed
+     */
+    private void parkSession(ClientHandler clientHandler) {
+        SessionResumption parking = resumption;
+        String token = clientHandler.getResumeToken();
+        User user = clientHandler.getCurrentUser();
+        ReplayBuffer buffer = clientHandler.getReplayBuffer();
+        if (parking == null || token == null) {
+            return;
+        }
+        parking.detach(token, clientHandler);
+        if (!running || user == null || buffer == null) {
+            return;
+        }
+
+        // Take the rooms before the registry forgets them
+        if (sessions.getClient(clientHandler.getClientId()) != clientHandler) {
+            return;
+        }
+        parking.park(token, user, new HashSet<>(sessions.getRooms(clientHandler.getClientId())), buffer);
+        System.out.println("Session of " + clientHandler.getDisplayName() + " kept for "
+                + config.getResumeWindowMillis() + " ms to be resumed");
+    }
+
+    /**
+     * Delivers a message to every connected client.
+     *
+     * @param type The message type
+     * @param payload The payload object
+     * @return The number of clients the message was queued for
+     */
+    public int broadcast(int type, Object payload) {
+        return broadcast(type, payload, client -> true);
+    }
+
+    /**
+     * Delivers a message to the connected clients accepted by a filter.
+     * Each recipient has its own bounded outbound queue, so a slow client
+     * neither blocks the caller nor delays the other recipients. The message
+     * is encoded once per protocol version and the bytes are shared by all
+     * recipients.
      *
-     * @return The list of client handlers
+     * @param type The message type
+     * @param payload The payload object
+     * @param recipients Selects the clients that receive the message
+     * @return The number of clients the message was queued for
      */
-    public List<ClientHandler> getClients() {
-        return clients;
+    public int broadcast(int type, Object payload, Predicate<ClientHandler> recipients) {
+        return deliver(sessions.getClients(), type, payload, recipients);
+    }
+
+    /**
+     * Delivers a message to the members of a room accepted by a filter.
+     * Members whose connection dropped and whose session is waiting to be
+     * resumed keep chat messages for replay. In a cluster the message is also
+     * relayed to the members of the room on the other nodes.
+     *
+     * @param room The room name
+     * @param type The message type
+     * @param payload The payload object
+     * @param recipients Selects the local members that receive the message
+     * @return The number of local clients the message was queued or kept for
+     */
+    public int broadcastToRoom(String room, int type, Object payload, Predicate<ClientHandler> recipients) {
+        ClusterRelay relay = clusterRelay;
+        if (relay != null) {
+            relay.relayToRoom(room, type, payload);
+        }
+        return broadcastToRoomLocally(room, type, payload, recipients);
+    }
+
+    /**
+     * Delivers a message to the members of a room on this server only.
+     *
+     * @param room The room name
+     * @param type The message type
+     * @param payload The payload object
+     * @param recipients Selects the members that receive the message
+     * @return The number of clients the message was queued or kept for
+     */
+    int broadcastToRoomLocally(String room, int type, Object payload, Predicate<ClientHandler> recipients) {
+        // Members whose connection dropped get the message when they resume
+        return relay(type, () -> deliver(sessions.getRoomMembers(room), type, payload, recipients),
+                parking -> parking.recordForRoom(room, type, payload));
+    }
+
+    /**
+     * Delivers a message to every live session of a user, looked up in the session registry.
+     * Never touches the database and never waits on a socket. Sessions of the
+     * user waiting to be resumed keep the message for replay. In a cluster the
+     * message is also relayed to the nodes where the user has sessions.
+     *
+     * @param userId The recipient's user ID
+     * @param type The message type
+     * @param payload The payload object
+     * @return The number of local sessions the message was queued or kept for, plus the
+     *         number of nodes it was relayed to; 0 if the user is offline
+     */
+    public int sendToUser(int userId, int type, Object payload) {
+        ClusterRelay relay = clusterRelay;
+        int relayed = relay != null ? relay.relayToUser(userId, type, payload) : 0;
+        return sendToUserLocally(userId, type, payload) + relayed;
+    }
+
+    /**
+     * Delivers a message to the sessions of a user on this server only.
+     *
+     * @param userId The recipient's user ID
+     * @param type The message type
+     * @param payload The payload object
+     * @return The number of sessions the message was queued or kept for
+     */
+    int sendToUserLocally(int userId, int type, Object payload) {
+        return relay(type, () -> deliver(sessions.getClientsForUser(userId), type, payload, client -> true),
+                parking -> parking.recordForUser(userId, type, payload));
+    }
+
+    /**
+     * Delivers a message to every live session of a user, looked up by username.
+     *
+     * @param username The recipient's username, matched case-insensitively
+     * @param type The message type
+     * @param payload The payload object
+     * @return The number of local sessions the message was queued or kept for, plus the
+     *         number of nodes it was relayed to; 0 if the user is offline
+     */
+    public int sendToUsername(String username, int type, Object payload) {
+        ClusterRelay relay = clusterRelay;
+        int relayed = relay != null ? relay.relayToUsername(username, type, payload) : 0;
+        return sendToUsernameLocally(username, type, payload) + relayed;
+    }
+
+    /**
+     * Delivers a message to the sessions of a user on this server only, looked up by username.
+     *
+     * @param username The recipient's username, matched case-insensitively
+     * @param type The message type
+     * @param payload The payload object
+     * @return The number of sessions the message was queued or kept for
+     */
+    int sendToUsernameLocally(String username, int type, Object payload) {
+        return relay(type, () -> deliver(sessions.getClientsForUsername(username), type, payload, client -> true),
+                parking -> parking.recordForUsername(username, type, payload));
+    }
+
+    /**
+     * Delivers a message to live sessions and, for chat and direct messages,
+     * keeps it for the parked sessions among the recipients. Both happen under
+     * the relay lock, so a session being parked or resumed gets the message once.
+     *
+     * @param type The message type
+     * @param live Delivers the message to the live sessions
+     * @param parked Keeps the message for the parked sessions
+     * @return The number of sessions the message was queued or kept for
+     */
+    private int relay(int type, IntSupplier live, ToIntFunction<SessionResumption> parked) {
+        SessionResumption parking = resumption;
+        if (parking == null || !ReplayBuffer.isReplayed(type)) {
+            return live.getAsInt();
+        }
+        Lock relayLock = parking.relayLock();
+        relayLock.lock();
+        try {
+            return live.getAsInt() + parked.applyAsInt(parking);
+        } finally {
+            relayLock.unlock();
+        }
+    }
+
+    /**
+     * Queues one shared frame for each accepted client of a collection.
+     *
+     * @param clients The candidate recipients
+     * @param type The message type
+     * @param payload The payload object
+     * @param recipients Selects the clients that receive the message
+     * @return The number of clients the message was queued for
+     */
+    private int deliver(Collection<ClientHandler> clients, int type, Object payload,
+            Predicate<ClientHandler> recipients) {
+        SharedFrame frame = new SharedFrame(type, payload);
+        try {
+            int queued = 0;
+            for (ClientHandler client : clients) {
+                if (recipients.test(client) && client.deliver(frame)) {
+                    queued++;
+                }
+            }
+            return queued;
+        } finally {
+            // The queues hold their own references; the bytes go once the last write is done
+            frame.release();
+        }
+    }
+
+    /**
+     * Gets the sessions kept for clients whose connection dropped.
+     *
+     * @return The session resumption, or null if resumption is disabled
+     */
+    SessionResumption getSessionResumption() {
+        return resumption;
+    }
+
+    /**
+     * Gets the timer wheel shared by the session timeouts.
+     *
+     * @return The timer wheel, or null if the server is not running
+     */
+    TimerWheel getTimerWheel() {
+        return timerWheel;
+    }
+
+    /**
+     * Gets the executor that runs the per-client broadcast writers.
+     *
+     * @return The writer executor
+     */
+    Executor getWriterExecutor() {
+        return writerExecutor;
+    }
+
+    /**
+     * Gets the timer that lets sessions held back by their rate limit read again.
+     *
+     * @return The timer, or null if the server is not running
+     */
+    ScheduledExecutorService getRateLimitTimer() {
+        return rateLimitTimer;
+    }
+
+    /**
+     * Gets the batching policy for frames sent to clients.
+     *
+     * @return The flush scheduler
+     */
+    FlushScheduler getFlushScheduler() {
+        return flushScheduler;
+    }
+
+    /**
+     * Gets the pipeline that decrypts, searches, answers and saves the chat messages of the current run.
+     *
+     * @return The message pipeline, or null if the server has not been started
+     */
+    MessagePipeline getMessagePipeline() {
+        return messagePipeline;
+    }
+
+    /**
+     * Gets the compression policy of the current run, with the compression ratio and the time spent per frame.
+     *
+     * @return The compression policy, or null if the server has not been started
+     */
+    public CompressionPolicy getCompressionPolicy() {
+        return compressionPolicy;
+    }
+
+    /**
+     * Gets the connection limits of the server and the counters of how often each limit was hit.
+     *
+     * @return The admission control of the current run
+     */
+    public AdmissionControl getAdmissionControl() {
+        return admissionControl;
+    }
+
+    /**
+     * Gets the pool of the buffers that receive frames and files, with its hit rate and outstanding buffers.
+     *
+     * @return The buffer pool
+     */
+    public BufferPool getBufferPool() {
+        return BufferPool.getDefault();
+    }
+
+    /**
+     * Gets the connected clients.
+     *
+     * @return A live, read-only view of the client handlers
+     */
+    public Collection<ClientHandler> getClients() {
+        return sessions.getClients();
+    }
+
+    /**
+     * Gets the registry that indexes the connected clients by ID, user and room.
+     *
+     * @return The session registry
+     */
+    public SessionRegistry getSessionRegistry() {
+        return sessions;
     }
 
     /**
@@ -261,6 +1085,30 @@ public class ChatServer {
         }
     }
 
+    /**
+     * Notifies all observers that the server has started draining.
+     *
+     * @param sessions The number of sessions still open
+     * @param timeoutMillis How long the server waits before closing the remaining sessions
+     */
+    public void notifyServerDraining(int sessions, long timeoutMillis) {
+        for (ServerObserver observer : observers) {
+            observer.onServerDraining(sessions, timeoutMillis);
+        }
+    }
+
+    /**
+     * Notifies all observers of the progress of a drain.
+     *
+     * @param remainingSessions The number of sessions still open
+     * @param inFlightFrames The number of received frames still being handled
+     */
+    public void notifyDrainProgress(int remainingSessions, int inFlightFrames) {
+        for (ServerObserver observer : observers) {
+            observer.onDrainProgress(remainingSessions, inFlightFrames);
+        }
+    }
+
     /**
      * Notifies all observers that the server has stopped.
      */
@@ -282,6 +1130,16 @@ public class ChatServer {
         }
     }
 
+    /**
+     * Gets the server configuration.
+     * Changes take effect the next time the server is started.
+     *
+     * @return The server configuration
+     */
+    public ServerConfig getConfig() {
+        return config;
+    }
+
     /**
      * Gets the port the server is listening on.
      *
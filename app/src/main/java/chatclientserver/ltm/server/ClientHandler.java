@@ -2,20 +2,34 @@ package chatclientserver.ltm.server;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InterruptedIOException;
 import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 
 import chatclientserver.ltm.database.FileTransferDAO;
 import chatclientserver.ltm.database.MessageDAO;
-import chatclientserver.ltm.database.UserDAO;
 import chatclientserver.ltm.encryption.PlayfairCipher;
+import chatclientserver.ltm.encryption.TextNormalizer;
 import chatclientserver.ltm.model.FileTransfer;
 import chatclientserver.ltm.model.Message;
 import chatclientserver.ltm.model.User;
+import chatclientserver.ltm.protocol.BlockingChannel;
+import chatclientserver.ltm.protocol.ChannelFactory;
+import chatclientserver.ltm.protocol.Frame;
+import chatclientserver.ltm.protocol.FrameSource;
+import chatclientserver.ltm.protocol.MessageChannel;
+import chatclientserver.ltm.protocol.SharedFrame;
 import chatclientserver.ltm.util.Constants;
 import chatclientserver.ltm.util.FileUtils;
 
@@ -24,150 +38,686 @@ import org.apache.commons.lang3.StringUtils;
 /**
  * Handler for client connections.
  * This class is responsible for handling communication with a specific client.
+ * With the blocking transport it reads from its own socket in {@link #run()};
+ * with the NIO transport frames are pushed to {@link #handleFrame(Frame)} by the event loop.
  */
 public class ClientHandler implements Runnable {
     private Socket clientSocket;
-    private ObjectInputStream inputStream;
-    private ObjectOutputStream outputStream;
+    private MessageChannel channel;
+    private FrameSource frameSource;
+    private volatile OutboundQueue outbound;
     private String clientId;
-    private boolean running;
+    private volatile boolean running;
+    private volatile boolean readingStopped;
+    private volatile String resumeToken;
+    private volatile ReplayBuffer replayBuffer;
+    private volatile String placementKey;
+    private volatile long lastActivityNanos = System.nanoTime();
     private MessageDAO messageDAO;
     private FileTransferDAO fileTransferDAO;
-    private UserDAO userDAO;
+    private MessagePipeline.Lanes lanes;
     private User currentUser;
     private ChatServer server;
+    private TokenBucket messageLimit;
+    private TokenBucket fileLimit;
 
     /**
      * Constructs a ClientHandler for the specified client socket.
+     * The constructor does no I/O; the protocol handshake runs in {@link #run()}.
      *
      * @param clientSocket The client socket
      */
     public ClientHandler(Socket clientSocket) {
+        this(clientSocket, ChatServer.getInstance());
+    }
+
+    /**
+     * Constructs a ClientHandler for a socket accepted by the given server.
+     * Called on the accept thread, so it must not block.
+     *
+     * @param clientSocket The client socket
+     * @param server The server that accepted the socket
+     */
+    ClientHandler(Socket clientSocket, ChatServer server) {
         this.clientSocket = clientSocket;
+        this.server = server;
+        this.clientId = UUID.randomUUID().toString();
+    }
+
+    /**
+     * Constructs a ClientHandler for a connection served by the NIO transport.
+     *
+     * @param connection The non-blocking connection
+     * @param server The server that accepted the connection
+     */
+    ClientHandler(NioConnection connection, ChatServer server) {
+        this.clientSocket = connection.getSocket();
+        this.channel = connection;
+        this.server = server;
         this.clientId = UUID.randomUUID().toString();
-        this.messageDAO = new MessageDAO();
-        this.fileTransferDAO = new FileTransferDAO();
-        this.userDAO = new UserDAO();
+        this.running = true;
+        initSession();
+    }
+
+    /**
+     * Wires the session to the server's shared data access objects and sets up its rate limits.
+     */
+    private void initSession() {
+        this.messageDAO = server.getMessageDAO();
+        this.fileTransferDAO = server.getFileTransferDAO();
+        MessagePipeline pipeline = server.getMessagePipeline();
+        this.lanes = pipeline != null ? pipeline.newLanes() : null;
 
+        ServerConfig config = server.getConfig();
+        if (config.getMessagesPerSecond() > 0) {
+            messageLimit = new TokenBucket(config.getMessagesPerSecond(), config.getMessageBurst());
+        }
+        if (config.getFileBytesPerSecond() > 0) {
+            fileLimit = new TokenBucket(config.getFileBytesPerSecond(), config.getFileBurstBytes());
+        }
+    }
+
+    /**
+     * Performs the protocol handshake on the worker thread.
+     * A client that does not complete the handshake within the configured
+     * timeout is dropped without ever being registered with the server.
+     *
+     * @return true if the channel was negotiated, false otherwise
+     */
+    private boolean handshake() {
         try {
-            // Create the streams
-            this.outputStream = new ObjectOutputStream(clientSocket.getOutputStream());
-            this.inputStream = new ObjectInputStream(clientSocket.getInputStream());
+            // Bound the time a silent or slow peer may hold this worker
+            clientSocket.setSoTimeout(server.getConfig().getHandshakeTimeoutMillis());
+            BlockingChannel blockingChannel = ChannelFactory.acceptServerChannel(clientSocket,
+                    server.getFlushScheduler(), server.getCompressionPolicy());
+            channel = blockingChannel;
+            frameSource = blockingChannel;
+            clientSocket.setSoTimeout(0);
 
-            // Create the received files directory
-            FileUtils.createReceivedFilesDir();
+            initSession();
+            return true;
+        } catch (SocketTimeoutException e) {
+            System.err.println("Handshake timed out for " + getClientIpAddress());
         } catch (IOException e) {
-            System.err.println("Error creating streams: " + e.getMessage());
-            // Close resources to prevent leaks
-            close();
+            System.err.println("Handshake failed for " + getClientIpAddress() + ": " + e.getMessage());
         }
+        return false;
     }
 
     @Override
     public void run() {
         running = true;
 
-        // Check if streams were created successfully
-        if (inputStream == null || outputStream == null) {
-            System.err.println("Cannot start client handler: streams not initialized");
+        // Negotiate the channel before the client becomes visible to the server
+        if (!handshake()) {
             close();
             return;
         }
+        onHandshakeComplete();
 
         try {
-            while (running) {
-                // Read the message type
-                int messageType = inputStream.readInt();
-
-                switch (messageType) {
-                    case Constants.MESSAGE_TYPE_TEXT:
-                        handleTextMessage();
-                        break;
-                    case Constants.MESSAGE_TYPE_FILE:
-                        handleFileTransfer();
-                        break;
-                    case Constants.MESSAGE_TYPE_KEY_EXCHANGE:
-                        handleKeyExchange();
-                        break;
-                    case Constants.MESSAGE_TYPE_USER_INFO:
-                        handleUserInfo();
-                        break;
-                    default:
-                        System.err.println("Unknown message type: " + messageType);
+            while (running && !readingStopped) {
+                Frame frame = frameSource.readFrame();
+                frameReceived();
+                try {
+                    handleFrame(frame);
+                } finally {
+                    frameFinished();
                 }
             }
         } catch (IOException | ClassNotFoundException e) {
-            System.err.println("Error handling client: " + e.getMessage());
+            // A draining server shuts the input down on purpose
+            if (!readingStopped) {
+                System.err.println("Error handling client: " + e.getMessage());
+            }
         } finally {
+            // While draining, the server closes the session once its replies are written
+            if (!readingStopped) {
+                close();
+            }
+        }
+    }
+
+    /**
+     * Registers this client with the server once the protocol handshake has completed.
+     */
+    void onHandshakeComplete() {
+        System.out.println("Client " + getClientIpAddress() + " uses protocol version " + channel.getProtocolVersion());
+        outbound = createOutboundQueue();
+        server.registerClient(this);
+    }
+
+    /**
+     * Creates the queue that delivers broadcast frames to this client.
+     * With the NIO transport the writer pauses while the connection still has
+     * unwritten frames, so a stalled client fills this bounded queue instead of
+     * the event loop's buffers.
+     *
+     * @return The outbound queue
+     */
+    private OutboundQueue createOutboundQueue() {
+        ServerConfig config = server.getConfig();
+        OutboundQueue queue;
+        if (channel instanceof NioConnection) {
+            NioConnection connection = (NioConnection) channel;
+            queue = new OutboundQueue(channel, server.getWriterExecutor(), config.getOutboundQueueCapacity(),
+                    config.getSlowConsumerPolicy(), this::close, connection::isSaturated);
+            connection.setDrainListener(queue::resume);
+        } else {
+            queue = new OutboundQueue(channel, server.getWriterExecutor(), config.getOutboundQueueCapacity(),
+                    config.getSlowConsumerPolicy(), this::close, () -> false);
+        }
+        queue.setDequeuedListener(this::frameDequeued);
+        return queue;
+    }
+
+    /**
+     * Numbers the chat and direct messages sent to the client, so that a resumed
+     * session can replay the ones the client did not receive. Numbering starts over
+     * with every session token sent, which is where the client starts counting.
+     * Frames still queued when the connection closes are numbered too, so they are
+     * replayed rather than lost. Runs in the order the frames leave the outbound queue.
+     *
+     * @param frame The frame leaving the outbound queue
+     */
+    private void frameDequeued(SharedFrame frame) {
+        if (frame.getType() == Constants.MESSAGE_TYPE_SESSION_TOKEN) {
+            replayBuffer = new ReplayBuffer(server.getConfig().getReplayBufferSize());
+            return;
+        }
+        ReplayBuffer buffer = replayBuffer;
+        if (buffer != null && ReplayBuffer.isReplayed(frame.getType())) {
+            buffer.append(frame.getType(), frame.getPayload());
+        }
+    }
+
+    /**
+     * Queues a shared frame for delivery to this client without waiting for the socket.
+     * Used for messages that originate from other clients.
+     *
+     * @param frame The shared frame; the caller keeps its own reference
+     * @return true if the frame was queued, false if it was dropped
+     */
+    public boolean deliver(SharedFrame frame) {
+        OutboundQueue queue = outbound;
+        return queue != null && queue.offer(frame);
+    }
+
+    /**
+     * Queues a reply for this client through its outbound queue instead of writing it directly.
+     * Replies are not subject to the slow-consumer policy, since the client waits for them.
+     *
+     * @param type The message type
+     * @param requestId The ID of the request being answered, or 0 if none
+     * @param payload The payload object
+     * @return true if the frame was queued, false if the client is gone
+     */
+    private boolean reply(int type, int requestId, Object payload) {
+        OutboundQueue queue = outbound;
+        SharedFrame frame = new SharedFrame(type, requestId, payload);
+        try {
+            return queue != null && queue.offerReply(frame);
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Handles a single frame received from the client.
+     * Every reply to the frame echoes its request ID, so a client that sends
+     * several requests without waiting can match each reply to its request.
+     *
+     * @param frame The frame to handle
+     * @throws IOException If an I/O error occurs
+     */
+    void handleFrame(Frame frame) throws IOException {
+        touch();
+        if (checkRateLimit(frame)) {
+            dispatchFrame(frame);
+        }
+    }
+
+    /**
+     * Handles a frame that is within the session's rate limits.
+     *
+     * @param frame The frame to handle
+     * @throws IOException If an I/O error occurs
+     */
+    private void dispatchFrame(Frame frame) throws IOException {
+        int requestId = frame.getRequestId();
+        switch (frame.getType()) {
+            case Constants.MESSAGE_TYPE_TEXT:
+                handleTextMessage((Message) frame.getPayload(), requestId);
+                break;
+            case Constants.MESSAGE_TYPE_FILE:
+                handleFileTransfer((FileTransfer) frame.getPayload(), requestId);
+                break;
+            case Constants.MESSAGE_TYPE_KEY_EXCHANGE:
+                inOrder(() -> handleKeyExchange((String) frame.getPayload(), requestId));
+                break;
+            case Constants.MESSAGE_TYPE_USER_INFO:
+                // Check the claim against the database here, off the pipeline's threads
+                User claimed = (User) frame.getPayload();
+                User verified = claimed != null ? server.getUserVerifier().verify(claimed) : null;
+                inOrder(() -> handleUserInfo(claimed, verified, requestId));
+                break;
+            case Constants.MESSAGE_TYPE_JOIN_ROOM:
+                inOrder(() -> handleJoinRoom((String) frame.getPayload(), requestId));
+                break;
+            case Constants.MESSAGE_TYPE_LEAVE_ROOM:
+                inOrder(() -> handleLeaveRoom((String) frame.getPayload(), requestId));
+                break;
+            case Constants.MESSAGE_TYPE_DIRECT:
+                inOrder(() -> handleDirectMessage((Message) frame.getPayload(), requestId));
+                break;
+            case Constants.MESSAGE_TYPE_PING:
+                reply(Constants.MESSAGE_TYPE_PONG, requestId, frame.getPayload());
+                break;
+            case Constants.MESSAGE_TYPE_PONG:
+                // Receiving it was the point
+                break;
+            case Constants.MESSAGE_TYPE_RESUME:
+                handleResume((String) frame.getPayload(), requestId);
+                break;
+            case Constants.MESSAGE_TYPE_LOGOUT:
+                // A client that leaves on purpose does not come back for its session
+                setResumeToken(null);
+                break;
+            case Constants.MESSAGE_TYPE_REDIRECT:
+                handleRedirect((String) frame.getPayload(), requestId);
+                break;
+            default:
+                System.err.println("Unknown message type: " + frame.getType());
+        }
+    }
+
+    /**
+     * Charges a frame against the session's rate limits and applies the configured
+     * policy if the session is over its limit. Chat and direct messages count
+     * against the message rate and files against the file byte rate; other
+     * frames are not limited.
+     *
+     * @param frame The frame about to be handled
+     * @return true if the frame should be handled now, false if it was held back, rejected or the client was disconnected
+     * @throws IOException If the delay is interrupted
+     */
+    private boolean checkRateLimit(Frame frame) throws IOException {
+        TokenBucket limit;
+        long cost;
+        switch (frame.getType()) {
+            case Constants.MESSAGE_TYPE_TEXT:
+            case Constants.MESSAGE_TYPE_DIRECT:
+                limit = messageLimit;
+                cost = 1;
+                break;
+            case Constants.MESSAGE_TYPE_FILE:
+                limit = fileLimit;
+                // A frame without a file costs as much as the smallest file; the handler drops it
+                FileTransfer file = (FileTransfer) frame.getPayload();
+                cost = file != null ? Math.max(1, file.getFileSize()) : 1;
+                break;
+            default:
+                return true;
+        }
+        if (limit == null) {
+            return true;
+        }
+
+        String policy = server.getConfig().getRateLimitPolicy();
+        if (Constants.RATE_LIMIT_DELAY.equals(policy)) {
+            // Take the tokens now and hold the frame until the session is back within its rate
+            long waitNanos = limit.acquire(cost);
+            if (waitNanos <= 0) {
+                return true;
+            }
+            server.getAdmissionControl().recordRateLimited(policy);
+            if (channel instanceof NioConnection connection) {
+                holdBack(connection, frame, waitNanos);
+                return false;
+            }
+            pauseReading(waitNanos);
+            return true;
+        }
+        if (limit.tryAcquire(cost)) {
+            return true;
+        }
+
+        server.getAdmissionControl().recordRateLimited(policy);
+        if (Constants.RATE_LIMIT_REJECT.equals(policy)) {
+            System.err.println("Rate limit exceeded by " + getDisplayName() + ": frame of type " + frame.getType() + " rejected");
+            if (frame.getRequestId() != 0) {
+                reply(Constants.MESSAGE_TYPE_RATE_LIMITED, frame.getRequestId(), "Rate limit exceeded");
+            }
+        } else {
+            System.err.println("Rate limit exceeded by " + getDisplayName() + ": disconnecting");
             close();
         }
+        return false;
+    }
+
+    /**
+     * Stops taking frames from a blocking connection for a while.
+     * The thread that sleeps is the one reading this connection, so no other
+     * session waits, and the client is held back by TCP flow control.
+     *
+     * @param nanos How long to pause, in nanoseconds
+     * @throws InterruptedIOException If the thread is interrupted while pausing
+     */
+    private void pauseReading(long nanos) throws InterruptedIOException {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while rate limiting");
+        }
+    }
+
+    /**
+     * Holds back a frame from an NIO connection, and the frames after it, for a while.
+     * The connection stops reading and handing frames to the workers, and the
+     * worker thread goes back to other sessions; a timer then handles the frame
+     * and lets the connection go on. The client is held back by TCP flow control
+     * instead of filling the server's buffers.
+     *
+     * @param connection The connection of this session
+     * @param frame The frame to handle once the wait is over
+     * @param nanos How long to wait, in nanoseconds
+     */
+    private void holdBack(NioConnection connection, Frame frame, long nanos) {
+        // The frame stays in flight until it is handled, so a draining server waits for it
+        frameReceived();
+        connection.suspendDispatch();
+        connection.setReadsPaused(true);
+        Runnable resume = () -> connection.resumeDispatch(() -> {
+            try {
+                if (!readingStopped) {
+                    connection.setReadsPaused(false);
+                }
+                dispatchFrame(frame);
+            } catch (IOException e) {
+                System.err.println("Error handling client: " + e.getMessage());
+                close();
+            } finally {
+                frameFinished();
+            }
+        });
+
+        ScheduledExecutorService timer = server.getRateLimitTimer();
+        try {
+            if (timer == null) {
+                resume.run();
+            } else {
+                timer.schedule(resume, nanos, TimeUnit.NANOSECONDS);
+            }
+        } catch (RejectedExecutionException e) {
+            // The server is stopping
+            resume.run();
+        }
+    }
+
+    /**
+     * Handles a frame once the text messages the client sent before it have been relayed.
+     * Frames that change the session's user or rooms, or that deliver to other
+     * clients, pass through the session's lanes on the decrypt and search stages
+     * and run on its reply stage lane, where text messages are relayed. A frame
+     * sent after a text message therefore cannot take the sender out of the room
+     * before the message is relayed, nor reach a recipient before it. The
+     * handlers answer through the outbound queue, never the socket, so a client
+     * that stops reading cannot hold a reply stage thread.
+     *
+     * @param step The handling of the frame
+     * @throws IOException If the thread is interrupted while waiting for room in the pipeline,
+     *         or, without a pipeline, if handling the frame fails
+     */
+    private void inOrder(FrameStep step) throws IOException {
+        if (lanes == null) {
+            step.run();
+            return;
+        }
+
+        // The frame stays in flight until it is handled, so a draining server waits for it
+        server.frameStarted();
+        Runnable handle = () -> {
+            try {
+                step.run();
+            } catch (IOException e) {
+                System.err.println("Error handling client: " + e.getMessage());
+                close();
+            } catch (RuntimeException e) {
+                System.err.println("Error processing frame from " + getDisplayName() + ": " + e);
+            } finally {
+                server.frameFinished();
+            }
+        };
+        try {
+            toStage(lanes.decrypt, () -> nextStage(lanes.search, () -> nextStage(lanes.reply, handle)));
+        } catch (InterruptedException e) {
+            server.frameFinished();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the message pipeline");
+        }
     }
 
     /**
      * Handles a text message from the client.
+     * The message is handed to the message pipeline, which decrypts it, searches it
+     * for the search phrase, answers with the phrase positions, relays it to the
+     * room and saves it, each on its own stage. This thread goes back to reading
+     * as soon as the decrypt stage has room, so a slow database does not stall
+     * the session. The frame stays in flight until the message is saved, so a
+     * draining server waits for it.
      *
-     * @throws IOException If an I/O error occurs
-     * @throws ClassNotFoundException If the class of a serialized object cannot be found
+     * @param message The message received from the client
+     * @param requestId The request ID echoed on the phrase positions reply
+     * @throws IOException If the thread is interrupted while waiting for room in the pipeline
      */
-    private void handleTextMessage() throws IOException, ClassNotFoundException {
-        // Read the message
-        Message message = (Message) inputStream.readObject();
+    private void handleTextMessage(Message message, int requestId) throws IOException {
         message.setClientId(clientId);
 
-        // Set user ID if authenticated
-        if (currentUser != null && message.getUserId() == 0) {
-            message.setUserId(currentUser.getId());
-        }
+        // The sender is the verified user of this session, never the ID the client claims
+        message.setUserId(currentUser != null ? currentUser.getId() : 0);
 
         System.out.println("Received encrypted message: " + message.getEncryptedMessage());
 
-        // Notify the server that a message has been received
-        if (server != null) {
-            server.notifyMessageReceived(this, message);
+        server.frameStarted();
+        try {
+            toStage(lanes != null ? lanes.decrypt : null, () -> decryptMessage(message, requestId));
+        } catch (InterruptedException e) {
+            server.frameFinished();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the message pipeline");
         }
+    }
 
-        // Decrypt the message
-        PlayfairCipher cipher = new PlayfairCipher(message.getKey());
+    /**
+     * Decrypts a text message. Runs on the decrypt stage.
+     *
+     * @param message The message received from the client
+     * @param requestId The request ID echoed on the phrase positions reply
+     */
+    private void decryptMessage(Message message, int requestId) {
+        PlayfairCipher cipher = PlayfairCipher.forKey(message.getKey());
         String decryptedMessage = cipher.decrypt(message.getEncryptedMessage());
         message.setDecryptedMessage(decryptedMessage);
 
         System.out.println("Decrypted message: " + decryptedMessage);
 
+        nextStage(lanes != null ? lanes.search : null, () -> searchMessage(message, requestId));
+    }
+
+    /**
+     * Finds the search phrase in a decrypted text message. Runs on the search stage.
+     *
+     * @param message The decrypted message
+     * @param requestId The request ID echoed on the phrase positions reply
+     */
+    private void searchMessage(Message message, int requestId) {
         // Prepare the search phrase to match the format of the decrypted message
         String preparedSearchPhrase = prepareSearchPhrase(Constants.SEARCH_PHRASE);
         System.out.println("Prepared search phrase: '" + preparedSearchPhrase + "'");
 
         // Find occurrences of the prepared search phrase
-        List<Integer> positions = findPhrasePositions(decryptedMessage, preparedSearchPhrase);
+        List<Integer> positions = findPhrasePositions(message.getDecryptedMessage(), preparedSearchPhrase);
         String positionsStr = positions.isEmpty() ? "Not found" : positions.toString();
         message.setPhrasePositions(positionsStr);
 
         System.out.println("Positions of '" + Constants.SEARCH_PHRASE + "': " + positionsStr);
 
-        // Save the message to the database
-        messageDAO.saveMessage(message);
+        nextStage(lanes != null ? lanes.reply : null, () -> replyToMessage(message, requestId));
+    }
+
+    /**
+     * Sends the phrase positions back to the sender and relays the message to its room.
+     * Runs on the reply stage. Both go through outbound queues, so a slow client
+     * cannot hold up the stage's threads.
+     *
+     * @param message The decrypted and searched message
+     * @param requestId The request ID echoed on the phrase positions reply
+     */
+    private void replyToMessage(Message message, int requestId) {
+        // Notify the server that a message has been received
+        server.notifyMessageReceived(this, message);
 
         // Send the positions back to the client
-        outputStream.writeInt(Constants.MESSAGE_TYPE_PHRASE_POSITIONS);
-        outputStream.writeObject(positionsStr);
-        outputStream.flush();
+        reply(Constants.MESSAGE_TYPE_PHRASE_POSITIONS, requestId, message.getPhrasePositions());
+
+        // Relay the message to the other members of its room before the database write
+        String room = message.getRoom() != null ? message.getRoom() : Constants.DEFAULT_ROOM;
+        if (server.getSessionRegistry().isMember(clientId, room)) {
+            message.setSenderName(getDisplayName());
+            message.setRoom(room);
+            server.broadcastToRoom(room, Constants.MESSAGE_TYPE_TEXT, message, client -> client != this);
+        } else {
+            System.err.println("Not relaying message from " + getDisplayName() + ": not a member of room " + room);
+        }
+
+        nextStage(lanes != null ? lanes.persist : null, () -> persistMessage(message));
+    }
+
+    /**
+     * Saves a text message to the database. Runs on the persist stage, the last one,
+     * which takes the message out of flight.
+     *
+     * @param message The message to save
+     */
+    private void persistMessage(Message message) {
+        try {
+            messageDAO.saveMessage(message);
+        } catch (RuntimeException e) {
+            System.err.println("Error saving message from " + getDisplayName() + ": " + e);
+        } finally {
+            server.frameFinished();
+        }
+    }
+
+    /**
+     * Hands a message to the next stage of the pipeline from the current one.
+     * A message that cannot be handed on is dropped and taken out of flight.
+     *
+     * @param lane The session's lane on the next stage, or null to run the step on this thread
+     * @param step The work of the next stage
+     */
+    private void nextStage(PipelineStage.Lane lane, Runnable step) {
+        try {
+            toStage(lane, step);
+        } catch (InterruptedException e) {
+            server.frameFinished();
+            Thread.currentThread().interrupt();
+            System.err.println("Message from " + getDisplayName() + " dropped: pipeline is shutting down");
+        } catch (RuntimeException e) {
+            server.frameFinished();
+            System.err.println("Error processing message from " + getDisplayName() + ": " + e);
+        }
+    }
+
+    /**
+     * Queues the work of a stage on the session's lane, waiting while the stage is full.
+     * A failure of the step itself takes the message out of flight.
+     *
+     * @param lane The session's lane on the stage, or null to run the step on this thread
+     * @param step The work of the stage
+     * @throws InterruptedException If the thread is interrupted while waiting for room
+     */
+    private void toStage(PipelineStage.Lane lane, Runnable step) throws InterruptedException {
+        Runnable guarded = () -> {
+            try {
+                step.run();
+            } catch (RuntimeException e) {
+                server.frameFinished();
+                System.err.println("Error processing message from " + getDisplayName() + ": " + e);
+            }
+        };
+        if (lane == null) {
+            guarded.run();
+        } else if (!lane.submit(guarded)) {
+            server.frameFinished();
+            System.err.println("Message from " + getDisplayName() + " dropped: pipeline is stopped");
+        }
+    }
+
+    /**
+     * Handles a direct message from the client.
+     * The recipient is resolved through the in-memory session registry and the
+     * message is queued for every live session of that user. Direct messages
+     * are neither decrypted nor stored by the server. The sender is answered
+     * with a recipient offline notice, or, if the request carries an ID, with an
+     * acknowledgement naming the recipient.
+     *
+     * @param message The message received from the client
+     * @param requestId The request ID echoed on the reply
+     */
+    private void handleDirectMessage(Message message, int requestId) {
+        message.setClientId(clientId);
+        message.setSenderName(getDisplayName());
+
+        // The sender is the verified user of this session, never the ID the client claims
+        message.setUserId(currentUser != null ? currentUser.getId() : 0);
+
+        // Address by user ID when given, otherwise by username
+        String recipient;
+        int delivered;
+        if (message.getRecipientId() > 0) {
+            recipient = String.valueOf(message.getRecipientId());
+            delivered = server.sendToUser(message.getRecipientId(), Constants.MESSAGE_TYPE_DIRECT, message);
+        } else {
+            recipient = message.getRecipientName();
+            delivered = server.sendToUsername(recipient, Constants.MESSAGE_TYPE_DIRECT, message);
+        }
+
+        if (delivered > 0) {
+            System.out.println("Direct message from " + getDisplayName() + " to " + recipient
+                    + " queued for " + delivered + " session(s)");
+            if (requestId != 0) {
+                reply(Constants.MESSAGE_TYPE_ACK, requestId, recipient);
+            }
+            return;
+        }
+
+        // Tell the sender through its own queue, so a slow sender socket cannot stall this thread
+        System.out.println("Direct message from " + getDisplayName() + " to " + recipient + ": recipient offline");
+        reply(Constants.MESSAGE_TYPE_RECIPIENT_OFFLINE, requestId, recipient);
     }
 
     /**
      * Handles a file transfer from the client.
+     * The file is written to disk and recorded in the database on the persist
+     * stage, in order with the session's text messages, so this thread goes
+     * back to reading while it is saved. The frame stays in flight until then,
+     * so a draining server waits for it.
      *
-     * @throws IOException If an I/O error occurs
-     * @throws ClassNotFoundException If the class of a serialized object cannot be found
+     * @param fileTransfer The file transfer received from the client
+     * @param requestId The request ID echoed on the acknowledgement
+     * @throws IOException If the thread is interrupted while waiting for room in the pipeline
      */
-    private void handleFileTransfer() throws IOException, ClassNotFoundException {
-        // Read the file transfer
-        FileTransfer fileTransfer = (FileTransfer) inputStream.readObject();
+    private void handleFileTransfer(FileTransfer fileTransfer, int requestId) throws IOException {
+        if (fileTransfer == null) {
+            System.err.println("Dropped file transfer without a file from " + getDisplayName());
+            return;
+        }
         fileTransfer.setClientId(clientId);
 
-        // Set user ID if authenticated
-        if (currentUser != null && fileTransfer.getUserId() == 0) {
-            fileTransfer.setUserId(currentUser.getId());
-        }
+        // The sender is the verified user of this session, never the ID the client claims
+        fileTransfer.setUserId(currentUser != null ? currentUser.getId() : 0);
 
         System.out.println("Received file: " + fileTransfer.getFileName() + " (" + fileTransfer.getFileSize() + " bytes)");
 
@@ -176,25 +726,52 @@ public class ClientHandler implements Runnable {
             server.notifyFileTransferReceived(this, fileTransfer);
         }
 
-        // Save the file
-        File file = FileUtils.writeByteArrayToFile(fileTransfer.getFileData(), fileTransfer.getFileName());
+        server.frameStarted();
+        try {
+            toStage(lanes != null ? lanes.persist : null, () -> persistFile(fileTransfer, requestId));
+        } catch (InterruptedException e) {
+            server.frameFinished();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the message pipeline");
+        }
+    }
 
-        // Save the file transfer record to the database
-        fileTransferDAO.saveFileTransfer(fileTransfer);
+    /**
+     * Writes a received file to disk and records it in the database. Runs on the persist stage.
+     * A file sent with a request ID is acknowledged once it has been written to disk.
+     *
+     * @param fileTransfer The file transfer received from the client
+     * @param requestId The request ID echoed on the acknowledgement
+     */
+    private void persistFile(FileTransfer fileTransfer, int requestId) {
+        try {
+            File file = FileUtils.writeByteArrayToFile(fileTransfer.getFileData(), fileTransfer.getFileName());
+            if (requestId != 0) {
+                reply(Constants.MESSAGE_TYPE_ACK, requestId, fileTransfer.getFileName());
+            }
 
-        System.out.println("File saved to: " + file.getAbsolutePath());
+            // Save the file transfer record to the database
+            fileTransferDAO.saveFileTransfer(fileTransfer);
+
+            System.out.println("File saved to: " + file.getAbsolutePath());
+        } catch (IOException e) {
+            // The client would wait for an acknowledgement that never comes
+            System.err.println("Error saving file from " + getDisplayName() + ": " + e.getMessage());
+            close();
+        } catch (RuntimeException e) {
+            System.err.println("Error saving file transfer from " + getDisplayName() + ": " + e);
+        } finally {
+            server.frameFinished();
+        }
     }
 
     /**
      * Handles a key exchange from the client.
      *
-     * @throws IOException If an I/O error occurs
-     * @throws ClassNotFoundException If the class of a serialized object cannot be found
+     * @param key The key received from the client
+     * @param requestId The request ID echoed on the confirmation
      */
-    private void handleKeyExchange() throws IOException, ClassNotFoundException {
-        // Read the key
-        String key = (String) inputStream.readObject();
-
+    private void handleKeyExchange(String key, int requestId) {
         System.out.println("Received key: " + key);
 
         // Notify the server that a key exchange has been received
@@ -203,49 +780,257 @@ public class ClientHandler implements Runnable {
         }
 
         // For now, just echo the key back to confirm receipt
-        outputStream.writeInt(Constants.MESSAGE_TYPE_KEY_EXCHANGE);
-        outputStream.writeObject(key);
-        outputStream.flush();
+        reply(Constants.MESSAGE_TYPE_KEY_EXCHANGE, requestId, key);
     }
 
     /**
      * Handles user information from the client.
+     * The claim is checked against the stored user first, since direct messages
+     * are routed by the user the session is bound to; a claim that does not
+     * match leaves the session anonymous and is answered with an empty login
+     * result. Only requests that carry a request ID are acknowledged, since
+     * older clients do not expect a reply.
      *
-     * @throws IOException If an I/O error occurs
-     * @throws ClassNotFoundException If the class of a serialized object cannot be found
+     * @param claimed The user information received from the client
+     * @param user The stored user the claim matches, or null if it matches none
+     * @param requestId The request ID echoed on the acknowledgement
      */
-    private void handleUserInfo() throws IOException, ClassNotFoundException {
-        // Read the user info
-        User user = (User) inputStream.readObject();
+    private void handleUserInfo(User claimed, User user, int requestId) {
+        if (claimed != null) {
+            if (user == null) {
+                System.err.println("Rejected user info for " + claimed.getUsername() + " from " + getDisplayName());
+                if (requestId != 0) {
+                    reply(Constants.MESSAGE_TYPE_LOGIN_RESULT, requestId, null);
+                }
+                return;
+            }
 
-        if (user != null) {
-            // Store the user info
+            // Store the user info and index the session by user
             this.currentUser = user;
+            server.bindUser(this, user);
             System.out.println("User authenticated: " + user.getUsername());
 
             // Notify the server that user information has been received
-            if (server != null) {
-                server.notifyUserInfoReceived(this, user);
+            server.notifyUserInfoReceived(this, user);
+
+            // Give the client a token to resume the session with if its connection drops
+            if (supportsResume() && server.getSessionResumption() != null) {
+                setResumeToken(server.getSessionResumption().newToken());
+                reply(Constants.MESSAGE_TYPE_SESSION_TOKEN, 0, resumeToken);
+            }
+
+            if (requestId != 0) {
+                reply(Constants.MESSAGE_TYPE_ACK, requestId, user.getUsername());
+            }
+        }
+    }
+
+    /**
+     * Handles a request to resume a session whose connection dropped.
+     * The request is the resume token and the number of chat and direct messages
+     * the client received in that session, as "token:count". This session takes
+     * over the user and rooms of the parked one, and the messages the client
+     * missed are queued before the reply, which carries their number. Messages
+     * the replay buffer no longer holds are loaded from the database. A session
+     * that cannot be resumed is answered with an empty reply; the client then
+     * logs in again.
+     *
+     * @param request The resume request
+     * @param requestId The request ID echoed on the reply
+     */
+    private void handleResume(String request, int requestId) {
+        SessionResumption parking = server.getSessionResumption();
+        int separator = request != null ? request.lastIndexOf(':') : -1;
+        SessionResumption.ParkedSession parked = null;
+        long received = 0;
+        if (parking != null && separator > 0 && currentUser == null) {
+            String token = request.substring(0, separator);
+            try {
+                received = Long.parseLong(request.substring(separator + 1));
+                parked = parking.find(token);
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid resume request from " + getClientIpAddress() + ": " + request);
+            }
+
+            // The client may be back before its old connection was noticed to have dropped
+            ClientHandler previous = parked == null ? parking.findLive(token) : null;
+            if (previous != null && previous != this) {
+                System.out.println("Closing the previous connection of " + previous.getDisplayName());
+                previous.close();
+                parked = parking.find(token);
+            }
+        }
+
+        // Messages too old for the replay buffer come from the database, outside the handoff
+        List<Message> history = Collections.emptyList();
+        if (parked != null) {
+            ReplayBuffer buffer = parked.getBuffer();
+            long missed = buffer.missedBefore(received);
+            if (missed > 0) {
+                history = loadHistory(buffer.getEvictedThroughMillis(), parked.getRooms(), missed);
+            }
+        }
+
+        // Take over the user and rooms, and queue what the client missed, in one step
+        // with claiming the parked session, so that every message relayed meanwhile
+        // reaches the client once and in order
+        int replayed = 0;
+        if (parked != null) {
+            Lock handoff = parking.handoffLock();
+            handoff.lock();
+            try {
+                parked = parking.claim(parked.getToken());
+                if (parked != null) {
+                    currentUser = parked.getUser();
+                    server.bindUser(this, currentUser);
+                    setResumeToken(parked.getToken());
+                    reply(Constants.MESSAGE_TYPE_SESSION_TOKEN, 0, resumeToken);
+                    for (String room : parked.getRooms()) {
+                        server.getSessionRegistry().join(this, room);
+                    }
+                    if (!parked.getRooms().contains(Constants.DEFAULT_ROOM)) {
+                        server.getSessionRegistry().leave(this, Constants.DEFAULT_ROOM);
+                    }
+
+                    // Replay what the client missed, oldest first
+                    for (Message message : history) {
+                        if (replay(Constants.MESSAGE_TYPE_TEXT, message)) {
+                            replayed++;
+                        }
+                    }
+                    for (ReplayBuffer.Entry entry : parked.getBuffer().since(received)) {
+                        if (replay(entry.getType(), entry.getPayload())) {
+                            replayed++;
+                        }
+                    }
+                }
+            } finally {
+                handoff.unlock();
             }
         }
+        if (parked == null) {
+            System.out.println("Session of " + getDisplayName() + " cannot be resumed");
+            reply(Constants.MESSAGE_TYPE_RESUME, requestId, StringUtils.EMPTY);
+            return;
+        }
+        System.out.println("Session of " + getDisplayName() + " resumed, " + replayed + " missed messages replayed");
+
+        server.notifyUserInfoReceived(this, currentUser);
+        reply(Constants.MESSAGE_TYPE_RESUME, requestId, String.valueOf(replayed));
+    }
+
+    /**
+     * Loads chat messages from the database that are too old for the replay buffer.
+     * These are the most recent messages stored for the rooms of the parked
+     * session, up to the most recent message the buffer forgot. Direct messages
+     * are not stored, so none are loaded.
+     *
+     * @param beforeMillis The time the most recently forgotten message was written
+     * @param rooms The rooms of the parked session
+     * @param count The number of messages the buffer forgot
+     * @return The messages, oldest first
+     */
+    private List<Message> loadHistory(long beforeMillis, Collection<String> rooms, long count) {
+        if (messageDAO == null) {
+            return Collections.emptyList();
+        }
+        int limit = (int) Math.min(count, Constants.MAX_HISTORY_REPLAY);
+        return messageDAO.getMessagesBefore(new Timestamp(beforeMillis), rooms, limit);
+    }
+
+    /**
+     * Queues a missed message for the client, even if its outbound queue is full.
+     *
+     * @param type The message type
+     * @param payload The payload object
+     * @return true if the message was queued
+     */
+    private boolean replay(int type, Object payload) {
+        OutboundQueue queue = outbound;
+        SharedFrame frame = new SharedFrame(type, payload);
+        try {
+            return queue != null && queue.offerReplay(frame);
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Handles a request to join a room.
+     * The room name is echoed back to confirm the join. A rejected join is
+     * answered with a leave only if the request carries an ID, so the client
+     * is not left waiting for a reply.
+     *
+     * @param room The room name
+     * @param requestId The request ID echoed on the reply
+     */
+    private void handleJoinRoom(String room, int requestId) {
+        String name = normalizeRoomName(room);
+        if (name == null) {
+            System.err.println("Invalid room name from " + getDisplayName() + ": " + room);
+            if (requestId != 0) {
+                reply(Constants.MESSAGE_TYPE_LEAVE_ROOM, requestId, StringUtils.defaultString(room));
+            }
+            return;
+        }
+
+        if (server.getSessionRegistry().join(this, name)) {
+            System.out.println(getDisplayName() + " joined room " + name);
+            reply(Constants.MESSAGE_TYPE_JOIN_ROOM, requestId, name);
+        } else if (requestId != 0) {
+            reply(Constants.MESSAGE_TYPE_LEAVE_ROOM, requestId, name);
+        }
+    }
+
+    /**
+     * Handles a request to leave a room.
+     * The room name is echoed back to confirm the leave.
+     *
+     * @param room The room name
+     * @param requestId The request ID echoed on the reply
+     */
+    private void handleLeaveRoom(String room, int requestId) {
+        String name = normalizeRoomName(room);
+        if (name == null) {
+            System.err.println("Invalid room name from " + getDisplayName() + ": " + room);
+            if (requestId != 0) {
+                reply(Constants.MESSAGE_TYPE_LEAVE_ROOM, requestId, StringUtils.defaultString(room));
+            }
+            return;
+        }
+
+        if (server.getSessionRegistry().leave(this, name)) {
+            System.out.println(getDisplayName() + " left room " + name);
+        }
+        reply(Constants.MESSAGE_TYPE_LEAVE_ROOM, requestId, name);
+    }
+
+    /**
+     * Normalizes a room name sent by the client.
+     *
+     * @param room The room name as sent
+     * @return The trimmed, lower-case room name, or null if it is blank or too long
+     */
+    private String normalizeRoomName(String room) {
+        if (StringUtils.isBlank(room)) {
+            return null;
+        }
+
+        String name = room.trim().toLowerCase();
+        return name.length() <= Constants.MAX_ROOM_NAME_LENGTH ? name : null;
     }
 
     /**
      * Prepares a search phrase to match the format of decrypted messages.
-     * This includes removing diacritical marks and replacing spaces with 'Z'.
+     * The phrase is normalized the way PlayfairCipher normalizes plaintext, which
+     * removes diacritical marks, replaces spaces with 'Z', converts to uppercase,
+     * drops other characters and replaces 'J' with 'I'.
      *
      * @param phrase The original search phrase
      * @return The prepared search phrase
      */
     private String prepareSearchPhrase(String phrase) {
-        // Remove diacritical marks (convert Vietnamese to non-accented form)
-        String normalized = StringUtils.stripAccents(phrase);
-
-        // Replace spaces with 'Z' (same as in PlayfairCipher)
-        normalized = normalized.replace(' ', 'Z');
-
-        // Convert to uppercase (decrypted messages are in uppercase)
-        return normalized.toUpperCase();
+        return TextNormalizer.normalize(phrase);
     }
 
     /**
@@ -274,22 +1059,228 @@ public class ClientHandler implements Runnable {
     public void close() {
         running = false;
 
+        // Close the queue and park the session in one step, so that a message
+        // relayed in between is kept for replay rather than lost
+        SessionResumption parking = server.getSessionResumption();
+        Lock handoff = parking != null && resumeToken != null ? parking.handoffLock() : null;
+        if (handoff != null) {
+            handoff.lock();
+        }
         try {
-            if (inputStream != null) {
-                inputStream.close();
+            OutboundQueue queue = outbound;
+            if (queue != null) {
+                queue.close();
             }
-            if (outputStream != null) {
-                outputStream.close();
+
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+                if (clientSocket != null && !clientSocket.isClosed()) {
+                    clientSocket.close();
+                }
+            } catch (IOException e) {
+                System.err.println("Error closing client handler: " + e.getMessage());
             }
-            if (clientSocket != null && !clientSocket.isClosed()) {
-                clientSocket.close();
+
+            // Remove this handler from the server's list
+            server.removeClient(this);
+        } finally {
+            if (handoff != null) {
+                handoff.unlock();
             }
+        }
+    }
+
+    /**
+     * Records that the client has just shown signs of life.
+     */
+    void touch() {
+        lastActivityNanos = System.nanoTime();
+    }
+
+    /**
+     * Gets the time the client last sent anything.
+     *
+     * @return The time of the last activity, in System.nanoTime() units
+     */
+    long getLastActivityNanos() {
+        return lastActivityNanos;
+    }
+
+    /**
+     * Checks whether the handler is still serving its client.
+     *
+     * @return true until the handler is closed
+     */
+    boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stops reading frames from the client while leaving the connection open,
+     * so that replies to frames already received can still be written.
+     * Used when the server drains.
+     */
+    void stopReading() {
+        readingStopped = true;
+        if (channel instanceof NioConnection) {
+            ((NioConnection) channel).setReadsPaused(true);
+            return;
+        }
+        try {
+            // Wakes the handler thread, which sees the end of the stream
+            clientSocket.shutdownInput();
         } catch (IOException e) {
-            System.err.println("Error closing client handler: " + e.getMessage());
+            System.err.println("Error stopping reads for " + getClientIpAddress() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Checks whether frames for the client have not been written to the socket yet.
+     *
+     * @return true if the outbound queue or the connection still holds frames
+     */
+    boolean hasPendingOutput() {
+        OutboundQueue queue = outbound;
+        if (queue != null && !queue.isIdle()) {
+            return true;
+        }
+        return channel instanceof NioConnection && ((NioConnection) channel).hasPendingWrites();
+    }
+
+    /**
+     * Records that a frame has been received and is about to be handled.
+     */
+    void frameReceived() {
+        server.frameStarted();
+    }
+
+    /**
+     * Records that a received frame has been handled.
+     */
+    void frameFinished() {
+        server.frameFinished();
+    }
+
+    /**
+     * Checks whether the client can resume its session after a dropped connection.
+     *
+     * @return true if the negotiated protocol version has session resumption
+     */
+    boolean supportsResume() {
+        return channel != null && channel.getProtocolVersion() >= Constants.PROTOCOL_VERSION_RESUME;
+    }
+
+    /**
+     * Gets the token the client can resume this session with.
+     *
+     * @return The resume token, or null if the session cannot be resumed
+     */
+    String getResumeToken() {
+        return resumeToken;
+    }
+
+    /**
+     * Handles a client asking which cluster node should serve its session.
+     * The reply is the host:port of the owning node, or empty if it is this one.
+     *
+     * @param key The session's placement key, such as "room:team" or "user:42"
+     * @param requestId The request ID echoed on the reply
+     */
+    private void handleRedirect(String key, int requestId) {
+        String address = server.redirectFor(key);
+        placementKey = address == null ? key : null;
+        if (address != null) {
+            System.out.println("Redirecting " + getClientIpAddress() + " (" + key + ") to " + address);
+        }
+        reply(Constants.MESSAGE_TYPE_REDIRECT, requestId, address != null ? address : "");
+    }
+
+    /**
+     * Asks the client to move its session to another cluster node, which now owns its placement key.
+     * The client logs out and connects to that node.
+     *
+     * @param address The host:port of the node
+     * @return true if the request was queued
+     */
+    boolean redirect(String address) {
+        if (placementKey == null) {
+            return false;
+        }
+        placementKey = null;
+        return reply(Constants.MESSAGE_TYPE_REDIRECT, 0, address);
+    }
+
+    /**
+     * Gets the key that places this session on a cluster node.
+     *
+     * @return The placement key, or null if the client did not give one or is moving elsewhere
+     */
+    String getPlacementKey() {
+        return placementKey;
+    }
+
+    /**
+     * Sets the token the client can resume this session with, and records this
+     * handler as the connection serving it.
+     *
+     * @param token The resume token, or null if the session cannot be resumed
+     */
+    private void setResumeToken(String token) {
+        SessionResumption parking = server.getSessionResumption();
+        if (parking != null && resumeToken != null) {
+            parking.detach(resumeToken, this);
+        }
+        resumeToken = token;
+        if (parking != null && token != null) {
+            parking.attach(token, this);
         }
+    }
+
+    /**
+     * Gets the chat and direct messages recently written to the client.
+     *
+     * @return The replay buffer, or null until the client has been sent a resume token
+     */
+    ReplayBuffer getReplayBuffer() {
+        return replayBuffer;
+    }
+
+    /**
+     * Checks whether the client understands the notice that the server is shutting down.
+     *
+     * @return true if the negotiated protocol version has the drain notice
+     */
+    boolean supportsDrainNotice() {
+        return channel != null && channel.getProtocolVersion() >= Constants.PROTOCOL_VERSION_DRAIN_NOTICE;
+    }
 
-        // Remove this handler from the server's list
-        ChatServer.getInstance().removeClient(this);
+    /**
+     * Checks whether the client answers heartbeat pings.
+     *
+     * @return true if the negotiated protocol version has heartbeat frames
+     */
+    boolean supportsHeartbeat() {
+        return channel != null && channel.getProtocolVersion() >= Constants.PROTOCOL_VERSION_HEARTBEAT;
+    }
+
+    /**
+     * Queues a heartbeat ping for the client.
+     */
+    void sendPing() {
+        reply(Constants.MESSAGE_TYPE_PING, 0, StringUtils.EMPTY);
+    }
+
+    /**
+     * Turns on TCP keepalive for a client that cannot answer heartbeat pings.
+     */
+    void enableKeepAlive() {
+        try {
+            clientSocket.setKeepAlive(true);
+        } catch (SocketException e) {
+            System.err.println("Error enabling keepalive for " + getClientIpAddress() + ": " + e.getMessage());
+        }
     }
 
     /**
@@ -319,6 +1310,28 @@ public class ClientHandler implements Runnable {
         return currentUser;
     }
 
+    /**
+     * Gets the name shown to other clients for messages from this client.
+     *
+     * @return The username if authenticated, otherwise a guest name derived from the client ID
+     */
+    public String getDisplayName() {
+        if (currentUser != null && currentUser.getUsername() != null) {
+            return currentUser.getUsername();
+        }
+        return "Guest-" + clientId.substring(0, 8);
+    }
+
+    /**
+     * Gets the number of broadcast frames dropped for this client by the slow-consumer policy.
+     *
+     * @return The number of dropped frames
+     */
+    public long getDroppedFrames() {
+        OutboundQueue queue = outbound;
+        return queue == null ? 0 : queue.getDroppedFrames();
+    }
+
     /**
      * Gets the IP address of the client.
      *
@@ -339,4 +1352,17 @@ public class ClientHandler implements Runnable {
     public Socket getClientSocket() {
         return clientSocket;
     }
+
+    /**
+     * The handling of a frame, run later on the session's pipeline lanes.
+     */
+    @FunctionalInterface
+    private interface FrameStep {
+        /**
+         * Handles the frame.
+         *
+         * @throws IOException If an I/O error occurs
+         */
+        void run() throws IOException;
+    }
 }
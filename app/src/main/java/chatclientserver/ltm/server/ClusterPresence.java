@@ -0,0 +1,149 @@
+package chatclientserver.ltm.server;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Knows which other cluster nodes serve sessions of which users, so that a
+ * direct message is relayed only to the nodes where its recipient is.
+ * Each node announces its own users; the announcements of a node are
+ * forgotten when it leaves or starts a fresh announcement.
+ */
+class ClusterPresence {
+    private final Map<String, Map<Integer, String>> usersByNode = new HashMap<>();
+    private final Map<Integer, Set<String>> nodesByUser = new HashMap<>();
+    private final Map<String, Set<String>> nodesByName = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Records that a node serves sessions of a user.
+     *
+     * @param nodeId The ID of the node
+     * @param userId The user ID
+     * @param username The username
+     */
+    void online(String nodeId, int userId, String username) {
+        lock.lock();
+        try {
+            usersByNode.computeIfAbsent(nodeId, node -> new HashMap<>()).put(userId, username);
+            nodesByUser.computeIfAbsent(userId, id -> new HashSet<>()).add(nodeId);
+            if (username != null) {
+                nodesByName.computeIfAbsent(nameKey(username), name -> new HashSet<>()).add(nodeId);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that a node no longer serves sessions of a user.
+     *
+     * @param nodeId The ID of the node
+     * @param userId The user ID
+     */
+    void offline(String nodeId, int userId) {
+        lock.lock();
+        try {
+            Map<Integer, String> users = usersByNode.get(nodeId);
+            if (users == null || !users.containsKey(userId)) {
+                return;
+            }
+            String username = users.remove(userId);
+            if (users.isEmpty()) {
+                usersByNode.remove(nodeId);
+            }
+            removeNode(nodesByUser, userId, nodeId);
+            if (username != null) {
+                removeNode(nodesByName, nameKey(username), nodeId);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forgets every user of a node.
+     *
+     * @param nodeId The ID of the node
+     */
+    void reset(String nodeId) {
+        lock.lock();
+        try {
+            Map<Integer, String> users = usersByNode.remove(nodeId);
+            if (users == null) {
+                return;
+            }
+            for (Map.Entry<Integer, String> user : users.entrySet()) {
+                removeNode(nodesByUser, user.getKey(), nodeId);
+                if (user.getValue() != null) {
+                    removeNode(nodesByName, nameKey(user.getValue()), nodeId);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the nodes that serve sessions of a user.
+     *
+     * @param userId The user ID
+     * @return A snapshot of the node IDs
+     */
+    Set<String> nodesFor(int userId) {
+        lock.lock();
+        try {
+            Set<String> nodes = nodesByUser.get(userId);
+            return nodes != null ? new HashSet<>(nodes) : Set.of();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the nodes that serve sessions of a user, looked up by username.
+     *
+     * @param username The username, matched case-insensitively
+     * @return A snapshot of the node IDs
+     */
+    Set<String> nodesForName(String username) {
+        if (username == null) {
+            return Set.of();
+        }
+        lock.lock();
+        try {
+            Set<String> nodes = nodesByName.get(nameKey(username));
+            return nodes != null ? new HashSet<>(nodes) : Set.of();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a node from an index entry, dropping the entry once it is empty.
+     *
+     * @param index The index
+     * @param key The entry key
+     * @param nodeId The ID of the node
+     */
+    private static <K> void removeNode(Map<K, Set<String>> index, K key, String nodeId) {
+        Set<String> nodes = index.get(key);
+        if (nodes != null && nodes.remove(nodeId) && nodes.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    /**
+     * Normalizes a username for lookups.
+     *
+     * @param username The username
+     * @return The lookup key
+     */
+    private static String nameKey(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+}
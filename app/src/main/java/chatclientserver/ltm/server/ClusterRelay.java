@@ -0,0 +1,244 @@
+package chatclientserver.ltm.server;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import chatclientserver.ltm.cluster.ClusterBus;
+import chatclientserver.ltm.cluster.ClusterMessage;
+import chatclientserver.ltm.cluster.HashRing;
+import chatclientserver.ltm.cluster.RelayLatency;
+import chatclientserver.ltm.model.User;
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Joins a chat server to a cluster.
+ * Messages to a room are relayed to every other node, which delivers them to
+ * its own members of the room. Direct messages are relayed only to the nodes
+ * that have announced sessions of the recipient. A node announces a user when
+ * its first local session of that user starts (live or waiting to be resumed)
+ * and withdraws it when the last one ends, and repeats all its announcements
+ * to a node that joins. Messages received from the cluster are delivered
+ * locally and never relayed again.
+ * <p>
+ * Nodes also tell each other the address clients reach them at, and place
+ * themselves on a consistent-hash ring. A client names the room or user its
+ * session belongs to, and is redirected to the node that owns that key; when
+ * a node joins or leaves, only the sessions whose keys changed owner move.
+ */
+class ClusterRelay implements ClusterBus.Listener {
+    private final ChatServer server;
+    private final ClusterBus bus;
+    private final ClusterPresence presence = new ClusterPresence();
+    private final RelayLatency latency = new RelayLatency();
+    private final Map<Integer, String> announcedUsers = new HashMap<>();
+    private final ReentrantLock announceLock = new ReentrantLock();
+    private final HashRing ring = new HashRing(Constants.VIRTUAL_NODES_PER_NODE);
+    private final Map<String, String> addresses = new ConcurrentHashMap<>();
+    private final String address;
+
+    /**
+     * Constructs a ClusterRelay.
+     *
+     * @param server The local server
+     * @param bus The bus connecting the nodes
+     * @param address The host:port clients reach the local server at
+     */
+    ClusterRelay(ChatServer server, ClusterBus bus, String address) {
+        this.server = server;
+        this.bus = bus;
+        this.address = address;
+    }
+
+    /**
+     * Connects to the cluster.
+     *
+     * @throws IOException If the bus cannot be started
+     */
+    void start() throws IOException {
+        ring.add(bus.getNodeId());
+        bus.start(this);
+    }
+
+    /**
+     * Finds where a session should be served.
+     *
+     * @param key The session's placement key, such as "room:team" or "user:42"
+     * @return The host:port of the node that owns the key, or null if it is this node
+     */
+    String redirectFor(String key) {
+        String owner = ring.ownerOf(key);
+        if (owner == null || owner.equals(bus.getNodeId())) {
+            return null;
+        }
+        // A node that has just left may still be on the ring for a moment
+        return addresses.get(owner);
+    }
+
+    /**
+     * Disconnects from the cluster.
+     */
+    void stop() {
+        bus.stop();
+    }
+
+    /**
+     * Relays a message to the members of a room on the other nodes.
+     *
+     * @param room The room name
+     * @param type The message type
+     * @param payload The payload object
+     */
+    void relayToRoom(String room, int type, Object payload) {
+        bus.publish(ClusterMessage.roomMessage(bus.getNodeId(), room, type, payload));
+    }
+
+    /**
+     * Relays a message to the sessions of a user on the other nodes.
+     *
+     * @param userId The recipient's user ID
+     * @param type The message type
+     * @param payload The payload object
+     * @return The number of nodes the message was relayed to
+     */
+    int relayToUser(int userId, int type, Object payload) {
+        return relayTo(presence.nodesFor(userId), ClusterMessage.userMessage(bus.getNodeId(), userId, null, type, payload));
+    }
+
+    /**
+     * Relays a message to the sessions of a user on the other nodes, looked up by username.
+     *
+     * @param username The recipient's username
+     * @param type The message type
+     * @param payload The payload object
+     * @return The number of nodes the message was relayed to
+     */
+    int relayToUsername(String username, int type, Object payload) {
+        return relayTo(presence.nodesForName(username), ClusterMessage.userMessage(bus.getNodeId(), 0, username, type, payload));
+    }
+
+    /**
+     * Sends a message to some nodes.
+     *
+     * @param nodes The IDs of the nodes
+     * @param message The message
+     * @return The number of nodes
+     */
+    private int relayTo(Set<String> nodes, ClusterMessage message) {
+        for (String nodeId : nodes) {
+            bus.send(nodeId, message);
+        }
+        return nodes.size();
+    }
+
+    /**
+     * Announces or withdraws a user after its local sessions changed.
+     * The check and the announcement happen together, so that the last word the
+     * other nodes hear matches the sessions this node has.
+     *
+     * @param user The user whose sessions changed (can be null)
+     */
+    void userChanged(User user) {
+        if (user == null) {
+            return;
+        }
+        announceLock.lock();
+        try {
+            int userId = user.getId();
+            boolean local = server.hasLocalSessions(userId);
+            if (local && !announcedUsers.containsKey(userId)) {
+                announcedUsers.put(userId, user.getUsername());
+                bus.publish(ClusterMessage.presence(Constants.CLUSTER_USER_ONLINE, bus.getNodeId(), userId, user.getUsername()));
+            } else if (!local && announcedUsers.containsKey(userId)) {
+                String username = announcedUsers.remove(userId);
+                bus.publish(ClusterMessage.presence(Constants.CLUSTER_USER_OFFLINE, bus.getNodeId(), userId, username));
+            }
+        } finally {
+            announceLock.unlock();
+        }
+    }
+
+    @Override
+    public void onMessage(ClusterMessage message) {
+        switch (message.getKind()) {
+            case Constants.CLUSTER_ROOM_MESSAGE:
+                latency.record(ClusterMessage.currentTimeMicros() - message.getSentAtMicros());
+                server.broadcastToRoomLocally(message.getRoom(), message.getType(), message.getPayload(), client -> true);
+                break;
+            case Constants.CLUSTER_USER_MESSAGE:
+                latency.record(ClusterMessage.currentTimeMicros() - message.getSentAtMicros());
+                if (message.getUserId() > 0) {
+                    server.sendToUserLocally(message.getUserId(), message.getType(), message.getPayload());
+                } else {
+                    server.sendToUsernameLocally(message.getUsername(), message.getType(), message.getPayload());
+                }
+                break;
+            case Constants.CLUSTER_USER_ONLINE:
+                presence.online(message.getOriginNodeId(), message.getUserId(), message.getUsername());
+                break;
+            case Constants.CLUSTER_USER_OFFLINE:
+                presence.offline(message.getOriginNodeId(), message.getUserId());
+                break;
+            case Constants.CLUSTER_PRESENCE_RESET:
+                presence.reset(message.getOriginNodeId());
+                break;
+            case Constants.CLUSTER_NODE_INFO:
+                addresses.put(message.getOriginNodeId(), (String) message.getPayload());
+                if (ring.add(message.getOriginNodeId())) {
+                    server.rebalanceSessions();
+                }
+                break;
+            default:
+                System.err.println("Unknown cluster message kind " + message.getKind() + " from " + message.getOriginNodeId());
+        }
+    }
+
+    @Override
+    public void onNodeJoined(String nodeId) {
+        System.out.println("Cluster node joined: " + nodeId);
+
+        // The node may have missed announcements, so repeat all of them
+        announceLock.lock();
+        try {
+            bus.send(nodeId, ClusterMessage.nodeInfo(bus.getNodeId(), address));
+            bus.send(nodeId, ClusterMessage.presenceReset(bus.getNodeId()));
+            for (Map.Entry<Integer, String> user : announcedUsers.entrySet()) {
+                bus.send(nodeId, ClusterMessage.presence(Constants.CLUSTER_USER_ONLINE, bus.getNodeId(),
+                        user.getKey(), user.getValue()));
+            }
+        } finally {
+            announceLock.unlock();
+        }
+    }
+
+    @Override
+    public void onNodeLeft(String nodeId) {
+        System.out.println("Cluster node left: " + nodeId);
+        presence.reset(nodeId);
+        addresses.remove(nodeId);
+        if (ring.remove(nodeId)) {
+            server.rebalanceSessions();
+        }
+    }
+
+    /**
+     * Gets the ID of this node.
+     *
+     * @return The node ID
+     */
+    String getNodeId() {
+        return bus.getNodeId();
+    }
+
+    /**
+     * Gets the time messages from other nodes took to arrive.
+     *
+     * @return The relay latency histogram
+     */
+    RelayLatency getLatency() {
+        return latency;
+    }
+}
@@ -0,0 +1,152 @@
+package chatclientserver.ltm.server;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single-threaded selector loop for the NIO transport.
+ * Each loop owns one Selector and services accept, read and write readiness
+ * for the channels registered with it. Other threads hand work to the loop
+ * through {@link #execute(Runnable)}.
+ */
+class EventLoop implements Runnable {
+    private final String name;
+    private final Selector selector;
+    private final Queue<Runnable> tasks;
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * Constructs an EventLoop with the specified thread name.
+     *
+     * @param name The name of the loop thread
+     * @throws IOException If the selector cannot be opened
+     */
+    EventLoop(String name) throws IOException {
+        this.name = name;
+        this.selector = Selector.open();
+        this.tasks = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Starts the loop thread.
+     */
+    void start() {
+        running = true;
+        thread = new Thread(this, name);
+        thread.start();
+    }
+
+    /**
+     * Gets the selector owned by this loop.
+     *
+     * @return The selector
+     */
+    Selector getSelector() {
+        return selector;
+    }
+
+    /**
+     * Checks if the calling thread is this loop's thread.
+     *
+     * @return true if called from the loop thread, false otherwise
+     */
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Queues a task to run on the loop thread.
+     *
+     * @param task The task to run
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+
+                // Dispatch the ready keys
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    processKey(key);
+                }
+
+                // Run tasks handed over by other threads or queued while dispatching
+                runTasks();
+            } catch (IOException e) {
+                System.err.println("Error in event loop " + name + ": " + e.getMessage());
+            }
+        }
+
+        // Run remaining tasks (such as close requests) before releasing the selector
+        runTasks();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            System.err.println("Error closing selector: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs all queued tasks.
+     */
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.err.println("Error running event loop task: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Dispatches a ready key to its attachment.
+     *
+     * @param key The ready key
+     */
+    private void processKey(SelectionKey key) {
+        Object attachment = key.attachment();
+        try {
+            if (attachment instanceof NioServer) {
+                if (key.isAcceptable()) {
+                    ((NioServer) attachment).accept();
+                }
+            } else if (attachment instanceof NioConnection) {
+                NioConnection connection = (NioConnection) attachment;
+                if (key.isReadable()) {
+                    connection.onReadable();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.onWritable();
+                }
+            }
+        } catch (CancelledKeyException e) {
+            // The channel was closed while its key was being processed
+        }
+    }
+
+    /**
+     * Stops the loop. Queued tasks are still run before the loop thread exits.
+     */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,118 @@
+package chatclientserver.ltm.server;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Finds sessions whose peer has gone away without closing the connection.
+ * Every watched session has exactly one timeout on a shared {@link TimerWheel};
+ * handlers only record the time of their last activity, so no timer is touched
+ * per frame. When a timeout fires, a session that has been quiet for the
+ * heartbeat interval is sent a ping, and one that has been quiet for the idle
+ * timeout is closed. A live client answers the ping with a pong, which counts
+ * as activity.
+ * <p>
+ * Clients older than protocol version 4 cannot answer pings, so they are not
+ * watched; TCP keepalive is enabled on their sockets instead.
+ */
+class IdleReaper {
+    private final TimerWheel wheel;
+    private final Executor closer;
+    private final long pingAfterNanos;
+    private final long idleTimeoutNanos;
+    private final LongAdder pingsSent = new LongAdder();
+    private final LongAdder reapedSessions = new LongAdder();
+
+    /**
+     * Constructs an IdleReaper.
+     *
+     * @param wheel The timer wheel that runs the checks
+     * @param closer The executor that closes idle sessions, so the wheel thread never waits on a socket
+     * @param heartbeatIntervalMillis How long a session may be quiet before it is pinged
+     * @param idleTimeoutMillis How long a session may be quiet before it is closed
+     */
+    IdleReaper(TimerWheel wheel, Executor closer, long heartbeatIntervalMillis, long idleTimeoutMillis) {
+        this.wheel = wheel;
+        this.closer = closer;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+
+        // Leave the client time to answer at least one ping before it is closed
+        this.pingAfterNanos = Math.min(TimeUnit.MILLISECONDS.toNanos(heartbeatIntervalMillis), idleTimeoutNanos / 2);
+    }
+
+    /**
+     * Starts watching a session that has completed its handshake.
+     *
+     * @param client The client handler
+     */
+    void watch(ClientHandler client) {
+        if (!client.supportsHeartbeat()) {
+            client.enableKeepAlive();
+            return;
+        }
+        schedule(client, pingAfterNanos);
+    }
+
+    /**
+     * Schedules the next check of a session.
+     *
+     * @param client The client handler
+     * @param delayNanos The delay before the check
+     */
+    private void schedule(ClientHandler client, long delayNanos) {
+        wheel.schedule(() -> check(client), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Pings or closes a session that has been quiet for too long, and schedules its next check.
+     * Runs on the wheel thread. A closed session is dropped, so it needs no cancellation.
+     *
+     * @param client The client handler
+     */
+    private void check(ClientHandler client) {
+        if (!client.isRunning()) {
+            return;
+        }
+
+        long idle = System.nanoTime() - client.getLastActivityNanos();
+        if (idle >= idleTimeoutNanos) {
+            reapedSessions.increment();
+            System.out.println("Closing idle session " + client.getDisplayName() + " ("
+                    + TimeUnit.NANOSECONDS.toMillis(idle) + " ms without activity)");
+            try {
+                closer.execute(client::close);
+            } catch (RejectedExecutionException e) {
+                // The server is stopping and closes every session itself
+            }
+            return;
+        }
+
+        if (idle >= pingAfterNanos) {
+            client.sendPing();
+            pingsSent.increment();
+            schedule(client, idleTimeoutNanos - idle);
+        } else {
+            schedule(client, pingAfterNanos - idle);
+        }
+    }
+
+    /**
+     * Gets the number of pings sent to quiet sessions.
+     *
+     * @return The number of pings sent
+     */
+    long getPingsSent() {
+        return pingsSent.sum();
+    }
+
+    /**
+     * Gets the number of sessions closed because they were idle for too long.
+     *
+     * @return The number of reaped sessions
+     */
+    long getReapedSessions() {
+        return reapedSessions.sum();
+    }
+}
@@ -0,0 +1,101 @@
+package chatclientserver.ltm.server;
+
+import java.util.List;
+
+/**
+ * The stages a chat message goes through after it has been read and decoded:
+ * decrypt, search for the phrase, reply to the sender and relay to the room,
+ * and persist. Each stage has its own worker pool and bounded queue, so a
+ * slow database holds up only the persist stage until its queue fills, while
+ * the sessions keep reading and their messages keep being answered.
+ */
+class MessagePipeline {
+    private final PipelineStage decrypt;
+    private final PipelineStage search;
+    private final PipelineStage reply;
+    private final PipelineStage persist;
+
+    /**
+     * Constructs a MessagePipeline sized by the server configuration.
+     *
+     * @param config The server configuration
+     */
+    MessagePipeline(ServerConfig config) {
+        int capacity = config.getStageQueueCapacity();
+        this.decrypt = new PipelineStage("decrypt", config.getDecryptThreads(), capacity);
+        this.search = new PipelineStage("search", config.getSearchThreads(), capacity);
+        this.reply = new PipelineStage("reply", config.getReplyThreads(), capacity);
+        this.persist = new PipelineStage("persist", config.getPersistThreads(), capacity);
+    }
+
+    /**
+     * Creates the lanes of one session, which keep its messages in order through every stage.
+     *
+     * @return The session's lanes
+     */
+    Lanes newLanes() {
+        return new Lanes(decrypt.newLane(), search.newLane(), reply.newLane(), persist.newLane());
+    }
+
+    /**
+     * Gets the stages in the order messages go through them.
+     *
+     * @return The stages
+     */
+    List<PipelineStage> getStages() {
+        return List.of(decrypt, search, reply, persist);
+    }
+
+    /**
+     * Stops the stages in order, letting each finish its queue before the next one is stopped,
+     * so that messages already read are still answered and saved.
+     *
+     * @param timeoutMillis The longest time to wait for all stages
+     */
+    void shutdown(long timeoutMillis) {
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+        for (PipelineStage stage : getStages()) {
+            if (!stage.shutdown(deadline)) {
+                System.err.println("Pipeline stage " + stage.getName() + " did not finish in time: " + stage);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("MessagePipeline [");
+        for (PipelineStage stage : getStages()) {
+            if (stage != decrypt) {
+                builder.append(", ");
+            }
+            builder.append(stage);
+        }
+        return builder.append("]").toString();
+    }
+
+    /**
+     * The lanes of one session, one per stage.
+     */
+    static class Lanes {
+        final PipelineStage.Lane decrypt;
+        final PipelineStage.Lane search;
+        final PipelineStage.Lane reply;
+        final PipelineStage.Lane persist;
+
+        /**
+         * Constructs a Lanes.
+         *
+         * @param decrypt The lane on the decrypt stage
+         * @param search The lane on the search stage
+         * @param reply The lane on the reply stage
+         * @param persist The lane on the persist stage
+         */
+        private Lanes(PipelineStage.Lane decrypt, PipelineStage.Lane search, PipelineStage.Lane reply,
+                PipelineStage.Lane persist) {
+            this.decrypt = decrypt;
+            this.search = search;
+            this.reply = reply;
+            this.persist = persist;
+        }
+    }
+}
@@ -0,0 +1,594 @@
+package chatclientserver.ltm.server;
+
+import java.io.IOException;
+import java.io.ObjectStreamConstants;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import chatclientserver.ltm.protocol.ChannelFactory;
+import chatclientserver.ltm.protocol.CompressionPolicy;
+import chatclientserver.ltm.protocol.FlushScheduler;
+import chatclientserver.ltm.protocol.Frame;
+import chatclientserver.ltm.protocol.FrameCodec;
+import chatclientserver.ltm.protocol.FrameCompressor;
+import chatclientserver.ltm.protocol.MessageChannel;
+import chatclientserver.ltm.protocol.PayloadCodec;
+import chatclientserver.ltm.protocol.SharedFrame;
+import chatclientserver.ltm.util.BufferPool;
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * A non-blocking client connection served by an {@link EventLoop}.
+ * Incoming bytes are split into frames on the loop thread and handed to the
+ * client handler on a worker executor, one frame at a time. While too many
+ * frames wait for the handler, the loop stops reading, so a client that sends
+ * faster than its session is handled is held back by TCP flow control rather
+ * than by server memory. Outgoing frames are queued and written by the loop
+ * when the socket is writable.
+ * <p>
+ * With an enabled {@link FlushScheduler}, the loop is only asked to write once
+ * the batch is full, the batch window has passed or {@link #flush()} is called,
+ * and it then hands up to a batch worth of queued frames to the socket in one
+ * gathering write.
+ * <p>
+ * The read buffer and the payload of every received frame are direct buffers
+ * from the {@link BufferPool}: the socket reads straight into them, and a
+ * payload goes back to the pool as soon as it has been decoded. A read buffer
+ * grown for a large frame is swapped back for a small one once the frame is out.
+ */
+class NioConnection implements MessageChannel {
+    // Queued frames above which broadcast delivery waits for the socket to drain
+    private static final int PENDING_WRITES_LIMIT = 16;
+    // Most frames handed to one gathering write
+    private static final int MAX_GATHER_FRAMES = 64;
+    // Received frames waiting for the handler at which the loop stops reading
+    private static final int MAX_QUEUED_FRAMES = 8;
+
+    private final SocketChannel socketChannel;
+    private final EventLoop eventLoop;
+    private final SerialExecutor dispatcher;
+    private final Queue<PendingWrite> outbound;
+    private final AtomicInteger pendingWrites = new AtomicInteger();
+    private final AtomicInteger queuedFrames = new AtomicInteger();
+    private final FlushScheduler flushScheduler;
+    private final CompressionPolicy compressionPolicy;
+    private final AtomicInteger unflushedBytes = new AtomicInteger();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicBoolean writeRequested = new AtomicBoolean();
+    private volatile Runnable drainListener;
+    private volatile TimerWheel.Timeout handshakeTimeout;
+    private BufferPool.PooledBuffer pooledReadBuffer;
+    private ByteBuffer readBuffer;
+    private int partialFrameSize;
+    private SelectionKey key;
+    private ClientHandler handler;
+    private boolean handshakeComplete;
+    private boolean readsPaused;
+    private boolean backlogged;
+    private volatile FrameCompressor compressor;
+    private volatile PayloadCodec codec;
+    private volatile boolean closed;
+
+    /**
+     * Constructs a NioConnection for an accepted channel.
+     *
+     * @param socketChannel The accepted channel (already non-blocking)
+     * @param eventLoop The loop that will service the channel
+     * @param workers The executor that runs the client handler
+     * @param flushScheduler The batching policy, or null to write every frame as it is queued
+     * @param compressionPolicy The compression policy for outgoing frames, or null to send them uncompressed
+     */
+    NioConnection(SocketChannel socketChannel, EventLoop eventLoop, Executor workers, FlushScheduler flushScheduler,
+            CompressionPolicy compressionPolicy) {
+        this.socketChannel = socketChannel;
+        this.eventLoop = eventLoop;
+        this.dispatcher = new SerialExecutor(workers);
+        this.outbound = new ConcurrentLinkedQueue<>();
+        this.pooledReadBuffer = BufferPool.getDefault().acquire(Constants.BUFFER_SIZE);
+        this.readBuffer = pooledReadBuffer.buffer();
+        this.flushScheduler = flushScheduler != null && flushScheduler.isEnabled() ? flushScheduler : null;
+        this.compressionPolicy = compressionPolicy != null ? compressionPolicy : CompressionPolicy.DISABLED;
+    }
+
+    /**
+     * Attaches the client handler and registers the channel for reads.
+     * Must be called before any data is processed.
+     *
+     * @param handler The client handler for this connection
+     */
+    void start(ClientHandler handler) {
+        this.handler = handler;
+        eventLoop.execute(() -> {
+            try {
+                key = socketChannel.register(eventLoop.getSelector(), readInterest(), this);
+                if (!outbound.isEmpty()) {
+                    key.interestOps(readInterest() | SelectionKey.OP_WRITE);
+                }
+            } catch (IOException e) {
+                System.err.println("Error registering client channel: " + e.getMessage());
+                handler.close();
+            }
+        });
+    }
+
+    /**
+     * Closes the connection if the client has not sent its hello within the
+     * handshake timeout, which gives back its admission slot and read buffer.
+     *
+     * @param wheel The timer wheel to schedule the timeout on, or null if the server is stopping
+     * @param timeoutMillis The handshake timeout in milliseconds
+     */
+    void armHandshakeTimeout(TimerWheel wheel, long timeoutMillis) {
+        if (wheel == null) {
+            return;
+        }
+
+        // The wheel thread must not block, so the check runs on the loop thread, which reads the hello
+        handshakeTimeout = wheel.schedule(() -> eventLoop.execute(() -> {
+            if (!handshakeComplete && !closed) {
+                System.err.println("Handshake timed out for " + socketChannel.socket().getInetAddress().getHostAddress());
+                dispatcher.execute(handler::close);
+            }
+        }), timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gets the socket of this connection.
+     *
+     * @return The socket
+     */
+    Socket getSocket() {
+        return socketChannel.socket();
+    }
+
+    /**
+     * Reads available bytes and dispatches every complete frame.
+     * Called on the loop thread.
+     */
+    void onReadable() {
+        if (readBuffer == null) {
+            // Closed while the key was being dispatched
+            return;
+        }
+        try {
+            int read = socketChannel.read(readBuffer);
+            if (read < 0) {
+                dispatcher.execute(handler::close);
+                key.cancel();
+                return;
+            }
+
+            // Part of a large frame counts as activity too
+            handler.touch();
+
+            readBuffer.flip();
+            if (!handshakeComplete) {
+                readHello();
+            }
+            while (handshakeComplete && extractFrame()) {
+                // Keep extracting frames until the buffer holds a partial one
+            }
+            if (readBuffer.capacity() > Constants.BUFFER_SIZE && partialFrameSize <= Constants.BUFFER_SIZE) {
+                // The large frame is out; give its buffer back rather than hold it for the rest of the session
+                replaceReadBuffer(Constants.BUFFER_SIZE);
+            }
+            readBuffer.compact();
+        } catch (IOException e) {
+            System.err.println("Error reading from client: " + e.getMessage());
+            key.cancel();
+            dispatcher.execute(handler::close);
+        }
+    }
+
+    /**
+     * Reads and answers the client's hello if it has fully arrived.
+     *
+     * @throws IOException If the client does not speak the framed protocol
+     */
+    private void readHello() throws IOException {
+        if (readBuffer.remaining() >= 2
+                && (readBuffer.getShort(readBuffer.position()) & 0xFFFF) == (ObjectStreamConstants.STREAM_MAGIC & 0xFFFF)) {
+            throw new IOException("Object stream clients are only supported by the blocking transport");
+        }
+        if (readBuffer.remaining() < FrameCodec.HELLO_SIZE) {
+            return;
+        }
+
+        int magic = readBuffer.getInt();
+        if (magic != Constants.PROTOCOL_MAGIC) {
+            throw new IOException("Invalid protocol hello");
+        }
+        int version = FrameCodec.negotiateVersion(readBuffer.getInt(), ChannelFactory.getMaxProtocolVersion());
+
+        PayloadCodec negotiated = FrameCodec.codecFor(version);
+        if (FrameCodec.hasCompression(negotiated)) {
+            compressor = compressionPolicy.newCompressor();
+        }
+        codec = negotiated;
+        handshakeComplete = true;
+        TimerWheel.Timeout timeout = handshakeTimeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        enqueue(FrameCodec.createHello(version), null);
+        requestWrite();
+
+        // Register the client before any of its frames are handled
+        dispatcher.execute(handler::onHandshakeComplete);
+    }
+
+    /**
+     * Extracts one frame from the read buffer if it is complete.
+     *
+     * @return true if a frame was extracted, false if more bytes are needed
+     * @throws IOException If the frame header is invalid
+     */
+    private boolean extractFrame() throws IOException {
+        partialFrameSize = 0;
+        if (readBuffer.remaining() < FrameCodec.LENGTH_FIELD_SIZE) {
+            return false;
+        }
+
+        int length = readBuffer.getInt(readBuffer.position());
+        FrameCodec.checkFrameLength(length, codec);
+
+        if (readBuffer.remaining() < FrameCodec.LENGTH_FIELD_SIZE + length) {
+            // Grow the buffer so the whole frame fits
+            partialFrameSize = FrameCodec.LENGTH_FIELD_SIZE + length;
+            if (readBuffer.capacity() < partialFrameSize) {
+                replaceReadBuffer(partialFrameSize);
+            }
+            return false;
+        }
+
+        readBuffer.getInt();
+        int type = readBuffer.getInt();
+        int requestId = FrameCodec.hasRequestId(codec) ? readBuffer.getInt() : 0;
+        int payloadLength = length - (FrameCodec.headerSize(codec) - FrameCodec.LENGTH_FIELD_SIZE);
+
+        // Copy the payload out, since the read buffer is reused before the frame is decoded
+        BufferPool.PooledBuffer pooled = BufferPool.getDefault().acquire(payloadLength);
+        ByteBuffer payload = pooled.buffer();
+        ByteBuffer source = readBuffer.duplicate();
+        source.limit(source.position() + payloadLength);
+        payload.put(source).flip();
+        readBuffer.position(readBuffer.position() + payloadLength);
+
+        // Decode and handle the frame off the loop thread, in order
+        handler.frameReceived();
+        if (queuedFrames.incrementAndGet() >= MAX_QUEUED_FRAMES) {
+            updateBacklog();
+        }
+        dispatcher.execute(() -> {
+            try {
+                Object decoded;
+                try {
+                    decoded = FrameCodec.decodePayload(codec, type, payload, compressor);
+                } finally {
+                    pooled.release();
+                }
+                handler.handleFrame(new Frame(FrameCodec.messageType(type), requestId, decoded));
+            } catch (IOException | ClassNotFoundException e) {
+                System.err.println("Error handling client: " + e.getMessage());
+                handler.close();
+            } catch (RuntimeException e) {
+                // A malformed payload, such as one of the wrong type, ends the session as on the blocking transport
+                System.err.println("Error handling client: " + e);
+                handler.close();
+            } finally {
+                handler.frameFinished();
+                if (queuedFrames.decrementAndGet() == MAX_QUEUED_FRAMES - 1) {
+                    eventLoop.execute(this::updateBacklog);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Stops reading while too many received frames wait for the handler, and
+     * reads again once they have been handled. Called on the loop thread; the
+     * state is taken from the counter rather than from the caller, so updates
+     * that reach the loop out of order still leave it right.
+     */
+    private void updateBacklog() {
+        boolean full = queuedFrames.get() >= MAX_QUEUED_FRAMES;
+        if (full == backlogged) {
+            return;
+        }
+        backlogged = full;
+        if (key != null && key.isValid()) {
+            key.interestOps((key.interestOps() & ~SelectionKey.OP_READ) | readInterest());
+        }
+    }
+
+    /**
+     * Moves the unread bytes into a pooled read buffer of another size and releases the current one.
+     * The read buffer must be flipped for reading; the new one is too.
+     *
+     * @param size The capacity needed
+     */
+    private void replaceReadBuffer(int size) {
+        BufferPool.PooledBuffer replacement = BufferPool.getDefault().acquire(size);
+        ByteBuffer buffer = replacement.buffer();
+        buffer.limit(buffer.capacity());
+        buffer.put(readBuffer).flip();
+
+        pooledReadBuffer.release();
+        pooledReadBuffer = replacement;
+        readBuffer = buffer;
+    }
+
+    /**
+     * Writes queued frames until the queue is empty or the socket buffer is full.
+     * Called on the loop thread.
+     */
+    void onWritable() {
+        try {
+            while (!outbound.isEmpty()) {
+                ByteBuffer[] batch = nextBatch();
+                socketChannel.write(batch);
+
+                // Give back the frames that have been written in full
+                PendingWrite write;
+                while ((write = outbound.peek()) != null && !write.buffer.hasRemaining()) {
+                    outbound.poll();
+                    pendingWrites.decrementAndGet();
+                    write.complete();
+                }
+                if (batch[batch.length - 1].hasRemaining()) {
+                    // The socket buffer is full; wait until it is writable again
+                    return;
+                }
+            }
+            key.interestOps(readInterest());
+
+            // Let a paused broadcast writer continue
+            Runnable listener = drainListener;
+            if (listener != null) {
+                listener.run();
+            }
+
+            // A frame may have been queued after the last peek
+            if (!outbound.isEmpty()) {
+                key.interestOps(readInterest() | SelectionKey.OP_WRITE);
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing to client: " + e.getMessage());
+            key.cancel();
+            dispatcher.execute(handler::close);
+        }
+    }
+
+    /**
+     * Collects the queued frames for the next gathering write, up to the maximum batch size.
+     * Called on the loop thread, which is the only one that removes frames from the queue.
+     *
+     * @return The buffers to write, starting with the oldest queued frame
+     */
+    private ByteBuffer[] nextBatch() {
+        int maxFrames = flushScheduler == null ? 1 : MAX_GATHER_FRAMES;
+        int maxBytes = flushScheduler == null ? 0 : flushScheduler.getMaxBatchBytes();
+
+        List<ByteBuffer> batch = new ArrayList<>();
+        int bytes = 0;
+        for (PendingWrite write : outbound) {
+            if (!batch.isEmpty() && (batch.size() >= maxFrames || bytes + write.buffer.remaining() > maxBytes)) {
+                break;
+            }
+            batch.add(write.buffer);
+            bytes += write.buffer.remaining();
+        }
+        return batch.toArray(new ByteBuffer[0]);
+    }
+
+    /**
+     * Queues an encoded frame and asks the loop to write it, now or once the batch is complete.
+     *
+     * @param buffer The encoded frame
+     * @param frame The shared frame the buffer is a view of, or null
+     */
+    private void enqueue(ByteBuffer buffer, SharedFrame frame) {
+        int size = buffer.remaining();
+        pendingWrites.incrementAndGet();
+        outbound.add(new PendingWrite(buffer, frame));
+
+        if (flushScheduler == null || unflushedBytes.addAndGet(size) >= flushScheduler.getMaxBatchBytes()) {
+            requestWrite();
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            flushScheduler.schedule(() -> {
+                flushScheduled.set(false);
+                requestWrite();
+            });
+        }
+    }
+
+    /**
+     * Asks the loop to write the queued frames.
+     * At most one request is outstanding, so a burst of frames wakes the loop once.
+     */
+    private void requestWrite() {
+        unflushedBytes.set(0);
+        if (!writeRequested.compareAndSet(false, true)) {
+            return;
+        }
+        eventLoop.execute(() -> {
+            writeRequested.set(false);
+            if (key != null && key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        });
+    }
+
+    /**
+     * Holds back the frames read from the client that are not yet handled,
+     * without tying up a worker thread. The frame being handled now is not
+     * affected.
+     */
+    void suspendDispatch() {
+        dispatcher.suspend();
+    }
+
+    /**
+     * Handles the frames held back by {@link #suspendDispatch()} again.
+     *
+     * @param first The task to run before the held frames, in order with them
+     */
+    void resumeDispatch(Runnable first) {
+        dispatcher.resume(first);
+    }
+
+    /**
+     * Stops or resumes reading from the client.
+     * While reads are paused, unread bytes stay in the socket buffer and TCP
+     * flow control holds the client back.
+     *
+     * @param paused true to stop reading, false to resume
+     */
+    void setReadsPaused(boolean paused) {
+        eventLoop.execute(() -> {
+            readsPaused = paused;
+            if (key != null && key.isValid()) {
+                key.interestOps((key.interestOps() & ~SelectionKey.OP_READ) | readInterest());
+            }
+        });
+    }
+
+    /**
+     * Gets the read interest of the connection. Called on the loop thread.
+     *
+     * @return SelectionKey.OP_READ, or 0 while reads are paused or too many frames wait for the handler
+     */
+    private int readInterest() {
+        return readsPaused || backlogged ? 0 : SelectionKey.OP_READ;
+    }
+
+    @Override
+    public void flush() {
+        if (!outbound.isEmpty()) {
+            requestWrite();
+        }
+    }
+
+    @Override
+    public void writeFrame(int type, int requestId, Object payload) throws IOException {
+        if (closed) {
+            throw new IOException("Connection is closed");
+        }
+        enqueue(FrameCodec.encode(codec, type, requestId, payload, compressor), null);
+    }
+
+    @Override
+    public void writeFrame(SharedFrame frame) throws IOException {
+        if (closed) {
+            throw new IOException("Connection is closed");
+        }
+
+        // Hold a reference until the loop has written the bytes
+        ByteBuffer buffer = frame.encodedFor(codec, compressor);
+        enqueue(buffer, frame.retain());
+    }
+
+    @Override
+    public int getProtocolVersion() {
+        return codec == null ? 0 : codec.getVersion();
+    }
+
+    /**
+     * Checks whether enough frames are already waiting for the socket.
+     *
+     * @return true if further broadcast frames should wait
+     */
+    boolean isSaturated() {
+        return pendingWrites.get() >= PENDING_WRITES_LIMIT;
+    }
+
+    /**
+     * Checks whether frames are still waiting for the socket.
+     *
+     * @return true if some queued frame has not been written in full
+     */
+    boolean hasPendingWrites() {
+        return pendingWrites.get() > 0;
+    }
+
+    /**
+     * Sets the action run on the loop thread whenever all queued frames have been written.
+     *
+     * @param drainListener The action to run (must not block)
+     */
+    void setDrainListener(Runnable drainListener) {
+        this.drainListener = drainListener;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        eventLoop.execute(() -> {
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                socketChannel.close();
+            } catch (IOException e) {
+                System.err.println("Error closing client channel: " + e.getMessage());
+            }
+
+            // Give back the shared frames that will never be written
+            PendingWrite write;
+            while ((write = outbound.poll()) != null) {
+                write.complete();
+            }
+            if (pooledReadBuffer != null) {
+                pooledReadBuffer.release();
+                pooledReadBuffer = null;
+                readBuffer = null;
+            }
+            if (compressor != null) {
+                compressor.close();
+            }
+        });
+    }
+
+    /**
+     * An encoded frame waiting for the socket, with the shared frame it belongs to.
+     */
+    private static class PendingWrite {
+        private final ByteBuffer buffer;
+        private final SharedFrame frame;
+
+        /**
+         * Constructs a PendingWrite.
+         *
+         * @param buffer The bytes to write
+         * @param frame The shared frame holding a reference for this write, or null
+         */
+        PendingWrite(ByteBuffer buffer, SharedFrame frame) {
+            this.buffer = buffer;
+            this.frame = frame;
+        }
+
+        /**
+         * Releases the shared frame once the write is finished or abandoned.
+         */
+        void complete() {
+            if (frame != null) {
+                frame.release();
+            }
+        }
+    }
+}
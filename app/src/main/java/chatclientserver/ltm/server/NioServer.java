@@ -0,0 +1,128 @@
+package chatclientserver.ltm.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Non-blocking transport for the chat server.
+ * A small fixed set of event loops multiplexes every client connection, so
+ * idle clients no longer hold a thread each. Message handling still runs in
+ * {@link ClientHandler}, on the server's worker executor.
+ */
+class NioServer {
+    private final ChatServer server;
+    private final ExecutorService workers;
+    private final EventLoop[] eventLoops;
+    private ServerSocketChannel serverChannel;
+    private int nextLoop;
+
+    /**
+     * Constructs a NioServer.
+     *
+     * @param server The chat server that owns the client handlers
+     * @param workers The executor that runs message handling
+     * @param eventLoopThreads The number of event loops
+     * @throws IOException If a selector cannot be opened
+     */
+    NioServer(ChatServer server, ExecutorService workers, int eventLoopThreads) throws IOException {
+        this.server = server;
+        this.workers = workers;
+        this.eventLoops = new EventLoop[eventLoopThreads];
+        for (int i = 0; i < eventLoopThreads; i++) {
+            eventLoops[i] = new EventLoop("nio-event-loop-" + i);
+        }
+    }
+
+    /**
+     * Binds the server channel and starts the event loops.
+     * The first loop also services accept readiness.
+     *
+     * @param port The port to listen on
+     * @throws IOException If the port cannot be bound
+     */
+    void start(int port) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.start();
+        }
+
+        EventLoop acceptLoop = eventLoops[0];
+        acceptLoop.execute(() -> {
+            try {
+                serverChannel.register(acceptLoop.getSelector(), SelectionKey.OP_ACCEPT, this);
+            } catch (IOException e) {
+                System.err.println("Error registering server channel: " + e.getMessage());
+                server.notifyServerError("Error registering server channel", e);
+            }
+        });
+    }
+
+    /**
+     * Accepts all pending connections and spreads them over the event loops.
+     * Called on the accept loop thread.
+     */
+    void accept() {
+        try {
+            SocketChannel socketChannel;
+            while ((socketChannel = serverChannel.accept()) != null) {
+                socketChannel.configureBlocking(false);
+                socketChannel.socket().setTcpNoDelay(true);
+                System.out.println("New client connected: " + socketChannel.socket().getInetAddress().getHostAddress());
+
+                EventLoop eventLoop = eventLoops[nextLoop];
+                nextLoop = (nextLoop + 1) % eventLoops.length;
+
+                // Build the handler on a worker so the loop never waits on handler setup
+                NioConnection connection = new NioConnection(socketChannel, eventLoop, workers, server.getFlushScheduler(),
+                        server.getCompressionPolicy());
+                workers.execute(() -> {
+                    ClientHandler clientHandler = new ClientHandler(connection, server);
+                    if (!server.admitClient(clientHandler)) {
+                        clientHandler.close();
+                        return;
+                    }
+
+                    // A peer that never sends its hello must not keep its admission slot
+                    connection.start(clientHandler);
+                    connection.armHandshakeTimeout(server.getTimerWheel(), server.getConfig().getHandshakeTimeoutMillis());
+                });
+            }
+        } catch (IOException e) {
+            System.err.println("Error accepting client connection: " + e.getMessage());
+            server.notifyServerError("Error accepting client connection", e);
+        }
+    }
+
+    /**
+     * Closes the server channel, leaving the event loops running for the connected clients.
+     */
+    void stopAccepting() {
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+
+                // The port is only released once the accept loop's selector drops the cancelled key
+                eventLoops[0].getSelector().wakeup();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing server channel: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Closes the server channel and stops the event loops.
+     */
+    void stop() {
+        stopAccepting();
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.shutdown();
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package chatclientserver.ltm.server;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import chatclientserver.ltm.protocol.MessageChannel;
+import chatclientserver.ltm.protocol.SharedFrame;
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Bounded queue of broadcast frames waiting to be written to one client.
+ * Frames are written by a dedicated writer task, so the thread that broadcasts
+ * a message never waits on a recipient's socket. The queue holds a reference
+ * to each shared frame until it has been written or dropped. Frames written
+ * in one run of the writer are sent together once the queue is empty. When
+ * the queue is full the slow-consumer policy decides what to give up:
+ * <ul>
+ *   <li>{@link Constants#SLOW_CONSUMER_DROP}: the new frame is dropped</li>
+ *   <li>{@link Constants#SLOW_CONSUMER_COALESCE}: the oldest queued frame is dropped,
+ *       so the client skips ahead to the most recent messages</li>
+ *   <li>{@link Constants#SLOW_CONSUMER_DISCONNECT}: the client is disconnected</li>
+ * </ul>
+ * Replies to the client's own requests are never dropped or coalesced away,
+ * since the client waits for them; see {@link #offerReply(SharedFrame)}.
+ */
+class OutboundQueue {
+    private final MessageChannel channel;
+    private final Executor writer;
+    private final int capacity;
+    private final String policy;
+    private final Runnable disconnect;
+    private final BooleanSupplier channelSaturated;
+    private final Queue<SharedFrame> frames = new ArrayDeque<>();
+    private final Set<SharedFrame> replies = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private volatile Consumer<SharedFrame> dequeuedListener;
+    private boolean writing;
+    private boolean closed;
+
+    /**
+     * Constructs an OutboundQueue for a client channel.
+     *
+     * @param channel The channel frames are written to
+     * @param writer The executor that runs the writer task
+     * @param capacity The maximum number of queued frames
+     * @param policy The slow-consumer policy
+     * @param disconnect The action that disconnects the client
+     * @param channelSaturated Tells whether the channel already holds enough unwritten data;
+     *                         the writer pauses until {@link #resume()} is called
+     */
+    OutboundQueue(MessageChannel channel, Executor writer, int capacity, String policy,
+            Runnable disconnect, BooleanSupplier channelSaturated) {
+        this.channel = channel;
+        this.writer = writer;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.disconnect = disconnect;
+        this.channelSaturated = channelSaturated;
+    }
+
+    /**
+     * Queues a frame for delivery, applying the slow-consumer policy if the queue is full.
+     * The caller keeps its own reference to the frame.
+     *
+     * @param frame The shared frame
+     * @return true if the frame was queued, false if it was dropped
+     */
+    boolean offer(SharedFrame frame) {
+        return offer(frame, false);
+    }
+
+    /**
+     * Queues a frame for delivery regardless of the queue's capacity.
+     * Used to replay the messages a resumed session missed, which were already
+     * accepted for this client once.
+     *
+     * @param frame The shared frame; the caller keeps its own reference
+     * @return true if the frame was queued, false if the queue is closed
+     */
+    boolean offerReplay(SharedFrame frame) {
+        return offer(frame, true);
+    }
+
+    /**
+     * Queues a reply to one of the client's own requests, or a notice for this
+     * client alone. The slow-consumer policy does not apply: the frame is queued
+     * even if the queue is full, and a coalescing queue drops broadcast frames
+     * rather than replies. Only a client that lets twice the capacity pile up is
+     * disconnected, which fails its waiting requests at once instead of leaving
+     * them to time out.
+     *
+     * @param frame The shared frame; the caller keeps its own reference
+     * @return true if the frame was queued, false if the queue is closed or the client was disconnected
+     */
+    boolean offerReply(SharedFrame frame) {
+        boolean queued = false;
+        boolean startWriter = false;
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            if (frames.size() >= 2 * capacity) {
+                droppedFrames.incrementAndGet();
+            } else {
+                frames.add(frame.retain());
+                replies.add(frame);
+                queued = true;
+                if (!writing) {
+                    writing = true;
+                    startWriter = true;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (!queued) {
+            disconnectSlowConsumer(2 * capacity);
+            return false;
+        }
+        if (startWriter) {
+            writer.execute(this::writeFrames);
+        }
+        return true;
+    }
+
+    /**
+     * Queues a frame for delivery.
+     *
+     * @param frame The shared frame
+     * @param ignoreCapacity true to queue the frame even if the queue is full
+     * @return true if the frame was queued, false if it was dropped
+     */
+    private boolean offer(SharedFrame frame, boolean ignoreCapacity) {
+        boolean startWriter = false;
+        boolean slowConsumer = false;
+        SharedFrame evicted = null;
+
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+
+            if (frames.size() >= capacity && !ignoreCapacity) {
+                if (Constants.SLOW_CONSUMER_DROP.equals(policy)) {
+                    droppedFrames.incrementAndGet();
+                    return false;
+                } else if (Constants.SLOW_CONSUMER_COALESCE.equals(policy)) {
+                    evicted = pollOldestBroadcast();
+                    droppedFrames.incrementAndGet();
+                    if (evicted == null) {
+                        // Only replies are queued, and those are kept
+                        return false;
+                    }
+                } else {
+                    slowConsumer = true;
+                    droppedFrames.incrementAndGet();
+                }
+            }
+
+            if (!slowConsumer) {
+                frames.add(frame.retain());
+                if (!writing) {
+                    writing = true;
+                    startWriter = true;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (evicted != null) {
+            evicted.release();
+        }
+        if (slowConsumer) {
+            disconnectSlowConsumer(capacity);
+            return false;
+        }
+        if (startWriter) {
+            writer.execute(this::writeFrames);
+        }
+        return true;
+    }
+
+    /**
+     * Takes the oldest queued frame that is not a reply out of the queue.
+     * Called with the lock held.
+     *
+     * @return The frame, or null if only replies are queued
+     */
+    private SharedFrame pollOldestBroadcast() {
+        Iterator<SharedFrame> queued = frames.iterator();
+        while (queued.hasNext()) {
+            SharedFrame frame = queued.next();
+            if (!replies.contains(frame)) {
+                queued.remove();
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Closes the queue and disconnects the client, which has stopped reading.
+     *
+     * @param undelivered The number of frames waiting for the client
+     */
+    private void disconnectSlowConsumer(int undelivered) {
+        System.out.println("Disconnecting slow consumer after " + undelivered + " undelivered frames");
+        close();
+        writer.execute(disconnect);
+    }
+
+    /**
+     * Writes queued frames until the queue is empty, the channel is saturated or the queue is closed.
+     * The frames are flushed together when the writer stops, rather than one by one.
+     * Runs on the writer executor; at most one writer task is active per queue.
+     */
+    private void writeFrames() {
+        while (true) {
+            SharedFrame frame;
+            lock.lock();
+            try {
+                if (closed) {
+                    writing = false;
+                    return;
+                }
+                frame = frames.isEmpty() || channelSaturated.getAsBoolean() ? null : frames.poll();
+                if (frame != null) {
+                    replies.remove(frame);
+                }
+                if (frame == null) {
+                    writing = false;
+                } else {
+                    dequeued(frame);
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (frame == null) {
+                flushWritten();
+                return;
+            }
+
+            try {
+                channel.writeFrame(frame);
+            } catch (IOException e) {
+                // The reading side notices the broken connection and closes the client
+                System.err.println("Error delivering frame: " + e.getMessage());
+                close();
+                return;
+            } finally {
+                frame.release();
+            }
+        }
+    }
+
+    /**
+     * Sends the frames this writer has written, so they do not wait for the batch window.
+     */
+    private void flushWritten() {
+        try {
+            channel.flush();
+        } catch (IOException e) {
+            // The reading side notices the broken connection and closes the client
+            System.err.println("Error delivering frames: " + e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Sets the action run for each frame that leaves the queue, either to be written
+     * or because the queue was closed before it could be.
+     *
+     * @param dequeuedListener The action, called under the queue lock in queue order
+     */
+    void setDequeuedListener(Consumer<SharedFrame> dequeuedListener) {
+        this.dequeuedListener = dequeuedListener;
+    }
+
+    /**
+     * Runs the dequeued listener for a frame. Called with the lock held.
+     *
+     * @param frame The frame leaving the queue
+     */
+    private void dequeued(SharedFrame frame) {
+        Consumer<SharedFrame> listener = dequeuedListener;
+        if (listener != null) {
+            listener.accept(frame);
+        }
+    }
+
+    /**
+     * Restarts the writer after the channel has drained, if frames are waiting.
+     */
+    void resume() {
+        boolean startWriter = false;
+
+        lock.lock();
+        try {
+            if (!closed && !writing && !frames.isEmpty()) {
+                writing = true;
+                startWriter = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (startWriter) {
+            writer.execute(this::writeFrames);
+        }
+    }
+
+    /**
+     * Discards the queued frames and rejects further ones.
+     */
+    void close() {
+        List<SharedFrame> discarded;
+
+        lock.lock();
+        try {
+            closed = true;
+            discarded = new ArrayList<>(frames);
+            frames.clear();
+            replies.clear();
+            for (SharedFrame frame : discarded) {
+                dequeued(frame);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        for (SharedFrame frame : discarded) {
+            frame.release();
+        }
+    }
+
+    /**
+     * Checks whether every queued frame has been handed to the channel.
+     *
+     * @return true if no frame is waiting and no writer is running
+     */
+    boolean isIdle() {
+        lock.lock();
+        try {
+            return frames.isEmpty() && !writing;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of frames waiting to be written.
+     *
+     * @return The queue size
+     */
+    int size() {
+        lock.lock();
+        try {
+            return frames.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of frames dropped by the slow-consumer policy.
+     *
+     * @return The number of dropped frames
+     */
+    long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+}
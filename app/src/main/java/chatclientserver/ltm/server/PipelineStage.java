@@ -0,0 +1,218 @@
+package chatclientserver.ltm.server;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import chatclientserver.ltm.cluster.RelayLatency;
+
+/**
+ * One stage of the message pipeline: a pool of worker threads and a bounded
+ * queue of the tasks waiting for them.
+ * <p>
+ * Tasks are submitted through lanes. The tasks of a lane run one at a time, in
+ * submission order, so each session keeps its messages in order while many
+ * sessions share the workers. The queue is bounded across all lanes: once it
+ * holds as many tasks as its capacity, submitting blocks until a task
+ * finishes, which holds back the stage before it and in the end the socket
+ * reads of the clients.
+ */
+class PipelineStage {
+    private final String name;
+    private final int capacity;
+    private final Semaphore slots;
+    private final ThreadPoolExecutor workers;
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final RelayLatency queueLatency = new RelayLatency();
+    private final RelayLatency serviceLatency = new RelayLatency();
+
+    /**
+     * Constructs a PipelineStage.
+     *
+     * @param name The name of the stage, used for its threads and its statistics
+     * @param threads The number of worker threads (at least 1)
+     * @param capacity The most tasks queued or running at once (at least 1)
+     */
+    PipelineStage(String name, int threads, int capacity) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("A stage needs at least one thread");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Stage queue capacity must be positive");
+        }
+        this.name = name;
+        this.capacity = capacity;
+        this.slots = new Semaphore(capacity);
+
+        // The slots bound the queue, so the executor's own queue never fills
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                threadFactory(name), (task, executor) -> System.err.println("Pipeline stage " + name
+                        + " is stopped: task dropped"));
+    }
+
+    /**
+     * Creates the factory that names the threads of a stage.
+     *
+     * @param name The name of the stage
+     * @return The thread factory
+     */
+    private static ThreadFactory threadFactory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, "pipeline-" + name + "-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Creates a lane for one session.
+     *
+     * @return A new lane on this stage
+     */
+    Lane newLane() {
+        return new Lane(new SerialExecutor(workers));
+    }
+
+    /**
+     * Gets the name of the stage.
+     *
+     * @return The name
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the number of tasks queued or running.
+     *
+     * @return The queue depth
+     */
+    int getDepth() {
+        return capacity - slots.availablePermits();
+    }
+
+    /**
+     * Gets the most tasks the stage holds at once.
+     *
+     * @return The capacity
+     */
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets the number of tasks that completed, including those that failed.
+     *
+     * @return The number of processed tasks
+     */
+    long getProcessed() {
+        return processed.sum();
+    }
+
+    /**
+     * Gets the number of tasks that threw an exception.
+     *
+     * @return The number of failed tasks
+     */
+    long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * Gets the time tasks waited in the queue before a worker picked them up.
+     *
+     * @return The queue latency histogram
+     */
+    RelayLatency getQueueLatency() {
+        return queueLatency;
+    }
+
+    /**
+     * Gets the time workers spent running tasks.
+     *
+     * @return The service latency histogram
+     */
+    RelayLatency getServiceLatency() {
+        return serviceLatency;
+    }
+
+    /**
+     * Stops taking tasks and waits for the queued ones to finish.
+     *
+     * @param deadlineNanos The System.nanoTime() by which the queue must be empty
+     * @return true if every task finished, false if tasks were abandoned
+     */
+    boolean shutdown(long deadlineNanos) {
+        workers.shutdown();
+        try {
+            if (workers.awaitTermination(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdownNow();
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return name + " [depth=" + getDepth() + "/" + capacity + ", processed=" + getProcessed() + ", failed=" + getFailed()
+                + ", queueP50Micros=" + queueLatency.getPercentileMicros(50)
+                + ", queueP99Micros=" + queueLatency.getPercentileMicros(99)
+                + ", serviceP50Micros=" + serviceLatency.getPercentileMicros(50)
+                + ", serviceP99Micros=" + serviceLatency.getPercentileMicros(99) + "]";
+    }
+
+    /**
+     * The tasks of one session on a stage, run one at a time in submission order.
+     */
+    class Lane {
+        private final SerialExecutor executor;
+
+        /**
+         * Constructs a Lane.
+         *
+         * @param executor The executor that keeps the lane's tasks in order
+         */
+        private Lane(SerialExecutor executor) {
+            this.executor = executor;
+        }
+
+        /**
+         * Queues a task on the stage, waiting for room if the stage is full.
+         *
+         * @param task The task
+         * @return true if the task was queued, false if the stage is stopped
+         * @throws InterruptedException If the thread is interrupted while waiting for room
+         */
+        boolean submit(Runnable task) throws InterruptedException {
+            if (workers.isShutdown()) {
+                return false;
+            }
+            slots.acquire();
+            long queued = System.nanoTime();
+            executor.execute(() -> {
+                long started = System.nanoTime();
+                queueLatency.record(TimeUnit.NANOSECONDS.toMicros(started - queued));
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    failed.increment();
+                    System.err.println("Pipeline stage " + name + " failed: " + e);
+                } finally {
+                    serviceLatency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - started));
+                    processed.increment();
+                    slots.release();
+                }
+            });
+            return true;
+        }
+    }
+}
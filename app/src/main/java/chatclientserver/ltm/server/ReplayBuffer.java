@@ -0,0 +1,191 @@
+package chatclientserver.ltm.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Ring of the most recent chat and direct messages sent to one session.
+ * Messages are numbered from 1 in the order they are written to the client;
+ * the client counts the messages it receives the same way, so after a dropped
+ * connection it can say how many it has and the session replays the rest.
+ * The oldest message is forgotten when the ring is full.
+ */
+class ReplayBuffer {
+    private final int capacity;
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private long lastSequence;
+    private long evictedThroughMillis;
+
+    /**
+     * Constructs a ReplayBuffer.
+     *
+     * @param capacity The maximum number of messages kept
+     */
+    ReplayBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Checks whether frames of a message type are numbered and kept for replay.
+     *
+     * @param type The message type
+     * @return true for chat and direct messages
+     */
+    static boolean isReplayed(int type) {
+        return type == Constants.MESSAGE_TYPE_TEXT || type == Constants.MESSAGE_TYPE_DIRECT;
+    }
+
+    /**
+     * Appends a message, forgetting the oldest one if the ring is full.
+     *
+     * @param type The message type
+     * @param payload The payload object
+     * @return The sequence number of the message
+     */
+    long append(int type, Object payload) {
+        lock.lock();
+        try {
+            if (entries.size() == capacity) {
+                evictedThroughMillis = entries.poll().getTimeMillis();
+            }
+            entries.add(new Entry(++lastSequence, type, payload, System.currentTimeMillis()));
+            return lastSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the messages kept after a sequence number, oldest first.
+     *
+     * @param sequence The sequence number of the last message the client has
+     * @return The later messages still in the ring
+     */
+    List<Entry> since(long sequence) {
+        lock.lock();
+        try {
+            List<Entry> later = new ArrayList<>();
+            for (Entry entry : entries) {
+                if (entry.getSequence() > sequence) {
+                    later.add(entry);
+                }
+            }
+            return later;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of messages after a sequence number that have already been forgotten.
+     *
+     * @param sequence The sequence number of the last message the client has
+     * @return The number of messages the ring can no longer replay
+     */
+    long missedBefore(long sequence) {
+        lock.lock();
+        try {
+            long firstKept = lastSequence - entries.size() + 1;
+            return Math.max(0, firstKept - 1 - Math.max(0, sequence));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the time the most recently forgotten message was written.
+     *
+     * @return The time in milliseconds, or 0 if nothing has been forgotten
+     */
+    long getEvictedThroughMillis() {
+        lock.lock();
+        try {
+            return evictedThroughMillis;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the sequence number of the last message appended.
+     *
+     * @return The last sequence number, or 0 if the ring is empty
+     */
+    long getLastSequence() {
+        lock.lock();
+        try {
+            return lastSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A message kept for replay.
+     */
+    static class Entry {
+        private final long sequence;
+        private final int type;
+        private final Object payload;
+        private final long timeMillis;
+
+        /**
+         * Constructs an Entry.
+         *
+         * @param sequence The sequence number
+         * @param type The message type
+         * @param payload The payload object
+         * @param timeMillis The time the message was written, in milliseconds
+         */
+        Entry(long sequence, int type, Object payload, long timeMillis) {
+            this.sequence = sequence;
+            this.type = type;
+            this.payload = payload;
+            this.timeMillis = timeMillis;
+        }
+
+        /**
+         * Gets the sequence number.
+         *
+         * @return The sequence number
+         */
+        long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * Gets the message type.
+         *
+         * @return The message type
+         */
+        int getType() {
+            return type;
+        }
+
+        /**
+         * Gets the payload object.
+         *
+         * @return The payload object
+         */
+        Object getPayload() {
+            return payload;
+        }
+
+        /**
+         * Gets the time the message was written.
+         *
+         * @return The time in milliseconds
+         */
+        long getTimeMillis() {
+            return timeMillis;
+        }
+    }
+}
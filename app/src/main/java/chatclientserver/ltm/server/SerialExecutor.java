@@ -0,0 +1,85 @@
+package chatclientserver.ltm.server;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+
+/**
+ * Executor that runs tasks one at a time, in submission order, on a shared executor.
+ * Used to keep the messages of a single client in order while many clients
+ * share the same worker threads.
+ * <p>
+ * The executor can be suspended, e.g. while a client is held back by its rate
+ * limit: queued tasks then wait without taking a worker thread until it is
+ * resumed.
+ */
+class SerialExecutor implements Executor {
+    private final Deque<Runnable> tasks = new ArrayDeque<>();
+    private final Executor executor;
+    private Runnable active;
+    private boolean suspended;
+
+    /**
+     * Constructs a SerialExecutor on top of the specified executor.
+     *
+     * @param executor The executor that actually runs the tasks
+     */
+    SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public synchronized void execute(Runnable task) {
+        tasks.add(wrap(task));
+        if (active == null) {
+            scheduleNext();
+        }
+    }
+
+    /**
+     * Stops handing tasks to the underlying executor. The task running now
+     * finishes; later tasks wait until {@link #resume(Runnable)} is called.
+     */
+    synchronized void suspend() {
+        suspended = true;
+    }
+
+    /**
+     * Resumes running tasks, starting with the specified one.
+     *
+     * @param first The task to run before the queued ones
+     */
+    synchronized void resume(Runnable first) {
+        suspended = false;
+        tasks.addFirst(wrap(first));
+        if (active == null) {
+            scheduleNext();
+        }
+    }
+
+    /**
+     * Wraps a task so the next one is scheduled when it finishes.
+     *
+     * @param task The task
+     * @return The wrapped task
+     */
+    private Runnable wrap(Runnable task) {
+        return () -> {
+            try {
+                task.run();
+            } finally {
+                scheduleNext();
+            }
+        };
+    }
+
+    /**
+     * Hands the next queued task to the underlying executor, unless suspended.
+     */
+    private synchronized void scheduleNext() {
+        active = suspended ? null : tasks.poll();
+        if (active != null) {
+            executor.execute(active);
+        }
+    }
+}
@@ -0,0 +1,923 @@
+package chatclientserver.ltm.server;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Runtime configuration for the chat server.
+ * Values default to the constants in {@link Constants} and can be overridden
+ * with system properties (for example -Dchat.server.transport=nio) or setters.
+ */
+public class ServerConfig {
+    private String transport;
+    private int eventLoopThreads;
+    private String executor;
+    private int workerThreads;
+    private int handshakeTimeoutMillis;
+    private int decryptThreads;
+    private int searchThreads;
+    private int replyThreads;
+    private int persistThreads;
+    private int stageQueueCapacity;
+    private int outboundQueueCapacity;
+    private String slowConsumerPolicy;
+    private long batchWindowMicros;
+    private int maxBatchBytes;
+    private int compressionThreshold;
+    private int compressionLevel;
+    private int maxSessions;
+    private int maxSessionsPerIp;
+    private int messagesPerSecond;
+    private int messageBurst;
+    private long fileBytesPerSecond;
+    private long fileBurstBytes;
+    private String rateLimitPolicy;
+    private int heartbeatIntervalMillis;
+    private int idleTimeoutMillis;
+    private int drainTimeoutMillis;
+    private int resumeWindowMillis;
+    private int replayBufferSize;
+    private String nodeId;
+    private String clusterBindAddress;
+    private int clusterPort;
+    private List<InetSocketAddress> clusterPeers;
+    private String clusterSecret;
+    private String advertisedHost;
+
+    /**
+     * Constructs a ServerConfig with the default values.
+     */
+    public ServerConfig() {
+        this.transport = Constants.TRANSPORT_BLOCKING;
+        this.eventLoopThreads = Constants.DEFAULT_EVENT_LOOP_THREADS;
+        this.executor = Constants.EXECUTOR_CACHED;
+        this.workerThreads = Constants.DEFAULT_WORKER_THREADS;
+        this.handshakeTimeoutMillis = Constants.DEFAULT_HANDSHAKE_TIMEOUT_MILLIS;
+        this.decryptThreads = Constants.DEFAULT_DECRYPT_THREADS;
+        this.searchThreads = Constants.DEFAULT_SEARCH_THREADS;
+        this.replyThreads = Constants.DEFAULT_REPLY_THREADS;
+        this.persistThreads = Constants.DEFAULT_PERSIST_THREADS;
+        this.stageQueueCapacity = Constants.DEFAULT_STAGE_QUEUE_CAPACITY;
+        this.outboundQueueCapacity = Constants.DEFAULT_OUTBOUND_QUEUE_CAPACITY;
+        this.slowConsumerPolicy = Constants.SLOW_CONSUMER_DISCONNECT;
+        this.batchWindowMicros = Constants.DEFAULT_BATCH_WINDOW_MICROS;
+        this.maxBatchBytes = Constants.DEFAULT_MAX_BATCH_BYTES;
+        this.compressionThreshold = Constants.DEFAULT_COMPRESSION_THRESHOLD;
+        this.compressionLevel = Constants.DEFAULT_COMPRESSION_LEVEL;
+        this.maxSessions = Constants.DEFAULT_MAX_SESSIONS;
+        this.maxSessionsPerIp = Constants.DEFAULT_MAX_SESSIONS_PER_IP;
+        this.messagesPerSecond = Constants.DEFAULT_MESSAGES_PER_SECOND;
+        this.messageBurst = Constants.DEFAULT_MESSAGE_BURST;
+        this.fileBytesPerSecond = Constants.DEFAULT_FILE_BYTES_PER_SECOND;
+        this.fileBurstBytes = Constants.DEFAULT_FILE_BURST_BYTES;
+        this.rateLimitPolicy = Constants.RATE_LIMIT_DELAY;
+        this.heartbeatIntervalMillis = Constants.DEFAULT_HEARTBEAT_INTERVAL_MILLIS;
+        this.idleTimeoutMillis = Constants.DEFAULT_IDLE_TIMEOUT_MILLIS;
+        this.drainTimeoutMillis = Constants.DEFAULT_DRAIN_TIMEOUT_MILLIS;
+        this.resumeWindowMillis = Constants.DEFAULT_RESUME_WINDOW_MILLIS;
+        this.replayBufferSize = Constants.DEFAULT_REPLAY_BUFFER_SIZE;
+        this.nodeId = Constants.DEFAULT_NODE_ID;
+        this.clusterBindAddress = Constants.DEFAULT_CLUSTER_BIND_ADDRESS;
+        this.clusterPort = Constants.DEFAULT_CLUSTER_PORT;
+        this.clusterPeers = new ArrayList<>();
+        this.clusterSecret = Constants.DEFAULT_CLUSTER_SECRET;
+        this.advertisedHost = Constants.DEFAULT_ADVERTISED_HOST;
+    }
+
+    /**
+     * Creates a configuration from the system properties, falling back to the defaults.
+     *
+     * @return The configuration
+     */
+    public static ServerConfig fromSystemProperties() {
+        ServerConfig config = new ServerConfig();
+        config.setTransport(System.getProperty("chat.server.transport", config.getTransport()));
+        config.setEventLoopThreads(Integer.getInteger("chat.server.eventLoops", config.getEventLoopThreads()));
+        config.setExecutor(System.getProperty("chat.server.executor", config.getExecutor()));
+        config.setWorkerThreads(Integer.getInteger("chat.server.workerThreads", config.getWorkerThreads()));
+        config.setHandshakeTimeoutMillis(Integer.getInteger("chat.server.handshakeTimeout",
+                config.getHandshakeTimeoutMillis()));
+        config.setDecryptThreads(Integer.getInteger("chat.server.decryptThreads", config.getDecryptThreads()));
+        config.setSearchThreads(Integer.getInteger("chat.server.searchThreads", config.getSearchThreads()));
+        config.setReplyThreads(Integer.getInteger("chat.server.replyThreads", config.getReplyThreads()));
+        config.setPersistThreads(Integer.getInteger("chat.server.persistThreads", config.getPersistThreads()));
+        config.setStageQueueCapacity(Integer.getInteger("chat.server.stageQueue", config.getStageQueueCapacity()));
+        config.setOutboundQueueCapacity(Integer.getInteger("chat.server.outboundQueue", config.getOutboundQueueCapacity()));
+        config.setSlowConsumerPolicy(System.getProperty("chat.server.slowConsumer", config.getSlowConsumerPolicy()));
+        config.setBatchWindowMicros(Long.getLong("chat.server.batchWindow", config.getBatchWindowMicros()));
+        config.setMaxBatchBytes(Integer.getInteger("chat.server.batchBytes", config.getMaxBatchBytes()));
+        config.setCompressionThreshold(Integer.getInteger("chat.server.compressionThreshold",
+                config.getCompressionThreshold()));
+        config.setCompressionLevel(Integer.getInteger("chat.server.compressionLevel", config.getCompressionLevel()));
+        config.setMaxSessions(Integer.getInteger("chat.server.maxSessions", config.getMaxSessions()));
+        config.setMaxSessionsPerIp(Integer.getInteger("chat.server.maxSessionsPerIp", config.getMaxSessionsPerIp()));
+        config.setMessagesPerSecond(Integer.getInteger("chat.server.messageRate", config.getMessagesPerSecond()));
+        config.setMessageBurst(Integer.getInteger("chat.server.messageBurst", config.getMessageBurst()));
+        config.setFileBytesPerSecond(Long.getLong("chat.server.fileRate", config.getFileBytesPerSecond()));
+        config.setFileBurstBytes(Long.getLong("chat.server.fileBurst", config.getFileBurstBytes()));
+        config.setRateLimitPolicy(System.getProperty("chat.server.rateLimitPolicy", config.getRateLimitPolicy()));
+        config.setHeartbeatIntervalMillis(Integer.getInteger("chat.server.heartbeatInterval",
+                config.getHeartbeatIntervalMillis()));
+        config.setIdleTimeoutMillis(Integer.getInteger("chat.server.idleTimeout", config.getIdleTimeoutMillis()));
+        config.setDrainTimeoutMillis(Integer.getInteger("chat.server.drainTimeout", config.getDrainTimeoutMillis()));
+        config.setResumeWindowMillis(Integer.getInteger("chat.server.resumeWindow", config.getResumeWindowMillis()));
+        config.setReplayBufferSize(Integer.getInteger("chat.server.replayBuffer", config.getReplayBufferSize()));
+        config.setNodeId(System.getProperty("chat.server.nodeId", config.getNodeId()));
+        config.setClusterBindAddress(System.getProperty("chat.server.clusterBindAddress", config.getClusterBindAddress()));
+        config.setClusterPort(Integer.getInteger("chat.server.clusterPort", config.getClusterPort()));
+        config.setClusterPeers(System.getProperty("chat.server.clusterPeers", ""));
+        config.setClusterSecret(System.getProperty("chat.server.clusterSecret", config.getClusterSecret()));
+        config.setAdvertisedHost(System.getProperty("chat.server.advertisedHost", config.getAdvertisedHost()));
+        config.validate();
+        return config;
+    }
+
+    /**
+     * Checks the settings that depend on each other, which the setters cannot
+     * check one at a time. The bounded executor needs the NIO transport: with
+     * the blocking transport every session holds a pool thread until it ends,
+     * so the sessions beyond the pool size would wait in its queue forever,
+     * before even their handshake timeout starts.
+     *
+     * @throws IllegalArgumentException If the settings do not fit together
+     */
+    public void validate() {
+        if (Constants.EXECUTOR_BOUNDED.equals(executor) && Constants.TRANSPORT_BLOCKING.equals(transport)) {
+            throw new IllegalArgumentException("The bounded executor requires the nio transport");
+        }
+    }
+
+    /**
+     * Gets the transport used to serve clients.
+     *
+     * @return Constants.TRANSPORT_BLOCKING or Constants.TRANSPORT_NIO
+     */
+    public String getTransport() {
+        return transport;
+    }
+
+    /**
+     * Sets the transport used to serve clients.
+     *
+     * @param transport Constants.TRANSPORT_BLOCKING or Constants.TRANSPORT_NIO
+     */
+    public void setTransport(String transport) {
+        if (!Constants.TRANSPORT_BLOCKING.equals(transport) && !Constants.TRANSPORT_NIO.equals(transport)) {
+            throw new IllegalArgumentException("Unknown transport: " + transport);
+        }
+        this.transport = transport;
+    }
+
+    /**
+     * Gets the number of event-loop threads used by the NIO transport.
+     *
+     * @return The number of event-loop threads
+     */
+    public int getEventLoopThreads() {
+        return eventLoopThreads;
+    }
+
+    /**
+     * Sets the number of event-loop threads used by the NIO transport.
+     *
+     * @param eventLoopThreads The number of event-loop threads (at least 1)
+     */
+    public void setEventLoopThreads(int eventLoopThreads) {
+        if (eventLoopThreads < 1) {
+            throw new IllegalArgumentException("At least one event loop is required");
+        }
+        this.eventLoopThreads = eventLoopThreads;
+    }
+
+    /**
+     * Gets the executor strategy used to run client handlers.
+     *
+     * @return Constants.EXECUTOR_CACHED, Constants.EXECUTOR_BOUNDED or Constants.EXECUTOR_VIRTUAL
+     */
+    public String getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor strategy used to run client handlers.
+     * The bounded pool can only run the NIO transport's workers, see {@link #validate()}.
+     *
+     * @param executor Constants.EXECUTOR_CACHED, Constants.EXECUTOR_BOUNDED or Constants.EXECUTOR_VIRTUAL
+     */
+    public void setExecutor(String executor) {
+        if (!Constants.EXECUTOR_CACHED.equals(executor) && !Constants.EXECUTOR_BOUNDED.equals(executor)
+                && !Constants.EXECUTOR_VIRTUAL.equals(executor)) {
+            throw new IllegalArgumentException("Unknown executor: " + executor);
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * Gets the number of threads in the bounded worker pool.
+     *
+     * @return The number of worker threads
+     */
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    /**
+     * Sets the number of threads in the bounded worker pool.
+     *
+     * @param workerThreads The number of worker threads (at least 1)
+     */
+    public void setWorkerThreads(int workerThreads) {
+        if (workerThreads < 1) {
+            throw new IllegalArgumentException("At least one worker thread is required");
+        }
+        this.workerThreads = workerThreads;
+    }
+
+    /**
+     * Gets the time a newly accepted client has to complete the protocol handshake.
+     *
+     * @return The handshake timeout in milliseconds
+     */
+    public int getHandshakeTimeoutMillis() {
+        return handshakeTimeoutMillis;
+    }
+
+    /**
+     * Sets the time a newly accepted client has to complete the protocol handshake.
+     *
+     * @param handshakeTimeoutMillis The handshake timeout in milliseconds (at least 1)
+     */
+    public void setHandshakeTimeoutMillis(int handshakeTimeoutMillis) {
+        if (handshakeTimeoutMillis < 1) {
+            throw new IllegalArgumentException("Handshake timeout must be positive");
+        }
+        this.handshakeTimeoutMillis = handshakeTimeoutMillis;
+    }
+
+    /**
+     * Gets the number of threads that decrypt chat messages.
+     *
+     * @return The number of decrypt threads
+     */
+    public int getDecryptThreads() {
+        return decryptThreads;
+    }
+
+    /**
+     * Sets the number of threads that decrypt chat messages.
+     *
+     * @param decryptThreads The number of decrypt threads (at least 1)
+     */
+    public void setDecryptThreads(int decryptThreads) {
+        if (decryptThreads < 1) {
+            throw new IllegalArgumentException("At least one decrypt thread is required");
+        }
+        this.decryptThreads = decryptThreads;
+    }
+
+    /**
+     * Gets the number of threads that search decrypted messages for the search phrase.
+     *
+     * @return The number of search threads
+     */
+    public int getSearchThreads() {
+        return searchThreads;
+    }
+
+    /**
+     * Sets the number of threads that search decrypted messages for the search phrase.
+     *
+     * @param searchThreads The number of search threads (at least 1)
+     */
+    public void setSearchThreads(int searchThreads) {
+        if (searchThreads < 1) {
+            throw new IllegalArgumentException("At least one search thread is required");
+        }
+        this.searchThreads = searchThreads;
+    }
+
+    /**
+     * Gets the number of threads that answer senders and relay messages to their rooms.
+     *
+     * @return The number of reply threads
+     */
+    public int getReplyThreads() {
+        return replyThreads;
+    }
+
+    /**
+     * Sets the number of threads that answer senders and relay messages to their rooms.
+     *
+     * @param replyThreads The number of reply threads (at least 1)
+     */
+    public void setReplyThreads(int replyThreads) {
+        if (replyThreads < 1) {
+            throw new IllegalArgumentException("At least one reply thread is required");
+        }
+        this.replyThreads = replyThreads;
+    }
+
+    /**
+     * Gets the number of threads that save chat messages to the database.
+     *
+     * @return The number of persist threads
+     */
+    public int getPersistThreads() {
+        return persistThreads;
+    }
+
+    /**
+     * Sets the number of threads that save chat messages to the database.
+     *
+     * @param persistThreads The number of persist threads (at least 1)
+     */
+    public void setPersistThreads(int persistThreads) {
+        if (persistThreads < 1) {
+            throw new IllegalArgumentException("At least one persist thread is required");
+        }
+        this.persistThreads = persistThreads;
+    }
+
+    /**
+     * Gets the number of messages each pipeline stage holds at once.
+     *
+     * @return The capacity of each stage queue
+     */
+    public int getStageQueueCapacity() {
+        return stageQueueCapacity;
+    }
+
+    /**
+     * Sets the number of messages each pipeline stage holds at once, queued or being processed.
+     * When a stage is full the stage before it waits, and in the end the sessions stop being read.
+     *
+     * @param stageQueueCapacity The capacity of each stage queue (at least 1)
+     */
+    public void setStageQueueCapacity(int stageQueueCapacity) {
+        if (stageQueueCapacity < 1) {
+            throw new IllegalArgumentException("Stage queue capacity must be positive");
+        }
+        this.stageQueueCapacity = stageQueueCapacity;
+    }
+
+    /**
+     * Gets the number of broadcast frames that may wait for a single client.
+     *
+     * @return The outbound queue capacity
+     */
+    public int getOutboundQueueCapacity() {
+        return outboundQueueCapacity;
+    }
+
+    /**
+     * Sets the number of broadcast frames that may wait for a single client.
+     *
+     * @param outboundQueueCapacity The outbound queue capacity (at least 1)
+     */
+    public void setOutboundQueueCapacity(int outboundQueueCapacity) {
+        if (outboundQueueCapacity < 1) {
+            throw new IllegalArgumentException("Outbound queue capacity must be positive");
+        }
+        this.outboundQueueCapacity = outboundQueueCapacity;
+    }
+
+    /**
+     * Gets what happens when a client's outbound queue is full.
+     *
+     * @return Constants.SLOW_CONSUMER_DROP, Constants.SLOW_CONSUMER_COALESCE or Constants.SLOW_CONSUMER_DISCONNECT
+     */
+    public String getSlowConsumerPolicy() {
+        return slowConsumerPolicy;
+    }
+
+    /**
+     * Sets what happens when a client's outbound queue is full: drop the new frame,
+     * coalesce by discarding the oldest queued frame, or disconnect the client.
+     *
+     * @param slowConsumerPolicy Constants.SLOW_CONSUMER_DROP, Constants.SLOW_CONSUMER_COALESCE
+     *                           or Constants.SLOW_CONSUMER_DISCONNECT
+     */
+    public void setSlowConsumerPolicy(String slowConsumerPolicy) {
+        if (!Constants.SLOW_CONSUMER_DROP.equals(slowConsumerPolicy)
+                && !Constants.SLOW_CONSUMER_COALESCE.equals(slowConsumerPolicy)
+                && !Constants.SLOW_CONSUMER_DISCONNECT.equals(slowConsumerPolicy)) {
+            throw new IllegalArgumentException("Unknown slow consumer policy: " + slowConsumerPolicy);
+        }
+        this.slowConsumerPolicy = slowConsumerPolicy;
+    }
+
+    /**
+     * Gets the longest time an outgoing frame may wait to be sent together with later frames.
+     *
+     * @return The batch window in microseconds
+     */
+    public long getBatchWindowMicros() {
+        return batchWindowMicros;
+    }
+
+    /**
+     * Sets the longest time an outgoing frame may wait to be sent together with later frames.
+     * Frames are sent earlier when the writer has nothing more to send.
+     *
+     * @param batchWindowMicros The batch window in microseconds (0 sends as soon as the writer is idle)
+     */
+    public void setBatchWindowMicros(long batchWindowMicros) {
+        if (batchWindowMicros < 0) {
+            throw new IllegalArgumentException("Batch window must not be negative");
+        }
+        this.batchWindowMicros = batchWindowMicros;
+    }
+
+    /**
+     * Gets the number of unsent bytes that makes a client's outgoing frames be sent at once.
+     *
+     * @return The maximum batch size in bytes, or 0 if batching is disabled
+     */
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    /**
+     * Sets the number of unsent bytes that makes a client's outgoing frames be sent at once.
+     *
+     * @param maxBatchBytes The maximum batch size in bytes, or 0 to send every frame on its own
+     */
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        if (maxBatchBytes < 0) {
+            throw new IllegalArgumentException("Maximum batch size must not be negative");
+        }
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * Gets the smallest payload the server compresses before sending it to a client.
+     *
+     * @return The threshold in bytes, or 0 if compression is disabled
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Sets the smallest payload the server compresses before sending it to a client.
+     * Only clients on protocol version 8 and later receive compressed payloads.
+     *
+     * @param compressionThreshold The threshold in bytes, or 0 to send every payload uncompressed
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        if (compressionThreshold < 0) {
+            throw new IllegalArgumentException("Compression threshold must not be negative");
+        }
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * Gets the deflate level used for compressed payloads.
+     *
+     * @return The level, from 1 (fastest) to 9 (smallest)
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Sets the deflate level used for compressed payloads.
+     *
+     * @param compressionLevel The level, from 1 (fastest) to 9 (smallest)
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        if (compressionLevel < 1 || compressionLevel > 9) {
+            throw new IllegalArgumentException("Compression level must be between 1 and 9");
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Gets the number of connections the server admits at once.
+     *
+     * @return The session limit, or 0 if unlimited
+     */
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    /**
+     * Sets the number of connections the server admits at once.
+     * Connections over the limit are closed as soon as they are accepted.
+     *
+     * @param maxSessions The session limit, or 0 for no limit
+     */
+    public void setMaxSessions(int maxSessions) {
+        if (maxSessions < 0) {
+            throw new IllegalArgumentException("Session limit must not be negative");
+        }
+        this.maxSessions = maxSessions;
+    }
+
+    /**
+     * Gets the number of connections the server admits at once from a single IP address.
+     *
+     * @return The per-address session limit, or 0 if unlimited
+     */
+    public int getMaxSessionsPerIp() {
+        return maxSessionsPerIp;
+    }
+
+    /**
+     * Sets the number of connections the server admits at once from a single IP address.
+     *
+     * @param maxSessionsPerIp The per-address session limit, or 0 for no limit
+     */
+    public void setMaxSessionsPerIp(int maxSessionsPerIp) {
+        if (maxSessionsPerIp < 0) {
+            throw new IllegalArgumentException("Per-address session limit must not be negative");
+        }
+        this.maxSessionsPerIp = maxSessionsPerIp;
+    }
+
+    /**
+     * Gets the sustained rate of chat and direct messages a session may send.
+     *
+     * @return The messages per second, or 0 if unlimited
+     */
+    public int getMessagesPerSecond() {
+        return messagesPerSecond;
+    }
+
+    /**
+     * Sets the sustained rate of chat and direct messages a session may send.
+     *
+     * @param messagesPerSecond The messages per second, or 0 for no limit
+     */
+    public void setMessagesPerSecond(int messagesPerSecond) {
+        if (messagesPerSecond < 0) {
+            throw new IllegalArgumentException("Message rate must not be negative");
+        }
+        this.messagesPerSecond = messagesPerSecond;
+    }
+
+    /**
+     * Gets the number of messages a session may send at once above its sustained rate.
+     *
+     * @return The message burst
+     */
+    public int getMessageBurst() {
+        return messageBurst;
+    }
+
+    /**
+     * Sets the number of messages a session may send at once above its sustained rate.
+     *
+     * @param messageBurst The message burst (at least 1)
+     */
+    public void setMessageBurst(int messageBurst) {
+        if (messageBurst < 1) {
+            throw new IllegalArgumentException("Message burst must be positive");
+        }
+        this.messageBurst = messageBurst;
+    }
+
+    /**
+     * Gets the sustained rate of file data a session may send.
+     *
+     * @return The file bytes per second, or 0 if unlimited
+     */
+    public long getFileBytesPerSecond() {
+        return fileBytesPerSecond;
+    }
+
+    /**
+     * Sets the sustained rate of file data a session may send.
+     *
+     * @param fileBytesPerSecond The file bytes per second, or 0 for no limit
+     */
+    public void setFileBytesPerSecond(long fileBytesPerSecond) {
+        if (fileBytesPerSecond < 0) {
+            throw new IllegalArgumentException("File rate must not be negative");
+        }
+        this.fileBytesPerSecond = fileBytesPerSecond;
+    }
+
+    /**
+     * Gets the amount of file data a session may send at once above its sustained rate.
+     *
+     * @return The file burst in bytes
+     */
+    public long getFileBurstBytes() {
+        return fileBurstBytes;
+    }
+
+    /**
+     * Sets the amount of file data a session may send at once above its sustained rate.
+     * A larger file is still accepted when the session has its full burst available.
+     *
+     * @param fileBurstBytes The file burst in bytes (at least 1)
+     */
+    public void setFileBurstBytes(long fileBurstBytes) {
+        if (fileBurstBytes < 1) {
+            throw new IllegalArgumentException("File burst must be positive");
+        }
+        this.fileBurstBytes = fileBurstBytes;
+    }
+
+    /**
+     * Gets what happens when a session goes over a rate limit.
+     *
+     * @return Constants.RATE_LIMIT_DELAY, Constants.RATE_LIMIT_REJECT or Constants.RATE_LIMIT_DISCONNECT
+     */
+    public String getRateLimitPolicy() {
+        return rateLimitPolicy;
+    }
+
+    /**
+     * Sets what happens when a session goes over a rate limit: hold the frame back
+     * until the session is within its rate again, discard the frame, or disconnect
+     * the client.
+     *
+     * @param rateLimitPolicy Constants.RATE_LIMIT_DELAY, Constants.RATE_LIMIT_REJECT
+     *                        or Constants.RATE_LIMIT_DISCONNECT
+     */
+    public void setRateLimitPolicy(String rateLimitPolicy) {
+        if (!Constants.RATE_LIMIT_DELAY.equals(rateLimitPolicy)
+                && !Constants.RATE_LIMIT_REJECT.equals(rateLimitPolicy)
+                && !Constants.RATE_LIMIT_DISCONNECT.equals(rateLimitPolicy)) {
+            throw new IllegalArgumentException("Unknown rate limit policy: " + rateLimitPolicy);
+        }
+        this.rateLimitPolicy = rateLimitPolicy;
+    }
+
+    /**
+     * Gets how long a session may be quiet before the server pings it.
+     *
+     * @return The heartbeat interval in milliseconds
+     */
+    public int getHeartbeatIntervalMillis() {
+        return heartbeatIntervalMillis;
+    }
+
+    /**
+     * Sets how long a session may be quiet before the server pings it.
+     * Sessions are pinged no later than half way to the idle timeout.
+     *
+     * @param heartbeatIntervalMillis The heartbeat interval in milliseconds (at least 1)
+     */
+    public void setHeartbeatIntervalMillis(int heartbeatIntervalMillis) {
+        if (heartbeatIntervalMillis < 1) {
+            throw new IllegalArgumentException("Heartbeat interval must be positive");
+        }
+        this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+    }
+
+    /**
+     * Gets how long a session may go without any frame from its client before it is closed.
+     *
+     * @return The idle timeout in milliseconds, or 0 if idle sessions are kept
+     */
+    public int getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /**
+     * Sets how long a session may go without any frame from its client before it is closed.
+     * The timeout must be longer than the slowest expected upload of a single
+     * file, since a blocking-transport session only counts complete frames as activity.
+     *
+     * @param idleTimeoutMillis The idle timeout in milliseconds, or 0 to keep idle sessions and send no pings
+     */
+    public void setIdleTimeoutMillis(int idleTimeoutMillis) {
+        if (idleTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Idle timeout must not be negative");
+        }
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Gets how long a graceful shutdown waits for sessions to finish before closing them.
+     *
+     * @return The drain timeout in milliseconds
+     */
+    public int getDrainTimeoutMillis() {
+        return drainTimeoutMillis;
+    }
+
+    /**
+     * Sets how long a graceful shutdown waits for sessions to finish before closing them.
+     *
+     * @param drainTimeoutMillis The drain timeout in milliseconds (0 closes the sessions at once)
+     */
+    public void setDrainTimeoutMillis(int drainTimeoutMillis) {
+        if (drainTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Drain timeout must not be negative");
+        }
+        this.drainTimeoutMillis = drainTimeoutMillis;
+    }
+
+    /**
+     * Gets how long the session of a client whose connection dropped is kept for it to resume.
+     *
+     * @return The resume window in milliseconds, or 0 if sessions cannot be resumed
+     */
+    public int getResumeWindowMillis() {
+        return resumeWindowMillis;
+    }
+
+    /**
+     * Sets how long the session of a client whose connection dropped is kept for it to resume.
+     *
+     * @param resumeWindowMillis The resume window in milliseconds, or 0 to end sessions when their connection drops
+     */
+    public void setResumeWindowMillis(int resumeWindowMillis) {
+        if (resumeWindowMillis < 0) {
+            throw new IllegalArgumentException("Resume window must not be negative");
+        }
+        this.resumeWindowMillis = resumeWindowMillis;
+    }
+
+    /**
+     * Gets the number of recent messages kept per session for replay after a reconnect.
+     *
+     * @return The replay buffer size
+     */
+    public int getReplayBufferSize() {
+        return replayBufferSize;
+    }
+
+    /**
+     * Sets the number of recent messages kept per session for replay after a reconnect.
+     * Older messages are loaded from the database instead.
+     *
+     * @param replayBufferSize The replay buffer size
+     */
+    public void setReplayBufferSize(int replayBufferSize) {
+        if (replayBufferSize < 1) {
+            throw new IllegalArgumentException("Replay buffer size must be positive");
+        }
+        this.replayBufferSize = replayBufferSize;
+    }
+
+    /**
+     * Gets the ID of this server in a cluster.
+     *
+     * @return The node ID
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Sets the ID of this server in a cluster. Every node of a cluster needs a different ID.
+     *
+     * @param nodeId The node ID
+     */
+    public void setNodeId(String nodeId) {
+        if (nodeId == null || nodeId.isBlank()) {
+            throw new IllegalArgumentException("Node ID must not be empty");
+        }
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * Gets the local address this server accepts connections from other cluster nodes on.
+     *
+     * @return The address, or an empty string for all local addresses
+     */
+    public String getClusterBindAddress() {
+        return clusterBindAddress;
+    }
+
+    /**
+     * Sets the local address this server accepts connections from other cluster nodes on,
+     * e.g. the address of a private network the nodes share.
+     *
+     * @param clusterBindAddress The address, or an empty string for all local addresses
+     */
+    public void setClusterBindAddress(String clusterBindAddress) {
+        if (clusterBindAddress == null) {
+            throw new IllegalArgumentException("Cluster bind address must not be null");
+        }
+        this.clusterBindAddress = clusterBindAddress.trim();
+    }
+
+    /**
+     * Gets the port this server accepts connections from other cluster nodes on.
+     *
+     * @return The cluster port, or 0 if the server does not join a cluster over TCP
+     */
+    public int getClusterPort() {
+        return clusterPort;
+    }
+
+    /**
+     * Sets the port this server accepts connections from other cluster nodes on.
+     *
+     * @param clusterPort The cluster port, or 0 to run the server on its own
+     */
+    public void setClusterPort(int clusterPort) {
+        if (clusterPort < 0 || clusterPort > 65535) {
+            throw new IllegalArgumentException("Cluster port must be between 0 and 65535");
+        }
+        this.clusterPort = clusterPort;
+    }
+
+    /**
+     * Gets the cluster addresses of the other nodes.
+     *
+     * @return The peer addresses
+     */
+    public List<InetSocketAddress> getClusterPeers() {
+        return clusterPeers;
+    }
+
+    /**
+     * Sets the cluster addresses of the other nodes.
+     *
+     * @param clusterPeers A comma-separated list of host:port addresses, or an empty string for none
+     */
+    public void setClusterPeers(String clusterPeers) {
+        List<InetSocketAddress> peers = new ArrayList<>();
+        for (String peer : clusterPeers.split(",")) {
+            peer = peer.trim();
+            if (peer.isEmpty()) {
+                continue;
+            }
+            int colon = peer.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Cluster peer must be host:port: " + peer);
+            }
+            try {
+                peers.add(InetSocketAddress.createUnresolved(peer.substring(0, colon),
+                        Integer.parseInt(peer.substring(colon + 1))));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid cluster peer port: " + peer);
+            }
+        }
+        this.clusterPeers = peers;
+    }
+
+    /**
+     * Gets the secret the nodes of a cluster prove to each other that they know.
+     *
+     * @return The secret, or an empty string if none is set
+     */
+    public String getClusterSecret() {
+        return clusterSecret;
+    }
+
+    /**
+     * Sets the secret the nodes of a cluster prove to each other that they know.
+     * Every node of a cluster needs the same secret; the TCP bus does not start without one.
+     *
+     * @param clusterSecret The secret
+     */
+    public void setClusterSecret(String clusterSecret) {
+        if (clusterSecret == null) {
+            throw new IllegalArgumentException("Cluster secret must not be null");
+        }
+        this.clusterSecret = clusterSecret;
+    }
+
+    /**
+     * Gets the host name clients are given when another cluster node redirects them to this server.
+     *
+     * @return The advertised host
+     */
+    public String getAdvertisedHost() {
+        return advertisedHost;
+    }
+
+    /**
+     * Sets the host name clients are given when another cluster node redirects them to this server.
+     * It must be reachable from the clients, so the default only suits a cluster on one machine.
+     *
+     * @param advertisedHost The advertised host
+     */
+    public void setAdvertisedHost(String advertisedHost) {
+        if (advertisedHost == null || advertisedHost.isBlank()) {
+            throw new IllegalArgumentException("Advertised host must not be empty");
+        }
+        this.advertisedHost = advertisedHost;
+    }
+
+    @Override
+    public String toString() {
+        return "ServerConfig [transport=" + transport + ", eventLoopThreads=" + eventLoopThreads
+                + ", executor=" + executor + ", workerThreads=" + workerThreads
+                + ", handshakeTimeoutMillis=" + handshakeTimeoutMillis + ", decryptThreads=" + decryptThreads
+                + ", searchThreads=" + searchThreads + ", replyThreads=" + replyThreads + ", persistThreads=" + persistThreads
+                + ", stageQueueCapacity=" + stageQueueCapacity + ", outboundQueueCapacity=" + outboundQueueCapacity
+                + ", slowConsumerPolicy=" + slowConsumerPolicy + ", batchWindowMicros=" + batchWindowMicros
+                + ", maxBatchBytes=" + maxBatchBytes + ", compressionThreshold=" + compressionThreshold
+                + ", compressionLevel=" + compressionLevel + ", maxSessions=" + maxSessions
+                + ", maxSessionsPerIp=" + maxSessionsPerIp + ", messagesPerSecond=" + messagesPerSecond
+                + ", messageBurst=" + messageBurst + ", fileBytesPerSecond=" + fileBytesPerSecond
+                + ", fileBurstBytes=" + fileBurstBytes + ", rateLimitPolicy=" + rateLimitPolicy
+                + ", heartbeatIntervalMillis=" + heartbeatIntervalMillis + ", idleTimeoutMillis=" + idleTimeoutMillis
+                + ", drainTimeoutMillis=" + drainTimeoutMillis + ", resumeWindowMillis=" + resumeWindowMillis
+                + ", replayBufferSize=" + replayBufferSize + ", nodeId=" + nodeId
+                + ", clusterBindAddress=" + clusterBindAddress + ", clusterPort=" + clusterPort
+                + ", clusterPeers=" + clusterPeers + ", advertisedHost=" + advertisedHost + "]";
+    }
+}
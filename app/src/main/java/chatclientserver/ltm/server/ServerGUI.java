@@ -73,6 +73,7 @@ public class ServerGUI extends JFrame implements ServerObserver {
 
     // Data storage
     private Map<String, ClientHandler> clientHandlers;
+    private Map<String, String> clientEntries; // Client ID to list entry, touched only on the event dispatch thread
 
     /**
      * Constructs the server GUI.
@@ -83,6 +84,7 @@ public class ServerGUI extends JFrame implements ServerObserver {
 
         // Initialize data storage
         clientHandlers = new HashMap<>();
+        clientEntries = new HashMap<>();
 
         // Set up the frame
         setTitle("Chat Server");
@@ -397,6 +399,7 @@ public class ServerGUI extends JFrame implements ServerObserver {
         // Clear the client list
         clientListModel.clear();
         clientHandlers.clear();
+        clientEntries.clear();
         clientDetailsArea.setText("");
 
         // Update the clients label
@@ -426,6 +429,8 @@ public class ServerGUI extends JFrame implements ServerObserver {
             StringBuilder details = new StringBuilder();
             details.append("Client ID: ").append(clientHandler.getClientId()).append("\n");
             details.append("IP Address: ").append(clientHandler.getClientIpAddress()).append("\n");
+            details.append("Rooms: ").append(String.join(", ",
+                    server.getSessionRegistry().getRooms(clientHandler.getClientId()))).append("\n");
 
             User user = clientHandler.getCurrentUser();
             if (user != null) {
@@ -466,11 +471,17 @@ public class ServerGUI extends JFrame implements ServerObserver {
     @Override
     public void onClientConnected(ClientHandler clientHandler) {
         SwingUtilities.invokeLater(() -> {
-            // Add the client to the list
+            // Skip clients that disconnected before this event was dispatched
             String clientId = clientHandler.getClientId();
+            if (server.getSessionRegistry().getClient(clientId) != clientHandler || clientEntries.containsKey(clientId)) {
+                return;
+            }
+
+            // Add the client to the list
             String clientInfo = clientId + " (" + clientHandler.getClientIpAddress() + ")";
             clientListModel.addElement(clientInfo);
             clientHandlers.put(clientInfo, clientHandler);
+            clientEntries.put(clientId, clientInfo);
 
             // Update the clients label
             clientsLabel.setText("Connected clients: " + clientListModel.size());
@@ -484,16 +495,7 @@ public class ServerGUI extends JFrame implements ServerObserver {
     public void onClientDisconnected(ClientHandler clientHandler) {
         SwingUtilities.invokeLater(() -> {
             // Remove the client from the list
-            String clientId = clientHandler.getClientId();
-            String clientToRemove = null;
-
-            for (int i = 0; i < clientListModel.size(); i++) {
-                String clientInfo = clientListModel.getElementAt(i);
-                if (clientInfo.startsWith(clientId)) {
-                    clientToRemove = clientInfo;
-                    break;
-                }
-            }
+            String clientToRemove = clientEntries.remove(clientHandler.getClientId());
 
             if (clientToRemove != null) {
                 clientListModel.removeElement(clientToRemove);
@@ -615,15 +617,7 @@ public class ServerGUI extends JFrame implements ServerObserver {
         SwingUtilities.invokeLater(() -> {
             // Update the client list if this client is already in the list
             String clientId = clientHandler.getClientId();
-            String clientToUpdate = null;
-
-            for (int i = 0; i < clientListModel.size(); i++) {
-                String clientInfo = clientListModel.getElementAt(i);
-                if (clientInfo.startsWith(clientId)) {
-                    clientToUpdate = clientInfo;
-                    break;
-                }
-            }
+            String clientToUpdate = clientEntries.get(clientId);
 
             if (clientToUpdate != null) {
                 int index = clientListModel.indexOf(clientToUpdate);
@@ -631,6 +625,7 @@ public class ServerGUI extends JFrame implements ServerObserver {
                 clientListModel.set(index, newClientInfo);
                 clientHandlers.remove(clientToUpdate);
                 clientHandlers.put(newClientInfo, clientHandler);
+                clientEntries.put(clientId, newClientInfo);
 
                 // Update the details area if this client was selected
                 if (clientList.getSelectedValue() != null && clientList.getSelectedValue().equals(clientToUpdate)) {
@@ -658,6 +653,27 @@ public class ServerGUI extends JFrame implements ServerObserver {
         });
     }
 
+    @Override
+    public void onServerDraining(int sessions, long timeoutMillis) {
+        SwingUtilities.invokeLater(() -> {
+            // Update the UI
+            statusLabel.setText("Server is shutting down");
+            statusLabel.setForeground(UIUtils.ERROR_COLOR);
+            stopButton.setEnabled(false);
+
+            // Log the event
+            logMessage("Draining " + sessions + " sessions (timeout " + timeoutMillis + " ms)");
+        });
+    }
+
+    @Override
+    public void onDrainProgress(int remainingSessions, int inFlightFrames) {
+        SwingUtilities.invokeLater(() -> {
+            // Log the event
+            logMessage("Draining: " + remainingSessions + " sessions open, " + inFlightFrames + " frames in flight");
+        });
+    }
+
     @Override
     public void onServerStopped() {
         SwingUtilities.invokeLater(() -> {
@@ -671,6 +687,7 @@ public class ServerGUI extends JFrame implements ServerObserver {
             // Clear the client list
             clientListModel.clear();
             clientHandlers.clear();
+            clientEntries.clear();
             clientDetailsArea.setText("");
 
             // Update the clients label
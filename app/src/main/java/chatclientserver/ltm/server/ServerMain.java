@@ -26,10 +26,10 @@ public class ServerMain {
 
             gui.setVisible(true);
 
-            // Add a shutdown hook to stop the server gracefully
+            // Add a shutdown hook that lets the clients finish before the server stops
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 System.out.println("Shutting down server...");
-                ChatServer.getInstance().stop();
+                ChatServer.getInstance().drain();
             }));
         });
     }
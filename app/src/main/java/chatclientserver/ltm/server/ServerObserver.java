@@ -62,6 +62,23 @@ public interface ServerObserver {
      */
     void onServerStarted(int port);
     
+    /**
+     * Called when the server starts a graceful shutdown.
+     * It no longer accepts connections and has asked its clients to finish up.
+     * 
+     * @param sessions The number of sessions still open
+     * @param timeoutMillis How long the server waits before closing the remaining sessions
+     */
+    void onServerDraining(int sessions, long timeoutMillis);
+    
+    /**
+     * Called periodically while the server drains, whenever the numbers have changed.
+     * 
+     * @param remainingSessions The number of sessions still open
+     * @param inFlightFrames The number of received frames still being handled
+     */
+    void onDrainProgress(int remainingSessions, int inFlightFrames);
+    
     /**
      * Called when the server stops.
      */
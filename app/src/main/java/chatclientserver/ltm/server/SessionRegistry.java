@@ -0,0 +1,276 @@
+package chatclientserver.ltm.server;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import chatclientserver.ltm.model.User;
+
+/**
+ * Concurrent index of the connected clients.
+ * Clients are indexed by client ID, by user ID and username, and by the rooms
+ * they have joined, so that lookup, join and leave are constant-time and safe
+ * to call from any handler thread. Delivery iterates the live member sets
+ * directly; iteration is weakly consistent, so a client that joins or leaves
+ * during a broadcast may or may not receive it, but no client is ever seen
+ * twice and the iteration never throws.
+ * <p>
+ * A client's room set is only changed while holding the client's map entry,
+ * and a room's member set only while holding the room's map entry, so a join
+ * that races with unregistering the client never leaves it behind in a room.
+ */
+public class SessionRegistry {
+    private final Map<String, ClientHandler> clients = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> roomsByClient = new ConcurrentHashMap<>();
+    private final Map<String, Set<ClientHandler>> rooms = new ConcurrentHashMap<>();
+    private final Map<String, User> userByClient = new ConcurrentHashMap<>();
+    private final Map<Integer, Set<ClientHandler>> clientsByUser = new ConcurrentHashMap<>();
+    private final Map<String, Integer> userIdsByName = new ConcurrentHashMap<>();
+
+    /**
+     * Adds a client to the registry.
+     *
+     * @param client The client handler
+     * @return true if the client was added, false if a client with the same ID is already registered
+     */
+    public boolean register(ClientHandler client) {
+        if (clients.putIfAbsent(client.getClientId(), client) != null) {
+            return false;
+        }
+        roomsByClient.put(client.getClientId(), ConcurrentHashMap.newKeySet());
+        return true;
+    }
+
+    /**
+     * Removes a client from the registry, together with its room memberships and user binding.
+     *
+     * @param client The client handler
+     * @return true if the client was registered, false if it had already been removed
+     */
+    public boolean unregister(ClientHandler client) {
+        String clientId = client.getClientId();
+        if (!clients.remove(clientId, client)) {
+            return false;
+        }
+
+        // Leave every room the client had joined
+        Set<String> joined = roomsByClient.remove(clientId);
+        if (joined != null) {
+            for (String room : joined) {
+                removeMember(room, client);
+            }
+        }
+
+        // Drop the user binding
+        User user = userByClient.remove(clientId);
+        if (user != null) {
+            removeUserSession(user, client);
+        }
+        return true;
+    }
+
+    /**
+     * Adds a client to a room, creating the room if it does not exist.
+     *
+     * @param client The client handler
+     * @param room The room name
+     * @return true if the client is a member of the room, false if the client is not registered
+     */
+    public boolean join(ClientHandler client, String room) {
+        Set<String> joined = roomsByClient.computeIfPresent(client.getClientId(), (clientId, clientRooms) -> {
+            if (clientRooms.add(room)) {
+                rooms.computeIfAbsent(room, name -> ConcurrentHashMap.newKeySet()).add(client);
+            }
+            return clientRooms;
+        });
+        return joined != null;
+    }
+
+    /**
+     * Removes a client from a room, deleting the room when its last member leaves.
+     *
+     * @param client The client handler
+     * @param room The room name
+     * @return true if the client was a member of the room
+     */
+    public boolean leave(ClientHandler client, String room) {
+        boolean[] left = new boolean[1];
+        roomsByClient.computeIfPresent(client.getClientId(), (clientId, clientRooms) -> {
+            if (clientRooms.remove(room)) {
+                removeMember(room, client);
+                left[0] = true;
+            }
+            return clientRooms;
+        });
+        return left[0];
+    }
+
+    /**
+     * Removes a member from a room's member set, deleting the room if it becomes empty.
+     *
+     * @param room The room name
+     * @param client The client handler
+     */
+    private void removeMember(String room, ClientHandler client) {
+        rooms.computeIfPresent(room, (name, members) -> {
+            members.remove(client);
+            return members.isEmpty() ? null : members;
+        });
+    }
+
+    /**
+     * Binds a client to an authenticated user, replacing any previous binding of that client.
+     *
+     * @param client The client handler
+     * @param user The authenticated user
+     * @return true if the client was bound, false if it is not registered
+     */
+    public boolean bindUser(ClientHandler client, User user) {
+        ClientHandler bound = clients.computeIfPresent(client.getClientId(), (clientId, registered) -> {
+            User previous = userByClient.put(clientId, user);
+            if (previous != null && previous.getId() != user.getId()) {
+                removeUserSession(previous, registered);
+            }
+            clientsByUser.compute(user.getId(), (id, sessions) -> {
+                if (sessions == null) {
+                    sessions = ConcurrentHashMap.newKeySet();
+                }
+                sessions.add(registered);
+                if (user.getUsername() != null) {
+                    userIdsByName.put(nameKey(user.getUsername()), id);
+                }
+                return sessions;
+            });
+            return registered;
+        });
+        return bound != null;
+    }
+
+    /**
+     * Removes a client from a user's session set, deleting the user's entries when the set becomes empty.
+     *
+     * @param user The user
+     * @param client The client handler
+     */
+    private void removeUserSession(User user, ClientHandler client) {
+        clientsByUser.computeIfPresent(user.getId(), (id, sessions) -> {
+            sessions.remove(client);
+            if (!sessions.isEmpty()) {
+                return sessions;
+            }
+            if (user.getUsername() != null) {
+                userIdsByName.remove(nameKey(user.getUsername()), id);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Gets the key a username is indexed under; usernames are matched case-insensitively.
+     *
+     * @param username The username
+     * @return The index key
+     */
+    private static String nameKey(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Gets a client by its client ID.
+     *
+     * @param clientId The client ID
+     * @return The client handler, or null if no such client is registered
+     */
+    public ClientHandler getClient(String clientId) {
+        return clients.get(clientId);
+    }
+
+    /**
+     * Gets the clients connected as a user.
+     *
+     * @param userId The user ID
+     * @return A live, read-only view of the user's sessions (empty if none)
+     */
+    public Set<ClientHandler> getClientsForUser(int userId) {
+        Set<ClientHandler> sessions = clientsByUser.get(userId);
+        return sessions == null ? Collections.emptySet() : Collections.unmodifiableSet(sessions);
+    }
+
+    /**
+     * Gets the clients connected as the user with a username.
+     *
+     * @param username The username, matched case-insensitively
+     * @return A live, read-only view of the user's sessions (empty if the user is not connected)
+     */
+    public Set<ClientHandler> getClientsForUsername(String username) {
+        if (username == null) {
+            return Collections.emptySet();
+        }
+        Integer userId = userIdsByName.get(nameKey(username));
+        return userId == null ? Collections.emptySet() : getClientsForUser(userId);
+    }
+
+    /**
+     * Gets the members of a room.
+     *
+     * @param room The room name
+     * @return A live, read-only view of the room's members (empty if the room does not exist)
+     */
+    public Set<ClientHandler> getRoomMembers(String room) {
+        Set<ClientHandler> members = rooms.get(room);
+        return members == null ? Collections.emptySet() : Collections.unmodifiableSet(members);
+    }
+
+    /**
+     * Gets the rooms a client has joined.
+     *
+     * @param clientId The client ID
+     * @return A live, read-only view of the client's rooms (empty if the client is not registered)
+     */
+    public Set<String> getRooms(String clientId) {
+        Set<String> joined = roomsByClient.get(clientId);
+        return joined == null ? Collections.emptySet() : Collections.unmodifiableSet(joined);
+    }
+
+    /**
+     * Checks whether a client is a member of a room.
+     *
+     * @param clientId The client ID
+     * @param room The room name
+     * @return true if the client has joined the room
+     */
+    public boolean isMember(String clientId, String room) {
+        Set<String> joined = roomsByClient.get(clientId);
+        return joined != null && joined.contains(room);
+    }
+
+    /**
+     * Gets the names of the rooms that currently have members.
+     *
+     * @return A live, read-only view of the room names
+     */
+    public Set<String> getRoomNames() {
+        return Collections.unmodifiableSet(rooms.keySet());
+    }
+
+    /**
+     * Gets all registered clients.
+     *
+     * @return A live, read-only view of the clients
+     */
+    public Collection<ClientHandler> getClients() {
+        return Collections.unmodifiableCollection(clients.values());
+    }
+
+    /**
+     * Gets the number of registered clients.
+     *
+     * @return The number of clients
+     */
+    public int size() {
+        return clients.size();
+    }
+}
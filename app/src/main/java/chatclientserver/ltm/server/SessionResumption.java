@@ -0,0 +1,405 @@
+package chatclientserver.ltm.server;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import chatclientserver.ltm.model.User;
+
+/**
+ * Keeps the sessions of clients whose connection dropped, so that they can be
+ * resumed on a new connection with the token issued at login.
+ * A parked session stays in its rooms: messages relayed to those rooms, and
+ * direct messages to its user, are appended to its replay buffer instead of
+ * being written to a socket. A parked session that is not resumed within the
+ * resume window is forgotten.
+ * <p>
+ * Relaying a message to live and parked sessions, and handing a session between
+ * a connection and the parked state, exclude each other, so that a message
+ * relayed during a handoff is delivered exactly once.
+ */
+class SessionResumption {
+    private final TimerWheel wheel;
+    private final long windowMillis;
+    private final Map<String, ClientHandler> liveSessions = new ConcurrentHashMap<>();
+    private final Map<String, ParkedSession> sessions = new ConcurrentHashMap<>();
+    private final Map<String, Set<ParkedSession>> sessionsByRoom = new ConcurrentHashMap<>();
+    private final Map<Integer, Set<ParkedSession>> sessionsByUser = new ConcurrentHashMap<>();
+    private final Map<String, Integer> userIdsByName = new ConcurrentHashMap<>();
+    private final LongAdder resumedSessions = new LongAdder();
+    private final LongAdder expiredSessions = new LongAdder();
+    private final ReentrantReadWriteLock handoff = new ReentrantReadWriteLock();
+    private volatile Consumer<User> expiredListener;
+
+    /**
+     * Constructs a SessionResumption.
+     *
+     * @param wheel The timer wheel that expires parked sessions
+     * @param windowMillis How long a parked session can be resumed, in milliseconds
+     */
+    SessionResumption(TimerWheel wheel, long windowMillis) {
+        this.wheel = wheel;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Sets the callback run when a parked session is forgotten because it was not resumed in time.
+     *
+     * @param expiredListener Receives the user of the expired session, on the wheel thread
+     */
+    void setExpiredListener(Consumer<User> expiredListener) {
+        this.expiredListener = expiredListener;
+    }
+
+    /**
+     * Creates a new resume token.
+     *
+     * @return The token
+     */
+    String newToken() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Gets the lock held while a message is relayed to live and parked sessions.
+     * Any number of messages can be relayed at once.
+     *
+     * @return The shared side of the handoff lock
+     */
+    Lock relayLock() {
+        return handoff.readLock();
+    }
+
+    /**
+     * Gets the lock held while a session is parked or resumed.
+     *
+     * @return The exclusive side of the handoff lock
+     */
+    Lock handoffLock() {
+        return handoff.writeLock();
+    }
+
+    /**
+     * Records which connection currently serves a session.
+     *
+     * @param token The session's resume token
+     * @param client The client handler serving the session
+     */
+    void attach(String token, ClientHandler client) {
+        liveSessions.put(token, client);
+    }
+
+    /**
+     * Forgets the connection serving a session, unless another one has taken it over.
+     *
+     * @param token The session's resume token
+     * @param client The client handler that no longer serves the session
+     */
+    void detach(String token, ClientHandler client) {
+        liveSessions.remove(token, client);
+    }
+
+    /**
+     * Looks up the connection currently serving a session.
+     * A client can come back before the server has noticed that its old connection dropped.
+     *
+     * @param token The resume token
+     * @return The client handler, or null if the session has no live connection
+     */
+    ClientHandler findLive(String token) {
+        return token != null ? liveSessions.get(token) : null;
+    }
+
+    /**
+     * Parks the session of a client whose connection has dropped.
+     *
+     * @param token The session's resume token
+     * @param user The session's user
+     * @param rooms The rooms the session was in
+     * @param buffer The messages recently sent to the session
+     */
+    void park(String token, User user, Set<String> rooms, ReplayBuffer buffer) {
+        ParkedSession session = new ParkedSession(token, user, rooms, buffer);
+        session.expiry = wheel.schedule(() -> expire(token), windowMillis, TimeUnit.MILLISECONDS);
+        sessions.put(token, session);
+        for (String room : rooms) {
+            sessionsByRoom.compute(room, (name, parked) -> {
+                if (parked == null) {
+                    parked = ConcurrentHashMap.newKeySet();
+                }
+                parked.add(session);
+                return parked;
+            });
+        }
+        sessionsByUser.compute(user.getId(), (id, parked) -> {
+            if (parked == null) {
+                parked = ConcurrentHashMap.newKeySet();
+            }
+            parked.add(session);
+            if (user.getUsername() != null) {
+                userIdsByName.put(nameKey(user.getUsername()), id);
+            }
+            return parked;
+        });
+    }
+
+    /**
+     * Looks up a parked session without taking it.
+     *
+     * @param token The resume token
+     * @return The parked session, or null if there is none
+     */
+    ParkedSession find(String token) {
+        return token != null ? sessions.get(token) : null;
+    }
+
+    /**
+     * Takes a parked session for a client that resumes it.
+     * From then on messages are no longer appended to its replay buffer.
+     *
+     * @param token The resume token
+     * @return The parked session, or null if it has expired or was already taken
+     */
+    ParkedSession claim(String token) {
+        ParkedSession session = remove(token);
+        if (session != null) {
+            session.expiry.cancel();
+            resumedSessions.increment();
+        }
+        return session;
+    }
+
+    /**
+     * Forgets a parked session whose resume window has passed. Runs on the wheel thread.
+     *
+     * @param token The resume token
+     */
+    private void expire(String token) {
+        ParkedSession session = remove(token);
+        if (session != null) {
+            expiredSessions.increment();
+            Consumer<User> listener = expiredListener;
+            if (listener != null) {
+                listener.accept(session.getUser());
+            }
+        }
+    }
+
+    /**
+     * Removes a parked session from the indexes.
+     *
+     * @param token The resume token
+     * @return The removed session, or null if there was none
+     */
+    private ParkedSession remove(String token) {
+        ParkedSession session = sessions.remove(token);
+        if (session == null) {
+            return null;
+        }
+        for (String room : session.getRooms()) {
+            sessionsByRoom.computeIfPresent(room, (name, parked) -> {
+                parked.remove(session);
+                return parked.isEmpty() ? null : parked;
+            });
+        }
+        User user = session.getUser();
+        sessionsByUser.computeIfPresent(user.getId(), (id, parked) -> {
+            parked.remove(session);
+            if (!parked.isEmpty()) {
+                return parked;
+            }
+            if (user.getUsername() != null) {
+                userIdsByName.remove(nameKey(user.getUsername()), id);
+            }
+            return null;
+        });
+        return session;
+    }
+
+    /**
+     * Checks whether a user has parked sessions.
+     *
+     * @param userId The user ID
+     * @return true if at least one session of the user is waiting to be resumed
+     */
+    boolean hasSessionsFor(int userId) {
+        return sessionsByUser.containsKey(userId);
+    }
+
+    /**
+     * Keeps a message relayed to a room for the parked sessions in that room.
+     *
+     * @param room The room name
+     * @param type The message type
+     * @param payload The payload object
+     * @return The number of parked sessions the message was kept for
+     */
+    int recordForRoom(String room, int type, Object payload) {
+        return record(sessionsByRoom.get(room), type, payload);
+    }
+
+    /**
+     * Keeps a direct message for the parked sessions of a user.
+     *
+     * @param userId The recipient's user ID
+     * @param type The message type
+     * @param payload The payload object
+     * @return The number of parked sessions the message was kept for
+     */
+    int recordForUser(int userId, int type, Object payload) {
+        return record(sessionsByUser.get(userId), type, payload);
+    }
+
+    /**
+     * Keeps a direct message for the parked sessions of a user, looked up by username.
+     *
+     * @param username The recipient's username, matched case-insensitively
+     * @param type The message type
+     * @param payload The payload object
+     * @return The number of parked sessions the message was kept for
+     */
+    int recordForUsername(String username, int type, Object payload) {
+        Integer userId = username != null ? userIdsByName.get(nameKey(username)) : null;
+        return userId != null ? recordForUser(userId, type, payload) : 0;
+    }
+
+    /**
+     * Appends a message to the replay buffers of parked sessions.
+     *
+     * @param parked The parked sessions (can be null)
+     * @param type The message type
+     * @param payload The payload object
+     * @return The number of sessions the message was appended for
+     */
+    private int record(Set<ParkedSession> parked, int type, Object payload) {
+        if (parked == null) {
+            return 0;
+        }
+        int recorded = 0;
+        for (ParkedSession session : parked) {
+            session.getBuffer().append(type, payload);
+            recorded++;
+        }
+        return recorded;
+    }
+
+    /**
+     * Forgets every parked session. Called when the server stops.
+     */
+    void clear() {
+        for (ParkedSession session : sessions.values()) {
+            session.expiry.cancel();
+        }
+        liveSessions.clear();
+        sessions.clear();
+        sessionsByRoom.clear();
+        sessionsByUser.clear();
+        userIdsByName.clear();
+    }
+
+    /**
+     * Gets the number of sessions waiting to be resumed.
+     *
+     * @return The number of parked sessions
+     */
+    int getParkedSessions() {
+        return sessions.size();
+    }
+
+    /**
+     * Gets the number of sessions resumed on a new connection.
+     *
+     * @return The number of resumed sessions
+     */
+    long getResumedSessions() {
+        return resumedSessions.sum();
+    }
+
+    /**
+     * Gets the number of parked sessions forgotten because they were not resumed in time.
+     *
+     * @return The number of expired sessions
+     */
+    long getExpiredSessions() {
+        return expiredSessions.sum();
+    }
+
+    /**
+     * Normalizes a username for lookups.
+     *
+     * @param username The username
+     * @return The lookup key
+     */
+    private static String nameKey(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The state of a session kept for resumption.
+     */
+    static class ParkedSession {
+        private final String token;
+        private final User user;
+        private final Set<String> rooms;
+        private final ReplayBuffer buffer;
+        private TimerWheel.Timeout expiry;
+
+        /**
+         * Constructs a ParkedSession.
+         *
+         * @param token The resume token
+         * @param user The session's user
+         * @param rooms The rooms the session was in
+         * @param buffer The messages recently sent to the session
+         */
+        ParkedSession(String token, User user, Set<String> rooms, ReplayBuffer buffer) {
+            this.token = token;
+            this.user = user;
+            this.rooms = rooms;
+            this.buffer = buffer;
+        }
+
+        /**
+         * Gets the resume token.
+         *
+         * @return The resume token
+         */
+        String getToken() {
+            return token;
+        }
+
+        /**
+         * Gets the session's user.
+         *
+         * @return The user
+         */
+        User getUser() {
+            return user;
+        }
+
+        /**
+         * Gets the rooms the session was in.
+         *
+         * @return The room names
+         */
+        Set<String> getRooms() {
+            return rooms;
+        }
+
+        /**
+         * Gets the messages recently sent to the session.
+         *
+         * @return The replay buffer
+         */
+        ReplayBuffer getBuffer() {
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package chatclientserver.ltm.server;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timer wheel.
+ * Timeouts are kept in a ring of buckets, one bucket per tick, so scheduling
+ * and cancelling a timeout take constant time however many are pending. A
+ * single thread advances the wheel one bucket per tick and runs the timeouts
+ * that are due; a timeout more than one turn of the wheel away waits in its
+ * bucket for the remaining turns. Timeouts fire up to one tick late, which is
+ * precise enough for idle detection.
+ * <p>
+ * Timeout tasks run on the wheel thread and must not block.
+ */
+class TimerWheel {
+    private final long tickNanos;
+    private final ArrayDeque<Timeout>[] buckets;
+    private final int mask;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private volatile boolean running;
+    private long startNanos;
+    private long tick;
+
+    /**
+     * Constructs a TimerWheel.
+     *
+     * @param name The name of the wheel thread
+     * @param tickMillis The duration of one tick in milliseconds (at least 1)
+     * @param wheelSize The number of buckets, rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    TimerWheel(String name, long tickMillis, int wheelSize) {
+        if (tickMillis < 1) {
+            throw new IllegalArgumentException("Tick must be positive");
+        }
+        if (wheelSize < 1 || wheelSize > 1 << 30) {
+            throw new IllegalArgumentException("Invalid wheel size: " + wheelSize);
+        }
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.buckets = new ArrayDeque[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+        this.mask = size - 1;
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+    }
+
+    /**
+     * Starts the wheel thread.
+     */
+    void start() {
+        running = true;
+        startNanos = System.nanoTime();
+        worker.start();
+    }
+
+    /**
+     * Stops the wheel thread. Pending timeouts are discarded.
+     */
+    void stop() {
+        running = false;
+        LockSupport.unpark(worker);
+    }
+
+    /**
+     * Schedules a task to run once after a delay.
+     * Can be called from any thread, including from a running timeout task.
+     *
+     * @param task The task to run on the wheel thread
+     * @param delay The delay
+     * @param unit The unit of the delay
+     * @return The timeout, which can be cancelled
+     */
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(Math.max(0, delay)));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Advances the wheel once per tick until stopped.
+     */
+    private void run() {
+        while (running) {
+            // Sleep until the end of the current tick
+            long deadline = startNanos + (tick + 1) * tickNanos;
+            long sleepNanos;
+            while (running && (sleepNanos = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, sleepNanos);
+            }
+            if (!running) {
+                break;
+            }
+
+            transferPending();
+            expire(buckets[(int) (tick & mask)]);
+            tick++;
+        }
+
+        // Drop everything so that the tasks can be collected
+        pending.clear();
+        for (ArrayDeque<Timeout> bucket : buckets) {
+            bucket.clear();
+        }
+    }
+
+    /**
+     * Moves newly scheduled timeouts into the bucket of the tick they are due in.
+     * Called on the wheel thread before the current bucket is expired.
+     */
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+
+            // A timeout that is already due goes into the current bucket
+            long dueTick = Math.max(tick, (timeout.deadline - startNanos) / tickNanos);
+            timeout.remainingRounds = (dueTick - tick) / buckets.length;
+            buckets[(int) (dueTick & mask)].add(timeout);
+        }
+    }
+
+    /**
+     * Runs the timeouts of a bucket that are due in this turn of the wheel.
+     *
+     * @param bucket The bucket of the current tick
+     */
+    private void expire(ArrayDeque<Timeout> bucket) {
+        int size = bucket.size();
+        for (int i = 0; i < size; i++) {
+            Timeout timeout = bucket.poll();
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+                bucket.add(timeout);
+                continue;
+            }
+
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                System.err.println("Error running timeout: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * A task scheduled on the wheel.
+     */
+    static class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private long remainingRounds;
+        private volatile boolean cancelled;
+
+        /**
+         * Constructs a Timeout.
+         *
+         * @param task The task to run
+         * @param deadline The time the task is due, in System.nanoTime() units
+         */
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels the timeout. The task will not run if it has not started yet.
+         */
+        void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Checks whether the timeout has been cancelled.
+         *
+         * @return true if the timeout has been cancelled
+         */
+        boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
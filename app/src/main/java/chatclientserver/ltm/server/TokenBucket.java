@@ -0,0 +1,126 @@
+package chatclientserver.ltm.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket rate limiter.
+ * The bucket holds up to its capacity in tokens and refills at a fixed rate;
+ * taking tokens lets a caller spend that much of the rate. A full bucket
+ * allows a burst of up to its capacity at once.
+ * <p>
+ * A request for more tokens than the capacity is granted once the bucket is
+ * full and leaves it in debt, so a single large file is slowed down rather
+ * than refused forever.
+ */
+class TokenBucket {
+    private final long ratePerSecond;
+    private final long capacity;
+    private final LongSupplier clock;
+    private final ReentrantLock lock = new ReentrantLock();
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * Constructs a full TokenBucket that uses the system clock.
+     *
+     * @param ratePerSecond The tokens added per second (at least 1)
+     * @param capacity The most tokens the bucket holds (at least 1)
+     */
+    TokenBucket(long ratePerSecond, long capacity) {
+        this(ratePerSecond, capacity, System::nanoTime);
+    }
+
+    /**
+     * Constructs a full TokenBucket.
+     *
+     * @param ratePerSecond The tokens added per second (at least 1)
+     * @param capacity The most tokens the bucket holds (at least 1)
+     * @param clock The time source in nanoseconds
+     */
+    TokenBucket(long ratePerSecond, long capacity, LongSupplier clock) {
+        if (ratePerSecond < 1) {
+            throw new IllegalArgumentException("Rate must be positive");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.ratePerSecond = ratePerSecond;
+        this.capacity = capacity;
+        this.clock = clock;
+        this.tokens = capacity;
+        this.lastRefillNanos = clock.getAsLong();
+    }
+
+    /**
+     * Takes tokens if they are available now.
+     *
+     * @param permits The number of tokens to take
+     * @return true if the tokens were taken, false if the bucket holds too few (nothing is taken)
+     */
+    boolean tryAcquire(long permits) {
+        lock.lock();
+        try {
+            refill();
+            if (tokens < Math.min(permits, capacity)) {
+                return false;
+            }
+            tokens -= permits;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes tokens, borrowing against future refills if necessary.
+     *
+     * @param permits The number of tokens to take
+     * @return How long the caller must wait before using the tokens, in nanoseconds (0 if they were available)
+     */
+    long acquire(long permits) {
+        lock.lock();
+        try {
+            refill();
+
+            // Wait until the tokens a full bucket would have covered are back
+            double missing = Math.min(permits, capacity) - tokens;
+            tokens -= permits;
+            if (missing <= 0) {
+                return 0;
+            }
+            return (long) Math.ceil(missing * TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds the tokens earned since the last refill, up to the capacity.
+     * Must be called while holding the lock.
+     */
+    private void refill() {
+        long now = clock.getAsLong();
+        long elapsed = now - lastRefillNanos;
+        if (elapsed > 0) {
+            tokens = Math.min(capacity, tokens + (double) elapsed * ratePerSecond / TimeUnit.SECONDS.toNanos(1));
+            lastRefillNanos = now;
+        }
+    }
+
+    /**
+     * Gets the number of tokens currently in the bucket.
+     *
+     * @return The available tokens; negative while the bucket is in debt
+     */
+    double getAvailableTokens() {
+        lock.lock();
+        try {
+            refill();
+            return tokens;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package chatclientserver.ltm.server;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Objects;
+import java.util.function.IntFunction;
+
+import chatclientserver.ltm.model.User;
+
+/**
+ * Checks the user information a client sends against the stored user before
+ * the session is bound to that user. Clients log in against the database and
+ * send the user they got back, password hash included, so a claim is accepted
+ * only if a user with that ID exists and its username and password hash match.
+ * A client that merely names another user's ID is therefore not bound to it
+ * and cannot receive that user's direct messages.
+ */
+class UserVerifier {
+    private final IntFunction<User> lookup;
+
+    /**
+     * Constructs a UserVerifier.
+     *
+     * @param lookup Loads the stored user with an ID, or returns null if there is none
+     */
+    UserVerifier(IntFunction<User> lookup) {
+        this.lookup = lookup;
+    }
+
+    /**
+     * Checks a claimed user.
+     *
+     * @param claimed The user information sent by the client
+     * @return The stored user if the claim matches it, otherwise null
+     */
+    User verify(User claimed) {
+        if (claimed == null || claimed.getId() <= 0 || claimed.getPasswordHash() == null) {
+            return null;
+        }
+
+        User stored;
+        try {
+            stored = lookup.apply(claimed.getId());
+        } catch (RuntimeException e) {
+            System.err.println("Error verifying user " + claimed.getId() + ": " + e.getMessage());
+            return null;
+        }
+        if (stored == null || stored.getPasswordHash() == null
+                || !Objects.equals(stored.getUsername(), claimed.getUsername())) {
+            return null;
+        }
+
+        // Compare in constant time so the hash cannot be guessed from the reply time
+        byte[] expected = stored.getPasswordHash().getBytes(StandardCharsets.UTF_8);
+        byte[] actual = claimed.getPasswordHash().getBytes(StandardCharsets.UTF_8);
+        return MessageDigest.isEqual(expected, actual) ? stored : null;
+    }
+}
@@ -0,0 +1,274 @@
+package chatclientserver.ltm.util;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of direct byte buffers for socket and file I/O.
+ * Buffers come in power-of-two size classes from {@link Constants#BUFFER_POOL_MIN_SIZE}
+ * to {@link Constants#BUFFER_POOL_MAX_SIZE}; a request is served from the smallest
+ * class that fits, and each class keeps at most
+ * {@link Constants#BUFFER_POOL_BYTES_PER_CLASS} of free buffers. Larger requests
+ * get a heap buffer that is left to the garbage collector, so the off-heap
+ * memory held by the pool stays bounded.
+ * <p>
+ * Every buffer must be given back with {@link PooledBuffer#release()}. A
+ * buffer whose handle is collected without being released is counted as
+ * leaked and reported, and is not reused.
+ */
+public class BufferPool {
+    private static final BufferPool DEFAULT = new BufferPool(Constants.BUFFER_POOL_MIN_SIZE,
+            Constants.BUFFER_POOL_MAX_SIZE, Constants.BUFFER_POOL_BYTES_PER_CLASS);
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final int minSize;
+    private final int maxSize;
+    private final ArrayBlockingQueue<ByteBuffer>[] freeBuffers;
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder leaked = new LongAdder();
+
+    /**
+     * Constructs a BufferPool.
+     *
+     * @param minSize The size of the smallest class, a power of two
+     * @param maxSize The size of the largest class, a power of two
+     * @param bytesPerClass The most bytes of free buffers kept in each class
+     */
+    @SuppressWarnings("unchecked")
+    public BufferPool(int minSize, int maxSize, int bytesPerClass) {
+        if (Integer.bitCount(minSize) != 1 || Integer.bitCount(maxSize) != 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Size classes must be powers of two");
+        }
+        if (bytesPerClass < 1) {
+            throw new IllegalArgumentException("Bytes per class must be positive");
+        }
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+
+        int classes = Integer.numberOfTrailingZeros(maxSize) - Integer.numberOfTrailingZeros(minSize) + 1;
+        this.freeBuffers = new ArrayBlockingQueue[classes];
+        for (int i = 0; i < classes; i++) {
+            // Every class keeps at least one buffer, however large
+            freeBuffers[i] = new ArrayBlockingQueue<>(Math.max(1, bytesPerClass / (minSize << i)));
+        }
+    }
+
+    /**
+     * Gets the pool shared by the client, the server and the file utilities.
+     *
+     * @return The default pool
+     */
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Takes a buffer of at least the specified size.
+     *
+     * @param size The number of bytes needed
+     * @return A buffer positioned at 0 with its limit set to the size
+     */
+    public PooledBuffer acquire(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Size must not be negative");
+        }
+        acquired.increment();
+
+        int sizeClass = sizeClassOf(size);
+        ByteBuffer buffer;
+        if (sizeClass < 0) {
+            buffer = ByteBuffer.allocate(size);
+        } else {
+            buffer = freeBuffers[sizeClass].poll();
+            if (buffer != null) {
+                hits.increment();
+                buffer.clear();
+            } else {
+                buffer = ByteBuffer.allocateDirect(minSize << sizeClass);
+            }
+        }
+        buffer.limit(size);
+        return new PooledBuffer(this, buffer, sizeClass);
+    }
+
+    /**
+     * Gets the size class that serves a request.
+     *
+     * @param size The number of bytes needed
+     * @return The index of the smallest class that fits, or -1 if the request is larger than every class
+     */
+    int sizeClassOf(int size) {
+        if (size > maxSize) {
+            return -1;
+        }
+        if (size <= minSize) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(minSize);
+    }
+
+    /**
+     * Takes back a released buffer, keeping it if its class has room.
+     *
+     * @param buffer The buffer
+     * @param sizeClass The buffer's class, or -1 for an unpooled buffer
+     */
+    private void recycle(ByteBuffer buffer, int sizeClass) {
+        released.increment();
+        if (sizeClass >= 0) {
+            freeBuffers[sizeClass].offer(buffer);
+        }
+    }
+
+    /**
+     * Counts a buffer whose handle was collected without being released.
+     *
+     * @param capacity The buffer's capacity
+     */
+    private void leaked(int capacity) {
+        leaked.increment();
+        System.err.println("Buffer of " + capacity + " bytes was never released to the pool");
+    }
+
+    /**
+     * Gets the number of buffers taken from the pool.
+     *
+     * @return The number of acquisitions
+     */
+    public long getAcquired() {
+        return acquired.sum();
+    }
+
+    /**
+     * Gets the share of acquisitions served by a free buffer rather than a new allocation.
+     *
+     * @return The hit rate between 0 and 1, or 0 if nothing was acquired
+     */
+    public double getHitRate() {
+        long total = acquired.sum();
+        return total == 0 ? 0 : (double) hits.sum() / total;
+    }
+
+    /**
+     * Gets the number of buffers taken and neither released nor leaked yet.
+     *
+     * @return The number of outstanding buffers
+     */
+    public long getOutstanding() {
+        return acquired.sum() - released.sum() - leaked.sum();
+    }
+
+    /**
+     * Gets the number of buffers whose handles were collected without being released.
+     *
+     * @return The number of leaked buffers
+     */
+    public long getLeaked() {
+        return leaked.sum();
+    }
+
+    /**
+     * Gets the number of free buffers kept for reuse.
+     *
+     * @return The number of pooled buffers
+     */
+    public int getPooled() {
+        int pooled = 0;
+        for (ArrayBlockingQueue<ByteBuffer> free : freeBuffers) {
+            pooled += free.size();
+        }
+        return pooled;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BufferPool [acquired=%d, hitRate=%.1f%%, outstanding=%d, pooled=%d, leaked=%d]",
+                getAcquired(), getHitRate() * 100, getOutstanding(), getPooled(), getLeaked());
+    }
+
+    /**
+     * A buffer taken from the pool. Released exactly once, after which the buffer must no longer be used.
+     */
+    public static class PooledBuffer {
+        private final ByteBuffer buffer;
+        private final Tracker tracker;
+        private final Cleaner.Cleanable cleanable;
+
+        /**
+         * Constructs a PooledBuffer and starts watching it for leaks.
+         *
+         * @param pool The pool the buffer belongs to
+         * @param buffer The buffer
+         * @param sizeClass The buffer's class, or -1 for an unpooled buffer
+         */
+        private PooledBuffer(BufferPool pool, ByteBuffer buffer, int sizeClass) {
+            this.buffer = buffer;
+            this.tracker = new Tracker(pool, buffer, sizeClass);
+            this.cleanable = CLEANER.register(this, tracker);
+        }
+
+        /**
+         * Gets the buffer.
+         *
+         * @return The buffer
+         * @throws IllegalStateException If the buffer was released
+         */
+        public ByteBuffer buffer() {
+            if (tracker.released.get()) {
+                throw new IllegalStateException("Buffer was released");
+            }
+            return buffer;
+        }
+
+        /**
+         * Gives the buffer back to the pool.
+         *
+         * @throws IllegalStateException If the buffer was already released
+         */
+        public void release() {
+            if (!tracker.released.compareAndSet(false, true)) {
+                throw new IllegalStateException("Buffer was already released");
+            }
+            cleanable.clean();
+        }
+    }
+
+    /**
+     * Returns a buffer to its pool when released, or reports it when its handle is collected first.
+     * Must not refer to the handle, or the handle could never be collected.
+     */
+    private static class Tracker implements Runnable {
+        private final BufferPool pool;
+        private final ByteBuffer buffer;
+        private final int sizeClass;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        /**
+         * Constructs a Tracker.
+         *
+         * @param pool The pool the buffer belongs to
+         * @param buffer The buffer
+         * @param sizeClass The buffer's class, or -1 for an unpooled buffer
+         */
+        Tracker(BufferPool pool, ByteBuffer buffer, int sizeClass) {
+            this.pool = pool;
+            this.buffer = buffer;
+            this.sizeClass = sizeClass;
+        }
+
+        @Override
+        public void run() {
+            if (released.get()) {
+                pool.recycle(buffer, sizeClass);
+            } else {
+                // The buffer may still be reachable through a stray reference, so it is not reused
+                pool.leaked(buffer.capacity());
+            }
+        }
+    }
+}
@@ -17,6 +17,125 @@ public class Constants {
     public static final int MESSAGE_TYPE_REGISTER = 7;
     public static final int MESSAGE_TYPE_LOGIN_RESULT = 8;
     public static final int MESSAGE_TYPE_REGISTER_RESULT = 9;
+    public static final int MESSAGE_TYPE_JOIN_ROOM = 10;
+    public static final int MESSAGE_TYPE_LEAVE_ROOM = 11;
+    public static final int MESSAGE_TYPE_DIRECT = 12;
+    public static final int MESSAGE_TYPE_RECIPIENT_OFFLINE = 13;
+    public static final int MESSAGE_TYPE_ACK = 14;
+    public static final int MESSAGE_TYPE_RATE_LIMITED = 15;
+    public static final int MESSAGE_TYPE_PING = 16;
+    public static final int MESSAGE_TYPE_PONG = 17;
+    public static final int MESSAGE_TYPE_SERVER_DRAINING = 18;
+    public static final int MESSAGE_TYPE_SESSION_TOKEN = 19;
+    public static final int MESSAGE_TYPE_RESUME = 20;
+    public static final int MESSAGE_TYPE_LOGOUT = 21;
+    public static final int MESSAGE_TYPE_REDIRECT = 22;
+
+    // Rooms
+    public static final String DEFAULT_ROOM = "lobby";
+    public static final int MAX_ROOM_NAME_LENGTH = 32;
+
+    // Framed protocol
+    public static final int PROTOCOL_MAGIC = 0x4C544D50; // "LTMP"
+    public static final int PROTOCOL_VERSION_SERIALIZED = 1;
+    public static final int PROTOCOL_VERSION_BINARY = 2;
+    public static final int PROTOCOL_VERSION_REQUEST_ID = 3;
+    public static final int PROTOCOL_VERSION_HEARTBEAT = 4;
+    public static final int PROTOCOL_VERSION_DRAIN_NOTICE = 5;
+    public static final int PROTOCOL_VERSION_RESUME = 6;
+    public static final int PROTOCOL_VERSION_REDIRECT = 7;
+    public static final int PROTOCOL_VERSION_COMPRESSION = 8;
+    public static final int PROTOCOL_VERSION = PROTOCOL_VERSION_COMPRESSION;
+    public static final long REQUEST_TIMEOUT_MILLIS = 30000;
+    public static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+    // Client connection
+    public static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    public static final long RECONNECT_BASE_DELAY_MILLIS = 500;
+    public static final long RECONNECT_MAX_DELAY_MILLIS = 30000;
+    public static final int MAX_RECONNECT_ATTEMPTS = 10;
+    public static final int MAX_QUEUED_REQUESTS = 1000;
+
+    // Server transport
+    public static final String TRANSPORT_BLOCKING = "blocking";
+    public static final String TRANSPORT_NIO = "nio";
+    public static final int DEFAULT_EVENT_LOOP_THREADS = 2;
+
+    // Server executor strategies
+    public static final String EXECUTOR_CACHED = "cached";
+    public static final String EXECUTOR_BOUNDED = "bounded";
+    public static final String EXECUTOR_VIRTUAL = "virtual";
+    public static final int DEFAULT_WORKER_THREADS = 64;
+    public static final int DEFAULT_HANDSHAKE_TIMEOUT_MILLIS = 10000;
+
+    // Message pipeline (worker threads per stage, and tasks each stage holds at once)
+    public static final int DEFAULT_DECRYPT_THREADS = 2;
+    public static final int DEFAULT_SEARCH_THREADS = 2;
+    public static final int DEFAULT_REPLY_THREADS = 2;
+    public static final int DEFAULT_PERSIST_THREADS = 2;
+    public static final int DEFAULT_STAGE_QUEUE_CAPACITY = 1024;
+
+    // Slow-consumer policies for broadcast delivery
+    public static final String SLOW_CONSUMER_DROP = "drop";
+    public static final String SLOW_CONSUMER_COALESCE = "coalesce";
+    public static final String SLOW_CONSUMER_DISCONNECT = "disconnect";
+    public static final int DEFAULT_OUTBOUND_QUEUE_CAPACITY = 256;
+
+    // Write batching
+    public static final long DEFAULT_BATCH_WINDOW_MICROS = 100;
+    public static final int DEFAULT_MAX_BATCH_BYTES = 8192;
+
+    // Admission control and per-session rate limits (0 disables a limit)
+    public static final String RATE_LIMIT_DELAY = "delay";
+    public static final String RATE_LIMIT_REJECT = "reject";
+    public static final String RATE_LIMIT_DISCONNECT = "disconnect";
+    public static final int DEFAULT_MAX_SESSIONS = 20000;
+    public static final int DEFAULT_MAX_SESSIONS_PER_IP = 0;
+    public static final int DEFAULT_MESSAGES_PER_SECOND = 0;
+    public static final int DEFAULT_MESSAGE_BURST = 40;
+    public static final long DEFAULT_FILE_BYTES_PER_SECOND = 0;
+    public static final long DEFAULT_FILE_BURST_BYTES = 16L * 1024 * 1024;
+
+    // Heartbeats and idle sessions
+    public static final int DEFAULT_HEARTBEAT_INTERVAL_MILLIS = 30000;
+    public static final int DEFAULT_IDLE_TIMEOUT_MILLIS = 120000;
+    public static final int TIMER_WHEEL_TICK_MILLIS = 100;
+    public static final int TIMER_WHEEL_SIZE = 512;
+
+    // Graceful shutdown
+    public static final int DEFAULT_DRAIN_TIMEOUT_MILLIS = 30000;
+    public static final int DRAIN_POLL_MILLIS = 100;
+    public static final int PIPELINE_SHUTDOWN_MILLIS = 5000;
+
+    // Session resumption (0 disables resumption)
+    public static final int DEFAULT_RESUME_WINDOW_MILLIS = 60000;
+    public static final int DEFAULT_REPLAY_BUFFER_SIZE = 128;
+    public static final int MAX_HISTORY_REPLAY = 200;
+
+    // Server clustering (a cluster port of 0 disables the TCP bus)
+    public static final int CLUSTER_ROOM_MESSAGE = 1;
+    public static final int CLUSTER_USER_MESSAGE = 2;
+    public static final int CLUSTER_USER_ONLINE = 3;
+    public static final int CLUSTER_USER_OFFLINE = 4;
+    public static final int CLUSTER_PRESENCE_RESET = 5;
+    public static final int CLUSTER_NODE_INFO = 6;
+    public static final String DEFAULT_NODE_ID = "node-1";
+    public static final int DEFAULT_CLUSTER_PORT = 0;
+    public static final int CLUSTER_QUEUE_CAPACITY = 65536;
+    public static final long CLUSTER_RETRY_MILLIS = 1000;
+    public static final long CLUSTER_MAX_RETRY_MILLIS = 10000;
+    public static final String DEFAULT_ADVERTISED_HOST = "localhost";
+    public static final String DEFAULT_CLUSTER_BIND_ADDRESS = "";
+    public static final String DEFAULT_CLUSTER_SECRET = "";
+    public static final int CLUSTER_HANDSHAKE_TIMEOUT_MILLIS = 5000;
+    public static final int CLUSTER_NONCE_SIZE = 16;
+    public static final int MAX_CLUSTER_INBOUND_CONNECTIONS = 64;
+
+    // Session placement (keys are hashed onto a ring of cluster nodes)
+    public static final int VIRTUAL_NODES_PER_NODE = 128;
+    public static final String PLACEMENT_ROOM_PREFIX = "room:";
+    public static final String PLACEMENT_USER_PREFIX = "user:";
+    public static final int MAX_REDIRECTS = 2;
 
     // File types
     public static final String FILE_TYPE_IMAGE = "image";
@@ -26,6 +145,15 @@ public class Constants {
 
     // Buffer sizes
     public static final int BUFFER_SIZE = 8192;
+    public static final int BUFFER_POOL_MIN_SIZE = 4 * 1024;
+    public static final int BUFFER_POOL_MAX_SIZE = 1024 * 1024;
+    public static final int BUFFER_POOL_BYTES_PER_CLASS = 4 * 1024 * 1024;
+    public static final int FILE_CHUNK_SIZE = 64 * 1024;
+
+    // Frame compression
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 512;
+    public static final int DEFAULT_COMPRESSION_LEVEL = 6;
+    public static final int MAX_DEFLATE_RATIO = 1032; // Deflate turns 2 bits into at most 258 bytes
 
     // Search phrase
     public static final String SEARCH_PHRASE = "xin chào";
@@ -33,6 +161,15 @@ public class Constants {
     // Default key for Playfair cipher
     public static final String DEFAULT_KEY = "PLAYFAIR";
 
+    // Compiled Playfair keys kept for reuse, shared by the client and the server
+    public static final int DEFAULT_KEY_CACHE_SIZE = 256;
+
+    // Characters read at a time when encrypting or decrypting a stream
+    public static final int PLAYFAIR_STREAM_CHUNK = 4096;
+
+    // Messages each task of a bulk encryption or decryption handles without splitting further
+    public static final int PLAYFAIR_BATCH_TASK_SIZE = 256;
+
     // GUI constants
     public static final int GUI_WIDTH = 900;
     public static final int GUI_HEIGHT = 650;
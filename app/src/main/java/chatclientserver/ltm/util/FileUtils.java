@@ -1,18 +1,23 @@
 package chatclientserver.ltm.util;
 
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.UUID;
 
 import org.apache.commons.io.FilenameUtils;
 
 /**
  * Utility class for file operations.
+ * File contents are moved through a pooled direct buffer one chunk at a time,
+ * so reading or writing a large file does not make the JDK allocate a
+ * temporary native buffer as large as the file.
  */
 public class FileUtils {
     private static final String TEMP_DIR = System.getProperty("java.io.tmpdir");
@@ -79,9 +84,29 @@ public class FileUtils {
      * @throws IOException If an I/O error occurs
      */
     public static byte[] readFileToByteArray(File file) throws IOException {
-        try (FileInputStream fis = new FileInputStream(file)) {
-            byte[] data = new byte[(int) file.length()];
-            fis.read(data);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File is too large: " + file.getName());
+            }
+            byte[] data = new byte[(int) size];
+
+            BufferPool.PooledBuffer pooled = BufferPool.getDefault().acquire(Constants.FILE_CHUNK_SIZE);
+            try {
+                ByteBuffer chunk = pooled.buffer();
+                int offset = 0;
+                while (offset < data.length) {
+                    chunk.clear().limit(Math.min(chunk.capacity(), data.length - offset));
+                    int read = channel.read(chunk);
+                    if (read < 0) {
+                        throw new EOFException("File was truncated while reading: " + file.getName());
+                    }
+                    chunk.flip().get(data, offset, read);
+                    offset += read;
+                }
+            } finally {
+                pooled.release();
+            }
             return data;
         }
     }
@@ -105,8 +130,24 @@ public class FileUtils {
         String uniqueFileName = UUID.randomUUID().toString() + "_" + fileName;
         File file = new File(dir, uniqueFileName);
         
-        try (FileOutputStream fos = new FileOutputStream(file)) {
-            fos.write(data);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE)) {
+            BufferPool.PooledBuffer pooled = BufferPool.getDefault().acquire(Constants.FILE_CHUNK_SIZE);
+            try {
+                ByteBuffer chunk = pooled.buffer();
+                int offset = 0;
+                while (offset < data.length) {
+                    int length = Math.min(chunk.capacity(), data.length - offset);
+                    chunk.clear();
+                    chunk.put(data, offset, length).flip();
+                    while (chunk.hasRemaining()) {
+                        channel.write(chunk);
+                    }
+                    offset += length;
+                }
+            } finally {
+                pooled.release();
+            }
             return file;
         }
     }
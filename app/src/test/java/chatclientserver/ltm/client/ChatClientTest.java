@@ -0,0 +1,45 @@
+package chatclientserver.ltm.client;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Tests for the ChatClient class.
+ */
+public class ChatClientTest {
+
+    @Test
+    public void testReconnectDelayGrowsExponentiallyWithJitter() {
+        for (int attempt = 1; attempt <= 8; attempt++) {
+            long ceiling = Math.min(Constants.RECONNECT_MAX_DELAY_MILLIS,
+                    Constants.RECONNECT_BASE_DELAY_MILLIS << (attempt - 1));
+            for (int i = 0; i < 100; i++) {
+                long delay = ChatClient.reconnectDelay(attempt);
+                assertTrue(delay >= ceiling / 2 && delay <= ceiling, "attempt " + attempt + " waited " + delay + " ms");
+            }
+        }
+    }
+
+    @Test
+    public void testReconnectDelayIsCapped() {
+        for (int i = 0; i < 100; i++) {
+            assertTrue(ChatClient.reconnectDelay(1000) <= Constants.RECONNECT_MAX_DELAY_MILLIS);
+        }
+    }
+
+    @Test
+    public void testReconnectDelaysAreSpreadOut() {
+        // Clients dropped together must not all come back at the same moment
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < 200; i++) {
+            long delay = ChatClient.reconnectDelay(4);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue(max - min > 100, "delays between " + min + " and " + max + " ms");
+    }
+}
@@ -0,0 +1,197 @@
+package chatclientserver.ltm.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import chatclientserver.ltm.model.Message;
+import chatclientserver.ltm.protocol.WireOutput;
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Tests for the cluster bus, its messages and the relay latency histogram.
+ */
+public class ClusterBusTest {
+
+    @Test
+    public void testMessageRoundTrip() throws Exception {
+        Message chat = new Message("client-1", "ENCRYPTED", "PLAYFAIR", null);
+        chat.setRoom("team");
+        ClusterMessage message = ClusterMessage.roomMessage("node-a", "team", Constants.MESSAGE_TYPE_TEXT, chat);
+
+        ClusterMessage decoded = roundTrip(message);
+        assertEquals(Constants.CLUSTER_ROOM_MESSAGE, decoded.getKind());
+        assertEquals("node-a", decoded.getOriginNodeId());
+        assertEquals("team", decoded.getRoom());
+        assertEquals(Constants.MESSAGE_TYPE_TEXT, decoded.getType());
+        assertEquals(message.getSentAtMicros(), decoded.getSentAtMicros());
+        assertEquals("ENCRYPTED", ((Message) decoded.getPayload()).getEncryptedMessage());
+
+        // Presence messages carry no payload
+        decoded = roundTrip(ClusterMessage.presence(Constants.CLUSTER_USER_ONLINE, "node-b", 7, "alice"));
+        assertEquals(7, decoded.getUserId());
+        assertEquals("alice", decoded.getUsername());
+        assertNull(decoded.getPayload());
+    }
+
+    @Test
+    public void testInProcessBusDeliversToOtherNodes() throws Exception {
+        InProcessClusterBus.Hub hub = new InProcessClusterBus.Hub();
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        InProcessClusterBus a = new InProcessClusterBus(hub, "a");
+        InProcessClusterBus b = new InProcessClusterBus(hub, "b");
+        a.start(first);
+        b.start(second);
+        try {
+            // Each side learns about the other
+            assertEquals("joined b", first.next());
+            assertEquals("joined a", second.next());
+
+            for (int i = 0; i < 3; i++) {
+                a.publish(ClusterMessage.roomMessage("a", "room-" + i, Constants.MESSAGE_TYPE_TEXT, null));
+            }
+            b.send("a", ClusterMessage.presenceReset("b"));
+
+            // Messages arrive in order and never at their sender
+            assertEquals(List.of("room-0", "room-1", "room-2"), List.of(second.next(), second.next(), second.next()));
+            assertEquals("reset b", first.next());
+        } finally {
+            b.stop();
+            assertEquals("left b", first.next());
+            a.stop();
+        }
+    }
+
+    @Test
+    public void testTcpBusConnectsNodesThatShareTheSecret() throws Exception {
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        TcpClusterBus a = new TcpClusterBus("a", "127.0.0.1", 0, List.of(), "secret");
+        a.start(first);
+        TcpClusterBus b = new TcpClusterBus("b", "127.0.0.1", 0,
+                List.of(new InetSocketAddress("127.0.0.1", a.getLocalPort())), "secret");
+        b.start(second);
+        try {
+            assertEquals("joined a", second.next());
+            b.publish(ClusterMessage.roomMessage("b", "team", Constants.MESSAGE_TYPE_TEXT, null));
+            assertEquals("team", first.next());
+        } finally {
+            b.stop();
+            a.stop();
+        }
+    }
+
+    @Test
+    public void testTcpBusRefusesNodesWithoutTheSecret() throws Exception {
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        TcpClusterBus a = new TcpClusterBus("a", "127.0.0.1", 0, List.of(), "secret");
+        a.start(first);
+        TcpClusterBus intruder = new TcpClusterBus("a", "127.0.0.1", 0,
+                List.of(new InetSocketAddress("127.0.0.1", a.getLocalPort())), "guess");
+        intruder.start(second);
+        try {
+            // Neither side accepts the other, so nothing the intruder sends is delivered
+            assertNull(second.next(1000));
+            intruder.publish(ClusterMessage.roomMessage("a", "team", Constants.MESSAGE_TYPE_TEXT, null));
+            assertNull(first.next(500));
+            assertEquals(1, intruder.getDroppedMessages());
+        } finally {
+            intruder.stop();
+            a.stop();
+        }
+        assertThrows(IllegalArgumentException.class, () -> new TcpClusterBus("a", "", 0, List.of(), ""));
+    }
+
+    @Test
+    public void testLatencyPercentilesAreWithinOneBucket() {
+        RelayLatency latency = new RelayLatency();
+        for (int micros = 1; micros <= 1000; micros++) {
+            latency.record(micros);
+        }
+
+        assertEquals(1000L, latency.getCount());
+        assertEquals(500L, latency.getMeanMicros());
+        assertEquals(1000L, latency.getMaxMicros());
+        long median = latency.getPercentileMicros(50);
+        assertTrue(median >= 500 && median <= 500 * 9 / 8, "p50=" + median);
+        long p99 = latency.getPercentileMicros(99);
+        assertTrue(p99 >= 990 && p99 <= 1000, "p99=" + p99);
+    }
+
+    @Test
+    public void testLatencyBucketsCoverEveryValue() {
+        for (long value : new long[] {0, 7, 8, 15, 16, 1000, 1L << 40, Long.MAX_VALUE}) {
+            int bucket = RelayLatency.bucketOf(value);
+            assertTrue(RelayLatency.upperBound(bucket) >= value, "value=" + value);
+            assertTrue(bucket == 0 || RelayLatency.upperBound(bucket - 1) < value, "value=" + value);
+        }
+    }
+
+    /**
+     * Encodes a message and decodes it again.
+     *
+     * @param message The message
+     * @return The decoded message
+     * @throws Exception If encoding or decoding fails
+     */
+    private ClusterMessage roundTrip(ClusterMessage message) throws Exception {
+        WireOutput out = new WireOutput(64);
+        message.encode(out);
+        return ClusterMessage.decode(out.toByteBuffer().array(), 0, out.size());
+    }
+
+    /**
+     * Listener that records what a bus delivers as short descriptions.
+     */
+    private static class RecordingListener implements ClusterBus.Listener {
+        private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onMessage(ClusterMessage message) {
+            events.add(message.getKind() == Constants.CLUSTER_PRESENCE_RESET
+                    ? "reset " + message.getOriginNodeId() : message.getRoom());
+        }
+
+        @Override
+        public void onNodeJoined(String nodeId) {
+            events.add("joined " + nodeId);
+        }
+
+        @Override
+        public void onNodeLeft(String nodeId) {
+            events.add("left " + nodeId);
+        }
+
+        /**
+         * Waits for the next event.
+         *
+         * @return The event, or null if none arrives in time
+         * @throws InterruptedException If interrupted while waiting
+         */
+        String next() throws InterruptedException {
+            return next(5000);
+        }
+
+        /**
+         * Waits for the next event for a while.
+         *
+         * @param millis How long to wait, in milliseconds
+         * @return The event, or null if none arrives in time
+         * @throws InterruptedException If interrupted while waiting
+         */
+        String next(long millis) throws InterruptedException {
+            return events.poll(millis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package chatclientserver.ltm.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Tests for the HashRing class, including a simulation of how evenly keys spread over the nodes.
+ */
+public class HashRingTest {
+    private static final int KEYS = 100000;
+    private static final int NODES = 10;
+
+    @Test
+    public void testEveryKeyHasOneStableOwner() {
+        HashRing ring = new HashRing(Constants.VIRTUAL_NODES_PER_NODE);
+        assertNull(ring.ownerOf("room:team"));
+
+        ring.add("a");
+        assertEquals("a", ring.ownerOf("room:team"));
+        assertFalse(ring.add("a"));
+
+        ring.add("b");
+        HashRing sameNodesOtherOrder = new HashRing(Constants.VIRTUAL_NODES_PER_NODE);
+        sameNodesOtherOrder.add("b");
+        sameNodesOtherOrder.add("a");
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(ring.ownerOf("user:" + i), sameNodesOtherOrder.ownerOf("user:" + i));
+        }
+    }
+
+    @Test
+    public void testJoiningNodeTakesOnlyItsShare() {
+        HashRing ring = ringOf(NODES);
+        Map<String, String> before = owners(ring);
+
+        ring.add("node-new");
+        int moved = 0;
+        for (Map.Entry<String, String> key : before.entrySet()) {
+            String owner = ring.ownerOf(key.getKey());
+            if (!owner.equals(key.getValue())) {
+                // Keys only ever move to the new node
+                assertEquals("node-new", owner);
+                moved++;
+            }
+        }
+
+        double share = (double) moved / KEYS;
+        double ideal = 1.0 / (NODES + 1);
+        assertTrue(share > ideal / 2 && share < ideal * 3 / 2, "moved " + share + ", ideal " + ideal);
+    }
+
+    @Test
+    public void testLeavingNodeHandsOverOnlyItsKeys() {
+        HashRing ring = ringOf(NODES);
+        Map<String, String> before = owners(ring);
+
+        assertTrue(ring.remove("node-3"));
+        for (Map.Entry<String, String> key : before.entrySet()) {
+            String owner = ring.ownerOf(key.getKey());
+            if (key.getValue().equals("node-3")) {
+                assertFalse(owner.equals("node-3"));
+            } else {
+                assertEquals(key.getValue(), owner);
+            }
+        }
+        assertFalse(ring.contains("node-3"));
+    }
+
+    @Test
+    public void testVirtualNodesSpreadLoadEvenly() {
+        double[] spread = loadSpread(ringOf(NODES));
+        System.out.printf("Load over %d nodes with %d virtual nodes: max/mean=%.3f min/mean=%.3f cv=%.3f%n",
+                NODES, Constants.VIRTUAL_NODES_PER_NODE, spread[0], spread[1], spread[2]);
+        assertTrue(spread[0] < 1.25, "max/mean " + spread[0]);
+        assertTrue(spread[1] > 0.75, "min/mean " + spread[1]);
+
+        // A single point per node leaves some nodes with several times the load of others
+        HashRing single = new HashRing(1);
+        for (int i = 0; i < NODES; i++) {
+            single.add("node-" + i);
+        }
+        double[] singleSpread = loadSpread(single);
+        System.out.printf("Load over %d nodes with 1 virtual node: max/mean=%.3f min/mean=%.3f cv=%.3f%n",
+                NODES, singleSpread[0], singleSpread[1], singleSpread[2]);
+        assertTrue(singleSpread[2] > spread[2] * 2, "cv " + singleSpread[2] + " vs " + spread[2]);
+    }
+
+    /**
+     * Creates a ring of nodes named node-0, node-1 and so on.
+     *
+     * @param nodes The number of nodes
+     * @return The ring
+     */
+    private HashRing ringOf(int nodes) {
+        HashRing ring = new HashRing(Constants.VIRTUAL_NODES_PER_NODE);
+        for (int i = 0; i < nodes; i++) {
+            ring.add("node-" + i);
+        }
+        return ring;
+    }
+
+    /**
+     * Records the owner of every simulated key, half of them rooms and half users.
+     *
+     * @param ring The ring
+     * @return The owners by key
+     */
+    private Map<String, String> owners(HashRing ring) {
+        Map<String, String> owners = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            String key = (i % 2 == 0 ? Constants.PLACEMENT_ROOM_PREFIX + "room-" : Constants.PLACEMENT_USER_PREFIX) + i;
+            owners.put(key, ring.ownerOf(key));
+        }
+        return owners;
+    }
+
+    /**
+     * Measures how evenly the simulated keys spread over the nodes of a ring.
+     *
+     * @param ring The ring
+     * @return The highest and lowest node load relative to the mean, and the coefficient of variation
+     */
+    private double[] loadSpread(HashRing ring) {
+        Map<String, Integer> load = new HashMap<>();
+        for (String owner : owners(ring).values()) {
+            load.merge(owner, 1, Integer::sum);
+        }
+        double mean = (double) KEYS / ring.getNodes().size();
+        double max = 0;
+        double min = Double.MAX_VALUE;
+        double squares = 0;
+        for (String node : ring.getNodes()) {
+            int keys = load.getOrDefault(node, 0);
+            max = Math.max(max, keys);
+            min = Math.min(min, keys);
+            squares += (keys - mean) * (keys - mean);
+        }
+        return new double[] {max / mean, min / mean, Math.sqrt(squares / ring.getNodes().size()) / mean};
+    }
+}
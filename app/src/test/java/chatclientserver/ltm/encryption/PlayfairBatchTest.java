@@ -0,0 +1,96 @@
+package chatclientserver.ltm.encryption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import chatclientserver.ltm.model.Message;
+
+/**
+ * Tests for the PlayfairBatch class.
+ */
+public class PlayfairBatchTest {
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @AfterEach
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testResultsKeepTheOrderOfTheMessages() {
+        PlayfairKeyCache cache = new PlayfairKeyCache(64);
+        PlayfairBatch batch = new PlayfairBatch(cache, pool);
+        Random random = new Random(25);
+        List<String[]> pairs = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            pairs.add(new String[] {"KEY" + (char) ('A' + random.nextInt(20)), "tin nhắn số " + i + " xin chào"});
+        }
+
+        List<String> encrypted = batch.encryptAll(pairs, pair -> pair[0], pair -> pair[1]);
+        for (int i = 0; i < pairs.size(); i++) {
+            assertEquals(new PlayfairCipher(pairs.get(i)[0]).encrypt(pairs.get(i)[1]), encrypted.get(i));
+        }
+
+        // Each key is looked up once per batch
+        assertEquals(20, cache.getMisses());
+        assertEquals(0, cache.getHits());
+
+        List<String[]> ciphertexts = new LinkedList<>();
+        for (int i = 0; i < pairs.size(); i++) {
+            ciphertexts.add(new String[] {pairs.get(i)[0], encrypted.get(i)});
+        }
+        List<String> decrypted = batch.decryptAll(ciphertexts, pair -> pair[0], pair -> pair[1]);
+        for (int i = 0; i < pairs.size(); i++) {
+            assertEquals(new PlayfairCipher(pairs.get(i)[0]).decrypt(encrypted.get(i)), decrypted.get(i));
+        }
+        assertEquals(20, cache.getHits());
+    }
+
+    @Test
+    public void testStoredMessagesAreDecrypted() {
+        List<Message> history = new ArrayList<>();
+        for (String key : new String[] {"PLAYFAIR", "MONARCHY", "playfair"}) {
+            Message message = new Message();
+            message.setKey(key);
+            message.setEncryptedMessage(new PlayfairCipher(key).encrypt("hẹn gặp lại"));
+            history.add(message);
+        }
+
+        List<String> decrypted = new PlayfairBatch(new PlayfairKeyCache(8), pool)
+                .decryptAll(history.stream(), Message::getKey, Message::getEncryptedMessage);
+        assertEquals(Arrays.asList("HENZGAPZLAIX", "HENZGAPZLAIX", "HENZGAPZLAIX"), decrypted);
+    }
+
+    @Test
+    public void testBadMessagesGiveNull() {
+        List<String[]> pairs = Arrays.asList(
+                new String[] {"PLAYFAIR", "ABC"},
+                new String[] {null, "ABCD"},
+                new String[] {"PLAYFAIR", null},
+                new String[] {"PLAYFAIR", new PlayfairCipher("PLAYFAIR").encrypt("ok")});
+
+        List<String> decrypted = new PlayfairBatch(new PlayfairKeyCache(8), pool)
+                .decryptAll(pairs, pair -> pair[0], pair -> pair[1]);
+        assertNull(decrypted.get(0));
+        assertNull(decrypted.get(1));
+        assertNull(decrypted.get(2));
+        assertEquals("OK", decrypted.get(3));
+    }
+
+    @Test
+    public void testEmptyBatch() {
+        List<String> results = new PlayfairBatch().encryptAll(new ArrayList<String>(), text -> "KEY", text -> text);
+        assertTrue(results.isEmpty());
+    }
+}
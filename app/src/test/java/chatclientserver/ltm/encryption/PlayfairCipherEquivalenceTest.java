@@ -0,0 +1,114 @@
+package chatclientserver.ltm.encryption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Property tests checking that the table-driven PlayfairCipher produces exactly
+ * the output of the original implementation, kept as {@link ReferencePlayfairCipher},
+ * for randomly generated keys and texts.
+ */
+public class PlayfairCipherEquivalenceTest {
+    private static final int RUNS = 2000;
+
+    // Letters, repeated letters, J, spaces, punctuation, Vietnamese, and characters whose case mapping is unusual
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ"
+            + "AAAALLLLXXXXJjJjIiIi     0123456789,.!?-'\"\t\n"
+            + "àáảãạăằắẳẵặâầấẩẫậđĐèéẻẽẹêềếểễệìíỉĩịòóỏõọôồốổỗộơờớởỡợùúủũụưừứửữựỳýỷỹỵ"
+            + "ßıİſﬀﬁΩЖ中😀";
+
+    @Test
+    public void testEncryptMatchesReference() {
+        Random random = new Random(21);
+        for (int run = 0; run < RUNS; run++) {
+            String key = randomText(random, 12);
+            String plaintext = randomText(random, 60);
+            assertEquals(new ReferencePlayfairCipher(key).encrypt(plaintext), new PlayfairCipher(key).encrypt(plaintext),
+                    () -> "key='" + key + "', plaintext='" + plaintext + "'");
+        }
+    }
+
+    @Test
+    public void testDecryptMatchesReference() {
+        Random random = new Random(22);
+        for (int run = 0; run < RUNS; run++) {
+            String key = randomText(random, 12);
+            String ciphertext = randomText(random, 60);
+            ReferencePlayfairCipher reference = new ReferencePlayfairCipher(key);
+            PlayfairCipher cipher = new PlayfairCipher(key);
+
+            String expected;
+            try {
+                expected = reference.decrypt(ciphertext);
+            } catch (RuntimeException e) {
+                // An odd number of letters cannot be split into digraphs
+                assertThrows(IllegalArgumentException.class, () -> cipher.decrypt(ciphertext));
+                continue;
+            }
+            assertEquals(expected, cipher.decrypt(ciphertext), () -> "key='" + key + "', ciphertext='" + ciphertext + "'");
+        }
+    }
+
+    @Test
+    public void testRoundTripMatchesReference() {
+        Random random = new Random(23);
+        for (int run = 0; run < RUNS; run++) {
+            String key = randomText(random, 12);
+            String plaintext = randomText(random, 60);
+            PlayfairCipher cipher = new PlayfairCipher(key);
+            assertEquals(new ReferencePlayfairCipher(key).decrypt(cipher.encrypt(plaintext)),
+                    cipher.decrypt(cipher.encrypt(plaintext)));
+        }
+    }
+
+    @Test
+    public void testMatrixMatchesReference() {
+        Random random = new Random(24);
+        for (int run = 0; run < RUNS; run++) {
+            String key = randomText(random, 30);
+            assertEquals(new ReferencePlayfairCipher(key).getMatrixAsString(), new PlayfairCipher(key).getMatrixAsString());
+            assertEquals(new ReferencePlayfairCipher(key).getKey(), new PlayfairCipher(key).getKey());
+        }
+    }
+
+    @Test
+    public void testOutputMatchesReferenceInTurkishLocale() {
+        // Upper-casing 'i' gives a dotted capital I in this locale, which both implementations drop
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(Locale.forLanguageTag("tr-TR"));
+        try {
+            Random random = new Random(25);
+            for (int run = 0; run < RUNS / 10; run++) {
+                String key = randomText(random, 12);
+                String text = randomText(random, 40);
+                assertEquals(new ReferencePlayfairCipher(key).encrypt(text), new PlayfairCipher(key).encrypt(text));
+                String ciphertext = new PlayfairCipher(key).encrypt(text);
+                assertEquals(new ReferencePlayfairCipher(key).decrypt(ciphertext), new PlayfairCipher(key).decrypt(ciphertext));
+            }
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    /**
+     * Generates a random text from the test alphabet.
+     *
+     * @param random The random number generator
+     * @param maxLength The longest text to generate, in code points
+     * @return The text
+     */
+    private String randomText(Random random, int maxLength) {
+        int[] codePoints = ALPHABET.codePoints().toArray();
+        StringBuilder text = new StringBuilder();
+        int length = random.nextInt(maxLength + 1);
+        for (int i = 0; i < length; i++) {
+            text.appendCodePoint(codePoints[random.nextInt(codePoints.length)]);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,69 @@
+package chatclientserver.ltm.encryption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Load test checking that evicting a key from the PlayfairKeyCache does not
+ * slow down as the cache grows. It measures wall-clock time, so it only runs
+ * on demand rather than with the unit tests.
+ *
+ * Run with: ./gradlew loadTest
+ */
+@Tag("load")
+public class PlayfairKeyCacheLoadTest {
+
+    @Test
+    public void testEvictionCostDoesNotGrowWithCapacity() {
+        // Warm up, so the first measurement does not include compiling the cache
+        nanosPerEvictingMiss(64);
+
+        // Scanning the keys for the oldest one would take 256 times as long at the larger capacity
+        long small = nanosPerEvictingMiss(64);
+        long large = nanosPerEvictingMiss(16384);
+        System.out.println("Evicting miss: " + small + " ns at 64 keys, " + large + " ns at 16384 keys");
+        assertTrue(large < small * 6, "64 keys: " + small + " ns per miss, 16384 keys: " + large + " ns per miss");
+    }
+
+    /**
+     * Fills a cache to its capacity, then measures lookups of new keys, each of which evicts one.
+     *
+     * @param capacity The capacity of the cache
+     * @return The average time of a lookup that evicts a key, in nanoseconds
+     */
+    private long nanosPerEvictingMiss(int capacity) {
+        PlayfairKeyCache cache = new PlayfairKeyCache(capacity);
+        for (int i = 0; i < capacity; i++) {
+            cache.get(key(i));
+        }
+
+        int lookups = 4096;
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            cache.get(key(capacity + i));
+        }
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(lookups, cache.getEvictions());
+        assertEquals(capacity, cache.size());
+        return elapsed / lookups;
+    }
+
+    /**
+     * Gets a distinct key made of letters only, so normalizing does not merge two keys.
+     *
+     * @param index The index of the key
+     * @return The key
+     */
+    private static String key(int index) {
+        StringBuilder key = new StringBuilder("KEY");
+        do {
+            key.append((char) ('A' + index % 26));
+            index /= 26;
+        } while (index > 0);
+        return key.toString();
+    }
+}
@@ -0,0 +1,117 @@
+package chatclientserver.ltm.encryption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the PlayfairKeyCache class.
+ */
+public class PlayfairKeyCacheTest {
+
+    @Test
+    public void testKeysAreCompiledOnce() {
+        PlayfairKeyCache cache = new PlayfairKeyCache(8);
+
+        PlayfairCipher first = cache.get("PLAYFAIR");
+        PlayfairCipher second = cache.get("PLAYFAIR");
+
+        assertSame(first, second);
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertEquals(0.5, cache.getHitRate(), 1e-9);
+        assertEquals(new PlayfairCipher("PLAYFAIR").encrypt("xin chào"), first.encrypt("xin chào"));
+    }
+
+    @Test
+    public void testKeysAreCachedByNormalizedKey() {
+        PlayfairKeyCache cache = new PlayfairKeyCache(8);
+
+        PlayfairCipher cipher = cache.get("playfair");
+        assertSame(cipher, cache.get("Play Fair!"));
+        assertSame(cipher, cache.get("PLAYFAIR"));
+        assertEquals("PLAYFAIR", cipher.getKey());
+        assertEquals(1, cache.size());
+
+        // J and I share a cell but the keys stay distinct
+        assertNotSame(cipher, cache.get("JPLAYFAIR"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedKeyIsEvicted() {
+        PlayfairKeyCache cache = new PlayfairKeyCache(2);
+        PlayfairCipher alpha = cache.get("ALPHA");
+        cache.get("BETA");
+
+        // Using ALPHA again makes BETA the oldest
+        cache.get("ALPHA");
+        cache.get("GAMMA");
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertSame(alpha, cache.get("ALPHA"));
+        long misses = cache.getMisses();
+        cache.get("BETA");
+        assertEquals(misses + 1, cache.getMisses());
+    }
+
+    @Test
+    public void testConcurrentLookupsStayWithinCapacity() throws Exception {
+        PlayfairKeyCache cache = new PlayfairKeyCache(16);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                int seed = thread;
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        String key = "KEY" + (char) ('A' + (i * 7 + seed) % 24);
+                        String ciphertext = cache.get(key).encrypt("HELLO");
+                        assertEquals("HELXLO", cache.get(key).decrypt(ciphertext));
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertTrue(cache.size() <= 16, "size=" + cache.size());
+        assertEquals(8 * 2000 * 2, cache.getHits() + cache.getMisses());
+        assertTrue(cache.getEvictions() > 0);
+    }
+
+    @Test
+    public void testManyHitsKeepTheirKeyRecent() {
+        PlayfairKeyCache cache = new PlayfairKeyCache(2);
+        PlayfairCipher alpha = cache.get("ALPHA");
+        cache.get("BETA");
+
+        // More uses than the buffer holds; the ones that fit still make BETA the oldest
+        for (int i = 0; i < 1000; i++) {
+            cache.get("ALPHA");
+        }
+        cache.get("GAMMA");
+
+        assertEquals(1, cache.getEvictions());
+        assertSame(alpha, cache.get("ALPHA"));
+        assertEquals(1000 + 1, cache.getHits());
+    }
+
+    @Test
+    public void testCapacityMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new PlayfairKeyCache(0));
+    }
+}
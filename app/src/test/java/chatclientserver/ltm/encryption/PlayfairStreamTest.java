@@ -0,0 +1,168 @@
+package chatclientserver.ltm.encryption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Tests for the PlayfairStream class, checking that a text given in parts is
+ * encrypted and decrypted exactly as the whole text is.
+ */
+public class PlayfairStreamTest {
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzLLLLXXXXJjIi     .,!?0123"
+            + "àáảãạăâầấđĐèéêềếìíòóôồốơờớùúưừứỳý"
+            + "ßıİﬃ㎉Ω中😀𝐀";
+
+    private final PlayfairCipher cipher = new PlayfairCipher(Constants.DEFAULT_KEY);
+
+    @Test
+    public void testRepeatedLetterAcrossParts() throws IOException {
+        // "LL" split between two parts still gets an X between the letters
+        StringWriter out = new StringWriter();
+        PlayfairStream stream = cipher.newEncryptor();
+        stream.update("hel", out);
+        stream.update("lo", out);
+        assertEquals(6, stream.finish(out));
+        assertEquals(cipher.encrypt("hello"), out.toString());
+        assertEquals("HELXLO", cipher.decrypt(out.toString()));
+    }
+
+    @Test
+    public void testOddLengthIsPadded() throws IOException {
+        StringWriter out = new StringWriter();
+        PlayfairStream stream = cipher.newEncryptor();
+        stream.update("a", out);
+        assertEquals("", out.toString());
+        stream.update("b", out);
+        stream.update("c", out);
+        stream.finish(out);
+        assertEquals(cipher.encrypt("abc"), out.toString());
+        assertEquals("ABCX", cipher.decrypt(out.toString()));
+    }
+
+    @Test
+    public void testRandomPartsMatchWholeText() throws IOException {
+        Random random = new Random(24);
+        int[] codePoints = ALPHABET.codePoints().toArray();
+        for (int run = 0; run < 500; run++) {
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(200);
+            for (int i = 0; i < length; i++) {
+                text.appendCodePoint(codePoints[random.nextInt(codePoints.length)]);
+            }
+            String plaintext = text.toString();
+            String ciphertext = cipher.encrypt(plaintext);
+
+            // Split anywhere, including between the two halves of a surrogate pair
+            assertEquals(ciphertext, inParts(cipher.newEncryptor(), plaintext, random), plaintext);
+            assertEquals(cipher.decrypt(ciphertext), inParts(cipher.newDecryptor(), ciphertext, random));
+        }
+    }
+
+    @Test
+    public void testLargeTextThroughReaderAndWriter() throws IOException {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < Constants.PLAYFAIR_STREAM_CHUNK * 10 + 7) {
+            text.append("Đường về nhà thật đẹp, hẹn gặp lại! 😀 ");
+        }
+        String plaintext = text.toString();
+
+        StringWriter encrypted = new StringWriter();
+        long letters = cipher.encrypt(new StringReader(plaintext), encrypted);
+        assertEquals(cipher.encrypt(plaintext), encrypted.toString());
+        assertEquals(encrypted.toString().length(), letters);
+
+        StringWriter decrypted = new StringWriter();
+        cipher.decrypt(new OneCharReader(encrypted.toString()), decrypted);
+        assertEquals(cipher.decrypt(encrypted.toString()), decrypted.toString());
+    }
+
+    @Test
+    public void testCharBuffers() throws IOException {
+        String plaintext = "xin chào bạn, Tiếng Việt";
+        CharBuffer out = CharBuffer.allocate(64);
+        cipher.encrypt(CharBuffer.wrap(plaintext), out);
+        out.flip();
+        assertEquals(cipher.encrypt(plaintext), out.toString());
+
+        CharBuffer decrypted = CharBuffer.allocate(64);
+        cipher.decrypt(out, decrypted);
+        decrypted.flip();
+        assertEquals(cipher.decrypt(cipher.encrypt(plaintext)), decrypted.toString());
+    }
+
+    @Test
+    public void testOddCiphertextIsRejected() throws IOException {
+        Writer out = Writer.nullWriter();
+        assertThrows(IllegalArgumentException.class, () -> cipher.decrypt(new StringReader("ABC"), out));
+
+        PlayfairStream stream = cipher.newEncryptor();
+        stream.finish(out);
+        assertThrows(IllegalStateException.class, () -> stream.update("more", out));
+    }
+
+    /**
+     * Feeds a text to a stream in parts of random length.
+     *
+     * @param stream The stream
+     * @param text The text
+     * @param random The random number generator
+     * @return The output of the stream
+     * @throws IOException Never, the output is a StringWriter
+     */
+    private String inParts(PlayfairStream stream, String text, Random random) throws IOException {
+        StringWriter out = new StringWriter();
+        int start = 0;
+        while (start < text.length()) {
+            int end = Math.min(text.length(), start + random.nextInt(6));
+            stream.update(text.substring(start, end), out);
+            start = end;
+        }
+        stream.finish(out);
+        return out.toString();
+    }
+
+    /**
+     * A reader that returns one char per read, as a slow network stream might.
+     */
+    private static class OneCharReader extends Reader {
+        private final String text;
+        private int position;
+
+        /**
+         * Constructs a OneCharReader.
+         *
+         * @param text The text to read
+         */
+        OneCharReader(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (position == text.length()) {
+                return -1;
+            }
+            if (length == 0) {
+                return 0;
+            }
+            buffer[offset] = text.charAt(position++);
+            return 1;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package chatclientserver.ltm.encryption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Locale;
+import java.util.Random;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the TextNormalizer class, checking it against the string-based
+ * normalization it replaces.
+ */
+public class TextNormalizerTest {
+
+    @Test
+    public void testVietnameseText() {
+        assertEquals("XINZCHAOZBAN", TextNormalizer.normalize("xin chào bạn"));
+        assertEquals("TIENGZVIET", TextNormalizer.normalize("Tiếng Việt"));
+        assertEquals("DUONGZDIZDAUZDO", TextNormalizer.normalize("Đường đi đâu đó"));
+        assertEquals("NGUOIZVIETZNAM", TextNormalizer.normalize("NGƯỜI VIỆT NAM"));
+        assertEquals("HENZGAPZLAIZIOHN", TextNormalizer.normalize("hẹn gặp lại, John!"));
+        assertEquals("", TextNormalizer.normalize(""));
+    }
+
+    @Test
+    public void testEveryCharMatchesReference() {
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            String text = String.valueOf((char) c);
+            String normalized = TextNormalizer.normalize(text);
+            assertEquals(reference(text), normalized, "U+" + Integer.toHexString(c));
+            assertTrue(normalized.length() <= TextNormalizer.MAX_LETTERS_PER_CHAR);
+        }
+    }
+
+    @Test
+    public void testSupplementaryCharsMatchReference() {
+        // Mathematical letters, enclosed letters and emoji
+        int[] codePoints = {0x1D400, 0x1D41A, 0x1D4A2, 0x1F130, 0x1F14F, 0x1F190, 0x1F600, 0x20000, 0x107A5};
+        for (int codePoint : codePoints) {
+            String text = new String(Character.toChars(codePoint));
+            assertEquals(reference(text), TextNormalizer.normalize(text), "U+" + Integer.toHexString(codePoint));
+        }
+
+        // A surrogate without its pair is dropped
+        assertEquals("AB", TextNormalizer.normalize("a\uD83Db"));
+        assertEquals("AB", TextNormalizer.normalize("a\uDE00b"));
+    }
+
+    @Test
+    public void testRandomTextsMatchReference() {
+        String alphabet = "abcdefghijklmnopqrstuvwxyzJj  \t.,!?0123456789"
+                + "àáảãạăằắẳẵặâầấẩẫậđĐèéẻẽẹêềếểễệìíỉĩịòóỏõọôồốổỗộơờớởỡợùúủũụưừứửữựỳýỷỹỵ"
+                + "áệßıİſﬀﬁﬃ㎉ΩЖ中😀𝐀";
+        int[] codePoints = alphabet.codePoints().toArray();
+        Random random = new Random(23);
+        for (int run = 0; run < 2000; run++) {
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(80);
+            for (int i = 0; i < length; i++) {
+                text.appendCodePoint(codePoints[random.nextInt(codePoints.length)]);
+            }
+            assertEquals(reference(text.toString()), TextNormalizer.normalize(text), text::toString);
+        }
+    }
+
+    @Test
+    public void testLocalesMatchReference() {
+        Locale defaultLocale = Locale.getDefault();
+        try {
+            for (String tag : new String[] {"tr-TR", "az", "lt-LT", "vi-VN"}) {
+                Locale.setDefault(Locale.forLanguageTag(tag));
+                for (int c = 0; c < 0x2000; c++) {
+                    String text = "i" + (char) c + "\u0307i";
+                    assertEquals(reference(text), TextNormalizer.normalize(text), tag + " U+" + Integer.toHexString(c));
+                }
+            }
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    public void testLongTextsUseTheirOwnBuffer() {
+        String longText = StringUtils.repeat("Tiếng Việt ", 20000);
+        assertEquals(StringUtils.repeat("TIENGZVIETZ", 20000), TextNormalizer.normalize(longText));
+        assertEquals("XINZCHAO", TextNormalizer.normalize("xin chào"));
+    }
+
+    /**
+     * Normalizes a text the way PlayfairCipher and the search phrase did before TextNormalizer.
+     *
+     * @param text The text
+     * @return The normalized letters
+     */
+    private String reference(String text) {
+        String upper = StringUtils.stripAccents(text).replace(' ', 'Z').toUpperCase();
+        return upper.replaceAll("[^A-Z]", "").replace('J', 'I');
+    }
+}
@@ -0,0 +1,238 @@
+package chatclientserver.ltm.protocol;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import chatclientserver.ltm.model.FileTransfer;
+import chatclientserver.ltm.model.Message;
+import chatclientserver.ltm.util.BufferPool;
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Tests for per-frame payload compression.
+ */
+public class FrameCompressionTest {
+    private static final PayloadCodec CODEC = BinaryPayloadCodec.WITH_COMPRESSION;
+    private static final int THRESHOLD = 256;
+
+    @Test
+    public void testLargeTextIsSentCompressed() throws Exception {
+        CompressionPolicy policy = new CompressionPolicy(THRESHOLD, Constants.DEFAULT_COMPRESSION_LEVEL);
+        FrameCompressor compressor = policy.newCompressor();
+        Message message = new Message("client-1", "XINZCHAOBANQ".repeat(100), "PLAYFAIR", null);
+
+        ByteBuffer raw = FrameCodec.encode(CODEC, Constants.MESSAGE_TYPE_TEXT, 5, message);
+        ByteBuffer frame = FrameCodec.encode(CODEC, Constants.MESSAGE_TYPE_TEXT, 5, message, compressor);
+
+        assertTrue(frame.remaining() * 4 < raw.remaining(), "compressed=" + frame.remaining() + " raw=" + raw.remaining());
+        assertEquals(frame.remaining() - FrameCodec.LENGTH_FIELD_SIZE, frame.getInt(0));
+        int type = frame.getInt(FrameCodec.LENGTH_FIELD_SIZE);
+        assertTrue(FrameCodec.isCompressed(type));
+        assertEquals(Constants.MESSAGE_TYPE_TEXT, FrameCodec.messageType(type));
+        assertEquals(5, frame.getInt(FrameCodec.HEADER_SIZE));
+
+        Message decoded = (Message) FrameCodec.decodePayload(CODEC, type, payloadOf(frame), compressor);
+        assertEquals(message.getEncryptedMessage(), decoded.getEncryptedMessage());
+        assertEquals(1, policy.getCompressedFrames());
+        assertEquals(1, policy.getInflatedFrames());
+        assertTrue(policy.getRatio() < 0.25);
+        compressor.close();
+    }
+
+    @Test
+    public void testSmallOrPrecompressedPayloadsAreSentRaw() throws Exception {
+        CompressionPolicy policy = new CompressionPolicy(THRESHOLD, Constants.DEFAULT_COMPRESSION_LEVEL);
+        FrameCompressor compressor = policy.newCompressor();
+
+        ByteBuffer small = FrameCodec.encode(CODEC, Constants.MESSAGE_TYPE_TEXT, 0, new Message(null, "ABC", "KEY", null),
+                compressor);
+        assertFalse(FrameCodec.isCompressed(small.getInt(FrameCodec.LENGTH_FIELD_SIZE)));
+
+        FileTransfer image = new FileTransfer("client-1", "photo.png", 4096, Constants.FILE_TYPE_IMAGE);
+        image.setFileData(new byte[4096]);
+        ByteBuffer imageFrame = FrameCodec.encode(CODEC, Constants.MESSAGE_TYPE_FILE, 0, image, compressor);
+        assertFalse(FrameCodec.isCompressed(imageFrame.getInt(FrameCodec.LENGTH_FIELD_SIZE)));
+
+        FileTransfer document = new FileTransfer("client-1", "notes.txt", 4096, Constants.FILE_TYPE_OTHER);
+        document.setFileData(new byte[4096]);
+        ByteBuffer documentFrame = FrameCodec.encode(CODEC, Constants.MESSAGE_TYPE_FILE, 0, document, compressor);
+        assertTrue(FrameCodec.isCompressed(documentFrame.getInt(FrameCodec.LENGTH_FIELD_SIZE)));
+
+        // Nothing is tried below the threshold or on skipped file types
+        assertEquals(1, policy.getAttempts());
+        compressor.close();
+    }
+
+    @Test
+    public void testIncompressiblePayloadIsSentRaw() throws Exception {
+        CompressionPolicy policy = new CompressionPolicy(THRESHOLD, Constants.DEFAULT_COMPRESSION_LEVEL);
+        FrameCompressor compressor = policy.newCompressor();
+        byte[] noise = new byte[8192];
+        new Random(3).nextBytes(noise);
+        FileTransfer archive = new FileTransfer("client-1", "data.bin", noise.length, Constants.FILE_TYPE_OTHER);
+        archive.setFileData(noise);
+
+        ByteBuffer raw = FrameCodec.encode(CODEC, Constants.MESSAGE_TYPE_FILE, 0, archive);
+        ByteBuffer frame = FrameCodec.compress(CODEC, raw, archive, compressor);
+
+        assertSame(raw, frame);
+        assertEquals(1, policy.getAttempts());
+        assertEquals(0, policy.getCompressedFrames());
+        compressor.close();
+    }
+
+    @Test
+    public void testOlderVersionsAndDisabledPolicyAreNotCompressed() throws Exception {
+        Message message = new Message(null, "A".repeat(2000), "KEY", null);
+        FrameCompressor compressor = new CompressionPolicy(THRESHOLD, Constants.DEFAULT_COMPRESSION_LEVEL).newCompressor();
+        ByteBuffer older = FrameCodec.encode(BinaryPayloadCodec.WITH_REDIRECT, Constants.MESSAGE_TYPE_TEXT, 0, message,
+                compressor);
+        assertFalse(FrameCodec.isCompressed(older.getInt(FrameCodec.LENGTH_FIELD_SIZE)));
+
+        FrameCompressor disabled = CompressionPolicy.DISABLED.newCompressor();
+        ByteBuffer frame = FrameCodec.encode(CODEC, Constants.MESSAGE_TYPE_TEXT, 0, message, disabled);
+        assertFalse(FrameCodec.isCompressed(frame.getInt(FrameCodec.LENGTH_FIELD_SIZE)));
+
+        // A peer that compresses is still understood
+        ByteBuffer compressed = FrameCodec.encode(CODEC, Constants.MESSAGE_TYPE_TEXT, 0, message, compressor);
+        int type = compressed.getInt(FrameCodec.LENGTH_FIELD_SIZE);
+        assertEquals(message.getEncryptedMessage(),
+                ((Message) FrameCodec.decodePayload(CODEC, type, payloadOf(compressed), disabled)).getEncryptedMessage());
+        assertThrows(IOException.class, () -> FrameCodec.decodePayload(CODEC, type, payloadOf(compressed), null));
+        compressor.close();
+        disabled.close();
+    }
+
+    @Test
+    public void testCorruptCompressedPayloadIsRejected() throws Exception {
+        FrameCompressor compressor = new CompressionPolicy(THRESHOLD, Constants.DEFAULT_COMPRESSION_LEVEL).newCompressor();
+        Message message = new Message(null, "XINCHAO".repeat(300), "KEY", null);
+        ByteBuffer frame = FrameCodec.encode(CODEC, Constants.MESSAGE_TYPE_TEXT, 0, message, compressor);
+        int type = frame.getInt(FrameCodec.LENGTH_FIELD_SIZE);
+
+        // Announce more bytes than the compressed data holds
+        ByteBuffer longer = payloadOf(frame);
+        longer.putInt(longer.position(), longer.getInt(longer.position()) + 10);
+        assertThrows(IOException.class, () -> FrameCodec.decodePayload(CODEC, type, longer, compressor));
+
+        ByteBuffer huge = payloadOf(frame);
+        huge.putInt(huge.position(), Constants.MAX_FRAME_SIZE + 1);
+        assertThrows(IOException.class, () -> FrameCodec.decodePayload(CODEC, type, huge, compressor));
+
+        ByteBuffer truncated = payloadOf(frame);
+        truncated.limit(truncated.limit() - 20);
+        assertThrows(IOException.class, () -> FrameCodec.decodePayload(CODEC, type, truncated, compressor));
+        compressor.close();
+    }
+
+    @Test
+    public void testImpossibleUncompressedLengthIsRejectedBeforeAllocating() throws Exception {
+        FrameCompressor compressor = new CompressionPolicy(THRESHOLD, Constants.DEFAULT_COMPRESSION_LEVEL).newCompressor();
+        int type = Constants.MESSAGE_TYPE_FILE | FrameCodec.COMPRESSED_FLAG;
+
+        // A few bytes that announce a 64 MiB payload
+        ByteBuffer bomb = ByteBuffer.allocate(FrameCodec.UNCOMPRESSED_LENGTH_SIZE + 8);
+        bomb.putInt(Constants.MAX_FRAME_SIZE).put(new byte[] {1, 2, 3, 4, 5, 6, 7, 8}).flip();
+        long acquired = BufferPool.getDefault().getAcquired();
+        IOException error = assertThrows(IOException.class, () -> FrameCodec.decodePayload(CODEC, type, bomb, compressor));
+        assertTrue(error.getMessage().contains("impossible"), error.getMessage());
+        assertEquals(acquired, BufferPool.getDefault().getAcquired());
+
+        // A payload that compresses as well as deflate allows is still accepted
+        FileTransfer zeros = new FileTransfer("client-1", "zeros.bin", 4 * 1024 * 1024, Constants.FILE_TYPE_OTHER);
+        zeros.setFileData(new byte[4 * 1024 * 1024]);
+        ByteBuffer frame = FrameCodec.encode(CODEC, Constants.MESSAGE_TYPE_FILE, 0, zeros, compressor);
+        assertTrue(FrameCodec.isCompressed(frame.getInt(FrameCodec.LENGTH_FIELD_SIZE)));
+        FileTransfer decoded = (FileTransfer) FrameCodec.decodePayload(CODEC, frame.getInt(FrameCodec.LENGTH_FIELD_SIZE),
+                payloadOf(frame), compressor);
+        assertArrayEquals(zeros.getFileData(), decoded.getFileData());
+        compressor.close();
+    }
+
+    @Test
+    public void testSharedFrameIsCompressedOnce() throws Exception {
+        CompressionPolicy policy = new CompressionPolicy(THRESHOLD, Constants.DEFAULT_COMPRESSION_LEVEL);
+        FrameCompressor first = policy.newCompressor();
+        FrameCompressor second = policy.newCompressor();
+        SharedFrame frame = new SharedFrame(Constants.MESSAGE_TYPE_TEXT, new Message(null, "HELLO".repeat(400), "KEY", null));
+
+        ByteBuffer forFirst = frame.encodedFor(CODEC, first);
+        ByteBuffer forSecond = frame.encodedFor(CODEC, second);
+        ByteBuffer uncompressed = frame.encodedFor(CODEC, null);
+
+        assertEquals(forFirst, forSecond);
+        assertEquals(1, policy.getAttempts());
+        assertTrue(FrameCodec.isCompressed(forFirst.getInt(FrameCodec.LENGTH_FIELD_SIZE)));
+        assertFalse(FrameCodec.isCompressed(uncompressed.getInt(FrameCodec.LENGTH_FIELD_SIZE)));
+        frame.release();
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void testStreamChannelsExchangeCompressedFrames() throws Exception {
+        CompressionPolicy serverPolicy = new CompressionPolicy(THRESHOLD, Constants.DEFAULT_COMPRESSION_LEVEL);
+        CompressionPolicy clientPolicy = new CompressionPolicy(THRESHOLD, Constants.DEFAULT_COMPRESSION_LEVEL);
+        byte[] document = "Xin chào, đây là một tài liệu dài. ".repeat(20000).getBytes("UTF-8");
+
+        try (ServerSocket listener = new ServerSocket(0)) {
+            CompletableFuture<FramedStreamChannel> accepted = CompletableFuture.supplyAsync(() -> {
+                try {
+                    Socket socket = listener.accept();
+                    return FramedStreamChannel.accept(socket.getInputStream(), socket.getOutputStream(),
+                            Constants.PROTOCOL_VERSION, null, serverPolicy);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            Socket socket = new Socket("localhost", listener.getLocalPort());
+            FramedStreamChannel client = FramedStreamChannel.connect(socket.getInputStream(), socket.getOutputStream(),
+                    Constants.PROTOCOL_VERSION, null, clientPolicy);
+            FramedStreamChannel server = accepted.get(5, TimeUnit.SECONDS);
+
+            FileTransfer upload = new FileTransfer("client-1", "notes.txt", document.length, Constants.FILE_TYPE_OTHER);
+            upload.setFileData(document);
+            client.writeFrame(Constants.MESSAGE_TYPE_FILE, 7, upload);
+            client.writeFrame(Constants.MESSAGE_TYPE_TEXT, 8, new Message(null, "ABCD".repeat(200), "KEY", null));
+
+            Frame file = server.readFrame();
+            assertEquals(Constants.MESSAGE_TYPE_FILE, file.getType());
+            assertEquals(7, file.getRequestId());
+            assertArrayEquals(document, ((FileTransfer) file.getPayload()).getFileData());
+            Frame text = server.readFrame();
+            assertEquals(Constants.MESSAGE_TYPE_TEXT, text.getType());
+            assertEquals("ABCD".repeat(200), ((Message) text.getPayload()).getEncryptedMessage());
+
+            assertEquals(2, clientPolicy.getCompressedFrames());
+            assertEquals(2, serverPolicy.getInflatedFrames());
+            client.close();
+            server.close();
+        }
+    }
+
+    /**
+     * Gets the payload of an encoded frame.
+     *
+     * @param frame The encoded frame
+     * @return A buffer over the payload, positioned after the header
+     */
+    private ByteBuffer payloadOf(ByteBuffer frame) {
+        ByteBuffer payload = frame.duplicate();
+        payload.position(FrameCodec.headerSize(CODEC));
+        return payload;
+    }
+}
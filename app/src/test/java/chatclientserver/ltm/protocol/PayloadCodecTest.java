@@ -0,0 +1,189 @@
+package chatclientserver.ltm.protocol;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+
+import org.junit.jupiter.api.Test;
+
+import chatclientserver.ltm.model.FileTransfer;
+import chatclientserver.ltm.model.Message;
+import chatclientserver.ltm.model.User;
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Tests for the frame payload codecs.
+ */
+public class PayloadCodecTest {
+
+    @Test
+    public void testMessageRoundTrip() throws Exception {
+        Message message = new Message("client-1", "ENCRYPTED", "PLAYFAIR", "xin chào");
+        message.setId(7);
+        message.setUserId(42);
+        message.setPhrasePositions("[0]");
+        message.setTimestamp(new Timestamp(1700000000123L));
+        message.setRoom("team");
+        message.setRecipientId(9);
+        message.setRecipientName("bob");
+
+        Message decoded = (Message) roundTrip(BinaryPayloadCodec.INSTANCE, Constants.MESSAGE_TYPE_TEXT, message);
+
+        assertEquals(7, decoded.getId());
+        assertEquals("client-1", decoded.getClientId());
+        assertEquals(42, decoded.getUserId());
+        assertEquals("ENCRYPTED", decoded.getEncryptedMessage());
+        assertEquals("PLAYFAIR", decoded.getKey());
+        assertEquals("xin chào", decoded.getDecryptedMessage());
+        assertEquals("[0]", decoded.getPhrasePositions());
+        assertEquals(message.getTimestamp(), decoded.getTimestamp());
+        assertEquals("team", decoded.getRoom());
+        assertEquals(9, decoded.getRecipientId());
+        assertEquals("bob", decoded.getRecipientName());
+    }
+
+    @Test
+    public void testFileTransferRoundTrip() throws Exception {
+        FileTransfer fileTransfer = new FileTransfer("client-1", "photo.png", 3, Constants.FILE_TYPE_IMAGE);
+        fileTransfer.setFileData(new byte[] {1, 2, 3});
+
+        FileTransfer decoded = (FileTransfer) roundTrip(BinaryPayloadCodec.INSTANCE, Constants.MESSAGE_TYPE_FILE, fileTransfer);
+
+        assertEquals("photo.png", decoded.getFileName());
+        assertEquals(3L, decoded.getFileSize());
+        assertEquals(Constants.FILE_TYPE_IMAGE, decoded.getFileType());
+        assertArrayEquals(new byte[] {1, 2, 3}, decoded.getFileData());
+        assertNull(decoded.getTimestamp());
+    }
+
+    @Test
+    public void testUserAndStringRoundTrip() throws Exception {
+        User user = new User("alice", "hash", "alice@example.com", "Alice");
+        user.setId(5);
+
+        User decoded = (User) roundTrip(BinaryPayloadCodec.INSTANCE, Constants.MESSAGE_TYPE_USER_INFO, user);
+        assertEquals(5, decoded.getId());
+        assertEquals("alice", decoded.getUsername());
+        assertEquals("Alice", decoded.getFullName());
+
+        // Result frames carry a null user on failure
+        assertNull(roundTrip(BinaryPayloadCodec.INSTANCE, Constants.MESSAGE_TYPE_LOGIN_RESULT, null));
+
+        assertEquals("KEY", roundTrip(BinaryPayloadCodec.INSTANCE, Constants.MESSAGE_TYPE_KEY_EXCHANGE, "KEY"));
+        assertEquals("", roundTrip(BinaryPayloadCodec.WITH_HEARTBEATS, Constants.MESSAGE_TYPE_PING, ""));
+        assertEquals("Bye", roundTrip(BinaryPayloadCodec.WITH_DRAIN_NOTICE, Constants.MESSAGE_TYPE_SERVER_DRAINING, "Bye"));
+        assertEquals("token:12", roundTrip(BinaryPayloadCodec.WITH_RESUME, Constants.MESSAGE_TYPE_RESUME, "token:12"));
+        assertEquals("node-b:9000", roundTrip(BinaryPayloadCodec.WITH_REDIRECT, Constants.MESSAGE_TYPE_REDIRECT, "node-b:9000"));
+    }
+
+    @Test
+    public void testPayloadDecodesFromDirectBuffer() throws Exception {
+        Message message = new Message("client-1", "ENCRYPTED", "PLAYFAIR", "xin chào");
+        message.setRoom("team");
+        ByteBuffer frame = FrameCodec.encode(BinaryPayloadCodec.WITH_REDIRECT, Constants.MESSAGE_TYPE_TEXT, message);
+        frame.position(FrameCodec.headerSize(BinaryPayloadCodec.WITH_REDIRECT));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(frame.remaining());
+        direct.put(frame).flip();
+        Message decoded = (Message) BinaryPayloadCodec.WITH_REDIRECT.decode(Constants.MESSAGE_TYPE_TEXT, direct);
+
+        assertEquals("xin chào", decoded.getDecryptedMessage());
+        assertEquals("team", decoded.getRoom());
+        assertEquals(0, direct.position());
+
+        // The serialized codec falls back to copying the buffer
+        ByteBuffer serialized = FrameCodec.encode(SerializedPayloadCodec.INSTANCE, Constants.MESSAGE_TYPE_TEXT, message);
+        serialized.position(FrameCodec.HEADER_SIZE);
+        ByteBuffer serializedDirect = ByteBuffer.allocateDirect(serialized.remaining());
+        serializedDirect.put(serialized).flip();
+        assertEquals("ENCRYPTED", ((Message) SerializedPayloadCodec.INSTANCE.decode(Constants.MESSAGE_TYPE_TEXT,
+                serializedDirect)).getEncryptedMessage());
+    }
+
+    @Test
+    public void testBinaryIsSmallerThanSerialized() throws Exception {
+        Message message = new Message(null, "BGKZTQ", "PLAYFAIR", null);
+
+        int binary = FrameCodec.encode(BinaryPayloadCodec.INSTANCE, Constants.MESSAGE_TYPE_TEXT, message).remaining();
+        int serialized = FrameCodec.encode(SerializedPayloadCodec.INSTANCE, Constants.MESSAGE_TYPE_TEXT, message).remaining();
+
+        assertTrue(binary * 4 < serialized, "binary=" + binary + " serialized=" + serialized);
+    }
+
+    @Test
+    public void testSerializedFallbackRoundTrip() throws Exception {
+        Message message = new Message("client-1", "ENCRYPTED", "PLAYFAIR", null);
+
+        Message decoded = (Message) roundTrip(SerializedPayloadCodec.INSTANCE, Constants.MESSAGE_TYPE_TEXT, message);
+
+        assertEquals("ENCRYPTED", decoded.getEncryptedMessage());
+    }
+
+    @Test
+    public void testVersionNegotiation() throws Exception {
+        assertEquals(Constants.PROTOCOL_VERSION_SERIALIZED,
+                FrameCodec.negotiateVersion(Constants.PROTOCOL_VERSION_SERIALIZED, Constants.PROTOCOL_VERSION));
+        assertEquals(Constants.PROTOCOL_VERSION, FrameCodec.negotiateVersion(99, Constants.PROTOCOL_VERSION));
+        assertThrows(IOException.class, () -> FrameCodec.negotiateVersion(0, Constants.PROTOCOL_VERSION));
+
+        assertEquals(Constants.PROTOCOL_VERSION_COMPRESSION, FrameCodec.codecFor(Constants.PROTOCOL_VERSION_COMPRESSION).getVersion());
+        assertEquals(Constants.PROTOCOL_VERSION_REDIRECT, FrameCodec.codecFor(Constants.PROTOCOL_VERSION_REDIRECT).getVersion());
+        assertEquals(Constants.PROTOCOL_VERSION_RESUME, FrameCodec.codecFor(Constants.PROTOCOL_VERSION_RESUME).getVersion());
+        assertEquals(Constants.PROTOCOL_VERSION_DRAIN_NOTICE, FrameCodec.codecFor(Constants.PROTOCOL_VERSION_DRAIN_NOTICE).getVersion());
+        assertEquals(Constants.PROTOCOL_VERSION_HEARTBEAT, FrameCodec.codecFor(Constants.PROTOCOL_VERSION_HEARTBEAT).getVersion());
+        assertEquals(Constants.PROTOCOL_VERSION_REQUEST_ID, FrameCodec.codecFor(Constants.PROTOCOL_VERSION_REQUEST_ID).getVersion());
+        assertEquals(Constants.PROTOCOL_VERSION_BINARY, FrameCodec.codecFor(Constants.PROTOCOL_VERSION_BINARY).getVersion());
+        assertEquals(Constants.PROTOCOL_VERSION_SERIALIZED, FrameCodec.codecFor(Constants.PROTOCOL_VERSION_SERIALIZED).getVersion());
+    }
+
+    @Test
+    public void testRequestIdIsCarriedFromVersion3() throws Exception {
+        PayloadCodec codec = FrameCodec.codecFor(Constants.PROTOCOL_VERSION_REQUEST_ID);
+        ByteBuffer frame = FrameCodec.encode(codec, Constants.MESSAGE_TYPE_ACK, 42, "report.pdf");
+
+        assertEquals(FrameCodec.HEADER_SIZE + FrameCodec.REQUEST_ID_SIZE, FrameCodec.headerSize(codec));
+        assertEquals(frame.remaining() - FrameCodec.LENGTH_FIELD_SIZE, frame.getInt(0));
+        assertEquals(Constants.MESSAGE_TYPE_ACK, frame.getInt(FrameCodec.LENGTH_FIELD_SIZE));
+        assertEquals(42, frame.getInt(FrameCodec.HEADER_SIZE));
+        assertEquals("report.pdf", codec.decode(Constants.MESSAGE_TYPE_ACK, frame.array(),
+                FrameCodec.headerSize(codec), frame.remaining() - FrameCodec.headerSize(codec)));
+
+        // Older versions drop the request ID and keep the version 2 layout
+        ByteBuffer legacy = FrameCodec.encode(BinaryPayloadCodec.INSTANCE, Constants.MESSAGE_TYPE_ACK, 42, "report.pdf");
+        assertEquals(frame.remaining() - FrameCodec.REQUEST_ID_SIZE, legacy.remaining());
+        assertThrows(IOException.class, () -> FrameCodec.checkFrameLength(FrameCodec.HEADER_SIZE - FrameCodec.LENGTH_FIELD_SIZE, codec));
+    }
+
+    @Test
+    public void testTruncatedPayloadIsRejected() throws Exception {
+        ByteBuffer frame = FrameCodec.encode(BinaryPayloadCodec.INSTANCE, Constants.MESSAGE_TYPE_KEY_EXCHANGE, "PLAYFAIR");
+
+        assertThrows(IOException.class, () -> BinaryPayloadCodec.INSTANCE.decode(Constants.MESSAGE_TYPE_KEY_EXCHANGE,
+                frame.array(), FrameCodec.HEADER_SIZE, frame.remaining() - FrameCodec.HEADER_SIZE - 1));
+    }
+
+    /**
+     * Encodes a payload into a frame and decodes it again.
+     *
+     * @param codec The codec to use
+     * @param type The message type
+     * @param payload The payload
+     * @return The decoded payload
+     * @throws Exception If encoding or decoding fails
+     */
+    private Object roundTrip(PayloadCodec codec, int type, Object payload) throws Exception {
+        ByteBuffer frame = FrameCodec.encode(codec, type, payload);
+
+        assertEquals(frame.remaining() - FrameCodec.LENGTH_FIELD_SIZE, frame.getInt(0));
+        assertEquals(type, frame.getInt(FrameCodec.LENGTH_FIELD_SIZE));
+
+        int headerSize = FrameCodec.headerSize(codec);
+        return codec.decode(type, frame.array(), headerSize, frame.remaining() - headerSize);
+    }
+}
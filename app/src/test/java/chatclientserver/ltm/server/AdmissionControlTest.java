@@ -0,0 +1,124 @@
+package chatclientserver.ltm.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.Socket;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Tests for the AdmissionControl class.
+ */
+public class AdmissionControlTest {
+    private static final int NIO_PORT = 18893;
+
+    private ServerConfig config;
+    private AdmissionControl admission;
+
+    @BeforeEach
+    public void setUp() {
+        config = new ServerConfig();
+        admission = new AdmissionControl(config);
+    }
+
+    @Test
+    public void testSessionLimit() {
+        config.setMaxSessions(2);
+        ClientHandler first = createClient();
+        ClientHandler second = createClient();
+        ClientHandler third = createClient();
+
+        assertTrue(admission.tryAdmit(first));
+        assertTrue(admission.tryAdmit(second));
+        assertFalse(admission.tryAdmit(third));
+        assertEquals(1, admission.getRejectedConnections());
+
+        // A released slot can be taken by the next client
+        admission.release(first);
+        assertTrue(admission.tryAdmit(third));
+        assertEquals(2, admission.getAdmittedSessions());
+    }
+
+    @Test
+    public void testPerAddressLimit() {
+        config.setMaxSessionsPerIp(1);
+        ClientHandler first = createClient();
+        ClientHandler second = createClient();
+
+        assertTrue(admission.tryAdmit(first));
+        assertFalse(admission.tryAdmit(second));
+        assertEquals(1, admission.getAdmittedSessions(first.getClientIpAddress()));
+    }
+
+    @Test
+    public void testReleaseIsIdempotent() {
+        ClientHandler client = createClient();
+        ClientHandler never = createClient();
+        assertTrue(admission.tryAdmit(client));
+
+        admission.release(client);
+        admission.release(client);
+        admission.release(never);
+        assertEquals(0, admission.getAdmittedSessions());
+        assertEquals(0, admission.getAdmittedSessions(client.getClientIpAddress()));
+    }
+
+    @Test
+    public void testZeroMeansUnlimited() {
+        config.setMaxSessions(0);
+        config.setMaxSessionsPerIp(0);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(admission.tryAdmit(createClient()));
+        }
+        assertEquals(0, admission.getRejectedConnections());
+    }
+
+    @Test
+    public void testRateLimitCounters() {
+        admission.recordRateLimited(Constants.RATE_LIMIT_DELAY);
+        admission.recordRateLimited(Constants.RATE_LIMIT_DELAY);
+        admission.recordRateLimited(Constants.RATE_LIMIT_REJECT);
+        admission.recordRateLimited(Constants.RATE_LIMIT_DISCONNECT);
+
+        assertEquals(2, admission.getDelayedFrames());
+        assertEquals(1, admission.getRejectedFrames());
+        assertEquals(1, admission.getRateLimitDisconnects());
+    }
+
+    @Test
+    public void testSilentNioClientGivesBackItsSlot() throws Exception {
+        ServerConfig nioConfig = new ServerConfig();
+        nioConfig.setTransport(Constants.TRANSPORT_NIO);
+        nioConfig.setHandshakeTimeoutMillis(300);
+        nioConfig.setMaxSessions(1);
+        ChatServer server = new ChatServer(nioConfig);
+        server.start(NIO_PORT);
+        try (Socket silent = new Socket("localhost", NIO_PORT)) {
+            // The peer never sends its hello, so the server closes the connection
+            silent.setSoTimeout(5000);
+            assertEquals(-1, silent.getInputStream().read());
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (server.getAdmissionControl().getAdmittedSessions() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, server.getAdmissionControl().getAdmittedSessions());
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Creates an unconnected client handler.
+     *
+     * @return The client handler
+     */
+    private ClientHandler createClient() {
+        return new ClientHandler(new Socket(), ChatServer.getInstance());
+    }
+}
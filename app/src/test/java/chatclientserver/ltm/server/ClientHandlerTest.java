@@ -6,9 +6,10 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.apache.commons.lang3.StringUtils;
 import org.junit.jupiter.api.Test;
 
+import chatclientserver.ltm.encryption.TextNormalizer;
+
 /**
  * Tests for the ClientHandler's search phrase preparation and finding functionality.
  * These tests directly test the utility methods without creating a ClientHandler instance.
@@ -31,6 +32,10 @@ public class ClientHandlerTest {
         // Test with other diacritical marks
         result = prepareSearchPhrase("Tiếng Việt");
         assertEquals("TIENGZVIET", result);
+
+        // Test with đ, punctuation and J, which decrypted messages never contain
+        result = prepareSearchPhrase("Đi đâu, Jim?");
+        assertEquals("DIZDAUZIIM", result);
     }
 
     /**
@@ -59,14 +64,7 @@ public class ClientHandlerTest {
      * This is a copy of the method in ClientHandler to avoid creating a ClientHandler instance.
      */
     private String prepareSearchPhrase(String phrase) {
-        // Remove diacritical marks (convert Vietnamese to non-accented form)
-        String normalized = StringUtils.stripAccents(phrase);
-
-        // Replace spaces with 'Z' (same as in PlayfairCipher)
-        normalized = normalized.replace(' ', 'Z');
-
-        // Convert to uppercase (decrypted messages are in uppercase)
-        return normalized.toUpperCase();
+        return TextNormalizer.normalize(phrase);
     }
 
     /**
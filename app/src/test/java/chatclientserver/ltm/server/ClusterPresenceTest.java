@@ -0,0 +1,52 @@
+package chatclientserver.ltm.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the ClusterPresence class.
+ */
+public class ClusterPresenceTest {
+
+    @Test
+    public void testUsersAreFoundByIdAndName() {
+        ClusterPresence presence = new ClusterPresence();
+        presence.online("a", 1, "Alice");
+        presence.online("b", 1, "Alice");
+        presence.online("b", 2, "bob");
+
+        assertEquals(Set.of("a", "b"), presence.nodesFor(1));
+        assertEquals(Set.of("a", "b"), presence.nodesForName("alice"));
+        assertEquals(Set.of("b"), presence.nodesFor(2));
+        assertTrue(presence.nodesFor(3).isEmpty());
+    }
+
+    @Test
+    public void testOfflineRemovesOneNode() {
+        ClusterPresence presence = new ClusterPresence();
+        presence.online("a", 1, "alice");
+        presence.online("b", 1, "alice");
+
+        presence.offline("a", 1);
+        assertEquals(Set.of("b"), presence.nodesFor(1));
+        presence.offline("b", 1);
+        assertTrue(presence.nodesFor(1).isEmpty());
+        assertTrue(presence.nodesForName("alice").isEmpty());
+    }
+
+    @Test
+    public void testResetForgetsEveryUserOfANode() {
+        ClusterPresence presence = new ClusterPresence();
+        presence.online("a", 1, "alice");
+        presence.online("a", 2, "bob");
+        presence.online("b", 2, "bob");
+
+        presence.reset("a");
+        assertTrue(presence.nodesFor(1).isEmpty());
+        assertEquals(Set.of("b"), presence.nodesForName("bob"));
+    }
+}
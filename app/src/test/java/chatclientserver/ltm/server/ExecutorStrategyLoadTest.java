@@ -0,0 +1,183 @@
+package chatclientserver.ltm.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import chatclientserver.ltm.protocol.FrameCodec;
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Load test comparing the executor strategies.
+ * Opens many idle sessions against a local server and reports the platform
+ * thread count and memory use for each strategy. The cached and virtual
+ * strategies run the blocking transport; the bounded pool runs the NIO
+ * transport, since with the blocking one every session holds a pool thread.
+ *
+ * Run with: ./gradlew loadTest (-DloadTest.sessions=N to change the session count)
+ */
+@Tag("load")
+public class ExecutorStrategyLoadTest {
+    private static final int SESSIONS = Integer.getInteger("loadTest.sessions", 10000);
+    private static final int PORT = 18888;
+    // A server that stops answering fails the test instead of hanging it
+    private static final int READ_TIMEOUT_MILLIS = 30_000;
+
+    @Test
+    public void testCachedThreadPool() throws Exception {
+        runLoad(Constants.EXECUTOR_CACHED, Constants.TRANSPORT_BLOCKING);
+    }
+
+    @Test
+    public void testBoundedThreadPool() throws Exception {
+        runLoad(Constants.EXECUTOR_BOUNDED, Constants.TRANSPORT_NIO);
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        runLoad(Constants.EXECUTOR_VIRTUAL, Constants.TRANSPORT_BLOCKING);
+    }
+
+    /**
+     * Starts the server with the given executor, opens the sessions and reports the measurements.
+     *
+     * @param executor The executor strategy to test
+     * @param transport The transport the server runs
+     * @throws Exception If the server cannot be started or a session cannot be opened
+     */
+    private void runLoad(String executor, String transport) throws Exception {
+        ChatServer server = ChatServer.getInstance();
+        server.getConfig().setTransport(transport);
+        server.getConfig().setExecutor(executor);
+
+        int baseThreads = awaitStableThreadCount();
+        long baseHeap = usedHeap();
+        long baseRss = residentSetSize();
+
+        List<Socket> sockets = new ArrayList<>();
+        server.start(PORT);
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < SESSIONS; i++) {
+                sockets.add(openSession());
+            }
+            long connectMillis = (System.nanoTime() - start) / 1_000_000;
+
+            // Wait until every session is registered and the handlers reached their blocking read
+            long deadline = System.currentTimeMillis() + 60_000;
+            while (server.getClients().size() < SESSIONS && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            Thread.sleep(2000);
+
+            int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+            long heap = usedHeap();
+            long rss = residentSetSize();
+
+            System.out.println("=== " + executor + " executor, " + transport + " transport, " + SESSIONS + " sessions ===");
+            System.out.println("  connect time:      " + connectMillis + " ms");
+            System.out.println("  platform threads:  " + threads + " (+" + (threads - baseThreads) + ")");
+            System.out.println("  heap used:         " + (heap - baseHeap) / (1024 * 1024) + " MB");
+            if (rss > 0) {
+                System.out.println("  resident memory:   " + (rss - baseRss) / (1024 * 1024) + " MB");
+            }
+
+            assertEquals(SESSIONS, server.getClients().size());
+            if (!Constants.EXECUTOR_CACHED.equals(executor)) {
+                // Neither strategy may create a platform thread per session
+                assertTrue(threads - baseThreads <= server.getConfig().getWorkerThreads() + Runtime.getRuntime().availableProcessors() + 16,
+                        "Too many platform threads: " + threads);
+            }
+        } finally {
+            server.stop();
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    /**
+     * Opens a framed session and completes the handshake.
+     *
+     * @return The connected socket
+     * @throws IOException If the handshake fails or the server does not answer in time
+     */
+    private Socket openSession() throws IOException {
+        Socket socket = new Socket("localhost", PORT);
+        socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+        OutputStream out = socket.getOutputStream();
+        ByteBuffer hello = FrameCodec.createHello(Constants.PROTOCOL_VERSION);
+        out.write(hello.array(), hello.position(), hello.remaining());
+        out.flush();
+
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        assertEquals(Constants.PROTOCOL_MAGIC, in.readInt());
+        in.readInt();
+        return socket;
+    }
+
+    /**
+     * Waits for threads left over from a previous run to exit.
+     *
+     * @return The stable platform thread count
+     * @throws InterruptedException If the wait is interrupted
+     */
+    private int awaitStableThreadCount() throws InterruptedException {
+        int previous = -1;
+        int current = ManagementFactory.getThreadMXBean().getThreadCount();
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (current != previous && System.currentTimeMillis() < deadline) {
+            Thread.sleep(500);
+            previous = current;
+            current = ManagementFactory.getThreadMXBean().getThreadCount();
+        }
+        return current;
+    }
+
+    /**
+     * Gets the used heap after a garbage collection.
+     *
+     * @return The used heap in bytes
+     */
+    private long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Gets the resident set size of the process, which includes thread stacks.
+     *
+     * @return The resident set size in bytes, or 0 if it is not available on this platform
+     */
+    private long residentSetSize() {
+        Path status = Paths.get("/proc/self/status");
+        if (!Files.exists(status)) {
+            return 0;
+        }
+        try {
+            for (String line : Files.readAllLines(status)) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Error reading resident memory: " + e.getMessage());
+        }
+        return 0;
+    }
+}
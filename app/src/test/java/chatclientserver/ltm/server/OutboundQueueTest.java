@@ -0,0 +1,296 @@
+package chatclientserver.ltm.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import chatclientserver.ltm.protocol.MessageChannel;
+import chatclientserver.ltm.protocol.SharedFrame;
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Tests for the OutboundQueue class.
+ */
+public class OutboundQueueTest {
+    private static final int CAPACITY = 2;
+
+    private ExecutorService writer;
+    private StalledChannel channel;
+    private CountDownLatch disconnected;
+
+    @BeforeEach
+    public void setUp() {
+        writer = Executors.newCachedThreadPool();
+        channel = new StalledChannel();
+        disconnected = new CountDownLatch(1);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        channel.release.countDown();
+        writer.shutdownNow();
+    }
+
+    @Test
+    public void testFramesAreDeliveredInOrder() throws Exception {
+        OutboundQueue queue = createQueue(Constants.SLOW_CONSUMER_DROP, 8);
+        channel.release.countDown();
+
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(offer(queue, i));
+        }
+
+        assertEquals(List.of(1, 2, 3, 4, 5), channel.awaitPayloads(5));
+    }
+
+    @Test
+    public void testFramesAreReleasedAfterWriteOrDrop() throws Exception {
+        OutboundQueue queue = fillWhileStalled(Constants.SLOW_CONSUMER_COALESCE);
+        SharedFrame frame = new SharedFrame(Constants.MESSAGE_TYPE_TEXT, 4);
+
+        assertTrue(queue.offer(frame));
+        assertEquals(2, frame.refCount());
+        frame.release();
+
+        channel.release.countDown();
+        assertEquals(List.of(1, 3, 4), channel.awaitPayloads(3));
+        awaitReleased(frame);
+        assertEquals(0, frame.refCount());
+    }
+
+    @Test
+    public void testDropPolicyDropsNewFrames() throws Exception {
+        OutboundQueue queue = fillWhileStalled(Constants.SLOW_CONSUMER_DROP);
+
+        assertFalse(offer(queue, 4));
+        assertEquals(1L, queue.getDroppedFrames());
+
+        channel.release.countDown();
+        assertEquals(List.of(1, 2, 3), channel.awaitPayloads(3));
+    }
+
+    @Test
+    public void testCoalescePolicyKeepsNewestFrames() throws Exception {
+        OutboundQueue queue = fillWhileStalled(Constants.SLOW_CONSUMER_COALESCE);
+
+        assertTrue(offer(queue, 4));
+        assertEquals(1L, queue.getDroppedFrames());
+
+        channel.release.countDown();
+        assertEquals(List.of(1, 3, 4), channel.awaitPayloads(3));
+    }
+
+    @Test
+    public void testDisconnectPolicyDisconnectsClient() throws Exception {
+        OutboundQueue queue = fillWhileStalled(Constants.SLOW_CONSUMER_DISCONNECT);
+
+        assertFalse(offer(queue, 4));
+        assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+
+        // A disconnected queue accepts nothing more
+        assertFalse(offer(queue, 5));
+    }
+
+    @Test
+    public void testRepliesBypassTheSlowConsumerPolicy() throws Exception {
+        OutboundQueue dropping = fillWhileStalled(Constants.SLOW_CONSUMER_DROP);
+        assertTrue(reply(dropping, 10));
+        assertEquals(0L, dropping.getDroppedFrames());
+        channel.release.countDown();
+        assertEquals(List.of(1, 2, 3, 10), channel.awaitPayloads(4));
+    }
+
+    @Test
+    public void testCoalescingKeepsQueuedReplies() throws Exception {
+        OutboundQueue queue = createQueue(Constants.SLOW_CONSUMER_COALESCE, CAPACITY);
+        assertTrue(offer(queue, 1));
+        assertTrue(channel.writing.await(5, TimeUnit.SECONDS));
+        assertTrue(reply(queue, 10));
+        assertTrue(offer(queue, 2));
+
+        // The broadcast behind the reply is dropped, not the reply
+        assertTrue(offer(queue, 3));
+        assertEquals(1L, queue.getDroppedFrames());
+
+        // A later reply is kept too; the broadcast between the replies goes
+        assertTrue(reply(queue, 11));
+        assertTrue(offer(queue, 4));
+        assertEquals(2L, queue.getDroppedFrames());
+        channel.release.countDown();
+        assertEquals(List.of(1, 10, 11, 4), channel.awaitPayloads(4));
+    }
+
+    @Test
+    public void testClientThatStopsReadingRepliesIsDisconnected() throws Exception {
+        OutboundQueue queue = fillWhileStalled(Constants.SLOW_CONSUMER_DROP);
+        assertTrue(reply(queue, 10));
+        assertTrue(reply(queue, 11));
+        assertEquals(2 * CAPACITY, queue.size());
+
+        assertFalse(reply(queue, 12));
+        assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testQueueIsIdleOnceEverythingIsWritten() throws Exception {
+        OutboundQueue queue = fillWhileStalled(Constants.SLOW_CONSUMER_DROP);
+        assertFalse(queue.isIdle());
+
+        channel.release.countDown();
+        assertEquals(List.of(1, 2, 3), channel.awaitPayloads(3));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!queue.isIdle() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(queue.isIdle());
+    }
+
+    @Test
+    public void testFramesLeavingTheQueueAreReportedInOrder() throws Exception {
+        List<Object> dequeued = new CopyOnWriteArrayList<>();
+        OutboundQueue queue = createQueue(Constants.SLOW_CONSUMER_DROP, CAPACITY);
+        queue.setDequeuedListener(frame -> dequeued.add(frame.getPayload()));
+        assertTrue(offer(queue, 1));
+        assertTrue(channel.writing.await(5, TimeUnit.SECONDS));
+        assertTrue(offer(queue, 2));
+        assertTrue(offer(queue, 3));
+
+        // Frames discarded by closing the queue are reported after the one being written
+        queue.close();
+        assertEquals(List.of(1, 2, 3), dequeued);
+    }
+
+    /**
+     * Offers a frame to a queue, giving back the caller's reference like a broadcast does.
+     *
+     * @param queue The queue
+     * @param payload The payload
+     * @return true if the frame was queued
+     */
+    private boolean offer(OutboundQueue queue, int payload) {
+        SharedFrame frame = new SharedFrame(Constants.MESSAGE_TYPE_TEXT, payload);
+        try {
+            return queue.offer(frame);
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Offers a reply to a queue, giving back the caller's reference like a client handler does.
+     *
+     * @param queue The queue
+     * @param payload The payload
+     * @return true if the reply was queued
+     */
+    private boolean reply(OutboundQueue queue, int payload) {
+        SharedFrame frame = new SharedFrame(Constants.MESSAGE_TYPE_ACK, 1, payload);
+        try {
+            return queue.offerReply(frame);
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Waits until the queue has given back its reference to a frame.
+     *
+     * @param frame The frame
+     * @throws InterruptedException If interrupted while waiting
+     */
+    private void awaitReleased(SharedFrame frame) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (frame.refCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Creates a queue over the stalled channel.
+     *
+     * @param policy The slow-consumer policy
+     * @param capacity The queue capacity
+     * @return The queue
+     */
+    private OutboundQueue createQueue(String policy, int capacity) {
+        return new OutboundQueue(channel, writer, capacity, policy, disconnected::countDown, () -> false);
+    }
+
+    /**
+     * Creates a queue whose writer is stuck on frame 1 and whose queue holds frames 2 and 3.
+     *
+     * @param policy The slow-consumer policy
+     * @return The full queue
+     * @throws InterruptedException If interrupted while waiting for the writer
+     */
+    private OutboundQueue fillWhileStalled(String policy) throws InterruptedException {
+        OutboundQueue queue = createQueue(policy, CAPACITY);
+        assertTrue(offer(queue, 1));
+        assertTrue(channel.writing.await(5, TimeUnit.SECONDS));
+
+        assertTrue(offer(queue, 2));
+        assertTrue(offer(queue, 3));
+        assertEquals(CAPACITY, queue.size());
+        return queue;
+    }
+
+    /**
+     * Channel whose writes block until released, like a client that stopped reading.
+     */
+    private static class StalledChannel implements MessageChannel {
+        private final CountDownLatch writing = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final List<Object> payloads = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void writeFrame(int type, int requestId, Object payload) {
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            payloads.add(payload);
+        }
+
+        @Override
+        public void writeFrame(SharedFrame frame) {
+            writeFrame(frame.getType(), frame.getRequestId(), frame.getPayload());
+        }
+
+        /**
+         * Waits until the specified number of payloads has been written.
+         *
+         * @param count The number of payloads
+         * @return The written payloads
+         * @throws InterruptedException If interrupted while waiting
+         */
+        List<Object> awaitPayloads(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (payloads.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            return payloads;
+        }
+
+        @Override
+        public int getProtocolVersion() {
+            return Constants.PROTOCOL_VERSION;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
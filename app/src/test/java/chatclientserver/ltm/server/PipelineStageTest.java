@@ -0,0 +1,169 @@
+package chatclientserver.ltm.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the PipelineStage and MessagePipeline classes.
+ */
+public class PipelineStageTest {
+    private final List<PipelineStage> stages = new ArrayList<>();
+
+    @AfterEach
+    public void tearDown() {
+        for (PipelineStage stage : stages) {
+            stage.shutdown(System.nanoTime());
+        }
+    }
+
+    @Test
+    public void testEachLaneKeepsItsTasksInOrder() throws Exception {
+        PipelineStage stage = createStage(4, 64);
+        List<List<Integer>> seen = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(3 * 20);
+
+        for (int lane = 0; lane < 3; lane++) {
+            seen.add(new CopyOnWriteArrayList<>());
+        }
+        List<PipelineStage.Lane> lanes = List.of(stage.newLane(), stage.newLane(), stage.newLane());
+        for (int i = 0; i < 20; i++) {
+            for (int lane = 0; lane < 3; lane++) {
+                int value = i;
+                List<Integer> values = seen.get(lane);
+                assertTrue(lanes.get(lane).submit(() -> {
+                    values.add(value);
+                    done.countDown();
+                }));
+            }
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (List<Integer> values : seen) {
+            for (int i = 0; i < 20; i++) {
+                assertEquals(i, values.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testFullStageHoldsBackSubmitters() throws Exception {
+        PipelineStage stage = createStage(1, 2);
+        CountDownLatch release = new CountDownLatch(1);
+        PipelineStage.Lane lane = stage.newLane();
+        Runnable stalled = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+
+        lane.submit(stalled);
+        lane.submit(stalled);
+        assertEquals(2, stage.getDepth());
+
+        // A third task waits for room, as a session's reads would
+        CountDownLatch submitted = new CountDownLatch(1);
+        Thread submitter = new Thread(() -> {
+            try {
+                stage.newLane().submit(() -> { });
+                submitted.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        submitter.start();
+        assertFalse(submitted.await(100, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+        assertTrue(submitted.await(5, TimeUnit.SECONDS));
+        awaitProcessed(stage, 3);
+        assertEquals(0, stage.getDepth());
+        assertEquals(3, stage.getQueueLatency().getCount());
+        assertTrue(stage.getServiceLatency().getMaxMicros() >= TimeUnit.MILLISECONDS.toMicros(100));
+    }
+
+    @Test
+    public void testFailedTaskDoesNotStopTheLane() throws Exception {
+        PipelineStage stage = createStage(1, 8);
+        PipelineStage.Lane lane = stage.newLane();
+        CountDownLatch done = new CountDownLatch(1);
+
+        lane.submit(() -> {
+            throw new IllegalStateException("boom");
+        });
+        lane.submit(done::countDown);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        awaitProcessed(stage, 2);
+        assertEquals(1, stage.getFailed());
+        assertEquals(0, stage.getDepth());
+    }
+
+    @Test
+    public void testStoppedStageRefusesTasks() throws Exception {
+        PipelineStage stage = createStage(1, 8);
+        PipelineStage.Lane lane = stage.newLane();
+        CountDownLatch done = new CountDownLatch(1);
+        lane.submit(done::countDown);
+
+        assertTrue(stage.shutdown(System.nanoTime() + TimeUnit.SECONDS.toNanos(5)));
+        assertEquals(0, done.getCount());
+        assertFalse(lane.submit(() -> { }));
+    }
+
+    @Test
+    public void testPipelineStagesAreSizedByConfig() {
+        ServerConfig config = new ServerConfig();
+        config.setDecryptThreads(3);
+        config.setPersistThreads(5);
+        config.setStageQueueCapacity(16);
+        MessagePipeline pipeline = new MessagePipeline(config);
+        stages.addAll(pipeline.getStages());
+
+        assertEquals(List.of("decrypt", "search", "reply", "persist"),
+                pipeline.getStages().stream().map(PipelineStage::getName).toList());
+        for (PipelineStage stage : pipeline.getStages()) {
+            assertEquals(16, stage.getCapacity());
+        }
+        assertTrue(pipeline.toString().contains("persist [depth=0/16"));
+    }
+
+    /**
+     * Creates a stage that is shut down after the test.
+     *
+     * @param threads The number of worker threads
+     * @param capacity The capacity of the stage
+     * @return The stage
+     */
+    private PipelineStage createStage(int threads, int capacity) {
+        PipelineStage stage = new PipelineStage("test", threads, capacity);
+        stages.add(stage);
+        return stage;
+    }
+
+    /**
+     * Waits until a stage has finished a number of tasks.
+     *
+     * @param stage The stage
+     * @param count The number of tasks
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    private void awaitProcessed(PipelineStage stage, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (stage.getProcessed() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, stage.getProcessed());
+    }
+}
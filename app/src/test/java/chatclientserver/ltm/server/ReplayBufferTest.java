@@ -0,0 +1,80 @@
+package chatclientserver.ltm.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Tests for the ReplayBuffer class.
+ */
+public class ReplayBufferTest {
+
+    @Test
+    public void testMessagesAreNumberedFromOne() {
+        ReplayBuffer buffer = new ReplayBuffer(4);
+        assertEquals(0L, buffer.getLastSequence());
+
+        assertEquals(1L, buffer.append(Constants.MESSAGE_TYPE_TEXT, "a"));
+        assertEquals(2L, buffer.append(Constants.MESSAGE_TYPE_DIRECT, "b"));
+        assertEquals(2L, buffer.getLastSequence());
+    }
+
+    @Test
+    public void testSinceReturnsLaterMessagesOldestFirst() {
+        ReplayBuffer buffer = new ReplayBuffer(4);
+        for (String payload : List.of("a", "b", "c")) {
+            buffer.append(Constants.MESSAGE_TYPE_TEXT, payload);
+        }
+
+        assertEquals(List.of("b", "c"), payloads(buffer.since(1)));
+        assertEquals(List.of("a", "b", "c"), payloads(buffer.since(0)));
+        assertTrue(buffer.since(3).isEmpty());
+        assertEquals(0L, buffer.missedBefore(0));
+    }
+
+    @Test
+    public void testFullBufferForgetsOldestMessages() {
+        ReplayBuffer buffer = new ReplayBuffer(2);
+        for (String payload : List.of("a", "b", "c", "d")) {
+            buffer.append(Constants.MESSAGE_TYPE_TEXT, payload);
+        }
+
+        assertEquals(List.of("c", "d"), payloads(buffer.since(0)));
+        assertTrue(buffer.getEvictedThroughMillis() > 0);
+
+        // A client that has 1 message missed 2, 3 and 4, of which only 3 and 4 are still kept
+        assertEquals(1L, buffer.missedBefore(1));
+        assertEquals(2L, buffer.missedBefore(0));
+        assertEquals(0L, buffer.missedBefore(2));
+        assertEquals(0L, buffer.missedBefore(4));
+    }
+
+    @Test
+    public void testOnlyChatAndDirectMessagesAreReplayed() {
+        assertTrue(ReplayBuffer.isReplayed(Constants.MESSAGE_TYPE_TEXT));
+        assertTrue(ReplayBuffer.isReplayed(Constants.MESSAGE_TYPE_DIRECT));
+        assertFalse(ReplayBuffer.isReplayed(Constants.MESSAGE_TYPE_ACK));
+        assertFalse(ReplayBuffer.isReplayed(Constants.MESSAGE_TYPE_SESSION_TOKEN));
+    }
+
+    /**
+     * Gets the payloads of replay buffer entries.
+     *
+     * @param entries The entries
+     * @return The payloads, in order
+     */
+    private List<Object> payloads(List<ReplayBuffer.Entry> entries) {
+        List<Object> payloads = new ArrayList<>();
+        for (ReplayBuffer.Entry entry : entries) {
+            payloads.add(entry.getPayload());
+        }
+        return payloads;
+    }
+}
@@ -0,0 +1,39 @@
+package chatclientserver.ltm.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the SerialExecutor class, run on the calling thread.
+ */
+public class SerialExecutorTest {
+    private final List<String> ran = new ArrayList<>();
+    private final SerialExecutor executor = new SerialExecutor(Runnable::run);
+
+    @Test
+    public void testTasksRunInOrder() {
+        executor.execute(() -> ran.add("a"));
+        executor.execute(() -> ran.add("b"));
+        assertEquals(List.of("a", "b"), ran);
+    }
+
+    @Test
+    public void testSuspendedTasksWaitAndResumeRunsFirstTaskAhead() {
+        // A task that is held back suspends the executor while it runs
+        executor.execute(() -> {
+            ran.add("held");
+            executor.suspend();
+            executor.execute(() -> ran.add("next"));
+        });
+        executor.execute(() -> ran.add("later"));
+        assertEquals(List.of("held"), ran);
+
+        // The held frame is handled before the frames queued behind it
+        executor.resume(() -> ran.add("resumed"));
+        assertEquals(List.of("held", "resumed", "next", "later"), ran);
+    }
+}
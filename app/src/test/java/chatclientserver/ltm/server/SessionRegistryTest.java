@@ -0,0 +1,206 @@
+package chatclientserver.ltm.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import chatclientserver.ltm.model.User;
+
+/**
+ * Tests for the SessionRegistry class.
+ */
+public class SessionRegistryTest {
+    private SessionRegistry registry;
+
+    @BeforeEach
+    public void setUp() {
+        registry = new SessionRegistry();
+    }
+
+    @Test
+    public void testRegisterAndLookup() {
+        ClientHandler client = createClient();
+
+        assertTrue(registry.register(client));
+        assertFalse(registry.register(client));
+        assertSame(client, registry.getClient(client.getClientId()));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void testJoinAndLeaveRoom() {
+        ClientHandler alice = createClient();
+        ClientHandler bob = createClient();
+        registry.register(alice);
+        registry.register(bob);
+
+        assertTrue(registry.join(alice, "team"));
+        assertTrue(registry.join(bob, "team"));
+        assertEquals(Set.of(alice, bob), registry.getRoomMembers("team"));
+        assertTrue(registry.isMember(alice.getClientId(), "team"));
+
+        assertTrue(registry.leave(alice, "team"));
+        assertFalse(registry.leave(alice, "team"));
+        assertEquals(Set.of(bob), registry.getRoomMembers("team"));
+
+        // The room disappears with its last member
+        registry.leave(bob, "team");
+        assertFalse(registry.getRoomNames().contains("team"));
+        assertTrue(registry.getRoomMembers("team").isEmpty());
+    }
+
+    @Test
+    public void testUnregisteredClientCannotJoin() {
+        ClientHandler client = createClient();
+
+        assertFalse(registry.join(client, "team"));
+        assertFalse(registry.bindUser(client, createUser(1)));
+        assertTrue(registry.getRoomMembers("team").isEmpty());
+    }
+
+    @Test
+    public void testUnregisterRemovesRoomsAndUserBinding() {
+        ClientHandler client = createClient();
+        registry.register(client);
+        registry.join(client, "team");
+        registry.join(client, "random");
+        registry.bindUser(client, createUser(7));
+
+        assertTrue(registry.unregister(client));
+        assertFalse(registry.unregister(client));
+
+        assertNull(registry.getClient(client.getClientId()));
+        assertTrue(registry.getRoomNames().isEmpty());
+        assertTrue(registry.getClientsForUser(7).isEmpty());
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void testRebindingMovesClientToNewUser() {
+        ClientHandler first = createClient();
+        ClientHandler second = createClient();
+        registry.register(first);
+        registry.register(second);
+
+        registry.bindUser(first, createUser(1));
+        registry.bindUser(second, createUser(1));
+        assertEquals(Set.of(first, second), registry.getClientsForUser(1));
+
+        registry.bindUser(first, createUser(2));
+        assertEquals(Set.of(second), registry.getClientsForUser(1));
+        assertEquals(Set.of(first), registry.getClientsForUser(2));
+    }
+
+    @Test
+    public void testLookupByUsername() {
+        ClientHandler desktop = createClient();
+        ClientHandler laptop = createClient();
+        registry.register(desktop);
+        registry.register(laptop);
+        registry.bindUser(desktop, createUser(3));
+        registry.bindUser(laptop, createUser(3));
+
+        assertEquals(Set.of(desktop, laptop), registry.getClientsForUsername("User3"));
+        assertTrue(registry.getClientsForUsername("user4").isEmpty());
+
+        // The name stays resolvable until the user's last session is gone
+        registry.unregister(desktop);
+        assertEquals(Set.of(laptop), registry.getClientsForUsername("user3"));
+        registry.unregister(laptop);
+        assertTrue(registry.getClientsForUsername("user3").isEmpty());
+    }
+
+    @Test
+    public void testChurnLeavesNoStaleMembers() throws Exception {
+        int threads = 8;
+        int clientsPerThread = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<ClientHandler> survivors = new ArrayList<>();
+
+        try {
+            for (int t = 0; t < threads; t++) {
+                List<ClientHandler> clients = new ArrayList<>();
+                for (int i = 0; i < clientsPerThread; i++) {
+                    clients.add(createClient());
+                }
+                survivors.add(clients.get(0));
+
+                // Every thread registers, joins and unregisters its clients while others iterate the room
+                executor.execute(() -> {
+                    awaitQuietly(start);
+                    for (ClientHandler client : clients) {
+                        registry.register(client);
+                        registry.join(client, "busy");
+                        registry.bindUser(client, createUser(42));
+                        for (ClientHandler member : registry.getRoomMembers("busy")) {
+                            member.getClientId();
+                        }
+                    }
+                    for (ClientHandler client : clients.subList(1, clients.size())) {
+                        registry.unregister(client);
+                    }
+                });
+            }
+
+            start.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(threads, registry.size());
+        assertEquals(Set.copyOf(survivors), registry.getRoomMembers("busy"));
+        assertEquals(Set.copyOf(survivors), registry.getClientsForUser(42));
+    }
+
+    /**
+     * Creates a client handler that is not connected to anything.
+     *
+     * @return The client handler
+     */
+    private ClientHandler createClient() {
+        return new ClientHandler(new Socket(), ChatServer.getInstance());
+    }
+
+    /**
+     * Creates a user whose username is derived from its ID.
+     *
+     * @param id The user ID
+     * @return The user
+     */
+    private User createUser(int id) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername("user" + id);
+        return user;
+    }
+
+    /**
+     * Waits for a latch, restoring the interrupt flag if interrupted.
+     *
+     * @param latch The latch
+     */
+    private void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package chatclientserver.ltm.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the TimerWheel class.
+ */
+public class TimerWheelTest {
+    private TimerWheel wheel;
+
+    @BeforeEach
+    public void setUp() {
+        // A small wheel, so that most delays need more than one turn
+        wheel = new TimerWheel("test-wheel", 5, 4);
+        wheel.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        wheel.stop();
+    }
+
+    @Test
+    public void testTimeoutsRunInDeadlineOrderAndNeverEarly() throws Exception {
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        long start = System.nanoTime();
+        long[] firedAfter = new long[3];
+
+        int[] delays = {120, 20, 60};
+        for (int i = 0; i < delays.length; i++) {
+            int index = i;
+            wheel.schedule(() -> {
+                firedAfter[index] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                order.add(delays[index]);
+                done.countDown();
+            }, delays[i], TimeUnit.MILLISECONDS);
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(20, 60, 120), order);
+        for (int i = 0; i < delays.length; i++) {
+            assertTrue(firedAfter[i] >= delays[i], "Timeout of " + delays[i] + " ms fired after " + firedAfter[i] + " ms");
+        }
+    }
+
+    @Test
+    public void testCancelledTimeoutDoesNotRun() throws Exception {
+        CountDownLatch cancelledRan = new CountDownLatch(1);
+        CountDownLatch laterRan = new CountDownLatch(1);
+
+        TimerWheel.Timeout timeout = wheel.schedule(cancelledRan::countDown, 30, TimeUnit.MILLISECONDS);
+        wheel.schedule(laterRan::countDown, 60, TimeUnit.MILLISECONDS);
+        timeout.cancel();
+
+        assertTrue(laterRan.await(5, TimeUnit.SECONDS));
+        assertFalse(cancelledRan.await(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testTaskCanRescheduleItself() throws Exception {
+        CountDownLatch runs = new CountDownLatch(5);
+        Runnable[] task = new Runnable[1];
+        task[0] = () -> {
+            runs.countDown();
+            if (runs.getCount() > 0) {
+                wheel.schedule(task[0], 10, TimeUnit.MILLISECONDS);
+            }
+        };
+        wheel.schedule(task[0], 10, TimeUnit.MILLISECONDS);
+
+        assertTrue(runs.await(5, TimeUnit.SECONDS));
+    }
+}
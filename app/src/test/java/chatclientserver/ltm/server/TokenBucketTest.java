@@ -0,0 +1,99 @@
+package chatclientserver.ltm.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the TokenBucket class, driven by a manual clock.
+ */
+public class TokenBucketTest {
+    private AtomicLong now;
+
+    @BeforeEach
+    public void setUp() {
+        now = new AtomicLong();
+    }
+
+    @Test
+    public void testBurstThenRefill() {
+        TokenBucket bucket = new TokenBucket(10, 5, now::get);
+
+        // A full bucket allows the whole burst at once
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.tryAcquire(1));
+        }
+        assertFalse(bucket.tryAcquire(1));
+
+        // One token comes back every 100 ms
+        advance(99);
+        assertFalse(bucket.tryAcquire(1));
+        advance(1);
+        assertTrue(bucket.tryAcquire(1));
+        assertFalse(bucket.tryAcquire(1));
+    }
+
+    @Test
+    public void testRefillStopsAtCapacity() {
+        TokenBucket bucket = new TokenBucket(10, 5, now::get);
+        bucket.tryAcquire(5);
+
+        advance(10_000);
+        assertEquals(5.0, bucket.getAvailableTokens(), 0.001);
+    }
+
+    @Test
+    public void testRejectedRequestTakesNothing() {
+        TokenBucket bucket = new TokenBucket(10, 5, now::get);
+        bucket.tryAcquire(4);
+
+        assertFalse(bucket.tryAcquire(2));
+        assertTrue(bucket.tryAcquire(1));
+    }
+
+    @Test
+    public void testAcquireReturnsWaitAndSpacesRequests() {
+        TokenBucket bucket = new TokenBucket(10, 2, now::get);
+
+        assertEquals(0, bucket.acquire(1));
+        assertEquals(0, bucket.acquire(1));
+
+        // Each further request waits one more refill interval
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), bucket.acquire(1));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(200), bucket.acquire(1));
+
+        // Once the debt has been paid off the bucket fills up again
+        advance(400);
+        assertEquals(0, bucket.acquire(1));
+    }
+
+    @Test
+    public void testOversizedRequestNeedsFullBucket() {
+        TokenBucket bucket = new TokenBucket(100, 50, now::get);
+
+        // Larger than the capacity, but granted because the bucket is full
+        assertTrue(bucket.tryAcquire(150));
+        assertEquals(-100.0, bucket.getAvailableTokens(), 0.001);
+
+        // The debt is paid off before anything else is allowed
+        advance(1000);
+        assertFalse(bucket.tryAcquire(1));
+        advance(10);
+        assertTrue(bucket.tryAcquire(1));
+    }
+
+    /**
+     * Moves the manual clock forward.
+     *
+     * @param millis The time to advance in milliseconds
+     */
+    private void advance(long millis) {
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+}
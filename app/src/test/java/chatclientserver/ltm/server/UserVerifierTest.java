@@ -0,0 +1,67 @@
+package chatclientserver.ltm.server;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import chatclientserver.ltm.model.User;
+
+/**
+ * Tests for the UserVerifier class, checking claims against an in-memory store.
+ */
+public class UserVerifierTest {
+    private final Map<Integer, User> stored = new HashMap<>();
+    private final UserVerifier verifier = new UserVerifier(stored::get);
+
+    @Test
+    public void testMatchingClaimGivesStoredUser() {
+        User alice = createUser(1, "alice", "hash-a");
+        stored.put(1, alice);
+
+        assertSame(alice, verifier.verify(createUser(1, "alice", "hash-a")));
+    }
+
+    @Test
+    public void testClaimOfAnotherUsersIdIsRejected() {
+        stored.put(1, createUser(1, "alice", "hash-a"));
+        stored.put(2, createUser(2, "mallory", "hash-m"));
+
+        // Mallory's own credentials with Alice's ID
+        assertNull(verifier.verify(createUser(1, "mallory", "hash-m")));
+        // Alice's ID and name without her password hash
+        assertNull(verifier.verify(createUser(1, "alice", "hash-m")));
+        assertNull(verifier.verify(createUser(1, "alice", null)));
+        // An ID that does not exist
+        assertNull(verifier.verify(createUser(3, "alice", "hash-a")));
+        assertNull(verifier.verify(null));
+    }
+
+    @Test
+    public void testUnavailableStoreRejects() {
+        UserVerifier failing = new UserVerifier(id -> {
+            throw new IllegalStateException("no database");
+        });
+
+        assertNull(failing.verify(createUser(1, "alice", "hash-a")));
+    }
+
+    /**
+     * Creates a user.
+     *
+     * @param id The user ID
+     * @param username The username
+     * @param passwordHash The password hash
+     * @return The user
+     */
+    private User createUser(int id, String username, String passwordHash) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername(username);
+        user.setPasswordHash(passwordHash);
+        return user;
+    }
+}
@@ -0,0 +1,205 @@
+package chatclientserver.ltm.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import chatclientserver.ltm.client.ChatClient;
+import chatclientserver.ltm.util.Constants;
+
+/**
+ * Load test comparing write batching against one flush per frame.
+ * A client pipelines bursts of key exchange requests, which the server echoes,
+ * and the test reports the write system calls of the process (client and
+ * server together) and the request latency percentiles for each setting.
+ *
+ * Run with: ./gradlew loadTest (-DloadTest.bursts=N and -DloadTest.burstSize=N to change the load)
+ */
+@Tag("load")
+public class WriteBatchingLoadTest {
+    private static final int BURSTS = Integer.getInteger("loadTest.bursts", 200);
+    private static final int BURST_SIZE = Integer.getInteger("loadTest.burstSize", 50);
+    private static final int PORT = 18889;
+
+    @Test
+    public void testBlockingTransport() throws Exception {
+        Result unbatched = runLoad(Constants.TRANSPORT_BLOCKING, 0);
+        Result batched = runLoad(Constants.TRANSPORT_BLOCKING, Constants.DEFAULT_MAX_BATCH_BYTES);
+        report(Constants.TRANSPORT_BLOCKING, unbatched, batched);
+    }
+
+    @Test
+    public void testNioTransport() throws Exception {
+        Result unbatched = runLoad(Constants.TRANSPORT_NIO, 0);
+        Result batched = runLoad(Constants.TRANSPORT_NIO, Constants.DEFAULT_MAX_BATCH_BYTES);
+        report(Constants.TRANSPORT_NIO, unbatched, batched);
+    }
+
+    /**
+     * Starts the server and a client with the given batch size and measures the pipelined bursts.
+     *
+     * @param transport The server transport
+     * @param maxBatchBytes The maximum batch size on both sides, or 0 to flush every frame
+     * @return The measurements
+     * @throws Exception If the server cannot be started or a request fails
+     */
+    private Result runLoad(String transport, int maxBatchBytes) throws Exception {
+        ChatServer server = ChatServer.getInstance();
+        server.getConfig().setTransport(transport);
+        server.getConfig().setMaxBatchBytes(maxBatchBytes);
+        System.setProperty("chat.client.batchBytes", String.valueOf(maxBatchBytes));
+
+        server.start(PORT);
+        ChatClient client = new ChatClient();
+        PrintStream console = System.out;
+        try {
+            assertTrue(client.connect("localhost", PORT), "Could not connect: " + client.getLastErrorMessage());
+            assertTrue(client.hasRequestIds());
+
+            // The server logs every request; keep the console out of the write count
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+            // Warm up the connection and both code paths
+            runBursts(client, BURSTS / 10);
+
+            long writesBefore = writeSyscalls();
+            long start = System.nanoTime();
+            long[] latencies = runBursts(client, BURSTS);
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            long writes = writeSyscalls() - writesBefore;
+
+            Arrays.sort(latencies);
+            return new Result(writes, elapsedMillis, percentile(latencies, 50), percentile(latencies, 99));
+        } finally {
+            System.setOut(console);
+            System.clearProperty("chat.client.batchBytes");
+            client.disconnect();
+            server.stop();
+            server.getConfig().setMaxBatchBytes(Constants.DEFAULT_MAX_BATCH_BYTES);
+        }
+    }
+
+    /**
+     * Sends bursts of pipelined requests, waiting for each burst before sending the next.
+     *
+     * @param client The connected client
+     * @param bursts The number of bursts
+     * @return The latency of every request in nanoseconds
+     * @throws Exception If a request fails or times out
+     */
+    private long[] runBursts(ChatClient client, int bursts) throws Exception {
+        long[] latencies = new long[bursts * BURST_SIZE];
+        for (int burst = 0; burst < bursts; burst++) {
+            List<CompletableFuture<String>> replies = new ArrayList<>();
+            for (int i = 0; i < BURST_SIZE; i++) {
+                int index = burst * BURST_SIZE + i;
+                String key = "KEY" + index;
+                long sent = System.nanoTime();
+                replies.add(client.sendKeyExchangeAsync(key).whenComplete((reply, error) ->
+                        latencies[index] = System.nanoTime() - sent));
+            }
+            for (int i = 0; i < BURST_SIZE; i++) {
+                assertEquals("KEY" + (burst * BURST_SIZE + i), replies.get(i).get(10, TimeUnit.SECONDS));
+            }
+        }
+        return latencies;
+    }
+
+    /**
+     * Prints the measurements of both settings side by side.
+     *
+     * @param transport The server transport
+     * @param unbatched The measurements with one flush per frame
+     * @param batched The measurements with write batching
+     */
+    private void report(String transport, Result unbatched, Result batched) {
+        int requests = BURSTS * BURST_SIZE;
+        System.out.println("=== " + transport + " transport, " + BURSTS + " bursts of " + BURST_SIZE + " requests ===");
+        System.out.println("  one flush per frame: " + unbatched.format(requests));
+        System.out.println("  batched writes:      " + batched.format(requests));
+    }
+
+    /**
+     * Gets a percentile of sorted values.
+     *
+     * @param sorted The values in ascending order
+     * @param percentile The percentile (0-100)
+     * @return The value at the percentile
+     */
+    private long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+
+    /**
+     * Gets the number of write system calls made by the process so far.
+     *
+     * @return The write system call count, or 0 if it is not available on this platform
+     */
+    private long writeSyscalls() {
+        Path io = Paths.get("/proc/self/io");
+        if (!Files.exists(io)) {
+            return 0;
+        }
+        try {
+            for (String line : Files.readAllLines(io)) {
+                if (line.startsWith("syscw:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Error reading write system calls: " + e.getMessage());
+        }
+        return 0;
+    }
+
+    /**
+     * Measurements of one run.
+     */
+    private static class Result {
+        private final long writes;
+        private final long elapsedMillis;
+        private final long p50Nanos;
+        private final long p99Nanos;
+
+        /**
+         * Constructs a Result.
+         *
+         * @param writes The write system calls made during the run
+         * @param elapsedMillis The duration of the run in milliseconds
+         * @param p50Nanos The median request latency in nanoseconds
+         * @param p99Nanos The 99th percentile request latency in nanoseconds
+         */
+        Result(long writes, long elapsedMillis, long p50Nanos, long p99Nanos) {
+            this.writes = writes;
+            this.elapsedMillis = elapsedMillis;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+        }
+
+        /**
+         * Formats the measurements for the report.
+         *
+         * @param requests The number of requests in the run
+         * @return The formatted measurements
+         */
+        String format(int requests) {
+            return String.format("%7d writes (%.2f per request), %5d ms, p50 %6d us, p99 %6d us",
+                    writes, (double) writes / requests, elapsedMillis, p50Nanos / 1000, p99Nanos / 1000);
+        }
+    }
+}
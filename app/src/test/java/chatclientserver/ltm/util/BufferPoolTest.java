@@ -0,0 +1,135 @@
+package chatclientserver.ltm.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the BufferPool class.
+ */
+public class BufferPoolTest {
+    private static final int MIN_SIZE = 1024;
+    private static final int MAX_SIZE = 16 * 1024;
+
+    @Test
+    public void testRequestsAreServedFromTheSmallestClassThatFits() {
+        BufferPool pool = new BufferPool(MIN_SIZE, MAX_SIZE, 64 * 1024);
+
+        assertEquals(0, pool.sizeClassOf(1));
+        assertEquals(0, pool.sizeClassOf(MIN_SIZE));
+        assertEquals(1, pool.sizeClassOf(MIN_SIZE + 1));
+        assertEquals(4, pool.sizeClassOf(MAX_SIZE));
+        assertEquals(-1, pool.sizeClassOf(MAX_SIZE + 1));
+
+        BufferPool.PooledBuffer pooled = pool.acquire(3000);
+        ByteBuffer buffer = pooled.buffer();
+        assertTrue(buffer.isDirect());
+        assertEquals(4096, buffer.capacity());
+        assertEquals(0, buffer.position());
+        assertEquals(3000, buffer.limit());
+        pooled.release();
+    }
+
+    @Test
+    public void testReleasedBuffersAreReused() {
+        BufferPool pool = new BufferPool(MIN_SIZE, MAX_SIZE, 64 * 1024);
+
+        BufferPool.PooledBuffer first = pool.acquire(100);
+        ByteBuffer buffer = first.buffer();
+        buffer.put((byte) 1);
+        assertEquals(1, pool.getOutstanding());
+        first.release();
+        assertEquals(0, pool.getOutstanding());
+        assertEquals(1, pool.getPooled());
+
+        BufferPool.PooledBuffer second = pool.acquire(MIN_SIZE);
+        assertSame(buffer, second.buffer());
+        assertEquals(0, second.buffer().position());
+        assertEquals(0.5, pool.getHitRate(), 1e-9);
+        second.release();
+    }
+
+    @Test
+    public void testOversizedRequestsAreNotPooled() {
+        BufferPool pool = new BufferPool(MIN_SIZE, MAX_SIZE, 64 * 1024);
+
+        BufferPool.PooledBuffer pooled = pool.acquire(MAX_SIZE + 1);
+        assertFalse(pooled.buffer().isDirect());
+        pooled.release();
+
+        assertEquals(0, pool.getPooled());
+        assertEquals(0, pool.getOutstanding());
+    }
+
+    @Test
+    public void testEachClassKeepsABoundedNumberOfBuffers() {
+        BufferPool pool = new BufferPool(MIN_SIZE, MAX_SIZE, 2 * MIN_SIZE);
+
+        BufferPool.PooledBuffer[] taken = new BufferPool.PooledBuffer[5];
+        for (int i = 0; i < taken.length; i++) {
+            taken[i] = pool.acquire(MIN_SIZE);
+        }
+        for (BufferPool.PooledBuffer pooled : taken) {
+            pooled.release();
+        }
+
+        assertEquals(2, pool.getPooled());
+        assertEquals(0, pool.getOutstanding());
+    }
+
+    @Test
+    public void testBufferCannotBeUsedAfterRelease() {
+        BufferPool pool = new BufferPool(MIN_SIZE, MAX_SIZE, 64 * 1024);
+        BufferPool.PooledBuffer pooled = pool.acquire(10);
+        pooled.release();
+
+        assertThrows(IllegalStateException.class, pooled::release);
+        assertThrows(IllegalStateException.class, pooled::buffer);
+        assertEquals(0, pool.getOutstanding());
+    }
+
+    @Test
+    public void testUnreleasedBufferIsReportedAsLeaked() throws Exception {
+        BufferPool pool = new BufferPool(MIN_SIZE, MAX_SIZE, 64 * 1024);
+        pool.acquire(10);
+        assertEquals(1, pool.getOutstanding());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getLeaked() == 0 && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, pool.getLeaked());
+        assertEquals(0, pool.getOutstanding());
+        assertEquals(0, pool.getPooled());
+    }
+
+    @Test
+    public void testFileRoundTripReturnsItsBuffers() throws Exception {
+        // Several chunks and a partial last one
+        byte[] data = new byte[Constants.FILE_CHUNK_SIZE * 3 + 123];
+        new Random(7).nextBytes(data);
+        long outstanding = BufferPool.getDefault().getOutstanding();
+
+        File written = FileUtils.writeByteArrayToFile(data, "pool-test.bin");
+        try {
+            assertArrayEquals(data, Files.readAllBytes(written.toPath()));
+            assertArrayEquals(data, FileUtils.readFileToByteArray(written));
+        } finally {
+            Files.deleteIfExists(written.toPath());
+        }
+
+        assertEquals(outstanding, BufferPool.getDefault().getOutstanding());
+    }
+}